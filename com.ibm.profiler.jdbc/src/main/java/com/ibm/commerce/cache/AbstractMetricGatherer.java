@@ -17,6 +17,11 @@ package com.ibm.commerce.cache;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -39,7 +44,9 @@ import java.util.logging.Logger;
  * This class will also ensure that metrics are ignored if the write throughput
  * isn't sufficient to keep up with the system. This will ensure that the amount
  * of memory allocated to gather metrics will be limited by the maximum pending
- * size variable.
+ * size variable. What happens to metrics once the pending buffer is full is
+ * decided by the {@link MetricOverflowPolicy}, ignored metrics are counted in
+ * {@link #getDroppedMetricCount()}.
  * <p>
  * If any exception is caught during the process of writing metrics, only one
  * exception will be reported in the logs at the warning level. Other logs will
@@ -71,6 +78,19 @@ public abstract class AbstractMetricGatherer implements DirectMetricGather {
 	 */
 	private static final long INITIAL_WRITER_MAXIMUM_SLEEP_TIME = 100;
 
+	/**
+	 * Initial maximum amount of time a thread waits for room in the pending
+	 * buffer with the {@link MetricOverflowPolicy#BLOCK} policy in
+	 * milliseconds.
+	 */
+	private static final long INITIAL_BLOCK_TIMEOUT = 1000;
+
+	/**
+	 * Initial number of metrics out of which one is kept with the
+	 * {@link MetricOverflowPolicy#SAMPLE} policy.
+	 */
+	private static final int INITIAL_SAMPLING_RATE = 10;
+
 	/**
 	 * class name
 	 */
@@ -83,11 +103,60 @@ public abstract class AbstractMetricGatherer implements DirectMetricGather {
 	private static final Logger LOGGER = LoggingHelper.getLogger(CLASS_NAME);
 
 	/**
-	 * List of pending metrics. Its size will never go above the value
-	 * configured in {@link #maximumPendingSize}. Access to this list must be
-	 * synchronized since it's being used across multiple threads.
+	 * Buffer of pending metrics. Its size will never go above the value
+	 * configured in {@link #maximumPendingSize} rounded up to a power of two.
+	 * Metrics are added without locking by the threads gathering them and
+	 * removed by the writing thread.
+	 */
+	private volatile RingBuffer<OperationMetric> pendingMetrics = new RingBuffer<OperationMetric>(
+			INITIAL_MAXIMUM_PENDING_SIZE);
+
+	/**
+	 * Buffer replaced by {@link #setMaximumPendingSize(int)}, null if none.
+	 * A gathering thread may still add a metric to it after the swap, the
+	 * writing threads keep draining it.
+	 */
+	private RingBuffer<OperationMetric> retiredPendingMetrics = null;
+
+	/**
+	 * Lock held by the writing threads while they drain the pending buffers
+	 * and while the pending buffer is swapped.
+	 */
+	private final Object pendingMetricsLock = new Object();
+
+	/**
+	 * What to do with new metrics when the pending buffer is full.
+	 */
+	private MetricOverflowPolicy overflowPolicy = MetricOverflowPolicy.BLOCK;
+
+	/**
+	 * Maximum amount of time to wait for room in the pending buffer with the
+	 * {@link MetricOverflowPolicy#BLOCK} policy.
+	 */
+	private long blockTimeout = INITIAL_BLOCK_TIMEOUT;
+
+	/**
+	 * One metric out of this rate is kept with the
+	 * {@link MetricOverflowPolicy#SAMPLE} policy when the buffer is almost
+	 * full.
+	 */
+	private int samplingRate = INITIAL_SAMPLING_RATE;
+
+	/**
+	 * Number of metrics seen while sampling.
+	 */
+	private final AtomicLong sampleCounter = new AtomicLong(0);
+
+	/**
+	 * Number of metrics that were ignored because the pending buffer was full.
+	 */
+	private final AtomicLong droppedMetricCount = new AtomicLong(0);
+
+	/**
+	 * Flag set when a gathering thread already woke the writing thread, avoids
+	 * waking it for every metric.
 	 */
-	private List<OperationMetric> pendingMetrics = new ArrayList<OperationMetric>();
+	private final AtomicBoolean writerWakeRequested = new AtomicBoolean(false);
 
 	/**
 	 * Maximum size that the {@link #pendingMetrics} list will be allowed to
@@ -120,15 +189,26 @@ public abstract class AbstractMetricGatherer implements DirectMetricGather {
 	private MetricWriterRunnable metricWriter = new MetricWriterRunnable();
 
 	/**
-	 * The metric gathering thread running {@link #metricWriter}.
+	 * The metric gathering threads running {@link #metricWriter}, created on
+	 * {@link #start()}.
+	 */
+	private volatile Thread[] metricWriterThreads = new Thread[0];
+
+	/**
+	 * Number of metric writing threads to start.
 	 */
-	private Thread metricWriterThread = new Thread(metricWriter);
+	private int writerThreadCount = 1;
+
+	/**
+	 * Number of metric writing threads that didn't exit yet.
+	 */
+	private final AtomicInteger activeWriterCount = new AtomicInteger(0);
 
 	/**
 	 * Flag indicating of the metric gatherer is running or not. It is consumed
 	 * by the {@link #metricWriter} runnable to detect when it should exit.
 	 */
-	private boolean running = false;
+	private volatile boolean running = false;
 
 	/**
 	 * Flag indicating that exceptions were caught in the metric writing thread.
@@ -172,7 +252,9 @@ public abstract class AbstractMetricGatherer implements DirectMetricGather {
 		}
 
 		while (true) {
-			CacheUtilities.waitSilently(metricWriter, writerMaximumSleepTime);
+			LockSupport.parkNanos(this,
+					TimeUnit.MILLISECONDS.toNanos(writerMaximumSleepTime));
+			writerWakeRequested.set(false);
 
 			boolean keepRunning = true;
 			while (keepRunning) {
@@ -183,7 +265,10 @@ public abstract class AbstractMetricGatherer implements DirectMetricGather {
 
 				writeMetrics();
 
-				executeBeforeBackgroundThreadStop();
+				// the last writer to exit releases the resources
+				if (activeWriterCount.decrementAndGet() == 0) {
+					executeBeforeBackgroundThreadStop();
+				}
 
 				break;
 			}
@@ -204,11 +289,11 @@ public abstract class AbstractMetricGatherer implements DirectMetricGather {
 	}
 
 	/**
-	 * this method is synchronized since it
+	 * the running flag is volatile so that gathering threads never lock.
 	 * 
 	 * @return true if the application is running
 	 */
-	public synchronized boolean isRunning() {
+	public boolean isRunning() {
 		return running;
 	}
 
@@ -216,7 +301,7 @@ public abstract class AbstractMetricGatherer implements DirectMetricGather {
 	 * @param running
 	 *            set the new running state
 	 */
-	protected synchronized void setRunning(boolean running) {
+	protected void setRunning(boolean running) {
 		this.running = running;
 	}
 
@@ -243,8 +328,16 @@ public abstract class AbstractMetricGatherer implements DirectMetricGather {
 		if (isRunning()) {
 			return;
 		}
-		metricWriterThread.start();
+		Thread[] threads = new Thread[writerThreadCount];
+		for (int i = 0; i < threads.length; ++i) {
+			threads[i] = new Thread(metricWriter);
+		}
+		metricWriterThreads = threads;
+		activeWriterCount.set(threads.length);
 		setRunning(true);
+		for (Thread thread : threads) {
+			thread.start();
+		}
 
 		if (entryExitLogEnabled) {
 			LOGGER.exiting(CLASS_NAME, METHODNAME);
@@ -268,7 +361,13 @@ public abstract class AbstractMetricGatherer implements DirectMetricGather {
 			return;
 		}
 		setRunning(false);
-		CacheUtilities.joinQuietly(metricWriterThread, threadJoinTimeout);
+		Thread[] threads = metricWriterThreads;
+		for (Thread thread : threads) {
+			LockSupport.unpark(thread);
+		}
+		for (Thread thread : threads) {
+			CacheUtilities.joinQuietly(thread, threadJoinTimeout);
+		}
 
 		if (entryExitLogEnabled) {
 			LOGGER.exiting(CLASS_NAME, METHODNAME);
@@ -298,20 +397,18 @@ public abstract class AbstractMetricGatherer implements DirectMetricGather {
 			return;
 		}
 
-		int size = 0;
-
-		boolean running = isRunning();
-
-		synchronized (pendingMetrics) {
-			size = pendingMetrics.size();
-			if (running || size >= maximumPendingSize) {
-				pendingMetrics.add(metric);
+		if (!isRunning()) {
+			if (isTraceLogEnabled) {
+				LOGGER.log(Level.FINE,
+						"Metric gatherer not running, metric ignored.");
 			}
+			return;
 		}
-		size += 1;
 
-		if (size >= pendingFlushSize) {
+		boolean added = addPendingMetric(metric);
 
+		RingBuffer<OperationMetric> buffer = pendingMetrics;
+		if (buffer.size() >= pendingFlushSize) {
 			if (isTraceLogEnabled) {
 				LOGGER.log(Level.FINE,
 						"Metric gatherer pending log list reached the write triggering size of : "
@@ -321,15 +418,13 @@ public abstract class AbstractMetricGatherer implements DirectMetricGather {
 			wakeWriteThread();
 		}
 
-		if (size >= maximumPendingSize) {
-
+		if (!added) {
+			droppedMetricCount.incrementAndGet();
 			if (isTraceLogEnabled) {
 				LOGGER.log(Level.FINE,
 						"Metric gatherer pending log list reached the maximum size of : "
 								+ maximumPendingSize + ". Metric ignored.");
 			}
-
-			waitForWrite();
 		}
 
 		if (entryExitLogEnabled) {
@@ -337,11 +432,53 @@ public abstract class AbstractMetricGatherer implements DirectMetricGather {
 		}
 	}
 
+	/**
+	 * Add a metric to the pending buffer, applying the overflow policy when
+	 * the buffer is full.
+	 * 
+	 * @param metric
+	 *            the metric to add.
+	 * @return false if the metric was ignored.
+	 */
+	protected boolean addPendingMetric(OperationMetric metric) {
+		RingBuffer<OperationMetric> buffer = pendingMetrics;
+		switch (overflowPolicy) {
+		case SAMPLE:
+			if (buffer.size() >= buffer.getCapacity() / 4 * 3
+					&& sampleCounter.incrementAndGet() % samplingRate != 0) {
+				return false;
+			}
+			return buffer.offer(metric);
+		case DROP_OLDEST:
+			while (!buffer.offer(metric)) {
+				if (buffer.poll() != null) {
+					droppedMetricCount.incrementAndGet();
+				}
+			}
+			return true;
+		case BLOCK:
+			if (buffer.offer(metric)) {
+				return true;
+			}
+			long deadline = System.nanoTime()
+					+ TimeUnit.MILLISECONDS.toNanos(blockTimeout);
+			do {
+				wakeWriteThread();
+				waitForWrite(deadline - System.nanoTime());
+				if (buffer.offer(metric)) {
+					return true;
+				}
+			} while (deadline - System.nanoTime() > 0);
+			return false;
+		default:
+			return buffer.offer(metric);
+		}
+	}
 
-
-	private void waitForWrite() {
+	private void waitForWrite(long timeoutNanos) {
+		long timeoutMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(timeoutNanos));
 		synchronized (bufferFullWait) {
-			CacheUtilities.waitSilently(bufferFullWait, 1000);
+			CacheUtilities.waitSilently(bufferFullWait, timeoutMillis);
 		}
 	}
 
@@ -409,8 +546,10 @@ public abstract class AbstractMetricGatherer implements DirectMetricGather {
 			LOGGER.entering(CLASS_NAME, METHODNAME);
 		}
 
-		synchronized (metricWriter) {
-			metricWriter.notify();
+		if (writerWakeRequested.compareAndSet(false, true)) {
+			for (Thread thread : metricWriterThreads) {
+				LockSupport.unpark(thread);
+			}
 		}
 
 		if (entryExitLogEnabled) {
@@ -434,15 +573,36 @@ public abstract class AbstractMetricGatherer implements DirectMetricGather {
 	 * @return a list of metrics ready to be written.
 	 */
 	protected List<OperationMetric> getPendingMetricsToWrite() {
-		List<OperationMetric> pendingMetricsToWrite = null;
+		return getPendingMetricsToWrite(pendingMetrics.getCapacity());
+	}
 
-		synchronized (pendingMetrics) {
-			pendingMetricsToWrite = new ArrayList<OperationMetric>(
-					pendingMetrics);
-			pendingMetrics.clear();
+	/**
+	 * Fetch a limited list of metrics to write. Once the metrics are returned
+	 * by this method, they are removed from the pending list. Several writer
+	 * threads may call this method concurrently, each metric is returned only
+	 * once.
+	 * 
+	 * @param maximumCount
+	 *            the maximum number of metrics to return.
+	 * @return a list of metrics ready to be written.
+	 */
+	protected List<OperationMetric> getPendingMetricsToWrite(int maximumCount) {
+		List<OperationMetric> pendingMetricsToWrite;
+		synchronized (pendingMetricsLock) {
+			RingBuffer<OperationMetric> buffer = pendingMetrics;
+			pendingMetricsToWrite = new ArrayList<OperationMetric>(Math.min(
+					buffer.size(), maximumCount));
+			if (retiredPendingMetrics != null) {
+				retiredPendingMetrics.drainTo(pendingMetricsToWrite,
+						maximumCount);
+			}
+			buffer.drainTo(pendingMetricsToWrite,
+					maximumCount - pendingMetricsToWrite.size());
 		}
 
-		notifyAllOfWrite();
+		if (overflowPolicy == MetricOverflowPolicy.BLOCK) {
+			notifyAllOfWrite();
+		}
 
 		return pendingMetricsToWrite;
 	}
@@ -509,7 +669,100 @@ public abstract class AbstractMetricGatherer implements DirectMetricGather {
 	 *            the maximum pending metric list size
 	 */
 	public void setMaximumPendingSize(int maximumPendingSize) {
-		this.maximumPendingSize = maximumPendingSize;
+		synchronized (pendingMetricsLock) {
+			this.maximumPendingSize = maximumPendingSize;
+			RingBuffer<OperationMetric> previousBuffer = pendingMetrics;
+			RingBuffer<OperationMetric> buffer = new RingBuffer<OperationMetric>(
+					maximumPendingSize);
+			if (retiredPendingMetrics != null) {
+				moveMetrics(retiredPendingMetrics, buffer);
+			}
+			moveMetrics(previousBuffer, buffer);
+			pendingMetrics = buffer;
+			retiredPendingMetrics = previousBuffer;
+		}
+	}
+
+	/**
+	 * Move the metrics of a buffer to another, counting those that don't fit
+	 * as dropped.
+	 */
+	private void moveMetrics(RingBuffer<OperationMetric> source,
+			RingBuffer<OperationMetric> target) {
+		OperationMetric metric = source.poll();
+		while (metric != null) {
+			if (!target.offer(metric)) {
+				droppedMetricCount.incrementAndGet();
+			}
+			metric = source.poll();
+		}
+	}
+
+	/**
+	 * @return the policy applied to new metrics when the pending buffer is
+	 *         full
+	 */
+	public MetricOverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	/**
+	 * @param overflowPolicy
+	 *            the policy applied to new metrics when the pending buffer is
+	 *            full
+	 */
+	public void setOverflowPolicy(MetricOverflowPolicy overflowPolicy) {
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	/**
+	 * @return the maximum time in milliseconds to wait for room in the pending
+	 *         buffer with the {@link MetricOverflowPolicy#BLOCK} policy
+	 */
+	public long getBlockTimeout() {
+		return blockTimeout;
+	}
+
+	/**
+	 * @param blockTimeout
+	 *            the maximum time in milliseconds to wait for room in the
+	 *            pending buffer with the {@link MetricOverflowPolicy#BLOCK}
+	 *            policy
+	 */
+	public void setBlockTimeout(long blockTimeout) {
+		this.blockTimeout = blockTimeout;
+	}
+
+	/**
+	 * @return one metric out of this rate is kept with the
+	 *         {@link MetricOverflowPolicy#SAMPLE} policy
+	 */
+	public int getSamplingRate() {
+		return samplingRate;
+	}
+
+	/**
+	 * @param samplingRate
+	 *            one metric out of this rate is kept with the
+	 *            {@link MetricOverflowPolicy#SAMPLE} policy
+	 */
+	public void setSamplingRate(int samplingRate) {
+		this.samplingRate = Math.max(1, samplingRate);
+	}
+
+	/**
+	 * @return the number of metrics ignored because the pending buffer was
+	 *         full
+	 */
+	public long getDroppedMetricCount() {
+		return droppedMetricCount.get();
+	}
+
+	/**
+	 * @return the approximate number of metrics waiting to be written
+	 */
+	public int getPendingMetricCount() {
+		return pendingMetrics.size();
 	}
 
 	/**
@@ -544,6 +797,41 @@ public abstract class AbstractMetricGatherer implements DirectMetricGather {
 		this.threadJoinTimeout = threadJoinTimeout;
 	}
 
+	/**
+	 * @return the number of metric writing threads
+	 */
+	public int getWriterThreadCount() {
+		return writerThreadCount;
+	}
+
+	/**
+	 * Set the number of metric writing threads, applied on the next
+	 * {@link #start()}. More than one thread is only allowed when
+	 * {@link #isConcurrentWriteSupported()} is true.
+	 * 
+	 * @param writerThreadCount
+	 *            the number of metric writing threads
+	 */
+	public void setWriterThreadCount(int writerThreadCount) {
+		int count = Math.max(1, writerThreadCount);
+		if (count > 1 && !isConcurrentWriteSupported()) {
+			LOGGER.log(Level.WARNING, getClass().getName()
+					+ " can't write metrics from several threads, using a single writer thread.");
+			count = 1;
+		}
+		this.writerThreadCount = count;
+	}
+
+	/**
+	 * Sub classes whose {@link #writeMetrics()} can run on several threads at
+	 * once override this method to return true.
+	 * 
+	 * @return true if several writer threads may be used.
+	 */
+	protected boolean isConcurrentWriteSupported() {
+		return false;
+	}
+
 	/**
 	 * log the batch size write time
 	 * 
@@ -566,11 +854,11 @@ public abstract class AbstractMetricGatherer implements DirectMetricGather {
 
 	//$ANALYSIS-IGNORE
 	/**
-	 * fetch the internal pending metrics list
+	 * fetch the internal pending metrics buffer
 	 * 
-	 * @return the pending metrics list
+	 * @return the pending metrics buffer
 	 */
-	protected List<OperationMetric> internalGetPendingMetrics() {
+	protected RingBuffer<OperationMetric> internalGetPendingMetrics() {
 	    return pendingMetrics;
 	}
 
@@ -37,8 +37,7 @@ import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -113,11 +112,36 @@ public class AnalyzeMetricFile {
 
     private List<String> logFileToLoadList = new ArrayList<String>();
 
-    private Map<String, PreparedStatement> statementCache = new HashMap<String, PreparedStatement>();
+    private DirectDatabaseMetricGatherer gatherer;
 
-    private static final boolean CACHE_PREPARED_STATEMENTS = false;
+    /**
+     * Analyze the loaded metrics in memory instead of the METRIC table.
+     */
+    private boolean inMemoryAnalysis;
 
-    private DirectDatabaseMetricGatherer gatherer;
+    private ColumnarMetricStore metricStore;
+
+    private ColumnarMetricAnalyzer metricAnalyzer;
+
+    /**
+     * Update the cache hit analysis of the previous runs with the loaded
+     * metrics instead of recomputing it from the whole METRIC table.
+     */
+    private boolean incrementalAnalysis;
+
+    private IncrementalCacheHitAggregator cacheHitAggregator;
+
+    /**
+     * Time buckets of the trend reports, filled as metrics are loaded.
+     */
+    private TrendBucketAggregator trendAggregator;
+
+    /**
+     * Number of threads generating the per operation reports.
+     */
+    private int reportParallelism;
+
+    private ParallelReportGenerator reportGenerator;
 
     private SingleJdbcDataSource dataSource;
 
@@ -258,6 +282,18 @@ public class AnalyzeMetricFile {
         reportResult = readBooleanProperty( prop, "reportResult", true );
 
         parseWasJdbcTrace = readBooleanProperty( prop, "parseWasJdbcTrace", false );
+        loadParallelism = (int) readLongProperty( prop, "loadParallelism", Runtime.getRuntime().availableProcessors() );
+        reportParallelism = (int) readLongProperty( prop, "reportParallelism", Runtime.getRuntime().availableProcessors() );
+        inMemoryAnalysis = readBooleanProperty( prop, "inMemoryAnalysis", false );
+        if ( inMemoryAnalysis && !loadDataFiles ) {
+            LOGGER.log( Level.WARNING, "In memory analysis \"inMemoryAnalysis\" requires loading the data files \"loadDataFiles\" in the same run, using the database analysis." );
+            inMemoryAnalysis = false;
+        }
+        incrementalAnalysis = readBooleanProperty( prop, "incrementalAnalysis", false );
+        if ( incrementalAnalysis && inMemoryAnalysis ) {
+            LOGGER.log( Level.WARNING, "Incremental analysis \"incrementalAnalysis\" doesn't apply to the in memory analysis \"inMemoryAnalysis\", using the in memory analysis." );
+            incrementalAnalysis = false;
+        }
         logTimestampFormat = prop.getProperty( "logTimestampFormat", MetricFileLoader.DEFAULT_TIMESTAMP_FORMAT );
         logJdbcTraceRegularExpression = prop.getProperty( "logJdbcTraceRegularExpression", MetricFileLoader.DEFAULT_JDBC_TRACE_REGEX );
         logEntryTraceRegularExpression = prop.getProperty( "logEntryTraceRegularExpression", MetricFileLoader.DEFAULT_TRACE_ENTRY_REGEX );
@@ -445,6 +481,10 @@ public class AnalyzeMetricFile {
 
         clearIfEnabled( clearDatabase );
 
+        initializeIncrementalAnalysisIfEnabled( incrementalAnalysis );
+
+        initializeTrendIfEnabled( reportTrend );
+
         loadIfEnabled( loadDataFiles );
 
         computeIfEnabled( computeMetrics );
@@ -477,16 +517,17 @@ public class AnalyzeMetricFile {
             makeFolder.mkdirs();
         }
 
-        String selectStatement = getSelectAllOperationsSql();
-        List<List<Object>> operationNameList = executeQuery( selectStatement );
+        List<String> operationNameList = getReportOperationNames();
 
-        String htmlText = loadResourceAsString( "com/ibm/commerce/cache/reports/report-trend.html" );
-
-        for ( List<Object> list : operationNameList ) {
-            String operationName = (String) list.get( 0 );
+        final String htmlText = loadResourceAsString( "com/ibm/commerce/cache/reports/report-trend.html" );
+        final String outputDir = trendOutputDir;
 
-            printOperationTrend( operationName, trendOutputDir, htmlText );
-        }
+        reportGenerator.generateReports( "trend", operationNameList, new ParallelReportGenerator.Report<String>() {
+            @Override
+            public void generate( String operationName ) throws Exception {
+                printOperationTrend( operationName, outputDir, htmlText );
+            }
+        } );
 
         long duration = System.currentTimeMillis() - startTime;
         LOGGER.log( Level.INFO, "Took " + duration + " ms to generate trend for : " + operationNameList.size() + " operations. Output folder : " + makeFolder.getCanonicalPath() );
@@ -495,11 +536,7 @@ public class AnalyzeMetricFile {
 
     private void printOperationTrend( String operationName, String trendOutputDir, String htmlText ) throws Exception {
 
-        String selectQuery = "SELECT (STOPTIME/" + trendTimeIntervalInNano + ") as TIME, "
-            + "count(IDENTIFIER) as CALL_COUNT, MIN(DURATION) as MINIMUM_DURATION, AVG(DURATION) as AVERAGE_DURATION, MAX(DURATION) as MAXIMUM_DURATION from METRIC where OPERATIONNAME=? " + "group by (STOPTIME/" + trendTimeIntervalInNano
-            + ") order by TIME asc";
-
-        List<List<Object>> result = executeQuery( selectQuery, operationName );
+        List<List<Object>> result = trendAggregator.getTrend( operationName );
 
         if ( result.size() == 0 ) {
             return;
@@ -683,15 +720,36 @@ public class AnalyzeMetricFile {
                 makeFolder.mkdirs();
             }
 
-            String selectStatement = "SELECT IDENTIFIER, OPERATIONNAME from METRIC where PARENTIDENTIFIER = 0 order by DURATION desc fetch first " + entryCountLimit + " rows only";
-            List<List<Object>> metricIdList = executeQuery( selectStatement );
+            int executionCount;
+            if ( inMemoryAnalysis ) {
+                int[] rows = metricAnalyzer.getLongestRootRows( (int) entryCountLimit );
+                List<Integer> rowList = new ArrayList<Integer>( rows.length );
+                for ( int row : rows ) {
+                    rowList.add( Integer.valueOf( row ) );
+                }
+                reportGenerator.generateReports( "execution", rowList, new ParallelReportGenerator.Report<Integer>() {
+                    @Override
+                    public void generate( Integer row ) throws Exception {
+                        StackStep stack = getStackStepFromStore( row.intValue() );
+                        printStackXML( stack.getIdentifier() + "-" + stack.getOperationName(), executionOutputDir, stack );
+                    }
+                } );
+                executionCount = rows.length;
+            } else {
+                String selectStatement = "SELECT IDENTIFIER, OPERATIONNAME from METRIC where PARENTIDENTIFIER = 0 order by DURATION desc fetch first " + entryCountLimit + " rows only";
+                List<List<Object>> metricIdList = executeQuery( selectStatement );
 
-            for ( List<Object> list : metricIdList ) {
-                printStackByOperationId( list.get( 0 ), list.get( 1 ) );
+                reportGenerator.generateReports( "execution", metricIdList, new ParallelReportGenerator.Report<List<Object>>() {
+                    @Override
+                    public void generate( List<Object> execution ) throws Exception {
+                        printStackByOperationId( execution.get( 0 ), execution.get( 1 ) );
+                    }
+                } );
+                executionCount = metricIdList.size();
             }
 
             long duration = System.currentTimeMillis() - startTime;
-            LOGGER.log( Level.INFO, "Took " + duration + " ms to generate report for : " + metricIdList.size() + " executions. Output folder : " + makeFolder.getCanonicalPath() );
+            LOGGER.log( Level.INFO, "Took " + duration + " ms to generate report for : " + executionCount + " executions. Output folder : " + makeFolder.getCanonicalPath() );
         }
     }
 
@@ -735,7 +793,6 @@ public class AnalyzeMetricFile {
         if ( !setReportCaller ) {
             return;
         }
-
         File rootDir = new File( callerOutputDir );
         if ( !rootDir.exists() ) {
             rootDir.mkdirs();
@@ -750,17 +807,16 @@ public class AnalyzeMetricFile {
             makeFolder.mkdirs();
         }
 
-        String selectStatement = getSelectAllOperationsSql();
-        List<List<Object>> operationNameList = executeQuery( selectStatement );
+        List<String> operationNameList = getReportOperationNames();
 
-        // printOperationCaller(
-        // "SELECT (1 field) FROM CATALOG WHERE CATALOG.CATALOG_ID=?",
-        // callerOutputDir);
-        for ( List<Object> list : operationNameList ) {
-            String operationName = (String) list.get( 0 );
+        final CallerHierarchyIndex callerIndex = createCallerIndex();
 
-            printOperationCaller( operationName, callerOutputDir );
-        }
+        reportGenerator.generateReports( "caller", operationNameList, new ParallelReportGenerator.Report<String>() {
+            @Override
+            public void generate( String operationName ) throws Exception {
+                printOperationCaller( callerIndex, operationName, callerOutputDir );
+            }
+        } );
 
         long duration = System.currentTimeMillis() - startTime;
         if ( LOGGER.isLoggable( Level.INFO ) ) {
@@ -774,10 +830,62 @@ public class AnalyzeMetricFile {
         return SELECT_ALL_OPERATIONS_SQL + " fetch first " + entryCountLimit + " rows only";
     }
 
-    private void printOperationCaller( String operationName, String outputDir ) throws Exception {
+    /**
+     * Fetch the operations to report on. When several operations map to the
+     * same report file, only the last one is kept : it is the one whose report
+     * used to overwrite the others when they were generated in order.
+     * 
+     * @return the operation names, in report order.
+     * @throws Exception
+     *             If anything goes wrong.
+     */
+    private List<String> getReportOperationNames() throws Exception {
+        List<List<Object>> operationNameList = executeQuery( getSelectAllOperationsSql() );
+
+        Map<String, String> operationByFileName = new LinkedHashMap<String, String>();
+        for ( List<Object> list : operationNameList ) {
+            String operationName = (String) list.get( 0 );
+            String fileName = convertOperationNameToFileName( operationName );
+            operationByFileName.remove( fileName );
+            operationByFileName.put( fileName, operationName );
+        }
+        List<String> operationNames = new ArrayList<String>( operationByFileName.values() );
+        if ( operationNames.size() != operationNameList.size() ) {
+            LOGGER.log( Level.INFO, ( operationNameList.size() - operationNames.size() ) + " operations share their report file name with a later operation, skipping them." );
+        }
+        return operationNames;
+    }
+
+    /**
+     * Index the parent of every metric, reading the METRIC table back unless
+     * the metrics are already in memory.
+     * 
+     * @return the caller index.
+     * @throws Exception
+     *             If anything goes wrong.
+     */
+    private CallerHierarchyIndex createCallerIndex() throws Exception {
         long startTime = System.currentTimeMillis();
+        ColumnarMetricStore store = metricStore;
+        if ( !inMemoryAnalysis ) {
+            store = new ColumnarMetricStore();
+            store.loadFromDatabase( dataSource );
+        }
+        CallerHierarchyIndex callerIndex = new CallerHierarchyIndex( store, MetricCompiler.MAX_CALLER_DEPTH );
 
-        CallerStep caller = getCallerHierarchy( operationName );
+        long duration = System.currentTimeMillis() - startTime;
+        LOGGER.log( Level.INFO, "Took " + duration + " ms to index the callers of " + store.getRowCount() + " metrics." );
+        return callerIndex;
+    }
+
+    private void printOperationCaller( CallerHierarchyIndex callerIndex, String operationName, String outputDir ) throws Exception {
+        long startTime = System.currentTimeMillis();
+
+        CallerHierarchyIndex.CallerNode caller = callerIndex.buildCallerTree( operationName );
+        if ( caller == null ) {
+            LOGGER.severe( "******* No metric found for caller report of operation " + operationName + ", skipping analysis" );
+            return;
+        }
 
         printCallerStepsXML( caller, outputDir );
 
@@ -785,7 +893,7 @@ public class AnalyzeMetricFile {
         LOGGER.log( Level.FINE, "Took " + duration + " ms to generate caller report for operation : " + operationName );
     }
 
-    private void printCallerStepsXML( CallerStep caller, String baseFolder ) throws IOException {
+    private void printCallerStepsXML( CallerHierarchyIndex.CallerNode caller, String baseFolder ) throws IOException {
 
         String operationName = caller.getOperationName();
 
@@ -804,7 +912,7 @@ public class AnalyzeMetricFile {
 		}
     }
 
-    private void printCallerStepXMLToString( CallerStep caller, Writer report, int increment ) throws IOException {
+    private void printCallerStepXMLToString( CallerHierarchyIndex.CallerNode caller, Writer report, int increment ) throws IOException {
         printIndentationXML( report, increment );
 
         report.append( "<caller" );
@@ -828,12 +936,12 @@ public class AnalyzeMetricFile {
 
         int childIncrement = increment + 1;
 
-        List<CallerStep> childStepList = caller.childStepList;
+        List<CallerHierarchyIndex.CallerNode> childStepList = caller.getChildList();
 
         if ( childStepList.size() > 0 ) {
             report.append( "\">" ).append( CacheUtilities.LINE_SEPARATOR );
 
-            for ( CallerStep childStep : childStepList ) {
+            for ( CallerHierarchyIndex.CallerNode childStep : childStepList ) {
 
                 printCallerStepXMLToString( childStep, report, childIncrement );
             }
@@ -845,104 +953,6 @@ public class AnalyzeMetricFile {
         }
     }
 
-    private CallerStep getCallerHierarchy( String operationName ) throws Exception {
-
-        // fetch the first caller information
-        String rootSelect = "select " + callerSelectedFields + " from METRIC where OPERATIONNAME = ?" + " group by OPERATIONNAME";
-
-        List<List<Object>> rootResult = executeQuery( rootSelect, operationName );
-
-        CallerStep rootStep = new CallerStep();
-
-        if ( rootResult.size() != 1 ) {
-            LOGGER.severe( "******* Unexpected root result size for caller stack " + rootResult.size() + ", skipping analysis" );
-
-        } else {
-
-            rootStep.fieldValues = rootResult.get( 0 );
-            boolean useTempTable = true;
-
-            if ( useTempTable ) {
-                fetchChildCallerStepsTempTables( rootStep, 0 );
-            } else {
-                LinkedList<String> parameterValueList = new LinkedList<String>();
-                fetchChildCallerStepsAppendingSql( rootStep, null, parameterValueList );
-            }
-
-        }
-        return rootStep;
-    }
-
-    private void fetchChildCallerStepsTempTables( CallerStep currentStep, int depth ) throws Exception {
-
-        String opName = currentStep.getOperationName();
-
-        if ( depth >= MetricCompiler.MAX_CALLER_DEPTH ) {
-            // too deep
-            return;
-        }
-
-        int previousDepth = depth - 1;
-
-        // clear the table
-        executeUpdate( "delete from caller" + depth );
-
-        String idMatchWhereClause = "IDENTIFIER in (SELECT IDENTIFIER from caller" + previousDepth + ") and ";
-        if ( depth == 0 ) {
-            idMatchWhereClause = "";
-        }
-
-        String insertStatement = "INSERT INTO caller" + depth + "(IDENTIFIER) select PARENTIDENTIFIER from METRIC where " + idMatchWhereClause + "OPERATIONNAME = ?";
-
-        executeUpdate( insertStatement, opName );
-
-        // we now have the list of all our callers for a specific operation
-
-        String select = "select " + callerSelectedFields + " from METRIC INNER JOIN caller" + depth + " ON METRIC.IDENTIFIER=caller" + depth + ".IDENTIFIER" + " GROUP BY METRIC.OPERATIONNAME";
-        // String select = "select "
-        // + callerSelectedFields
-        // + " from METRIC where IDENTIFIER in (SELECT IDENTIFIER from caller"
-        // + depth + ") GROUP BY OPERATIONNAME";
-        int childDepth = depth + 1;
-
-        List<List<Object>> callerList = executeQuery( select );
-
-        for ( List<Object> list : callerList ) {
-            CallerStep caller = new CallerStep();
-            caller.fieldValues = list;
-            currentStep.childStepList.add( caller );
-
-            fetchChildCallerStepsTempTables( caller, childDepth );
-        }
-    }
-
-    private void fetchChildCallerStepsAppendingSql( CallerStep currentStep, String subSelect, LinkedList<String> parameterValueList ) throws Exception {
-
-        parameterValueList.addFirst( currentStep.getOperationName() );
-
-        String whereClause = "IDENTIFIER in (select PARENTIDENTIFIER from METRIC where ";
-        if ( subSelect != null ) {
-            // $ANALYSIS-IGNORE
-            whereClause += " ( " + subSelect + " ) and ";
-        }
-        // $ANALYSIS-IGNORE
-        whereClause += "(OPERATIONNAME = ?) )";
-
-        String regroupClause = "GROUP BY OPERATIONNAME";
-        String select = "select " + callerSelectedFields + " from METRIC where " + whereClause + " " + regroupClause;
-
-        List<List<Object>> callerList = executeQuery( select, parameterValueList.toArray() );
-        for ( List<Object> list : callerList ) {
-            CallerStep caller = new CallerStep();
-            caller.fieldValues = list;
-            currentStep.childStepList.add( caller );
-
-            fetchChildCallerStepsAppendingSql( caller, whereClause, parameterValueList );
-        }
-
-        parameterValueList.removeFirst();
-    }
-
     private void reportStackIfEnabled( boolean reportStack ) throws Exception {
         if ( reportStack ) {
             printOperationCallStacks( stackOutputDir );
@@ -1049,9 +1059,13 @@ public class AnalyzeMetricFile {
             printToFile( operationsHtml, reportOutputDir + "/report-operations.html" );
 
             LOGGER.log( Level.FINE, "============ EXECUTIONS ============" );
-            selectStatement = "SELECT OPERATIONNAME as operation_name, DURATION/1000000 as duration_MS, STARTIME/1000000 as start_time_MS, STOPTIME/1000000 as stop_time_MS, RESULTSIZE as result_size, KEYVALUE as key_value, identifier "
-                + "from METRIC where PARENTIDENTIFIER = 0 order by DURATION desc FETCH FIRST " + entryCountLimit + " ROWS ONLY";
-            operationsCsv = executeQueryAndPrint( selectStatement );
+            if ( inMemoryAnalysis ) {
+                operationsCsv = printExecutionsFromStore();
+            } else {
+                selectStatement = "SELECT OPERATIONNAME as operation_name, DURATION/1000000 as duration_MS, STARTIME/1000000 as start_time_MS, STOPTIME/1000000 as stop_time_MS, RESULTSIZE as result_size, KEYVALUE as key_value, identifier "
+                    + "from METRIC where PARENTIDENTIFIER = 0 order by DURATION desc FETCH FIRST " + entryCountLimit + " ROWS ONLY";
+                operationsCsv = executeQueryAndPrint( selectStatement );
+            }
             printToFile( operationsCsv, reportOutputDir + "/report-execution.csv" );
 
             String executionHtml = buildHtmlReportFromCsvAndTemplate( operationsCsv, "com/ibm/commerce/cache/reports/report-execution.html" );
@@ -1068,6 +1082,31 @@ public class AnalyzeMetricFile {
         }
     }
 
+    /**
+     * Print the longest executions from the in memory metrics in the format of
+     * {@link CacheUtilities#printResultSet(ResultSet, boolean, String)}.
+     */
+    private String printExecutionsFromStore() {
+        String separator = ",";
+        int[] rows = metricAnalyzer.getLongestRootRows( (int) entryCountLimit );
+        StringBuilder builder = new StringBuilder();
+        if ( rows.length > 0 ) {
+            builder.append( "OPERATION_NAME,DURATION_MS,START_TIME_MS,STOP_TIME_MS,RESULT_SIZE,KEY_VALUE,IDENTIFIER," );
+            builder.append( CacheUtilities.LINE_SEPARATOR );
+        }
+        for ( int row : rows ) {
+            builder.append( metricStore.getOperationName( row ).replaceAll( separator, "." ) ).append( separator );
+            builder.append( metricStore.getDuration( row ) / 1000000 ).append( separator );
+            builder.append( metricStore.getStartTime( row ) / 1000000 ).append( separator );
+            builder.append( metricStore.getStopTime( row ) / 1000000 ).append( separator );
+            builder.append( metricStore.getResultSize( row ) ).append( separator );
+            builder.append( metricStore.getKey( row ).replaceAll( separator, "." ) ).append( separator );
+            builder.append( metricStore.getIdentifier( row ) ).append( separator );
+            builder.append( CacheUtilities.LINE_SEPARATOR );
+        }
+        return builder.toString();
+    }
+
     private String buildHtmlReportFromCsvAndTemplate( String csvContent, String htmlResourceName ) {
         String htmlText = loadResourceAsString( htmlResourceName );
         csvContent = formatCsvToHtmlString(csvContent);
@@ -1090,56 +1129,118 @@ public class AnalyzeMetricFile {
         return headerText;
     }
 
-    private void computeIfEnabled( boolean compute ) throws SQLException {
+    private void computeIfEnabled( boolean compute ) throws Exception {
         if ( compute ) {
             LOGGER.log( Level.INFO, "Computing operation metrics started." );
 
-            MetricCompiler.clearUniqueCacheHitsTable( dataSource );
-            MetricCompiler.clearCacheHitStepsTable( dataSource );
-            MetricCompiler.clearCacheAllocationTable( dataSource );
-            MetricCompiler.aggregateCacheHits( dataSource );
-            MetricCompiler.regroupCacheHitsInSteps( dataSource, cacheHitSteps );
-            MetricCompiler.allocateCacheSpace( dataSource, allocatedCacheSize );
+            if ( incrementalAnalysis ) {
+                // only the changed cache hits are updated
+                cacheHitAggregator.writeResults( dataSource, allocatedCacheSize );
+            } else if ( inMemoryAnalysis ) {
+                MetricCompiler.clearUniqueCacheHitsTable( dataSource );
+                MetricCompiler.clearCacheHitStepsTable( dataSource );
+                MetricCompiler.clearCacheAllocationTable( dataSource );
+                metricAnalyzer.compute( cacheHitSteps, allocatedCacheSize );
+                metricAnalyzer.writeResults( dataSource );
+            } else {
+                MetricCompiler.clearUniqueCacheHitsTable( dataSource );
+                MetricCompiler.clearCacheHitStepsTable( dataSource );
+                MetricCompiler.clearCacheAllocationTable( dataSource );
+                MetricCompiler.aggregateCacheHits( dataSource );
+                MetricCompiler.regroupCacheHitsInSteps( dataSource, cacheHitSteps );
+                MetricCompiler.allocateCacheSpace( dataSource, allocatedCacheSize );
+            }
 
             LOGGER.log( Level.INFO, "Computing operation metrics finished." );
         }
     }
 
+    private void initializeIncrementalAnalysisIfEnabled( boolean incremental ) throws SQLException {
+        if ( incremental ) {
+            LOGGER.log( Level.INFO, "Loading the cache hits of the previous analysis." );
+            cacheHitAggregator.initialize( dataSource );
+        }
+    }
+
+    private void initializeTrendIfEnabled( boolean trend ) throws SQLException {
+        // the in memory analysis starts from an empty store
+        if ( trend && !inMemoryAnalysis ) {
+            LOGGER.log( Level.INFO, "Loading the trend of the metrics already in the database." );
+            trendAggregator.initialize( dataSource );
+        }
+    }
+
     private void loadIfEnabled( boolean load ) throws Exception {
         if ( load ) {
             LOGGER.log( Level.INFO, "Loading metric data." );
             initializeGatherer();
 
-            MetricFileLoader loader = new MetricFileLoader();
-            loader.setGatherer( gatherer );
-            loader.setParseJdbcTraceLogs( parseWasJdbcTrace );
-            loader.setTimestampFormat( logTimestampFormat );
-            loader.setJdbcTraceRegularExpression( logJdbcTraceRegularExpression );
-            loader.setEntryTraceRegularExpression( logEntryTraceRegularExpression );
-            loader.setExitTraceRegularExpression( logExitTraceRegularExpression );
-
-            for ( String currentFile : fileToLoadList ) {
-                LOGGER.log( Level.INFO, "Loading data file : " + currentFile );
-                loader.gatherMetricsFromFile( currentFile );
+            ParallelMetricFileLoader dataLoader = new ParallelMetricFileLoader( new ParallelMetricFileLoader.LoaderFactory() {
+                @Override
+                public MetricFileLoader createLoader() throws Exception {
+                    return configureLoader( new MetricFileLoader() );
+                }
+            } );
+            dataLoader.setGatherer( getLoadGatherer() );
+            dataLoader.setParallelism( loadParallelism );
+            dataLoader.gatherMetricsFromFiles( fileToLoadList );
+
+            ParallelMetricFileLoader logLoader = new ParallelMetricFileLoader( new ParallelMetricFileLoader.LoaderFactory() {
+                @Override
+                public MetricFileLoader createLoader() throws Exception {
+                    LogMetricFileLoader loader = new LogMetricFileLoader();
+                    loader.setCharsetName( logFileCharsetName );
+                    return configureLoader( loader );
+                }
+            } );
+            logLoader.setGatherer( getLoadGatherer() );
+            logLoader.setParallelism( loadParallelism );
+            logLoader.gatherMetricsFromFiles( logFileToLoadList );
+
+            int rowCount;
+            if ( inMemoryAnalysis ) {
+                rowCount = metricStore.getRowCount();
+            } else {
+                rowCount = getMetricRowCount();
             }
+            LOGGER.log( Level.INFO, "imported number of metrics : " + rowCount );
+        }
+    }
 
-            LogMetricFileLoader logLoader = new LogMetricFileLoader();
-            logLoader.setCharsetName( logFileCharsetName );
-            logLoader.setGatherer( gatherer );
-            logLoader.setParseJdbcTraceLogs( parseWasJdbcTrace );
-            logLoader.setTimestampFormat( logTimestampFormat );
-            logLoader.setJdbcTraceRegularExpression( logJdbcTraceRegularExpression );
-            logLoader.setEntryTraceRegularExpression( logEntryTraceRegularExpression );
-            logLoader.setExitTraceRegularExpression( logExitTraceRegularExpression );
-
-            for ( String currentFile : logFileToLoadList ) {
-                LOGGER.log( Level.INFO, "Loading data file : " + currentFile );
-                logLoader.gatherMetricsFromFile( currentFile );
-            }
+    /**
+     * @return the gatherer receiving the loaded metrics, through the trend
+     *         buckets when trends are reported.
+     */
+    private DirectMetricGather getLoadGatherer() {
+        if ( trendAggregator != null ) {
+            return trendAggregator;
+        }
+        return getStorageGatherer();
+    }
 
-            int rowCount = getMetricRowCount();
-            LOGGER.log( Level.INFO, "imported number of metrics : " + rowCount );
+    /**
+     * @return the gatherer storing the loaded metrics : the in memory store,
+     *         the METRIC table or the METRIC table through the incremental
+     *         cache hit aggregation.
+     */
+    private DirectMetricGather getStorageGatherer() {
+        if ( inMemoryAnalysis ) {
+            return metricStore;
         }
+        if ( incrementalAnalysis ) {
+            return cacheHitAggregator;
+        }
+        return gatherer;
+    }
+
+    private MetricFileLoader configureLoader( MetricFileLoader loader ) {
+        loader.setGatherer( getLoadGatherer() );
+        loader.setParseJdbcTraceLogs( parseWasJdbcTrace );
+        loader.setTimestampFormat( logTimestampFormat );
+        loader.setJdbcTraceRegularExpression( logJdbcTraceRegularExpression );
+        loader.setEntryTraceRegularExpression( logEntryTraceRegularExpression );
+        loader.setExitTraceRegularExpression( logExitTraceRegularExpression );
+        return loader;
     }
 
     private void clearIfEnabled( boolean clear ) throws SQLException {
@@ -1163,14 +1264,15 @@ public class AnalyzeMetricFile {
             makeFolder.mkdirs();
         }
 
-        String selectStatement = getSelectAllOperationsSql();
-        List<List<Object>> operationNameList = executeQuery( selectStatement );
-
-        for ( List<Object> list : operationNameList ) {
-            String operationName = (String) list.get( 0 );
+        List<String> operationNameList = getReportOperationNames();
 
-            printOperationCallStacks( operationName, baseFolder );
-        }
+        final String outputDir = baseFolder;
+        reportGenerator.generateReports( "stack", operationNameList, new ParallelReportGenerator.Report<String>() {
+            @Override
+            public void generate( String operationName ) throws Exception {
+                printOperationCallStacks( operationName, outputDir );
+            }
+        } );
 
         long duration = System.currentTimeMillis() - startTime;
         LOGGER.log( Level.INFO, "Took " + duration + " ms to generate report for : " + operationNameList.size() + " operations. Output folder : " + makeFolder.getCanonicalPath() );
@@ -1269,68 +1371,6 @@ public class AnalyzeMetricFile {
         }
     }
 
-    private static class CallerStep {
-        private List<Object> fieldValues = null;
-
-        private List<CallerStep> childStepList = new ArrayList<CallerStep>();
-
-        /**
-         * 
-         * @return opeartion name
-         */
-        public String getOperationName() {
-            return (String) fieldValues.get( 0 );
-        }
-
-        /**
-         * 
-         * @return call count
-         */
-        public long getCallCount() {
-            return ( (Number) fieldValues.get( 1 ) ).longValue();
-        }
-
-        /**
-         * 
-         * @return average duration
-         */
-        public long getAverageDuration() {
-            return ( (Number) fieldValues.get( 2 ) ).longValue();
-        }
-
-        /**
-         * 
-         * @return average size
-         */
-        public long getAverageSize() {
-            return ( (Number) fieldValues.get( 3 ) ).longValue();
-        }
-
-        /**
-         * 
-         * @return unique caller count
-         */
-        public long getUniqueCallerCount() {
-            return ( (Number) fieldValues.get( 4 ) ).longValue();
-        }
-
-        /**
-         * 
-         * @return average call count
-         */
-        public float getAverageCallCount() {
-            return ( (Number) fieldValues.get( 5 ) ).floatValue();
-        }
-
-        /**
-         * 
-         * @return parent count
-         */
-        public float getParentCount() {
-            return ( (Number) fieldValues.get( 6 ) ).longValue();
-        }
-    }
-
     private String convertOperationNameToFileName( String operationName ) {
         String reportFileName = operationName.replaceAll( "[^A-Za-z0-9 ]", "." );
 
@@ -1459,15 +1499,14 @@ public class AnalyzeMetricFile {
 
     private String jdbcUrl;
 
-    private String callerSelectedFields = "METRIC.OPERATIONNAME, " + "count(METRIC.IDENTIFIER) as CALLCOUNT, " + "avg(METRIC.DURATION) as AVERAGEDURATION, " + "avg(METRIC.RESULTSIZE) as AVERAGESIZE, "
-        + "count(DISTINCT(METRIC.KEYVALUE)) as UNIQUECALLER, " + "cast( count(METRIC.IDENTIFIER) as float)/count(DISTINCT(METRIC.IDENTIFIER)) as AVERAGECALLCOUNT, " + "count(DISTINCT(METRIC.IDENTIFIER)) as PARENTCOUNT";
-
     private long[] cacheHitSteps = new long[] {};
 
     private long allocatedCacheSize;
 
     private boolean parseWasJdbcTrace;
 
+    private int loadParallelism;
+
     private String logTimestampFormat;
 
     private String logJdbcTraceRegularExpression;
@@ -1599,11 +1638,17 @@ public class AnalyzeMetricFile {
     }
 
     private StackStep getSlowestStack( String operationName ) throws Exception {
+        if ( inMemoryAnalysis ) {
+            return getStackStepFromStore( metricAnalyzer.getStackRows( operationName )[2] );
+        }
         String selectStatement = SELECT_SLOWEST_SQL;
         return getStackStepFromSql( selectStatement, operationName, operationName );
     }
 
     private StackStep getAverageStack( String operationName ) throws Exception {
+        if ( inMemoryAnalysis ) {
+            return getStackStepFromStore( metricAnalyzer.getStackRows( operationName )[1] );
+        }
         String selectStatement = SELECT_AVERAGE_SQL;
         return getStackStepFromSql( selectStatement, operationName, operationName );
     }
@@ -1621,10 +1666,38 @@ public class AnalyzeMetricFile {
     }
 
     private StackStep getFastestStack( String operationName ) throws Exception {
+        if ( inMemoryAnalysis ) {
+            return getStackStepFromStore( metricAnalyzer.getStackRows( operationName )[0] );
+        }
         String selectStatement = SELECT_FASTEST_SQL;
         return getStackStepFromSql( selectStatement, operationName, operationName );
     }
 
+    /**
+     * Build a stack from the in memory metrics, with the same field values as
+     * {@link #STACK_STEP_FIELD_LIST}.
+     */
+    private StackStep getStackStepFromStore( int row ) {
+        StackStep step = new StackStep();
+        List<Object> fieldValues = new ArrayList<Object>( 10 );
+        fieldValues.add( Long.valueOf( metricStore.getIdentifier( row ) ) );
+        fieldValues.add( Long.valueOf( metricStore.getParentIdentifier( row ) ) );
+        fieldValues.add( metricStore.getOperationName( row ) );
+        fieldValues.add( Long.valueOf( metricStore.getStartTime( row ) ) );
+        fieldValues.add( Long.valueOf( metricStore.getStopTime( row ) ) );
+        fieldValues.add( Long.valueOf( metricStore.getDuration( row ) ) );
+        fieldValues.add( Long.valueOf( metricStore.getResultSize( row ) ) );
+        fieldValues.add( metricStore.isFromCache( row ) ? "1" : "0" );
+        fieldValues.add( metricStore.isCacheEnabled( row ) ? "1" : "0" );
+        fieldValues.add( metricStore.getKey( row ) );
+        step.fieldValues = fieldValues;
+
+        for ( int childRow : metricStore.getChildRows( metricStore.getIdentifier( row ) ) ) {
+            step.childStepList.add( getStackStepFromStore( childRow ) );
+        }
+        return step;
+    }
+
     private void fetchChildSteps( StackStep startStep ) throws Exception {
 
         String selectStatement = SELECT_CHILD_STACK_STEPS_SQL;
@@ -1663,6 +1736,31 @@ public class AnalyzeMetricFile {
         gatherer = new DirectDatabaseMetricGatherer();
         gatherer.setDataSource( dataSource );
         gatherer.setTruncatingSqlSelect( truncateSqlStatementOperationNames );
+
+        if ( inMemoryAnalysis ) {
+            metricStore = new ColumnarMetricStore();
+            metricStore.setTruncatingSqlSelect( truncateSqlStatementOperationNames );
+            metricAnalyzer = new ColumnarMetricAnalyzer( metricStore );
+            metricAnalyzer.setParallelism( loadParallelism );
+        }
+
+        reportGenerator = new ParallelReportGenerator( new ParallelReportGenerator.ConnectionFactory() {
+            @Override
+            public Connection createConnection() throws SQLException {
+                return DriverManager.getConnection( jdbcUrl );
+            }
+        } );
+        reportGenerator.setParallelism( reportParallelism );
+
+        if ( incrementalAnalysis ) {
+            cacheHitAggregator = new IncrementalCacheHitAggregator( gatherer, cacheHitSteps );
+            cacheHitAggregator.setTruncatingSqlSelect( truncateSqlStatementOperationNames );
+        }
+
+        if ( reportTrend ) {
+            trendAggregator = new TrendBucketAggregator( getStorageGatherer(), trendTimeIntervalInNano );
+            trendAggregator.setTruncatingSqlSelect( truncateSqlStatementOperationNames );
+        }
     }
 
     /**
@@ -1829,6 +1927,11 @@ public class AnalyzeMetricFile {
      *             If anything goes wrong.
      */
     public List<List<Object>> executeQuery( String sql ) throws Exception {
+        ParallelReportGenerator.ReportSession session = ParallelReportGenerator.getCurrentSession();
+        if ( session != null ) {
+            // the report worker connection stays open for its next report
+            return executeQuery( session.getConnection(), sql );
+        }
         DataSource currentDataSource = dataSource;
         return executeQuery( currentDataSource, sql );
     }
@@ -1845,18 +1948,37 @@ public class AnalyzeMetricFile {
      *             If anything goes wrong.
      */
     public static List<List<Object>> executeQuery( DataSource currentDataSource, String sql ) throws SQLException {
+        Connection connection = null;
+        try {
+            // $ANALYSIS-IGNORE
+            connection = currentDataSource.getConnection();
+            return executeQuery( connection, sql );
+        } finally {
+            CacheUtilities.closeQuietly( connection );
+        }
+    }
+
+    /**
+     * Execute a SQL query on an open connection, leaving it open.
+     * 
+     * @param connection
+     *            The connection to use.
+     * @param sql
+     *            the query.
+     * @return The result objects.
+     * @throws SQLException
+     *             If anything goes wrong.
+     */
+    private static List<List<Object>> executeQuery( Connection connection, String sql ) throws SQLException {
         Statement createStatement = null;
         List<List<Object>> printResultSet = null;
         ResultSet result = null;
         long startTime = System.currentTimeMillis();
-        Connection connection = null;
         try {
             if ( LOGGER.isLoggable( Level.FINER ) ) {
                 LOGGER.log( Level.FINER, "Running SQL : " + sql );
             }
 
-            // $ANALYSIS-IGNORE
-            connection = currentDataSource.getConnection();
             // $ANALYSIS-IGNORE
             createStatement = connection.createStatement();
             // $ANALYSIS-IGNORE
@@ -1868,7 +1990,6 @@ public class AnalyzeMetricFile {
         } finally {
             CacheUtilities.closeQuietly( result );
             CacheUtilities.closeQuietly( createStatement );
-            CacheUtilities.closeQuietly( connection );
 
             if ( LOGGER.isLoggable( Level.FINER ) ) {
                 long duration = System.currentTimeMillis() - startTime;
@@ -1895,13 +2016,14 @@ public class AnalyzeMetricFile {
         List<List<Object>> printResultSet = null;
         ResultSet result = null;
         long startTime = System.currentTimeMillis();
+        ParallelReportGenerator.ReportSession session = ParallelReportGenerator.getCurrentSession();
         try {
             if ( LOGGER.isLoggable( Level.FINER ) ) {
                 LOGGER.log( Level.FINER, "Running SQL : " + sql + " with parameters : " + Arrays.deepToString( parameters ) );
             }
 
             // $ANALYSIS-IGNORE
-            createStatement = getPreparedStatement( sql );
+            createStatement = getPreparedStatement( session, sql );
 
             fillParametersOnStatement( createStatement, parameters );
 
@@ -1914,7 +2036,9 @@ public class AnalyzeMetricFile {
             }
         } finally {
             CacheUtilities.closeQuietly( result );
-            if ( !CACHE_PREPARED_STATEMENTS ) {
+            // the report worker session keeps its statements for the next
+            // report
+            if ( session == null ) {
                 CacheUtilities.closeQuietly( createStatement );
             }
 
@@ -1936,20 +2060,30 @@ public class AnalyzeMetricFile {
         }
     }
 
-    private PreparedStatement getPreparedStatement( String sql ) throws SQLException {
+    private PreparedStatement getPreparedStatement( ParallelReportGenerator.ReportSession session, String sql ) throws SQLException {
         PreparedStatement retVal = null;
-        if ( CACHE_PREPARED_STATEMENTS ) {
-            retVal = statementCache.get( sql );
-            if ( retVal == null ) {
-                retVal = dataSource.getConnection().prepareStatement( sql );
-                statementCache.put( sql, retVal );
-            }
+        if ( session != null ) {
+            retVal = session.prepareStatement( sql );
         } else {
             retVal = dataSource.getConnection().prepareStatement( sql );
         }
         return retVal;
     }
 
+    /**
+     * @return the connection of the current report worker or a connection from
+     *         the data source.
+     * @throws SQLException
+     *             If anything goes wrong.
+     */
+    private Connection getUpdateConnection() throws SQLException {
+        ParallelReportGenerator.ReportSession session = ParallelReportGenerator.getCurrentSession();
+        if ( session != null ) {
+            return session.getConnection();
+        }
+        return dataSource.getConnection();
+    }
+
     /**
      * Execute a SQL update.
      * 
@@ -1967,7 +2101,7 @@ public class AnalyzeMetricFile {
                 LOGGER.log( Level.FINER, "Running SQL : " + sql );
             }
             // $ANALYSIS-IGNORE
-            createStatement = dataSource.getConnection().createStatement();
+            createStatement = getUpdateConnection().createStatement();
             retVal = createStatement.executeUpdate( sql );
             if ( LOGGER.isLoggable( Level.FINEST ) ) {
                 LOGGER.log( Level.FINEST, "SQL Result : " + retVal + " rows updated" );
@@ -2000,7 +2134,7 @@ public class AnalyzeMetricFile {
                 LOGGER.log( Level.FINER, "Running SQL : " + sql );
             }
             // $ANALYSIS-IGNORE
-            createStatement = dataSource.getConnection().prepareStatement( sql );
+            createStatement = getUpdateConnection().prepareStatement( sql );
             fillParametersOnStatement( createStatement, parameters );
 
             retVal = createStatement.executeUpdate();
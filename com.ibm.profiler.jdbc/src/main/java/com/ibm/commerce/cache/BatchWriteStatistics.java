@@ -0,0 +1,207 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Write statistics of a batched writer grouped by batch size. Batch sizes are
+ * grouped in power of two ranges: 1, 2-3, 4-7, 8-15 and so on.
+ */
+public class BatchWriteStatistics implements BatchWriteStatisticsMXBean {
+
+	private static final int RANGE_COUNT = 21;
+
+	private final AtomicLongArray batchCounts = new AtomicLongArray(RANGE_COUNT);
+
+	private final AtomicLongArray recordCounts = new AtomicLongArray(RANGE_COUNT);
+
+	private final AtomicLongArray latencies = new AtomicLongArray(RANGE_COUNT);
+
+	private final AtomicLong bytesWritten = new AtomicLong(0);
+
+	private final AtomicLong droppedRecordCount = new AtomicLong(0);
+
+	private final AtomicLong maximumBatchLatency = new AtomicLong(0);
+
+	private volatile RingBuffer<?> pendingBuffer;
+
+	/**
+	 * Log the write of a batch.
+	 * 
+	 * @param recordCount
+	 *            the number of records in the batch.
+	 * @param byteCount
+	 *            the number of bytes written.
+	 * @param latency
+	 *            the time spent formatting and writing the batch in
+	 *            nanoseconds.
+	 */
+	public void logBatch(int recordCount, long byteCount, long latency) {
+		if (recordCount <= 0) {
+			return;
+		}
+		int range = Math.min(31 - Integer.numberOfLeadingZeros(recordCount),
+				RANGE_COUNT - 1);
+		batchCounts.incrementAndGet(range);
+		recordCounts.addAndGet(range, recordCount);
+		latencies.addAndGet(range, latency);
+		bytesWritten.addAndGet(byteCount);
+		long currentMaximum = maximumBatchLatency.get();
+		while (latency > currentMaximum
+				&& !maximumBatchLatency.compareAndSet(currentMaximum, latency)) {
+			currentMaximum = maximumBatchLatency.get();
+		}
+	}
+
+	/**
+	 * Log a record that was ignored.
+	 */
+	public void logDroppedRecord() {
+		droppedRecordCount.incrementAndGet();
+	}
+
+	/**
+	 * Log records that were ignored.
+	 * 
+	 * @param recordCount
+	 *            the number of records ignored.
+	 */
+	public void logDroppedRecords(long recordCount) {
+		droppedRecordCount.addAndGet(recordCount);
+	}
+
+	/**
+	 * @param pendingBuffer
+	 *            the buffer holding the records waiting to be written.
+	 */
+	public void setPendingBuffer(RingBuffer<?> pendingBuffer) {
+		this.pendingBuffer = pendingBuffer;
+	}
+
+	@Override
+	public long getBatchCount() {
+		return sum(batchCounts);
+	}
+
+	@Override
+	public long getRecordCount() {
+		return sum(recordCounts);
+	}
+
+	@Override
+	public long getBytesWritten() {
+		return bytesWritten.get();
+	}
+
+	@Override
+	public long getDroppedRecordCount() {
+		return droppedRecordCount.get();
+	}
+
+	@Override
+	public int getPendingRecordCount() {
+		RingBuffer<?> buffer = pendingBuffer;
+		if (buffer == null) {
+			return 0;
+		}
+		return buffer.size();
+	}
+
+	@Override
+	public double getAverageBatchSize() {
+		long batchCount = getBatchCount();
+		if (batchCount == 0) {
+			return 0;
+		}
+		return ((double) getRecordCount()) / batchCount;
+	}
+
+	@Override
+	public double getAverageBatchLatency() {
+		long batchCount = getBatchCount();
+		if (batchCount == 0) {
+			return 0;
+		}
+		return ((double) sum(latencies)) / batchCount;
+	}
+
+	@Override
+	public long getMaximumBatchLatency() {
+		return maximumBatchLatency.get();
+	}
+
+	@Override
+	public double getRecordsPerSecond() {
+		return recordsPerSecond(getRecordCount(), sum(latencies));
+	}
+
+	@Override
+	public String[] getBatchSizeStatistics() {
+		List<String> lines = new ArrayList<String>();
+		for (int i = 0; i < RANGE_COUNT; ++i) {
+			long batchCount = batchCounts.get(i);
+			if (batchCount == 0) {
+				continue;
+			}
+			long recordCount = recordCounts.get(i);
+			long latency = latencies.get(i);
+			StringBuilder line = new StringBuilder();
+			line.append("batchSize:");
+			line.append(1L << i);
+			line.append("-");
+			line.append((2L << i) - 1);
+			line.append(",batchCount:");
+			line.append(batchCount);
+			line.append(",avgLatencyMicros:");
+			line.append(latency / batchCount / 1000);
+			line.append(",recordsPerSecond:");
+			line.append((long) recordsPerSecond(recordCount, latency));
+			lines.add(line.toString());
+		}
+		return lines.toArray(new String[lines.size()]);
+	}
+
+	@Override
+	public void reset() {
+		for (int i = 0; i < RANGE_COUNT; ++i) {
+			batchCounts.set(i, 0);
+			recordCounts.set(i, 0);
+			latencies.set(i, 0);
+		}
+		bytesWritten.set(0);
+		droppedRecordCount.set(0);
+		maximumBatchLatency.set(0);
+	}
+
+	private static double recordsPerSecond(long recordCount, long latency) {
+		if (latency <= 0) {
+			return 0;
+		}
+		return recordCount * 1000000000.0 / latency;
+	}
+
+	private static long sum(AtomicLongArray array) {
+		long total = 0;
+		for (int i = 0; i < array.length(); ++i) {
+			total += array.get(i);
+		}
+		return total;
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+/**
+ * This bean exposes the write throughput and latency of a
+ * {@link BatchedAsynchronousFileHandler}.
+ */
+public interface BatchWriteStatisticsMXBean {
+
+	/**
+	 * 
+	 * @return The number of batches written to the file.
+	 */
+	public long getBatchCount();
+
+	/**
+	 * 
+	 * @return The number of records written to the file.
+	 */
+	public long getRecordCount();
+
+	/**
+	 * 
+	 * @return The number of bytes written to the file.
+	 */
+	public long getBytesWritten();
+
+	/**
+	 * 
+	 * @return The number of records ignored because the pending buffer stayed
+	 *         full.
+	 */
+	public long getDroppedRecordCount();
+
+	/**
+	 * 
+	 * @return The number of records waiting to be written.
+	 */
+	public int getPendingRecordCount();
+
+	/**
+	 * 
+	 * @return The average number of records in a batch.
+	 */
+	public double getAverageBatchSize();
+
+	/**
+	 * 
+	 * @return The average time to format and write a batch in nanoseconds.
+	 */
+	public double getAverageBatchLatency();
+
+	/**
+	 * 
+	 * @return The longest time to format and write a batch in nanoseconds.
+	 */
+	public long getMaximumBatchLatency();
+
+	/**
+	 * 
+	 * @return The number of records formatted and written per second of
+	 *         writer activity.
+	 */
+	public double getRecordsPerSecond();
+
+	/**
+	 * 
+	 * @return One line per batch size range with its batch count, average
+	 *         latency and throughput.
+	 */
+	public String[] getBatchSizeStatistics();
+
+	/**
+	 * Reset the statistics.
+	 */
+	public void reset();
+}
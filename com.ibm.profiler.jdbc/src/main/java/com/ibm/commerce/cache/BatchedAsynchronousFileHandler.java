@@ -15,21 +15,29 @@
  */
 package com.ibm.commerce.cache;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
 import java.util.Hashtable;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.ErrorManager;
 import java.util.logging.Filter;
 import java.util.logging.Formatter;
@@ -38,10 +46,20 @@ import java.util.logging.LogManager;
 import java.util.logging.LogRecord;
 import java.util.logging.StreamHandler;
 
+import javax.management.ObjectName;
+
+import com.ibm.logger.PerformanceLoggerManager;
+
 /**
  * The BatchedAsynchronousFileHandler is used to write java logs to file
  * asynchronously using batches. It has the same properties as the
- * java.util.FileLogger.
+ * java.util.FileLogger, plus a <code>bufferSize</code> property setting the
+ * size in bytes of the write buffer.
+ * <p>
+ * Records are published to a pre-allocated ring buffer without locking. The
+ * writer thread drains them in batches, formats a batch into a single
+ * reusable direct byte buffer and writes it with one file channel write. The
+ * batch statistics are exposed through JMX by {@link BatchWriteStatisticsMXBean}.
  */
 public class BatchedAsynchronousFileHandler extends StreamHandler {
 
@@ -55,6 +73,8 @@ public class BatchedAsynchronousFileHandler extends StreamHandler {
 
     private static final String DEFAULT_PATTERN = "%h/java%u.log"; //$NON-NLS-1$
 
+    private static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
     // maintain all file locks hold by this process
     private static final Hashtable<String, FileLock> ALL_LOCKS = new Hashtable<String, FileLock>();
 
@@ -74,8 +94,23 @@ public class BatchedAsynchronousFileHandler extends StreamHandler {
     // maintain a LogManager instance for convenience
     private LogManager manager;
 
-    // output stream, which can measure the output file length
-    private MeasureOutputStream output;
+    // channel of the current output file
+    private FileChannel outputChannel;
+
+    // number of bytes in the current output file
+    private long outputLength;
+
+    // whether the formatter head was written to the current output file
+    private boolean headWritten;
+
+    // size in bytes of the write buffer
+    private int bufferSize;
+
+    // direct buffer reused to write each batch
+    private ByteBuffer writeBuffer;
+
+    // encoder reused to convert formatted records to bytes
+    private CharsetEncoder encoder;
 
     // used output file
     private File[] files;
@@ -126,6 +161,7 @@ public class BatchedAsynchronousFileHandler extends StreamHandler {
 
         initProperties( p, l, c, a );
         initOutputFiles();
+        registerStatistics();
         start();
     }
 
@@ -175,8 +211,22 @@ public class BatchedAsynchronousFileHandler extends StreamHandler {
                 break;
             }
         }
-        output = new MeasureOutputStream( new BufferedOutputStream( new FileOutputStream( fileName, append ) ), files[0].length() );
-        setOutputStream( output );
+        openOutputChannel( append );
+    }
+
+    // open the channel of the first file and prepare the write buffer
+    private void openOutputChannel( boolean appendToFile ) throws FileNotFoundException {
+        // $ANALYSIS-IGNORE
+        outputChannel = new FileOutputStream( files[0], appendToFile ).getChannel();
+        outputLength = files[0].length();
+        headWritten = outputLength > 0;
+        if ( writeBuffer == null ) {
+            writeBuffer = ByteBuffer.allocateDirect( bufferSize );
+        }
+        String encoding = getEncoding();
+        Charset charset = encoding == null ? Charset.defaultCharset() : Charset.forName( encoding );
+        encoder = charset.newEncoder().onMalformedInput( CodingErrorAction.REPLACE ).onUnmappableCharacter(
+            CodingErrorAction.REPLACE );
     }
 
     // @SuppressWarnings( "nls" )
@@ -194,6 +244,8 @@ public class BatchedAsynchronousFileHandler extends StreamHandler {
         limit = limit < 0 ? DEFAULT_LIMIT : limit;
         files = new File[count];
         append = null == a ? (Boolean) getPropertyValue( className + ".append", DEFAULT_APPEND ) : a.booleanValue();
+        bufferSize = (Integer) getPropertyValue( className + ".bufferSize", DEFAULT_BUFFER_SIZE );
+        bufferSize = bufferSize < 1024 ? DEFAULT_BUFFER_SIZE : bufferSize;
     }
 
     // print error message in some format
@@ -298,7 +350,7 @@ public class BatchedAsynchronousFileHandler extends StreamHandler {
     }
 
     private void findNextGeneration() {
-        super.close();
+        closeOutputChannel();
         for ( int i = count - 1; i > 0; i-- ) {
             if ( files[i].exists() ) {
                 files[i].delete();
@@ -306,14 +358,36 @@ public class BatchedAsynchronousFileHandler extends StreamHandler {
             files[i - 1].renameTo( files[i] );
         }
         try {
-            // $ANALYSIS-IGNORE
-            output = new MeasureOutputStream( new BufferedOutputStream( new FileOutputStream( files[0] ) ) );
+            openOutputChannel( false );
         } catch ( FileNotFoundException e1 ) {
             // logging.1A=Error happened when open log file.
             this.getErrorManager().error( "BatchedAsynchronousFileHandler Output stream open failure. ", //$NON-NLS-1$
                 e1, ErrorManager.OPEN_FAILURE );
         }
-        setOutputStream( output );
+    }
+
+    // write the formatter tail and close the current output file
+    private void closeOutputChannel() {
+        if ( outputChannel == null ) {
+            return;
+        }
+        try {
+            if ( headWritten ) {
+                Formatter formatter = getFormatter();
+                if ( formatter != null ) {
+                    appendText( formatter.getTail( this ) );
+                }
+            }
+            writeBuffer();
+        } catch ( Exception e ) {
+            reportError( "failed to write the log file tail", e, ErrorManager.WRITE_FAILURE );
+        }
+        try {
+            outputChannel.close();
+        } catch ( IOException e ) {
+            reportError( "failed to close the log file", e, ErrorManager.CLOSE_FAILURE );
+        }
+        outputChannel = null;
     }
 
     /**
@@ -557,102 +631,6 @@ public class BatchedAsynchronousFileHandler extends StreamHandler {
         }
     }
 
-    /**
-     * This output stream use decorator pattern to add measure feature to
-     * OutputStream which can detect the total size(in bytes) of output, the
-     * initial size can be set
-     */
-    static class MeasureOutputStream extends OutputStream {
-
-        OutputStream wrapped;
-
-        long length;
-
-        public MeasureOutputStream( OutputStream stream, long currentLength ) {
-            wrapped = stream;
-            length = currentLength;
-        }
-
-        public MeasureOutputStream( OutputStream stream ) {
-            this( stream, 0 );
-        }
-
-        /*
-         * (non-Javadoc)
-         * 
-         * @see java.io.OutputStream#write(int)
-         */
-        @Override
-        public void write( int oneByte ) throws IOException {
-            wrapped.write( oneByte );
-            length++;
-        }
-
-        /*
-         * (non-Javadoc)
-         * 
-         * @see java.io.OutputStream#write(byte[])
-         */
-        @Override
-        public void write( byte[] bytes ) throws IOException {
-            wrapped.write( bytes );
-            length += bytes.length;
-        }
-
-        /*
-         * (non-Javadoc)
-         * 
-         * @see java.io.OutputStream#write(byte[], int, int)
-         */
-        @Override
-        public void write( byte[] b, int off, int len ) throws IOException {
-            wrapped.write( b, off, len );
-            length += len;
-        }
-
-        /*
-         * (non-Javadoc)
-         * 
-         * @see java.io.OutputStream#close()
-         */
-        @Override
-        public void close() throws IOException {
-            wrapped.close();
-        }
-
-        /*
-         * (non-Javadoc)
-         * 
-         * @see java.io.OutputStream#flush()
-         */
-        @Override
-        public void flush() throws IOException {
-            wrapped.flush();
-        }
-
-        /**
-         * 
-         * getLength
-         * 
-         * @return length
-         */
-        public long getLength() {
-            return length;
-        }
-
-        /**
-         * 
-         * setLength
-         * 
-         * @param newLength
-         *            new length
-         */
-        public void setLength( long newLength ) {
-            length = newLength;
-        }
-    }
-
-
     /**
      * Initial maximum number of pending operation records to keep in memory
      * before writing.
@@ -678,13 +656,27 @@ public class BatchedAsynchronousFileHandler extends StreamHandler {
     private static final long INITIAL_WRITER_MAXIMUM_SLEEP_TIME = 100;
 
     /**
-     * List of pending records. Its size will never go above the value
-     * configured in {@link #maximumPendingSize}.
+     * Ring buffer of pending records. Its size will never go above the value
+     * configured in {@link #maximumPendingSize} rounded up to a power of two.
+     * Its slots are allocated once and reused for every record.
+     */
+    private volatile RingBuffer<LogRecord> pendingRecords = new RingBuffer<LogRecord>( INITIAL_MAXIMUM_PENDING_SIZE );
+
+    /**
+     * Buffer replaced by {@link #setMaximumPendingSize(int)}, null if none. A
+     * publishing thread may still add a record to it after the swap, the
+     * writer thread keeps draining it.
+     */
+    private RingBuffer<LogRecord> retiredPendingRecords = null;
+
+    /**
+     * Lock held by the writer thread while it drains the pending buffers and
+     * while the pending buffer is swapped.
      */
-    private ConcurrentLinkedQueue<LogRecord> pendingRecords = new ConcurrentLinkedQueue<LogRecord>();
+    private final Object pendingRecordsLock = new Object();
 
     /**
-     * Maximum size that the {@link #pendingRecords} list will be allowed to
+     * Maximum size that the {@link #pendingRecords} buffer will be allowed to
      * reach. Ensures that the amount of memory consumed by records gathering
      * will never go above this defined limit.
      */
@@ -722,7 +714,7 @@ public class BatchedAsynchronousFileHandler extends StreamHandler {
      * Flag indicating of the record gatherer is running or not. It is consumed
      * by the {@link #recordWriter} runnable to detect when it should exit.
      */
-    private boolean running = false;
+    private volatile boolean running = false;
 
     /**
      * Flag indicating that exceptions were caught in the record writing thread.
@@ -738,9 +730,24 @@ public class BatchedAsynchronousFileHandler extends StreamHandler {
     private Object bufferFullWait = new Object();
 
     /**
-     * queue size
+     * Flag set when a publishing thread already woke the writing thread.
+     */
+    private final AtomicBoolean writerWakeRequested = new AtomicBoolean( false );
+
+    /**
+     * Records drained from the ring buffer, reused for every batch.
+     */
+    private final List<LogRecord> batch = new ArrayList<LogRecord>();
+
+    /**
+     * Batch write statistics exposed through JMX.
+     */
+    private final BatchWriteStatistics statistics = new BatchWriteStatistics();
+
+    /**
+     * Name under which the statistics are registered, null if not registered.
      */
-    private AtomicInteger bufferSize = new AtomicInteger( 0 );
+    private ObjectName statisticsName;
 
     /*
      * (non-Javadoc)
@@ -749,25 +756,36 @@ public class BatchedAsynchronousFileHandler extends StreamHandler {
      */
     @Override
     public void publish( LogRecord record ) {
-        int size = bufferSize.get();
-
-        boolean running = isRunning();
-
-        if ( running ) {
-            pendingRecords.add( record );
-            bufferSize.incrementAndGet();
-            size += 1;
+        if ( !isRunning() || record == null ) {
+            return;
         }
 
-        if ( size >= pendingFlushSize ) {
+        RingBuffer<LogRecord> buffer = pendingRecords;
+        boolean added = buffer.offer( record );
+
+        if ( !added || buffer.size() >= pendingFlushSize ) {
             wakeWriteThread();
         }
 
-        if ( size >= maximumPendingSize ) {
+        if ( !added ) {
+            // give the writer a chance to make room before dropping the record.
             waitForWrite();
+            if ( !buffer.offer( record ) ) {
+                statistics.logDroppedRecord();
+            }
         }
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.util.logging.StreamHandler#flush()
+     */
+    @Override
+    public void flush() {
+        // records are written by the writer thread, nothing is buffered here.
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -777,9 +795,13 @@ public class BatchedAsynchronousFileHandler extends StreamHandler {
     public void close() {
         if ( isRunning() ) {
             setRunning( false );
+            LockSupport.unpark( recordWriterThread );
             joinQuietly( recordWriterThread, threadJoinTimeout );
         }
 
+        closeOutputChannel();
+        unregisterStatistics();
+
         // release locks
         super.close();
         ALL_LOCKS.remove( fileName );
@@ -836,7 +858,8 @@ public class BatchedAsynchronousFileHandler extends StreamHandler {
      */
     private void runRecordWriter() {
         while ( true ) {
-            waitSilently( recordWriter, writerMaximumSleepTime );
+            LockSupport.parkNanos( this, TimeUnit.MILLISECONDS.toNanos( writerMaximumSleepTime ) );
+            writerWakeRequested.set( false );
 
             boolean keepRunning = true;
             while ( keepRunning ) {
@@ -889,11 +912,11 @@ public class BatchedAsynchronousFileHandler extends StreamHandler {
     }
 
     /**
-     * this method is synchronized since it
+     * the running flag is volatile so that publishing threads never lock.
      * 
      * @return true if the application is running
      */
-    public synchronized boolean isRunning() {
+    public boolean isRunning() {
         return running;
     }
 
@@ -901,7 +924,7 @@ public class BatchedAsynchronousFileHandler extends StreamHandler {
      * @param running
      *            set the new running state
      */
-    protected synchronized void setRunning( boolean running ) {
+    protected void setRunning( boolean running ) {
         this.running = running;
     }
 
@@ -912,8 +935,8 @@ public class BatchedAsynchronousFileHandler extends StreamHandler {
         if ( isRunning() ) {
             return;
         }
-        recordWriterThread.start();
         setRunning( true );
+        recordWriterThread.start();
     }
 
     private void waitForWrite() {
@@ -947,60 +970,169 @@ public class BatchedAsynchronousFileHandler extends StreamHandler {
      * Attempt to wake the record gathering thread.
      */
     private void wakeWriteThread() {
-        synchronized ( recordWriter ) {
-            recordWriter.notify();
+        if ( writerWakeRequested.compareAndSet( false, true ) ) {
+            LockSupport.unpark( recordWriterThread );
         }
     }
 
     /**
      * This method is automatically called by the record gathering thread in
-     * order to flush the pending records. It's implementation depends on the
-     * concrete class.
+     * order to flush the pending records. It drains a batch of records, formats
+     * them into the write buffer and writes the buffer to the file channel.
      * 
      * @return true if a new record was written.
      */
     public boolean writeRecords() {
-        boolean retVal = false;
-        try {
+        int batchSize;
+        synchronized ( pendingRecordsLock ) {
+            RingBuffer<LogRecord> buffer = pendingRecords;
+            batch.clear();
+            batchSize = 0;
+            if ( retiredPendingRecords != null ) {
+                batchSize = retiredPendingRecords.drainTo( batch, buffer.getCapacity() );
+            }
+            batchSize += buffer.drainTo( batch, buffer.getCapacity() - batchSize );
+        }
+        if ( batchSize == 0 ) {
+            return false;
+        }
 
-            while ( true ) {
-                LogRecord record = pendingRecords.poll();
-                if ( record == null ) {
-                    break;
-                } else {
-                    bufferSize.decrementAndGet();
-                    super.publish( record );
-
-                    if ( limit > 0 && output.getLength() >= limit ) {
-                        flush();
-                        AccessController.doPrivileged( new PrivilegedAction<Object>() {
-                            /*
-                             * (non-Javadoc)
-                             * 
-                             * @see java.security.PrivilegedAction#run()
-                             */
-                            @Override
-                            public Object run() {
-                                findNextGeneration();
-                                return null;
-                            }
-                        } );
-                    }
+        long start = System.nanoTime();
+        long startLength = outputLength + writeBuffer.position();
+        long writtenBeforeRotation = 0;
+        try {
+            for ( int i = 0; i < batchSize; ++i ) {
+                LogRecord record = batch.get( i );
+                batch.set( i, null );
+                if ( !isRecordLoggable( record ) ) {
+                    continue;
+                }
+                appendRecord( record );
 
-                    retVal = true;
+                if ( limit > 0 && outputLength + writeBuffer.position() >= limit ) {
+                    writeBuffer();
+                    writtenBeforeRotation += outputLength - startLength;
+                    AccessController.doPrivileged( new PrivilegedAction<Object>() {
+                        /*
+                         * (non-Javadoc)
+                         * 
+                         * @see java.security.PrivilegedAction#run()
+                         */
+                        @Override
+                        public Object run() {
+                            findNextGeneration();
+                            return null;
+                        }
+                    } );
+                    startLength = outputLength;
                 }
             }
+            writeBuffer();
 
             setRunningWithExceptions( false );
 
         } catch ( Exception ex ) {
+            writeBuffer.clear();
             logWriteRecordException( ex );
         }
 
-        flush();
+        long writtenBytes = writtenBeforeRotation + outputLength - startLength;
+        statistics.logBatch( batchSize, writtenBytes, System.nanoTime() - start );
         notifyAllOfWrite();
 
-        return retVal;
+        return true;
+    }
+
+    // apply the handler level and filter, the same way StreamHandler.publish does.
+    private boolean isRecordLoggable( LogRecord record ) {
+        Level level = getLevel();
+        if ( record.getLevel().intValue() < level.intValue() || level.intValue() == Level.OFF.intValue() ) {
+            return false;
+        }
+        Filter filter = getFilter();
+        return filter == null || filter.isLoggable( record );
+    }
+
+    // format a record into the write buffer, writing the formatter head first if needed.
+    private void appendRecord( LogRecord record ) throws IOException {
+        Formatter formatter = getFormatter();
+        String message;
+        try {
+            message = formatter.format( record );
+        } catch ( Exception ex ) {
+            reportError( null, ex, ErrorManager.FORMAT_FAILURE );
+            return;
+        }
+        if ( !headWritten ) {
+            appendText( formatter.getHead( this ) );
+            headWritten = true;
+        }
+        appendText( message );
+    }
+
+    // encode text into the write buffer, writing the buffer to the file whenever it fills up.
+    private void appendText( String text ) throws IOException {
+        if ( text == null || text.isEmpty() ) {
+            return;
+        }
+        CharBuffer chars = CharBuffer.wrap( text );
+        encoder.reset();
+        while ( true ) {
+            CoderResult result = encoder.encode( chars, writeBuffer, true );
+            if ( result.isOverflow() ) {
+                writeBuffer();
+            } else {
+                break;
+            }
+        }
+        while ( encoder.flush( writeBuffer ).isOverflow() ) {
+            writeBuffer();
+        }
+    }
+
+    // write the content of the write buffer to the current file.
+    private void writeBuffer() throws IOException {
+        writeBuffer.flip();
+        try {
+            while ( writeBuffer.hasRemaining() ) {
+                outputLength += outputChannel.write( writeBuffer );
+            }
+        } finally {
+            writeBuffer.clear();
+        }
+    }
+
+    // expose the batch statistics through JMX
+    private void registerStatistics() {
+        statistics.setPendingBuffer( pendingRecords );
+        try {
+            ObjectName name = new ObjectName( PerformanceLoggerManager.JMX_DOMAIN + ":type=BatchedAsynchronousFileHandler,file="
+                + ObjectName.quote( fileName ) );
+            ManagementFactory.getPlatformMBeanServer().registerMBean( statistics, name );
+            statisticsName = name;
+        } catch ( Exception e ) {
+            reportError( "failed to register the batch write statistics", e, ErrorManager.GENERIC_FAILURE );
+        }
+    }
+
+    private void unregisterStatistics() {
+        if ( statisticsName == null ) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean( statisticsName );
+        } catch ( Exception e ) // $ANALYSIS-IGNORE
+        {
+            // ignore
+        }
+        statisticsName = null;
+    }
+
+    /**
+     * @return the batch write statistics.
+     */
+    public BatchWriteStatisticsMXBean getStatistics() {
+        return statistics;
     }
 
     /**
@@ -1060,7 +1192,32 @@ public class BatchedAsynchronousFileHandler extends StreamHandler {
      *            the maximum pending record list size
      */
     public void setMaximumPendingSize( int maximumPendingSize ) {
-        this.maximumPendingSize = maximumPendingSize;
+        synchronized ( pendingRecordsLock ) {
+            this.maximumPendingSize = maximumPendingSize;
+            RingBuffer<LogRecord> previousBuffer = pendingRecords;
+            RingBuffer<LogRecord> buffer = new RingBuffer<LogRecord>( maximumPendingSize );
+            if ( retiredPendingRecords != null ) {
+                moveRecords( retiredPendingRecords, buffer );
+            }
+            moveRecords( previousBuffer, buffer );
+            pendingRecords = buffer;
+            retiredPendingRecords = previousBuffer;
+            statistics.setPendingBuffer( buffer );
+        }
+    }
+
+    /**
+     * Move the records of a buffer to another, counting those that don't fit
+     * as dropped.
+     */
+    private void moveRecords( RingBuffer<LogRecord> source, RingBuffer<LogRecord> target ) {
+        LogRecord record = source.poll();
+        while ( record != null ) {
+            if ( !target.offer( record ) ) {
+                statistics.logDroppedRecord();
+            }
+            record = source.poll();
+        }
     }
 
     /**
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Streaming reader of the binary metric format written by
+ * {@link BinaryMetricWriter}.
+ * <p>
+ * Numbers are decoded straight from the read buffer and dictionary strings
+ * are decoded once per file, every metric referring to the same operation
+ * name or key sharing the same String instance.
+ * <p>
+ * A file may end in the middle of a record when its writer crashed or is
+ * still writing : the truncated record is skipped with a warning and the
+ * stream ends there.
+ * <p>
+ * This class isn't thread safe.
+ */
+public class BinaryMetricReader implements Closeable {
+
+	private static final String CLASS_NAME = BinaryMetricReader.class
+			.getName();
+
+	private static final Logger LOGGER = LoggingHelper.getLogger(CLASS_NAME);
+
+	/**
+	 * Size of the read buffer.
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Stream from which the metrics are read.
+	 */
+	private final InputStream input;
+
+	/**
+	 * Read buffer.
+	 */
+	private byte[] buffer = new byte[BUFFER_SIZE];
+
+	/**
+	 * Position of the next byte to read in the {@link #buffer}.
+	 */
+	private int position = 0;
+
+	/**
+	 * Number of valid bytes in the {@link #buffer}.
+	 */
+	private int limit = 0;
+
+	/**
+	 * Strings of the dictionary, by index.
+	 */
+	private final List<String> dictionary = new ArrayList<String>();
+
+	/**
+	 * True once a truncated record was found.
+	 */
+	private boolean truncated = false;
+
+	/**
+	 * Open a reader and validate the file header.
+	 * 
+	 * @param input
+	 *            the stream from which the metrics are read.
+	 * @throws IOException
+	 *             if the stream doesn't contain binary metrics of a supported
+	 *             version.
+	 */
+	public BinaryMetricReader(InputStream input) throws IOException {
+		this.input = input;
+		for (byte magicByte : BinaryMetricWriter.MAGIC) {
+			if (!fill(1) || buffer[position++] != magicByte) {
+				throw new IOException("Not a binary metric stream.");
+			}
+		}
+		if (!fill(1)) {
+			throw new EOFException("Missing binary metric format version.");
+		}
+		int version = buffer[position++];
+		if (version < BinaryMetricWriter.MINIMUM_FORMAT_VERSION
+				|| version > BinaryMetricWriter.FORMAT_VERSION) {
+			throw new IOException("Unsupported binary metric format version : "
+					+ version);
+		}
+	}
+
+	/**
+	 * Check if a file starts with the binary metric file header.
+	 * 
+	 * @param fileName
+	 *            the file to check.
+	 * @return true if the file is a binary metric file.
+	 * @throws IOException
+	 *             if the file can't be read.
+	 */
+	public static boolean isBinaryMetricFile(String fileName)
+			throws IOException {
+		byte[] header = new byte[BinaryMetricWriter.MAGIC.length];
+		FileInputStream stream = new FileInputStream(fileName);
+		try {
+			int read = 0;
+			while (read < header.length) {
+				int count = stream.read(header, read, header.length - read);
+				if (count < 0) {
+					return false;
+				}
+				read += count;
+			}
+		} finally {
+			CacheUtilities.closeQuietly(stream);
+		}
+		return Arrays.equals(header, BinaryMetricWriter.MAGIC);
+	}
+
+	/**
+	 * Read the next metric.
+	 * 
+	 * @return the next metric, null once the end of the stream or a
+	 *         truncated record is reached.
+	 * @throws IOException
+	 *             if the stream can't be read or is corrupted.
+	 */
+	public OperationMetric read() throws IOException {
+		if (truncated || !fill(1)) {
+			return null;
+		}
+		int recordType = buffer[position++];
+		if (recordType != BinaryMetricWriter.RECORD_METRIC) {
+			throw new IOException("Unknown binary metric record type : "
+					+ recordType);
+		}
+
+		try {
+			return readMetric();
+		} catch (EOFException ex) {
+			truncated = true;
+			LOGGER.log(Level.WARNING,
+					"Skipping the truncated last binary metric record.", ex);
+			return null;
+		}
+	}
+
+	/**
+	 * @return true if the stream ended in the middle of a record.
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	/**
+	 * Read the content of a metric record.
+	 */
+	private OperationMetric readMetric() throws IOException {
+		OperationMetric metric = new OperationMetric();
+		metric.setIdentifier(readSigned());
+		metric.setParentIdentifier(readSigned());
+		metric.setOperationName(readString());
+
+		long size = readVarLong();
+		if (size < 0 || size > Integer.MAX_VALUE) {
+			throw new IOException("Invalid binary metric key value pair count : "
+					+ size);
+		}
+		if (size > 0) {
+			// every entry takes at least one byte, don't trust a corrupted
+			// count beyond the bytes already buffered, the list grows as needed.
+			List<String> keyValuePairList = new ArrayList<String>(
+					(int) Math.min(size, limit - position));
+			for (long i = 0; i < size; ++i) {
+				keyValuePairList.add(readString());
+			}
+			metric.setKeyValuePairList(keyValuePairList);
+		}
+
+		long startTime = readSigned();
+		metric.setStartTime(startTime);
+		metric.setStopTime(startTime + readSigned());
+		metric.setDuration(readSigned());
+		metric.setResultSize((int) readSigned());
+
+		int flags = readByte();
+		metric.setResultFetchedFromCache((flags & BinaryMetricWriter.FLAG_RESULT_FETCHED_FROM_CACHE) != 0);
+		metric.setOperationCacheEnabled((flags & BinaryMetricWriter.FLAG_OPERATION_CACHE_ENABLED) != 0);
+		metric.setSuccessful((flags & BinaryMetricWriter.FLAG_SUCCESSFUL) != 0);
+		if ((flags & BinaryMetricWriter.FLAG_SAMPLED) != 0) {
+			long samplingWeight = readVarLong();
+			if (samplingWeight < 1 || samplingWeight > Integer.MAX_VALUE) {
+				throw new IOException("Invalid binary metric sampling weight : "
+						+ samplingWeight);
+			}
+			metric.setSamplingWeight((int) samplingWeight);
+		}
+
+		return metric;
+	}
+
+	/**
+	 * Read a string reference.
+	 */
+	private String readString() throws IOException {
+		long reference = readVarLong();
+		if (reference == BinaryMetricWriter.STRING_NULL) {
+			return null;
+		}
+		if (reference == BinaryMetricWriter.STRING_INLINE) {
+			return readUtf8();
+		}
+		if (reference == BinaryMetricWriter.STRING_NEW_ENTRY) {
+			String value = readUtf8();
+			dictionary.add(value);
+			return value;
+		}
+		long index = reference - BinaryMetricWriter.STRING_FIRST_REFERENCE;
+		if (index >= dictionary.size()) {
+			throw new IOException("Invalid binary metric dictionary reference : "
+					+ index);
+		}
+		return dictionary.get((int) index);
+	}
+
+	/**
+	 * Read a length prefixed UTF-8 string.
+	 */
+	private String readUtf8() throws IOException {
+		int length = (int) readVarLong();
+		if (length < 0) {
+			throw new IOException("Invalid binary metric string length : "
+					+ length);
+		}
+		if (length > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(length, buffer.length * 2));
+		}
+		if (!fill(length)) {
+			throw new EOFException("Truncated binary metric record.");
+		}
+		String value = new String(buffer, position, length,
+				StandardCharsets.UTF_8);
+		position += length;
+		return value;
+	}
+
+	private long readSigned() throws IOException {
+		long value = readVarLong();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private long readVarLong() throws IOException {
+		long value = 0;
+		int shift = 0;
+		while (true) {
+			int current = readByte();
+			value |= (long) (current & 0x7F) << shift;
+			if ((current & 0x80) == 0) {
+				return value;
+			}
+			shift += 7;
+			if (shift > 63) {
+				throw new IOException("Invalid binary metric variable length number.");
+			}
+		}
+	}
+
+	private int readByte() throws IOException {
+		if (position == limit && !fill(1)) {
+			throw new EOFException("Truncated binary metric record.");
+		}
+		return buffer[position++] & 0xFF;
+	}
+
+	/**
+	 * Make sure that the buffer contains at least the specified number of
+	 * bytes.
+	 * 
+	 * @return false if the end of the stream was reached first.
+	 */
+	private boolean fill(int byteCount) throws IOException {
+		if (limit - position >= byteCount) {
+			return true;
+		}
+		System.arraycopy(buffer, position, buffer, 0, limit - position);
+		limit -= position;
+		position = 0;
+		while (limit < byteCount) {
+			int read = input.read(buffer, limit, buffer.length - limit);
+			if (read < 0) {
+				return false;
+			}
+			limit += read;
+		}
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		input.close();
+	}
+}
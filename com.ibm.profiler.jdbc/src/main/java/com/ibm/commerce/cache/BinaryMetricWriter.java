@@ -0,0 +1,277 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes operation metrics in the compact binary metric format.
+ * <p>
+ * A binary metric file starts with the {@link #MAGIC} bytes followed by the
+ * {@link #FORMAT_VERSION} byte. Every record then starts with a record type
+ * byte, {@link #RECORD_METRIC} being the only type in the current version.
+ * A metric record contains, in order :
+ * <ul>
+ * <li>the identifier and parent identifier as zig-zag variable length
+ * longs</li>
+ * <li>the operation name as a string reference</li>
+ * <li>the number of key value pair entries as a variable length long,
+ * followed by the entries. Keys are string references, values are always
+ * written inline.</li>
+ * <li>the start time, the stop time minus the start time, the duration and
+ * the result size as zig-zag variable length longs</li>
+ * <li>one byte of boolean flags</li>
+ * </ul>
+ * A string reference is a variable length long : {@link #STRING_NULL} for
+ * null, {@link #STRING_INLINE} followed by a UTF-8 string,
+ * {@link #STRING_NEW_ENTRY} followed by a UTF-8 string added to the
+ * dictionary, or {@link #STRING_FIRST_REFERENCE} plus the index of a string
+ * already in the dictionary. UTF-8 strings are prefixed with their length in
+ * bytes. The dictionary is built as the file is written, so it doesn't need
+ * to be known in advance and a file can be read as a stream.
+ * <p>
+ * This class isn't thread safe.
+ */
+public class BinaryMetricWriter {
+
+	/**
+	 * Bytes starting every binary metric file.
+	 */
+	public static final byte[] MAGIC = { 'P', 'M', 'B', 'F' };
+
+	/**
+	 * Version of the format written by this class.
+	 */
+	public static final int FORMAT_VERSION = 2;
+
+	/**
+	 * Oldest format version that can still be read. Version 1 doesn't have
+	 * the {@link #FLAG_SAMPLED} flag.
+	 */
+	public static final int MINIMUM_FORMAT_VERSION = 1;
+
+	/**
+	 * Record type of an operation metric.
+	 */
+	public static final int RECORD_METRIC = 1;
+
+	/**
+	 * String reference of a null string.
+	 */
+	public static final int STRING_NULL = 0;
+
+	/**
+	 * String reference of a string written inline.
+	 */
+	public static final int STRING_INLINE = 1;
+
+	/**
+	 * String reference of a string written inline and added to the
+	 * dictionary.
+	 */
+	public static final int STRING_NEW_ENTRY = 2;
+
+	/**
+	 * String reference of the first dictionary entry.
+	 */
+	public static final int STRING_FIRST_REFERENCE = 3;
+
+	/**
+	 * Flag set when the result was fetched from cache.
+	 */
+	public static final int FLAG_RESULT_FETCHED_FROM_CACHE = 1;
+
+	/**
+	 * Flag set when the operation cache was enabled.
+	 */
+	public static final int FLAG_OPERATION_CACHE_ENABLED = 2;
+
+	/**
+	 * Flag set when the operation was successful.
+	 */
+	public static final int FLAG_SUCCESSFUL = 4;
+
+	/**
+	 * Flag set when the operation was sampled, the sampling weight follows
+	 * the flags.
+	 */
+	public static final int FLAG_SAMPLED = 8;
+
+	/**
+	 * Default maximum number of dictionary entries per file.
+	 */
+	public static final int DEFAULT_MAXIMUM_DICTIONARY_SIZE = 65536;
+
+	/**
+	 * Writer receiving the encoded bytes.
+	 */
+	private final MetricChannelWriter writer;
+
+	/**
+	 * Dictionary of the strings already written, with their index.
+	 */
+	private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+
+	/**
+	 * Maximum number of dictionary entries. Once reached, new strings are
+	 * written inline.
+	 */
+	private int maximumDictionarySize = DEFAULT_MAXIMUM_DICTIONARY_SIZE;
+
+	/**
+	 * @param writer
+	 *            the writer receiving the encoded bytes.
+	 */
+	public BinaryMetricWriter(MetricChannelWriter writer) {
+		this.writer = writer;
+	}
+
+	/**
+	 * @return the maximum number of dictionary entries.
+	 */
+	public int getMaximumDictionarySize() {
+		return maximumDictionarySize;
+	}
+
+	/**
+	 * @param maximumDictionarySize
+	 *            the maximum number of dictionary entries.
+	 */
+	public void setMaximumDictionarySize(int maximumDictionarySize) {
+		this.maximumDictionarySize = maximumDictionarySize;
+	}
+
+	/**
+	 * Start a new file : write the file header and clear the dictionary.
+	 * 
+	 * @throws IOException
+	 *             if the write failed.
+	 */
+	public void writeHeader() throws IOException {
+		dictionary.clear();
+		for (byte magicByte : MAGIC) {
+			writer.appendByte(magicByte);
+		}
+		writer.appendByte(FORMAT_VERSION);
+	}
+
+	/**
+	 * Write an operation metric record.
+	 * 
+	 * @param metric
+	 *            the metric to write.
+	 * @throws IOException
+	 *             if the write failed.
+	 */
+	public void write(OperationMetric metric) throws IOException {
+		writer.appendByte(RECORD_METRIC);
+		appendSigned(metric.getIdentifier());
+		appendSigned(metric.getParentIdentifier());
+		appendDictionaryString(metric.getOperationName());
+
+		List<String> keyValuePairList = metric.getKeyValuePairList();
+		if (keyValuePairList == null) {
+			writer.appendVarLong(0);
+		} else {
+			int size = keyValuePairList.size();
+			writer.appendVarLong(size);
+			for (int i = 0; i < size; ++i) {
+				String value = keyValuePairList.get(i);
+				if (i % 2 == 0) {
+					appendDictionaryString(value);
+				} else {
+					appendInlineString(value);
+				}
+			}
+		}
+
+		long startTime = metric.getStartTime();
+		appendSigned(startTime);
+		appendSigned(metric.getStopTime() - startTime);
+		appendSigned(metric.getDuration());
+		appendSigned(metric.getResultSize());
+
+		int flags = 0;
+		if (metric.isResultFetchedFromCache()) {
+			flags |= FLAG_RESULT_FETCHED_FROM_CACHE;
+		}
+		if (metric.isOperationCacheEnabled()) {
+			flags |= FLAG_OPERATION_CACHE_ENABLED;
+		}
+		if (metric.isSuccessful()) {
+			flags |= FLAG_SUCCESSFUL;
+		}
+		int samplingWeight = metric.getSamplingWeight();
+		if (samplingWeight != 1) {
+			flags |= FLAG_SAMPLED;
+		}
+		writer.appendByte(flags);
+		if (samplingWeight != 1) {
+			writer.appendVarLong(samplingWeight);
+		}
+	}
+
+	/**
+	 * Append a signed value using zig-zag encoding so that small negative
+	 * values remain small.
+	 */
+	private void appendSigned(long value) throws IOException {
+		writer.appendVarLong((value << 1) ^ (value >> 63));
+	}
+
+	/**
+	 * Append a string reference, adding the string to the dictionary if there
+	 * is room left.
+	 */
+	private void appendDictionaryString(String value) throws IOException {
+		if (value == null) {
+			writer.appendVarLong(STRING_NULL);
+			return;
+		}
+		Integer index = dictionary.get(value);
+		if (index != null) {
+			writer.appendVarLong(STRING_FIRST_REFERENCE + (long) index);
+		} else if (dictionary.size() < maximumDictionarySize) {
+			dictionary.put(value, dictionary.size());
+			writer.appendVarLong(STRING_NEW_ENTRY);
+			appendUtf8(value);
+		} else {
+			writer.appendVarLong(STRING_INLINE);
+			appendUtf8(value);
+		}
+	}
+
+	/**
+	 * Append a string reference of a string that is never added to the
+	 * dictionary.
+	 */
+	private void appendInlineString(String value) throws IOException {
+		if (value == null) {
+			writer.appendVarLong(STRING_NULL);
+			return;
+		}
+		writer.appendVarLong(STRING_INLINE);
+		appendUtf8(value);
+	}
+
+	private void appendUtf8(String value) throws IOException {
+		writer.appendVarLong(MetricChannelWriter.getUtf8Length(value));
+		writer.appendUtf8(value);
+	}
+}
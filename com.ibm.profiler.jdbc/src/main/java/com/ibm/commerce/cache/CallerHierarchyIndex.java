@@ -0,0 +1,353 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Builds the reverse caller trees of the operations from the rows of a
+ * {@link ColumnarMetricStore}, replacing the level by level SQL queries on
+ * the METRIC table.
+ * <p>
+ * The index links every row to the rows of its parent identifier. It is built
+ * in a single pass using a {@link LongIntHashMap} from identifier to row, the
+ * rows sharing an identifier being chained together. A tree then only walks
+ * the rows of its operation and of their callers.
+ * <p>
+ * The trees hold the same values as the former SQL analysis : at each level,
+ * the parents of the distinct rows of the previous level are joined with the
+ * METRIC rows and grouped by operation name. Children are sorted by operation
+ * name.
+ * <p>
+ * Trees may be built from several threads once the index is created.
+ */
+public class CallerHierarchyIndex {
+
+	/**
+	 * Aggregated callers of an operation at a given level of the tree.
+	 */
+	public static class CallerNode {
+
+		private final String operationName;
+
+		private long callCount;
+
+		private long sumDuration;
+
+		private long sumResultSize;
+
+		private long uniqueCallerCount;
+
+		private long parentCount;
+
+		private final List<CallerNode> childList = new ArrayList<CallerNode>();
+
+		CallerNode(String operationName) {
+			this.operationName = operationName;
+		}
+
+		/**
+		 * @return the operation name.
+		 */
+		public String getOperationName() {
+			return operationName;
+		}
+
+		/**
+		 * @return the number of calls, counted once per called row.
+		 */
+		public long getCallCount() {
+			return callCount;
+		}
+
+		/**
+		 * @return the average duration in nanoseconds.
+		 */
+		public long getAverageDuration() {
+			return sumDuration / callCount;
+		}
+
+		/**
+		 * @return the average result size.
+		 */
+		public long getAverageSize() {
+			return sumResultSize / callCount;
+		}
+
+		/**
+		 * @return the number of distinct keys.
+		 */
+		public long getUniqueCallerCount() {
+			return uniqueCallerCount;
+		}
+
+		/**
+		 * @return the average number of calls per distinct identifier.
+		 */
+		public float getAverageCallCount() {
+			return (float) ((double) callCount / parentCount);
+		}
+
+		/**
+		 * @return the number of distinct identifiers.
+		 */
+		public long getParentCount() {
+			return parentCount;
+		}
+
+		/**
+		 * @return the callers of this operation.
+		 */
+		public List<CallerNode> getChildList() {
+			return childList;
+		}
+	}
+
+	/**
+	 * A node and the distinct rows it groups, waiting for its callers.
+	 */
+	private static class PendingNode {
+
+		private final CallerNode node;
+
+		private final int[] rows;
+
+		PendingNode(CallerNode node, int[] rows) {
+			this.node = node;
+			this.rows = rows;
+		}
+	}
+
+	private static final Comparator<PendingNode> OPERATION_NAME_ORDER = new Comparator<PendingNode>() {
+		@Override
+		public int compare(PendingNode left, PendingNode right) {
+			return left.node.getOperationName().compareTo(
+					right.node.getOperationName());
+		}
+	};
+
+	private final ColumnarMetricStore store;
+
+	private final int maximumDepth;
+
+	/**
+	 * Per row, the first row of its parent identifier or
+	 * {@link LongIntHashMap#NO_VALUE}.
+	 */
+	private final int[] parentRows;
+
+	/**
+	 * Per row, the next row sharing its identifier or
+	 * {@link LongIntHashMap#NO_VALUE}.
+	 */
+	private final int[] nextRows;
+
+	/**
+	 * Per row, the first row sharing its identifier. Null when all the
+	 * identifiers are unique.
+	 */
+	private final int[] firstRows;
+
+	/**
+	 * Rows of every operation, in ascending order.
+	 */
+	private final int[][] operationRows;
+
+	/**
+	 * Index the rows of a store. The store must not change afterwards.
+	 * 
+	 * @param store
+	 *            the loaded metrics.
+	 * @param maximumDepth
+	 *            the number of caller levels below an operation.
+	 */
+	public CallerHierarchyIndex(ColumnarMetricStore store, int maximumDepth) {
+		this.store = store;
+		this.maximumDepth = maximumDepth;
+
+		int rowCount = store.getRowCount();
+		LongIntHashMap rowByIdentifier = new LongIntHashMap(rowCount);
+		nextRows = new int[rowCount];
+		int[] first = new int[rowCount];
+		boolean duplicates = false;
+		int[] operationSizes = new int[store.getOperationCount()];
+		for (int row = 0; row < rowCount; ++row) {
+			int firstRow = rowByIdentifier.get(store.getIdentifier(row));
+			if (firstRow == LongIntHashMap.NO_VALUE) {
+				rowByIdentifier.put(store.getIdentifier(row), row);
+				first[row] = row;
+				nextRows[row] = LongIntHashMap.NO_VALUE;
+			} else {
+				first[row] = firstRow;
+				nextRows[row] = nextRows[firstRow];
+				nextRows[firstRow] = row;
+				duplicates = true;
+			}
+			++operationSizes[store.getOperationIdAt(row)];
+		}
+		firstRows = duplicates ? first : null;
+
+		parentRows = new int[rowCount];
+		operationRows = new int[operationSizes.length][];
+		for (int i = 0; i < operationSizes.length; ++i) {
+			operationRows[i] = new int[operationSizes[i]];
+		}
+		int[] operationFill = new int[operationSizes.length];
+		for (int row = 0; row < rowCount; ++row) {
+			parentRows[row] = rowByIdentifier.get(store
+					.getParentIdentifier(row));
+			int operationId = store.getOperationIdAt(row);
+			operationRows[operationId][operationFill[operationId]++] = row;
+		}
+	}
+
+	/**
+	 * Build the reverse caller tree of an operation.
+	 * 
+	 * @param operationName
+	 *            the normalized operation name.
+	 * @return the root of the tree or null if the operation is unknown.
+	 */
+	public CallerNode buildCallerTree(String operationName) {
+		int operationId = store.getOperationId(operationName);
+		if (operationId < 0 || operationId >= operationRows.length
+				|| operationRows[operationId].length == 0) {
+			return null;
+		}
+		int[] rows = operationRows[operationId];
+		CallerNode root = summarize(operationId, rows, 0, rows.length);
+		addCallers(new PendingNode(root, rows), 0);
+		return root;
+	}
+
+	private void addCallers(PendingNode pending, int depth) {
+		if (depth >= maximumDepth) {
+			return;
+		}
+
+		// join the parent identifiers of the distinct rows with their rows,
+		// sorted by operation then row
+		int joinCount = 0;
+		for (int row : pending.rows) {
+			for (int parent = parentRows[row]; parent != LongIntHashMap.NO_VALUE; parent = nextRows[parent]) {
+				++joinCount;
+			}
+		}
+		if (joinCount == 0) {
+			return;
+		}
+		long[] joined = new long[joinCount];
+		int index = 0;
+		for (int row : pending.rows) {
+			for (int parent = parentRows[row]; parent != LongIntHashMap.NO_VALUE; parent = nextRows[parent]) {
+				joined[index++] = ((long) store.getOperationIdAt(parent) << 32)
+						| parent;
+			}
+		}
+		Arrays.sort(joined);
+
+		List<PendingNode> callers = new ArrayList<PendingNode>();
+		int[] joinedRows = new int[joinCount];
+		for (int i = 0; i < joinCount; ++i) {
+			joinedRows[i] = (int) joined[i];
+		}
+		int start = 0;
+		while (start < joinCount) {
+			int operationId = (int) (joined[start] >>> 32);
+			int end = start + 1;
+			while (end < joinCount && (int) (joined[end] >>> 32) == operationId) {
+				++end;
+			}
+			CallerNode caller = summarize(operationId, joinedRows, start, end);
+			callers.add(new PendingNode(caller, distinct(joinedRows, start,
+					end)));
+			start = end;
+		}
+
+		Collections.sort(callers, OPERATION_NAME_ORDER);
+		int callerDepth = depth + 1;
+		for (PendingNode caller : callers) {
+			pending.node.childList.add(caller.node);
+			addCallers(caller, callerDepth);
+		}
+	}
+
+	/**
+	 * Aggregate a group of rows of the same operation.
+	 * 
+	 * @param rows
+	 *            the rows, sorted, a row appears once per join.
+	 */
+	private CallerNode summarize(int operationId, int[] rows, int start,
+			int end) {
+		CallerNode node = new CallerNode(
+				store.getOperationNameById(operationId));
+		node.callCount = end - start;
+		int[] keyIds = new int[end - start];
+		for (int i = start; i < end; ++i) {
+			int row = rows[i];
+			node.sumDuration += store.getDuration(row);
+			node.sumResultSize += store.getResultSize(row);
+			keyIds[i - start] = store.getKeyIdAt(row);
+		}
+
+		Arrays.sort(keyIds);
+		for (int i = 0; i < keyIds.length; ++i) {
+			if ((i == 0 || keyIds[i] != keyIds[i - 1])
+					&& store.getKeyById(keyIds[i]) != null) {
+				++node.uniqueCallerCount;
+			}
+		}
+
+		if (firstRows == null) {
+			node.parentCount = countDistinct(rows, start, end);
+		} else {
+			int[] identifiers = new int[end - start];
+			for (int i = start; i < end; ++i) {
+				identifiers[i - start] = firstRows[rows[i]];
+			}
+			Arrays.sort(identifiers);
+			node.parentCount = countDistinct(identifiers, 0,
+					identifiers.length);
+		}
+		return node;
+	}
+
+	private static int countDistinct(int[] sorted, int start, int end) {
+		int count = 0;
+		for (int i = start; i < end; ++i) {
+			if (i == start || sorted[i] != sorted[i - 1]) {
+				++count;
+			}
+		}
+		return count;
+	}
+
+	private static int[] distinct(int[] sorted, int start, int end) {
+		int[] result = new int[countDistinct(sorted, start, end)];
+		int index = 0;
+		for (int i = start; i < end; ++i) {
+			if (i == start || sorted[i] != sorted[i - 1]) {
+				result[index++] = sorted[i];
+			}
+		}
+		return result;
+	}
+}
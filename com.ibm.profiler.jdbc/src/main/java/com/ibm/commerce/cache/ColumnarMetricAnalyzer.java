@@ -0,0 +1,862 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+/**
+ * Computes the operation metrics of {@link MetricCompiler} from a
+ * {@link ColumnarMetricStore} instead of the METRIC table.
+ * <p>
+ * The row scans are split in ranges processed in parallel on a
+ * {@link ForkJoinPool}, each range aggregating into its own partial results
+ * which are then merged. The results follow the SQL semantics, including the
+ * truncation of the BIGINT columns of UNIQUECACHEHITS, so that both analysis
+ * paths produce the same reports. Only the small CACHEHITSTEPS and
+ * CACHEALLOCATION tables are written to the database by
+ * {@link #writeResults(DataSource)}.
+ */
+public class ColumnarMetricAnalyzer {
+
+	private static final String CLASS_NAME = ColumnarMetricAnalyzer.class
+			.getName();
+
+	private static final Logger LOGGER = LoggingHelper.getLogger(CLASS_NAME);
+
+	/**
+	 * Insert statement filling CACHEHITSTEPS and CACHEALLOCATION.
+	 */
+	private static final String INSERT_STEP_COLUMNS_SQL = " (AVERAGEDURATION,AVERAGEDURATIONHIT,AVERAGEDURATIONMISS,SUMAVERAGERESULTSIZE,AVERAGERESULTSIZE,KEYVALUECOUNT,SUMCACHEHITCOUNT,SUMCALLCOUNT,OPERATIONNAME,STEP,SECONDSAVEDPERBYTE,CACHEALLOCATION,SUMREALCACHEHITCOUNT,SUMREALCACHEACTCOUNT)"
+			+ " VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+
+	/**
+	 * Default minimum number of rows scanned by a single task.
+	 */
+	private static final int DEFAULT_MINIMUM_RANGE_SIZE = 65536;
+
+	/*
+	 * Positions in the per key accumulators.
+	 */
+	private static final int CALL_COUNT = 0;
+	private static final int SUM_DURATION = 1;
+	private static final int SUM_DURATION_MISS = 2;
+	private static final int SUM_DURATION_HIT = 3;
+	private static final int SUM_RESULT_SIZE = 4;
+	private static final int FROM_CACHE_COUNT = 5;
+	private static final int CACHE_ENABLED_COUNT = 6;
+	private static final int ACCUMULATOR_SIZE = 7;
+
+	/**
+	 * Initial number of unique cache hits of a range, the groups grow as
+	 * needed.
+	 */
+	private static final int INITIAL_GROUP_CAPACITY = 1024;
+
+	/**
+	 * One row of UNIQUECACHEHITS : the calls of an operation sharing the same
+	 * unique key.
+	 */
+	public static class UniqueCacheHit {
+		private int operationId;
+		private int keyId;
+		private long cacheHitCount;
+		private long callCount;
+		private long averageDuration;
+		private long averageDurationMiss;
+		private long averageDurationHit;
+		private long averageResultSize;
+		private long realCacheHitCount;
+		private long realCacheActCount;
+
+		public int getOperationId() {
+			return operationId;
+		}
+
+		public int getKeyId() {
+			return keyId;
+		}
+
+		public long getCacheHitCount() {
+			return cacheHitCount;
+		}
+
+		public long getCallCount() {
+			return callCount;
+		}
+
+		public long getAverageDuration() {
+			return averageDuration;
+		}
+
+		public long getAverageDurationMiss() {
+			return averageDurationMiss;
+		}
+
+		public long getAverageDurationHit() {
+			return averageDurationHit;
+		}
+
+		public long getAverageResultSize() {
+			return averageResultSize;
+		}
+
+		public long getRealCacheHitCount() {
+			return realCacheHitCount;
+		}
+
+		public long getRealCacheActCount() {
+			return realCacheActCount;
+		}
+	}
+
+	/**
+	 * One row of CACHEHITSTEPS or CACHEALLOCATION.
+	 */
+	public static class CacheHitStep {
+		private String operationName;
+		private String step;
+		private double secondSavedPerByte;
+		private double cacheAllocation;
+		private double averageDuration;
+		private double averageDurationHit;
+		private double averageDurationMiss;
+		private double averageResultSize;
+		private double sumAverageResultSize;
+		private double keyValueCount;
+		private double sumCacheHitCount;
+		private double sumRealCacheHitCount;
+		private double sumRealCacheActCount;
+		private double sumCallCount;
+
+		public String getOperationName() {
+			return operationName;
+		}
+
+		public String getStep() {
+			return step;
+		}
+
+		public double getSecondSavedPerByte() {
+			return secondSavedPerByte;
+		}
+
+		public double getCacheAllocation() {
+			return cacheAllocation;
+		}
+
+		public double getAverageDuration() {
+			return averageDuration;
+		}
+
+		public double getAverageDurationHit() {
+			return averageDurationHit;
+		}
+
+		public double getAverageDurationMiss() {
+			return averageDurationMiss;
+		}
+
+		public double getAverageResultSize() {
+			return averageResultSize;
+		}
+
+		public double getSumAverageResultSize() {
+			return sumAverageResultSize;
+		}
+
+		public double getKeyValueCount() {
+			return keyValueCount;
+		}
+
+		public double getSumCacheHitCount() {
+			return sumCacheHitCount;
+		}
+
+		public double getSumRealCacheHitCount() {
+			return sumRealCacheHitCount;
+		}
+
+		public double getSumRealCacheActCount() {
+			return sumRealCacheActCount;
+		}
+
+		public double getSumCallCount() {
+			return sumCallCount;
+		}
+	}
+
+	private final ColumnarMetricStore store;
+
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+
+	private int minimumRangeSize = DEFAULT_MINIMUM_RANGE_SIZE;
+
+	private List<UniqueCacheHit> uniqueCacheHits = Collections.emptyList();
+
+	private List<CacheHitStep> cacheHitSteps = Collections.emptyList();
+
+	private List<CacheHitStep> cacheAllocations = Collections.emptyList();
+
+	/**
+	 * Fastest, average and slowest rows of every operation, built on first
+	 * use.
+	 */
+	private int[][] stackRows = null;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param store
+	 *            the loaded metrics.
+	 */
+	public ColumnarMetricAnalyzer(ColumnarMetricStore store) {
+		this.store = store;
+	}
+
+	/**
+	 * @return the number of threads scanning the rows.
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * @param parallelism
+	 *            the number of threads scanning the rows.
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	/**
+	 * @param minimumRangeSize
+	 *            the minimum number of rows scanned by a single task.
+	 */
+	void setMinimumRangeSize(int minimumRangeSize) {
+		this.minimumRangeSize = Math.max(1, minimumRangeSize);
+	}
+
+	/**
+	 * Run the equivalent of {@link MetricCompiler#aggregateCacheHits},
+	 * {@link MetricCompiler#regroupCacheHitsInSteps} and
+	 * {@link MetricCompiler#allocateCacheSpace}.
+	 *
+	 * @param stepSeparationPoints
+	 *            the cache hit step separation points.
+	 * @param cacheSize
+	 *            the size of the cache to allocate.
+	 * @throws Exception
+	 *             if a scan fails.
+	 */
+	public void compute(long[] stepSeparationPoints, long cacheSize)
+			throws Exception {
+		long startTime = System.currentTimeMillis();
+		uniqueCacheHits = aggregateCacheHits();
+		long duration = System.currentTimeMillis() - startTime;
+		LOGGER.log(Level.INFO, "Took " + duration
+				+ " ms to aggregate the cache hits of " + store.getRowCount()
+				+ " metrics in memory.");
+
+		cacheHitSteps = new ArrayList<CacheHitStep>();
+		for (Step step : MetricCompiler
+				.getStepListFromBreakPoints(stepSeparationPoints)) {
+			cacheHitSteps.addAll(regroupCacheHitsInSteps(uniqueCacheHits, step));
+		}
+		cacheAllocations = regroupCacheHitsInSteps(uniqueCacheHits, new Step());
+
+		allocateCacheSpace(cacheHitSteps, cacheAllocations, cacheSize);
+	}
+
+	/**
+	 * @return the UNIQUECACHEHITS rows computed by the last
+	 *         {@link #compute(long[], long)}.
+	 */
+	public List<UniqueCacheHit> getUniqueCacheHits() {
+		return uniqueCacheHits;
+	}
+
+	/**
+	 * @return the CACHEHITSTEPS rows computed by the last
+	 *         {@link #compute(long[], long)}.
+	 */
+	public List<CacheHitStep> getCacheHitSteps() {
+		return cacheHitSteps;
+	}
+
+	/**
+	 * @return the CACHEALLOCATION rows computed by the last
+	 *         {@link #compute(long[], long)}.
+	 */
+	public List<CacheHitStep> getCacheAllocations() {
+		return cacheAllocations;
+	}
+
+	/**
+	 * Group the rows by operation and unique key.
+	 *
+	 * @return the unique cache hits, in the order their key was first seen.
+	 * @throws Exception
+	 *             if a scan fails.
+	 */
+	public List<UniqueCacheHit> aggregateCacheHits() throws Exception {
+		List<CacheHitGroups> partials = scan(new RangeScanner<CacheHitGroups>() {
+			@Override
+			public CacheHitGroups scan(int start, int stop) {
+				CacheHitGroups groups = new CacheHitGroups(Math.min(
+						stop - start, INITIAL_GROUP_CAPACITY));
+				for (int row = start; row < stop; ++row) {
+					long[] accumulator = groups.getAccumulator(((long) store
+							.getOperationIdAt(row) << 32)
+							| (store.getKeyIdAt(row) & 0xffffffffL));
+					long duration = store.getDuration(row);
+					accumulator[CALL_COUNT]++;
+					accumulator[SUM_DURATION] += duration;
+					accumulator[SUM_RESULT_SIZE] += store.getResultSize(row);
+					if (store.isFromCache(row)) {
+						accumulator[SUM_DURATION_HIT] += duration;
+						accumulator[FROM_CACHE_COUNT]++;
+					} else {
+						accumulator[SUM_DURATION_MISS] += duration;
+					}
+					if (store.isCacheEnabled(row)) {
+						accumulator[CACHE_ENABLED_COUNT]++;
+					}
+				}
+				return groups;
+			}
+		});
+
+		CacheHitGroups merged = partials.get(0);
+		for (int p = 1; p < partials.size(); ++p) {
+			CacheHitGroups partial = partials.get(p);
+			for (int i = 0; i < partial.size(); ++i) {
+				long[] accumulator = merged.getAccumulator(partial
+						.getGroup(i));
+				long[] value = partial.getAccumulatorAt(i);
+				for (int j = 0; j < ACCUMULATOR_SIZE; ++j) {
+					accumulator[j] += value[j];
+				}
+			}
+		}
+
+		List<UniqueCacheHit> hits = new ArrayList<UniqueCacheHit>(
+				merged.size());
+		for (int i = 0; i < merged.size(); ++i) {
+			long group = merged.getGroup(i);
+			long[] accumulator = merged.getAccumulatorAt(i);
+			long callCount = accumulator[CALL_COUNT];
+			long fromCacheCount = accumulator[FROM_CACHE_COUNT];
+
+			UniqueCacheHit hit = new UniqueCacheHit();
+			hit.operationId = (int) (group >>> 32);
+			hit.keyId = (int) group;
+			hit.cacheHitCount = callCount - 1;
+			hit.callCount = callCount;
+			hit.averageDuration = accumulator[SUM_DURATION] / callCount;
+			hit.averageDurationMiss = accumulator[SUM_DURATION_MISS]
+					/ Math.max(callCount - fromCacheCount, 1);
+			hit.averageDurationHit = accumulator[SUM_DURATION_HIT]
+					/ Math.max(fromCacheCount, 1);
+			hit.averageResultSize = accumulator[SUM_RESULT_SIZE] / callCount;
+			hit.realCacheHitCount = fromCacheCount;
+			hit.realCacheActCount = accumulator[CACHE_ENABLED_COUNT];
+			hits.add(hit);
+		}
+		return hits;
+	}
+
+	/**
+	 * Regroup the unique cache hits reused a number of times within the step
+	 * by operation.
+	 *
+	 * @param hits
+	 *            the unique cache hits.
+	 * @param step
+	 *            the cache hit count range.
+	 * @return a step per operation, in the order operations were first seen.
+	 */
+	public List<CacheHitStep> regroupCacheHitsInSteps(
+			List<UniqueCacheHit> hits, Step step) {
+		String stepName = step.toString();
+		Map<Integer, double[]> groups = new LinkedHashMap<Integer, double[]>();
+		for (UniqueCacheHit hit : hits) {
+			if (hit.cacheHitCount < step.getStart()
+					|| hit.cacheHitCount > step.getStop()) {
+				continue;
+			}
+			Integer operation = Integer.valueOf(hit.operationId);
+			double[] sums = groups.get(operation);
+			if (sums == null) {
+				sums = new double[11];
+				groups.put(operation, sums);
+			}
+			long missCount = hit.callCount - hit.realCacheHitCount;
+			sums[0] += (double) (hit.averageDuration * hit.callCount);
+			sums[1] += (double) (hit.averageDurationHit * hit.realCacheHitCount);
+			sums[2] += (double) (hit.averageDurationMiss * missCount);
+			sums[3] += missCount;
+			sums[4] += hit.averageResultSize;
+			sums[5] += (double) (hit.averageResultSize * hit.callCount);
+			sums[6] += 1;
+			sums[7] += hit.cacheHitCount;
+			sums[8] += hit.callCount;
+			sums[9] += hit.realCacheHitCount;
+			sums[10] += hit.realCacheActCount;
+		}
+
+		List<CacheHitStep> steps = new ArrayList<CacheHitStep>(groups.size());
+		for (Map.Entry<Integer, double[]> entry : groups.entrySet()) {
+			steps.add(createCacheHitStep(
+					store.getOperationNameById(entry.getKey().intValue()),
+					stepName, entry.getValue()));
+		}
+
+		return steps;
+	}
+
+	/**
+	 * Compute a step from the sums of its unique cache hits.
+	 *
+	 * @param operationName
+	 *            the operation name.
+	 * @param stepName
+	 *            the step name.
+	 * @param sums
+	 *            the sums accumulated by
+	 *            {@link #regroupCacheHitsInSteps(List, Step)} : duration
+	 *            times calls, hit duration times hits, miss duration times
+	 *            misses, misses, result size, result size times calls, keys,
+	 *            cache hits, calls, real cache hits and cache enabled calls.
+	 * @return the step, without cache allocation.
+	 */
+	static CacheHitStep createCacheHitStep(String operationName,
+			String stepName, double[] sums) {
+		CacheHitStep cacheHitStep = new CacheHitStep();
+		cacheHitStep.operationName = operationName;
+		cacheHitStep.step = stepName;
+		cacheHitStep.averageDuration = sums[0] / Math.max(sums[8], 1);
+		cacheHitStep.averageDurationHit = sums[1] / Math.max(sums[9], 1);
+		cacheHitStep.averageDurationMiss = sums[2] / Math.max(sums[3], 1);
+		cacheHitStep.sumAverageResultSize = sums[4];
+		cacheHitStep.averageResultSize = sums[5] / Math.max(sums[8], 1);
+		cacheHitStep.keyValueCount = sums[6];
+		cacheHitStep.sumCacheHitCount = sums[7];
+		cacheHitStep.sumCallCount = sums[8];
+		cacheHitStep.sumRealCacheHitCount = sums[9];
+		cacheHitStep.sumRealCacheActCount = sums[10];
+		cacheHitStep.secondSavedPerByte = (cacheHitStep.sumCacheHitCount
+				* cacheHitStep.averageDurationMiss + 0.0)
+				/ (Math.max(cacheHitStep.sumAverageResultSize, 1) * 1000000000.0);
+		cacheHitStep.cacheAllocation = 0;
+		return cacheHitStep;
+	}
+
+	/**
+	 * Allocate the cache space to the steps saving the most time per byte
+	 * first, then sum the allocation of every operation. The steps are taken
+	 * from a heap so that the allocation stops as soon as the cache is full,
+	 * the remaining steps keep their zero allocation.
+	 *
+	 * @param steps
+	 *            the operation steps.
+	 * @param allocations
+	 *            the operation totals.
+	 * @param cacheSize
+	 *            the size of the cache to allocate.
+	 */
+	public static void allocateCacheSpace(List<CacheHitStep> steps,
+			List<CacheHitStep> allocations, long cacheSize) {
+		long remainingCacheSize = Math.max(cacheSize, 0);
+
+		for (CacheHitStep step : steps) {
+			step.cacheAllocation = 0;
+		}
+		PriorityQueue<CacheHitStep> heap = new PriorityQueue<CacheHitStep>(
+				Math.max(steps.size(), 1), new Comparator<CacheHitStep>() {
+					@Override
+					public int compare(CacheHitStep left, CacheHitStep right) {
+						return Double.compare(right.secondSavedPerByte,
+								left.secondSavedPerByte);
+					}
+				});
+		heap.addAll(steps);
+
+		Map<String, Long> allocationByOperation = new HashMap<String, Long>();
+		while (remainingCacheSize > 0 && !heap.isEmpty()) {
+			CacheHitStep step = heap.poll();
+			long sizeRequested = (long) step.sumAverageResultSize;
+			long sizeAllocated = sizeRequested;
+			if (remainingCacheSize - sizeRequested <= 0) {
+				sizeAllocated = remainingCacheSize;
+			}
+			remainingCacheSize -= sizeAllocated;
+			step.cacheAllocation = sizeAllocated;
+
+			Long total = allocationByOperation.get(step.operationName);
+			long newTotal = sizeAllocated;
+			if (total != null) {
+				newTotal += total.longValue();
+			}
+			allocationByOperation.put(step.operationName, Long.valueOf(newTotal));
+		}
+
+		for (CacheHitStep allocation : allocations) {
+			Long total = allocationByOperation.get(allocation.operationName);
+			allocation.cacheAllocation = total == null ? 0 : total.longValue();
+		}
+	}
+
+	/**
+	 * Insert the CACHEHITSTEPS and CACHEALLOCATION rows computed by the last
+	 * {@link #compute(long[], long)} so that the SQL reports can run on them.
+	 * Both tables should be empty.
+	 *
+	 * @param dataSource
+	 *            the analysis database.
+	 * @throws SQLException
+	 *             any unexpected database error.
+	 */
+	public void writeResults(DataSource dataSource) throws SQLException {
+		insertSteps(dataSource, "INSERT INTO CACHEHITSTEPS", cacheHitSteps);
+		insertSteps(dataSource, "INSERT INTO CACHEALLOCATION",
+				cacheAllocations);
+	}
+
+	/**
+	 * Insert steps in CACHEHITSTEPS or CACHEALLOCATION.
+	 *
+	 * @param dataSource
+	 *            the analysis database.
+	 * @param insertIntoFragment
+	 *            the "INSERT INTO X" part of the statement.
+	 * @param steps
+	 *            the steps to insert.
+	 * @throws SQLException
+	 *             any unexpected database error.
+	 */
+	static void insertSteps(DataSource dataSource,
+			String insertIntoFragment, List<CacheHitStep> steps)
+			throws SQLException {
+		Connection connection = null;
+		PreparedStatement statement = null;
+		try {
+			// $ANALYSIS-IGNORE
+			connection = dataSource.getConnection();
+			// $ANALYSIS-IGNORE
+			statement = connection.prepareStatement(insertIntoFragment
+					+ INSERT_STEP_COLUMNS_SQL);
+			int maximumBatchSize = DatabaseMetricGatherer.INITIAL_MAXIMUM_DATABASE_BATCH_SIZE;
+			int i = 0;
+			for (CacheHitStep step : steps) {
+				statement.setDouble(1, step.averageDuration);
+				statement.setDouble(2, step.averageDurationHit);
+				statement.setDouble(3, step.averageDurationMiss);
+				statement.setDouble(4, step.sumAverageResultSize);
+				statement.setDouble(5, step.averageResultSize);
+				statement.setDouble(6, step.keyValueCount);
+				statement.setDouble(7, step.sumCacheHitCount);
+				statement.setDouble(8, step.sumCallCount);
+				statement.setString(9, step.operationName);
+				statement.setString(10, step.step);
+				statement.setDouble(11, step.secondSavedPerByte);
+				statement.setDouble(12, step.cacheAllocation);
+				statement.setDouble(13, step.sumRealCacheHitCount);
+				statement.setDouble(14, step.sumRealCacheActCount);
+				statement.addBatch();
+				++i;
+				if (i % maximumBatchSize == 0) {
+					statement.executeBatch();
+				}
+			}
+			statement.executeBatch();
+		} finally {
+			CacheUtilities.closeQuietly(statement);
+			CacheUtilities.closeQuietly(connection);
+		}
+	}
+
+	/**
+	 * Find the rows used by the stack report of an operation : the first
+	 * fastest call, the fastest call lasting at least the average duration and
+	 * the first slowest call. Safe to call from several report threads.
+	 *
+	 * @param operationName
+	 *            the normalized operation name.
+	 * @return the fastest, average and slowest rows or null if the operation
+	 *         is unknown.
+	 * @throws Exception
+	 *             if a scan fails.
+	 */
+	public synchronized int[] getStackRows(String operationName) throws Exception {
+		int operationId = store.getOperationId(operationName);
+		if (operationId < 0) {
+			return null;
+		}
+		if (stackRows == null) {
+			stackRows = findStackRows();
+		}
+		return stackRows[operationId];
+	}
+
+	private int[][] findStackRows() throws Exception {
+		final int operationCount = store.getOperationCount();
+
+		// first pass : the fastest and slowest rows and the duration sum
+		List<long[][]> partials = scan(new RangeScanner<long[][]>() {
+			@Override
+			public long[][] scan(int start, int stop) {
+				long[][] operations = new long[operationCount][];
+				for (int row = start; row < stop; ++row) {
+					int operationId = store.getOperationIdAt(row);
+					long duration = store.getDuration(row);
+					long[] operation = operations[operationId];
+					if (operation == null) {
+						operations[operationId] = new long[] { row, row,
+								duration, 1 };
+						continue;
+					}
+					if (duration < store.getDuration((int) operation[0])) {
+						operation[0] = row;
+					}
+					if (duration > store.getDuration((int) operation[1])) {
+						operation[1] = row;
+					}
+					operation[2] += duration;
+					operation[3]++;
+				}
+				return operations;
+			}
+		});
+
+		final long[][] merged = new long[operationCount][];
+		for (long[][] partial : partials) {
+			for (int i = 0; i < operationCount; ++i) {
+				long[] operation = partial[i];
+				if (operation == null) {
+					continue;
+				}
+				long[] total = merged[i];
+				if (total == null) {
+					merged[i] = operation;
+					continue;
+				}
+				if (store.getDuration((int) operation[0]) < store
+						.getDuration((int) total[0])) {
+					total[0] = operation[0];
+				}
+				if (store.getDuration((int) operation[1]) > store
+						.getDuration((int) total[1])) {
+					total[1] = operation[1];
+				}
+				total[2] += operation[2];
+				total[3] += operation[3];
+			}
+		}
+
+		// second pass : the fastest row at or above the average duration
+		List<int[]> averagePartials = scan(new RangeScanner<int[]>() {
+			@Override
+			public int[] scan(int start, int stop) {
+				int[] averageRows = new int[operationCount];
+				Arrays.fill(averageRows, -1);
+				for (int row = start; row < stop; ++row) {
+					int operationId = store.getOperationIdAt(row);
+					long[] operation = merged[operationId];
+					long average = operation[2] / operation[3];
+					long duration = store.getDuration(row);
+					if (duration < average) {
+						continue;
+					}
+					int current = averageRows[operationId];
+					if (current < 0 || duration < store.getDuration(current)) {
+						averageRows[operationId] = row;
+					}
+				}
+				return averageRows;
+			}
+		});
+
+		int[][] rows = new int[operationCount][];
+		for (int i = 0; i < operationCount; ++i) {
+			int averageRow = -1;
+			for (int[] partial : averagePartials) {
+				int candidate = partial[i];
+				if (candidate >= 0
+						&& (averageRow < 0 || store.getDuration(candidate) < store
+								.getDuration(averageRow))) {
+					averageRow = candidate;
+				}
+			}
+			long[] operation = merged[i];
+			rows[i] = new int[] { (int) operation[0], averageRow,
+					(int) operation[1] };
+		}
+		return rows;
+	}
+
+	/**
+	 * Find the longest root calls, those without a parent.
+	 *
+	 * @param limit
+	 *            the maximum number of rows to return.
+	 * @return the rows ordered by descending duration.
+	 */
+	public int[] getLongestRootRows(int limit) {
+		int rowCount = store.getRowCount();
+		List<Integer> roots = new ArrayList<Integer>();
+		for (int row = 0; row < rowCount; ++row) {
+			if (store.getParentIdentifier(row) == 0) {
+				roots.add(Integer.valueOf(row));
+			}
+		}
+		Collections.sort(roots, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer left, Integer right) {
+				return Long.compare(store.getDuration(right.intValue()),
+						store.getDuration(left.intValue()));
+			}
+		});
+		int size = Math.min(limit, roots.size());
+		int[] rows = new int[size];
+		for (int i = 0; i < size; ++i) {
+			rows[i] = roots.get(i).intValue();
+		}
+		return rows;
+	}
+
+	/**
+	 * Accumulators of the unique cache hits of a range, indexed by the
+	 * operation and key of the group without boxing, in the order the groups
+	 * were first seen.
+	 */
+	private static final class CacheHitGroups {
+
+		private final LongIntHashMap indexes;
+
+		private final List<long[]> accumulators;
+
+		private long[] groups;
+
+		CacheHitGroups(int expectedSize) {
+			indexes = new LongIntHashMap(expectedSize);
+			accumulators = new ArrayList<long[]>(expectedSize);
+			groups = new long[Math.max(expectedSize, 1)];
+		}
+
+		/**
+		 * @return the accumulator of the group, created empty the first time.
+		 */
+		long[] getAccumulator(long group) {
+			int index = indexes.get(group);
+			if (index != LongIntHashMap.NO_VALUE) {
+				return accumulators.get(index);
+			}
+			index = accumulators.size();
+			indexes.put(group, index);
+			if (index == groups.length) {
+				groups = Arrays.copyOf(groups, index * 2);
+			}
+			groups[index] = group;
+			long[] accumulator = new long[ACCUMULATOR_SIZE];
+			accumulators.add(accumulator);
+			return accumulator;
+		}
+
+		int size() {
+			return accumulators.size();
+		}
+
+		long getGroup(int index) {
+			return groups[index];
+		}
+
+		long[] getAccumulatorAt(int index) {
+			return accumulators.get(index);
+		}
+	}
+
+	/**
+	 * Scan of a range of rows.
+	 */
+	private interface RangeScanner<T> {
+		T scan(int start, int stop);
+	}
+
+	/**
+	 * Split the rows in ranges scanned in parallel.
+	 *
+	 * @return the result of every range, in row order.
+	 */
+	private <T> List<T> scan(final RangeScanner<T> scanner) throws Exception {
+		int rowCount = store.getRowCount();
+		int rangeCount = Math.min(parallelism,
+				Math.max(1, rowCount / minimumRangeSize));
+		List<T> results = new ArrayList<T>(rangeCount);
+		if (rangeCount == 1) {
+			results.add(scanner.scan(0, rowCount));
+			return results;
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(rangeCount);
+		try {
+			List<Future<T>> tasks = new ArrayList<Future<T>>(rangeCount);
+			int rangeSize = (rowCount + rangeCount - 1) / rangeCount;
+			for (int start = 0; start < rowCount; start += rangeSize) {
+				final int rangeStart = start;
+				final int rangeStop = Math.min(rowCount, start + rangeSize);
+				tasks.add(pool.submit(new Callable<T>() {
+					@Override
+					public T call() {
+						return scanner.scan(rangeStart, rangeStop);
+					}
+				}));
+			}
+			for (Future<T> task : tasks) {
+				try {
+					results.add(task.get());
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof Exception) {
+						throw (Exception) cause;
+					}
+					throw e;
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+		return results;
+	}
+}
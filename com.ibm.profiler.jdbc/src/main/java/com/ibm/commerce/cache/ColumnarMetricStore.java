@@ -0,0 +1,528 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+/**
+ * In memory replacement of the METRIC table. Every gathered metric becomes a
+ * row stored column by column in primitive arrays, operation names and unique
+ * keys are dictionary encoded.
+ * <p>
+ * Operation names and keys are normalized exactly like
+ * {@link DatabaseMetricGatherer} does before inserting them in the METRIC
+ * table so that the in memory analysis groups rows the same way the SQL
+ * analysis does.
+ * <p>
+ * Metrics may be gathered from several threads. The read methods must only be
+ * called once loading is over.
+ */
+public class ColumnarMetricStore implements DirectMetricGather {
+
+	/**
+	 * Initial number of rows allocated.
+	 */
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/**
+	 * Number of metrics the loaders gather between two calls to
+	 * {@link #writeMetrics()}.
+	 */
+	private static final int PENDING_FLUSH_SIZE = 10000;
+
+	/**
+	 * Flag set on rows fetched from cache.
+	 */
+	private static final byte FROM_CACHE_FLAG = 1;
+
+	/**
+	 * Flag set on rows with cache enabled.
+	 */
+	private static final byte CACHE_ENABLED_FLAG = 2;
+
+	/**
+	 * Query reading the METRIC table back.
+	 */
+	private static final String SELECT_METRIC_SQL = "SELECT IDENTIFIER,PARENTIDENTIFIER,STARTIME,STOPTIME,DURATION,RESULTSIZE,FROMCACHE,CACHEENABLED,OPERATIONNAME,KEYVALUE from METRIC";
+
+	/**
+	 * Number of rows fetched at once when reading the METRIC table.
+	 */
+	private static final int DATABASE_FETCH_SIZE = 10000;
+
+	private long[] identifiers = new long[INITIAL_CAPACITY];
+
+	private long[] parentIdentifiers = new long[INITIAL_CAPACITY];
+
+	private long[] startTimes = new long[INITIAL_CAPACITY];
+
+	private long[] stopTimes = new long[INITIAL_CAPACITY];
+
+	private long[] durations = new long[INITIAL_CAPACITY];
+
+	private int[] resultSizes = new int[INITIAL_CAPACITY];
+
+	private int[] operationIds = new int[INITIAL_CAPACITY];
+
+	private int[] keyIds = new int[INITIAL_CAPACITY];
+
+	private byte[] flags = new byte[INITIAL_CAPACITY];
+
+	private int rowCount = 0;
+
+	private final Map<String, Integer> operationIdMap = new HashMap<String, Integer>();
+
+	private final List<String> operationNames = new ArrayList<String>();
+
+	private final Map<String, Integer> keyIdMap = new HashMap<String, Integer>();
+
+	private final List<String> keys = new ArrayList<String>();
+
+	private boolean truncatingSqlSelect = true;
+
+	/**
+	 * Parent identifiers sorted in ascending order, built on first use.
+	 */
+	private long[] sortedParentIdentifiers = null;
+
+	/**
+	 * Rows matching {@link #sortedParentIdentifiers}, ordered by start time for
+	 * a given parent.
+	 */
+	private int[] rowsByParent = null;
+
+	@Override
+	public void gatherMetric(OperationMetric metric) {
+		String operationName = DatabaseMetricGatherer.normalizeOperationName(
+				metric.getOperationName(), truncatingSqlSelect);
+		String key = DatabaseMetricGatherer.normalizeUniqueKey(metric
+				.getUniqueKey());
+		addRow(metric.getIdentifier(), metric.getParentIdentifier(),
+				metric.getStartTime(), metric.getStopTime(),
+				metric.getDuration(), metric.getResultSize(), operationName,
+				key, metric.isResultFetchedFromCache(),
+				metric.isOperationCacheEnabled());
+	}
+
+	/**
+	 * Add a row whose operation name and key are already normalized.
+	 * 
+	 * @param identifier
+	 *            the metric identifier.
+	 * @param parentIdentifier
+	 *            the parent metric identifier.
+	 * @param startTime
+	 *            the start time in nanoseconds.
+	 * @param stopTime
+	 *            the stop time in nanoseconds.
+	 * @param duration
+	 *            the duration in nanoseconds.
+	 * @param resultSize
+	 *            the result size.
+	 * @param operationName
+	 *            the normalized operation name.
+	 * @param key
+	 *            the normalized unique key.
+	 * @param fromCache
+	 *            true if the result was fetched from cache.
+	 * @param cacheEnabled
+	 *            true if the operation had cache enabled.
+	 */
+	public synchronized void addRow(long identifier, long parentIdentifier,
+			long startTime, long stopTime, long duration, int resultSize,
+			String operationName, String key, boolean fromCache,
+			boolean cacheEnabled) {
+		if (rowCount == identifiers.length) {
+			grow();
+		}
+		int row = rowCount;
+
+		identifiers[row] = identifier;
+		parentIdentifiers[row] = parentIdentifier;
+		startTimes[row] = startTime;
+		stopTimes[row] = stopTime;
+		durations[row] = duration;
+		resultSizes[row] = resultSize;
+		operationIds[row] = encode(operationName, operationIdMap,
+				operationNames);
+		keyIds[row] = encode(key, keyIdMap, keys);
+
+		byte rowFlags = 0;
+		if (fromCache) {
+			rowFlags |= FROM_CACHE_FLAG;
+		}
+		if (cacheEnabled) {
+			rowFlags |= CACHE_ENABLED_FLAG;
+		}
+		flags[row] = rowFlags;
+
+		rowCount = row + 1;
+		sortedParentIdentifiers = null;
+		rowsByParent = null;
+	}
+
+	/**
+	 * Add every row of the METRIC table, read in a single scan.
+	 * 
+	 * @param dataSource
+	 *            the data source holding the METRIC table.
+	 * @throws SQLException
+	 *             if the table can't be read.
+	 */
+	public void loadFromDatabase(DataSource dataSource) throws SQLException {
+		Connection connection = null;
+		Statement statement = null;
+		ResultSet result = null;
+		try {
+			// $ANALYSIS-IGNORE
+			connection = dataSource.getConnection();
+			// $ANALYSIS-IGNORE
+			statement = connection.createStatement();
+			statement.setFetchSize(DATABASE_FETCH_SIZE);
+			result = statement.executeQuery(SELECT_METRIC_SQL);
+			while (result.next()) {
+				addRow(result.getLong(1), result.getLong(2),
+						result.getLong(3), result.getLong(4),
+						result.getLong(5), (int) result.getLong(6),
+						result.getString(9), result.getString(10),
+						"1".equals(result.getString(7)),
+						"1".equals(result.getString(8)));
+			}
+		} finally {
+			CacheUtilities.closeQuietly(result);
+			CacheUtilities.closeQuietly(statement);
+			CacheUtilities.closeQuietly(connection);
+		}
+	}
+
+	private static int encode(String value, Map<String, Integer> idMap,
+			List<String> values) {
+		Integer id = idMap.get(value);
+		if (id == null) {
+			id = Integer.valueOf(values.size());
+			idMap.put(value, id);
+			values.add(value);
+		}
+		return id.intValue();
+	}
+
+	private void grow() {
+		int capacity = identifiers.length * 2;
+		identifiers = Arrays.copyOf(identifiers, capacity);
+		parentIdentifiers = Arrays.copyOf(parentIdentifiers, capacity);
+		startTimes = Arrays.copyOf(startTimes, capacity);
+		stopTimes = Arrays.copyOf(stopTimes, capacity);
+		durations = Arrays.copyOf(durations, capacity);
+		resultSizes = Arrays.copyOf(resultSizes, capacity);
+		operationIds = Arrays.copyOf(operationIds, capacity);
+		keyIds = Arrays.copyOf(keyIds, capacity);
+		flags = Arrays.copyOf(flags, capacity);
+	}
+
+	@Override
+	public void start() {
+		// nothing to start, metrics are stored as they are gathered
+	}
+
+	@Override
+	public void stop() {
+		// nothing to stop
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return true;
+	}
+
+	@Override
+	public boolean isEnabled(String marker) {
+		return true;
+	}
+
+	@Override
+	public int getPendingFlushSize() {
+		return PENDING_FLUSH_SIZE;
+	}
+
+	@Override
+	public boolean writeMetrics() {
+		// metrics are stored as they are gathered
+		return false;
+	}
+
+	/**
+	 * Remove all the rows.
+	 */
+	public synchronized void clear() {
+		rowCount = 0;
+		operationIdMap.clear();
+		operationNames.clear();
+		keyIdMap.clear();
+		keys.clear();
+		sortedParentIdentifiers = null;
+		rowsByParent = null;
+	}
+
+	/**
+	 * should SQL select statements be truncated ?
+	 *
+	 * @return true if they are.
+	 */
+	public boolean isTruncatingSqlSelect() {
+		return truncatingSqlSelect;
+	}
+
+	/**
+	 * should SQL select statements be truncated ?
+	 *
+	 * @param truncatingSqlSelect
+	 *            set to true to truncate, false otherwise.
+	 */
+	public void setTruncatingSqlSelect(boolean truncatingSqlSelect) {
+		this.truncatingSqlSelect = truncatingSqlSelect;
+	}
+
+	/**
+	 * @return the number of rows stored.
+	 */
+	public synchronized int getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * @return the number of distinct operation names.
+	 */
+	public int getOperationCount() {
+		return operationNames.size();
+	}
+
+	/**
+	 * @param operationId
+	 *            the operation dictionary identifier.
+	 * @return the operation name.
+	 */
+	public String getOperationNameById(int operationId) {
+		return operationNames.get(operationId);
+	}
+
+	/**
+	 * @param keyId
+	 *            the key dictionary identifier.
+	 * @return the unique key.
+	 */
+	public String getKeyById(int keyId) {
+		return keys.get(keyId);
+	}
+
+	/**
+	 * @param operationName
+	 *            the normalized operation name.
+	 * @return the operation dictionary identifier or -1 if unknown.
+	 */
+	public int getOperationId(String operationName) {
+		Integer id = operationIdMap.get(operationName);
+		if (id == null) {
+			return -1;
+		}
+		return id.intValue();
+	}
+
+	/**
+	 * @param row
+	 *            the row index.
+	 * @return the metric identifier.
+	 */
+	public long getIdentifier(int row) {
+		return identifiers[row];
+	}
+
+	/**
+	 * @param row
+	 *            the row index.
+	 * @return the parent metric identifier.
+	 */
+	public long getParentIdentifier(int row) {
+		return parentIdentifiers[row];
+	}
+
+	/**
+	 * @param row
+	 *            the row index.
+	 * @return the start time in nanoseconds.
+	 */
+	public long getStartTime(int row) {
+		return startTimes[row];
+	}
+
+	/**
+	 * @param row
+	 *            the row index.
+	 * @return the stop time in nanoseconds.
+	 */
+	public long getStopTime(int row) {
+		return stopTimes[row];
+	}
+
+	/**
+	 * @param row
+	 *            the row index.
+	 * @return the duration in nanoseconds.
+	 */
+	public long getDuration(int row) {
+		return durations[row];
+	}
+
+	/**
+	 * @param row
+	 *            the row index.
+	 * @return the result size.
+	 */
+	public int getResultSize(int row) {
+		return resultSizes[row];
+	}
+
+	/**
+	 * @param row
+	 *            the row index.
+	 * @return the operation dictionary identifier.
+	 */
+	public int getOperationIdAt(int row) {
+		return operationIds[row];
+	}
+
+	/**
+	 * @param row
+	 *            the row index.
+	 * @return the key dictionary identifier.
+	 */
+	public int getKeyIdAt(int row) {
+		return keyIds[row];
+	}
+
+	/**
+	 * @param row
+	 *            the row index.
+	 * @return the normalized operation name.
+	 */
+	public String getOperationName(int row) {
+		return operationNames.get(operationIds[row]);
+	}
+
+	/**
+	 * @param row
+	 *            the row index.
+	 * @return the normalized unique key.
+	 */
+	public String getKey(int row) {
+		return keys.get(keyIds[row]);
+	}
+
+	/**
+	 * @param row
+	 *            the row index.
+	 * @return true if the result was fetched from cache.
+	 */
+	public boolean isFromCache(int row) {
+		return (flags[row] & FROM_CACHE_FLAG) != 0;
+	}
+
+	/**
+	 * @param row
+	 *            the row index.
+	 * @return true if the operation had cache enabled.
+	 */
+	public boolean isCacheEnabled(int row) {
+		return (flags[row] & CACHE_ENABLED_FLAG) != 0;
+	}
+
+	/**
+	 * Find the rows whose parent is the specified identifier, ordered by start
+	 * time. This replaces the METRIC PARENTIDENTIFIER index.
+	 *
+	 * @param parentIdentifier
+	 *            the parent metric identifier.
+	 * @return the child rows.
+	 */
+	public synchronized int[] getChildRows(long parentIdentifier) {
+		if (rowsByParent == null) {
+			buildParentIndex();
+		}
+		int first = lowerBound(sortedParentIdentifiers, parentIdentifier);
+		int last = first;
+		while (last < sortedParentIdentifiers.length
+				&& sortedParentIdentifiers[last] == parentIdentifier) {
+			++last;
+		}
+		return Arrays.copyOfRange(rowsByParent, first, last);
+	}
+
+	private static int lowerBound(long[] sorted, long value) {
+		int low = 0;
+		int high = sorted.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (sorted[middle] < value) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private void buildParentIndex() {
+		Integer[] rows = new Integer[rowCount];
+		for (int i = 0; i < rowCount; ++i) {
+			rows[i] = Integer.valueOf(i);
+		}
+		final long[] parentColumn = parentIdentifiers;
+		final long[] startColumn = startTimes;
+		Arrays.parallelSort(rows, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer left, Integer right) {
+				int compare = Long.compare(parentColumn[left.intValue()],
+						parentColumn[right.intValue()]);
+				if (compare == 0) {
+					compare = Long.compare(startColumn[left.intValue()],
+							startColumn[right.intValue()]);
+				}
+				return compare;
+			}
+		});
+
+		long[] parents = new long[rowCount];
+		int[] children = new int[rowCount];
+		for (int i = 0; i < rowCount; ++i) {
+			int row = rows[i].intValue();
+			children[i] = row;
+			parents[i] = parentIdentifiers[row];
+		}
+		sortedParentIdentifiers = parents;
+		rowsByParent = children;
+	}
+
+}
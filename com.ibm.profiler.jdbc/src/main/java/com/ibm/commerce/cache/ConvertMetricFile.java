@@ -0,0 +1,123 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Command line utility converting a text metric file written by
+ * {@link FileMetricGatherer} into the binary metric format of
+ * {@link BinaryMetricWriter}. Invalid lines are skipped.
+ * <p>
+ * Usage : ConvertMetricFile &lt;text input file&gt; &lt;binary output
+ * file&gt;
+ */
+public class ConvertMetricFile {
+
+	/**
+	 * Class name
+	 */
+	private static final String CLASS_NAME = ConvertMetricFile.class.getName();
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOGGER = LoggingHelper.getLogger(CLASS_NAME);
+
+	/**
+	 * Size of the write buffer.
+	 */
+	private static final int BUFFER_SIZE = 256 * 1024;
+
+	/**
+	 * main method.
+	 * 
+	 * @param args
+	 *            the text input file and the binary output file.
+	 */
+	public static void main(String[] args) {
+		if (args == null || args.length < 2) {
+			System.out.println("Usage : ConvertMetricFile <text input file> <binary output file>");
+			System.exit(-1);
+		}
+		try {
+			convertTextToBinary(args[0], args[1]);
+		} catch (Exception e) {
+			LOGGER.log(Level.SEVERE, "Exception caught, aborting program : " + e.getMessage(), e);
+			System.exit(-1);
+		}
+	}
+
+	/**
+	 * Convert a text metric file into a binary metric file.
+	 * 
+	 * @param textFileName
+	 *            the text metric file to read.
+	 * @param binaryFileName
+	 *            the binary metric file to create.
+	 * @return the number of converted metrics.
+	 * @throws Exception
+	 *             if a file can't be read or written.
+	 */
+	public static int convertTextToBinary(String textFileName,
+			String binaryFileName) throws Exception {
+		long start = System.nanoTime();
+		int lineCount = 0;
+		int metricCount = 0;
+
+		BufferedReader reader = null;
+		FileOutputStream outputStream = null;
+		try {
+			// $ANALYSIS-IGNORE
+			reader = new BufferedReader(new InputStreamReader(
+					new FileInputStream(textFileName), StandardCharsets.UTF_8));
+			// $ANALYSIS-IGNORE
+			outputStream = new FileOutputStream(binaryFileName);
+
+			MetricChannelWriter channelWriter = new MetricChannelWriter(BUFFER_SIZE);
+			channelWriter.setChannel(outputStream.getChannel(), 0);
+			BinaryMetricWriter binaryWriter = new BinaryMetricWriter(channelWriter);
+			binaryWriter.writeHeader();
+
+			String readLine;
+			while ((readLine = reader.readLine()) != null) {
+				++lineCount;
+				OperationMetric metric = new OperationMetric();
+				if (metric.fromSerializedString(readLine)) {
+					binaryWriter.write(metric);
+					++metricCount;
+				}
+			}
+			channelWriter.flush();
+		} finally {
+			CacheUtilities.closeQuietly(reader);
+			CacheUtilities.closeQuietly(outputStream);
+		}
+
+		long duration = (System.nanoTime() - start) / 1000000;
+		LOGGER.log(Level.INFO, "Converted " + metricCount + " metrics out of "
+				+ lineCount + " lines from " + textFileName + " to "
+				+ binaryFileName + " in " + duration + "ms.");
+
+		return metricCount;
+	}
+}
@@ -15,20 +15,38 @@
  */
 package com.ibm.commerce.cache;
 
+import java.lang.management.ManagementFactory;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.management.ObjectName;
 import javax.sql.DataSource;
 
+import com.ibm.logger.PerformanceLoggerManager;
+
 
 
 /**
  * Performance metric gathering utility that utilizes a database to write the
  * captured metrics.
+ * <p>
+ * Each writer thread keeps its database connection and prepared statements
+ * open between flushes. Metrics are written in batches whose size adapts to
+ * the observed per row latency so that a batch takes about
+ * {@link #getTargetBatchWriteTime()} milliseconds, without exceeding
+ * {@link #getMaximumDatabaseBatchSize()}. On databases supporting it, DB2
+ * among others, several rows are inserted by a single multi-row insert
+ * statement. Since {@link #writeMetrics()} is thread safe, several writer
+ * threads may split the work, see {@link #setWriterThreadCount(int)}. The
+ * write statistics are exposed through JMX by
+ * {@link DatabaseWriteStatisticsMXBean} while the gatherer is running.
  */
 public class DatabaseMetricGatherer extends AbstractMetricGatherer {
 
@@ -47,11 +65,34 @@ public class DatabaseMetricGatherer extends AbstractMetricGatherer {
 	private static final int START_TIME_INDEX = 1;
 
 	/**
-	 * insert data SQL statement.
+	 * Number of parameters of a row.
+	 */
+	private static final int COLUMN_COUNT = 10;
+
+	/**
+	 * insert data SQL statement, without the row values.
 	 */
-	private static final String INSERT_METRIC_SQL = "insert into METRIC ("
+	private static final String INSERT_METRIC_SQL_PREFIX = "insert into METRIC ("
 			+ "STARTIME,STOPTIME,DURATION,RESULTSIZE,FROMCACHE,CACHEENABLED,OPERATIONNAME,KEYVALUE,IDENTIFIER,PARENTIDENTIFIER"
-			+ ") values (?,?,?,?,?,?,?,?,?,?)";
+			+ ") values ";
+
+	/**
+	 * values of a single row.
+	 */
+	private static final String INSERT_METRIC_ROW_VALUES = "(?,?,?,?,?,?,?,?,?,?)";
+
+	/**
+	 * insert data SQL statement.
+	 */
+	private static final String INSERT_METRIC_SQL = INSERT_METRIC_SQL_PREFIX
+			+ INSERT_METRIC_ROW_VALUES;
+
+	/**
+	 * Prefixes of the database product names known to support multi-row
+	 * inserts.
+	 */
+	private static final String[] MULTI_ROW_INSERT_DATABASES = { "DB2",
+			"Apache Derby", "PostgreSQL", "MySQL", "H2" };
 
 	/**
 	 * Class name
@@ -69,12 +110,71 @@ public class DatabaseMetricGatherer extends AbstractMetricGatherer {
 	 */
 	public static final int INITIAL_MAXIMUM_DATABASE_BATCH_SIZE = 1000;
 
+	/**
+	 * smallest batch size used by the batch size tuning.
+	 */
+	public static final int MINIMUM_DATABASE_BATCH_SIZE = 10;
+
+	/**
+	 * initial target time in milliseconds to write a batch.
+	 */
+	public static final long INITIAL_TARGET_BATCH_WRITE_TIME = 200;
+
+	/**
+	 * initial number of rows inserted by a multi-row insert statement.
+	 */
+	public static final int INITIAL_MULTI_ROW_INSERT_SIZE = 100;
+
 	/**
 	 * Maximum number of database insertions to be contained in a single
 	 * database writing batch.
 	 */
 	private int maximumDatabaseBatchSize = INITIAL_MAXIMUM_DATABASE_BATCH_SIZE;
 
+	/**
+	 * Number of database insertions of the next batch, tuned after each
+	 * batch.
+	 */
+	private volatile int currentDatabaseBatchSize = INITIAL_MAXIMUM_DATABASE_BATCH_SIZE;
+
+	/**
+	 * Time in milliseconds a batch should take to write. Zero disables the
+	 * batch size tuning.
+	 */
+	private long targetBatchWriteTime = INITIAL_TARGET_BATCH_WRITE_TIME;
+
+	/**
+	 * Number of rows inserted by a multi-row insert statement. 1 disables
+	 * multi-row inserts.
+	 */
+	private int multiRowInsertSize = INITIAL_MULTI_ROW_INSERT_SIZE;
+
+	/**
+	 * Set once the database refused a multi-row insert statement.
+	 */
+	private volatile boolean multiRowInsertRejected = false;
+
+	/**
+	 * Number of rows inserted per statement by the last opened connection.
+	 */
+	private volatile int rowsPerInsertStatement = 1;
+
+	/**
+	 * Writer connections not used by a writer thread.
+	 */
+	private final Queue<WriterConnection> idleWriterConnections = new ConcurrentLinkedQueue<WriterConnection>();
+
+	/**
+	 * Write statistics exposed through JMX.
+	 */
+	private final DatabaseWriteStatistics statistics = new DatabaseWriteStatistics(
+			this);
+
+	/**
+	 * Name under which the statistics are registered, null if not registered.
+	 */
+	private ObjectName statisticsName;
+
 	/**
 	 * Data source used to write all the data.
 	 */
@@ -85,6 +185,22 @@ public class DatabaseMetricGatherer extends AbstractMetricGatherer {
 	 */
 	private boolean truncatingSqlSelect = true;
 
+	/**
+	 * Connection used by a writer thread and its cached insert statements.
+	 */
+	private static class WriterConnection {
+		private Connection connection;
+		private PreparedStatement singleRowStatement;
+		private PreparedStatement multiRowStatement;
+		private int rowsPerStatement = 1;
+
+		private void close() {
+			CacheUtilities.closeQuietly(singleRowStatement);
+			CacheUtilities.closeQuietly(multiRowStatement);
+			CacheUtilities.closeQuietly(connection);
+		}
+	}
+
 	/**
 	 * Constructor.
 	 */
@@ -103,7 +219,67 @@ public class DatabaseMetricGatherer extends AbstractMetricGatherer {
 	 *            the maximum database batch size
 	 */
 	public void setMaximumDatabaseBatchSize(int maximumDatabaseBatchSize) {
-		this.maximumDatabaseBatchSize = maximumDatabaseBatchSize;
+		this.maximumDatabaseBatchSize = Math.max(1, maximumDatabaseBatchSize);
+		this.currentDatabaseBatchSize = this.maximumDatabaseBatchSize;
+	}
+
+	/**
+	 * @return the number of database insertions of the next batch
+	 */
+	public int getCurrentDatabaseBatchSize() {
+		return currentDatabaseBatchSize;
+	}
+
+	/**
+	 * @return the time in milliseconds a batch should take to write
+	 */
+	public long getTargetBatchWriteTime() {
+		return targetBatchWriteTime;
+	}
+
+	/**
+	 * @param targetBatchWriteTime
+	 *            the time in milliseconds a batch should take to write. Zero
+	 *            always writes batches of
+	 *            {@link #getMaximumDatabaseBatchSize()} rows.
+	 */
+	public void setTargetBatchWriteTime(long targetBatchWriteTime) {
+		this.targetBatchWriteTime = targetBatchWriteTime;
+		if (targetBatchWriteTime <= 0) {
+			currentDatabaseBatchSize = maximumDatabaseBatchSize;
+		}
+	}
+
+	/**
+	 * @return the number of rows inserted by a multi-row insert statement
+	 */
+	public int getMultiRowInsertSize() {
+		return multiRowInsertSize;
+	}
+
+	/**
+	 * @param multiRowInsertSize
+	 *            the number of rows inserted by a multi-row insert statement,
+	 *            1 to disable multi-row inserts. Applies to connections opened
+	 *            afterwards.
+	 */
+	public void setMultiRowInsertSize(int multiRowInsertSize) {
+		this.multiRowInsertSize = Math.max(1, multiRowInsertSize);
+	}
+
+	/**
+	 * @return the number of rows inserted per statement by the last opened
+	 *         connection
+	 */
+	public int getRowsPerInsertStatement() {
+		return rowsPerInsertStatement;
+	}
+
+	/**
+	 * @return the write statistics.
+	 */
+	public DatabaseWriteStatistics getStatistics() {
+		return statistics;
 	}
 
 	/**
@@ -132,6 +308,42 @@ public class DatabaseMetricGatherer extends AbstractMetricGatherer {
 		return dataSource != null;
 	}
 
+	@Override
+	public void start() {
+		if (isRunning()) {
+			return;
+		}
+		super.start();
+		registerStatistics();
+	}
+
+	@Override
+	public void stop() {
+		super.stop();
+		unregisterStatistics();
+	}
+
+	/**
+	 * {@link #writeMetrics()} is thread safe, each thread uses its own
+	 * connection.
+	 */
+	@Override
+	protected boolean isConcurrentWriteSupported() {
+		return true;
+	}
+
+	/**
+	 * Close the idle writer connections.
+	 */
+	@Override
+	protected void executeBeforeBackgroundThreadStop() {
+		WriterConnection writer = idleWriterConnections.poll();
+		while (writer != null) {
+			writer.close();
+			writer = idleWriterConnections.poll();
+		}
+	}
+
 	/**
 	 * @see AbstractMetricGatherer#writeMetrics()
 	 */
@@ -149,66 +361,43 @@ public class DatabaseMetricGatherer extends AbstractMetricGatherer {
 			LOGGER.entering(CLASS_NAME, METHODNAME);
 		}
 
-		List<OperationMetric> pendingMetricsToWrite = getPendingMetricsToWrite();
-
-		Connection connection = null;
-		PreparedStatement preparedStatement = null;
-
 		if (dataSource == null) {
+			getPendingMetricsToWrite();
 			return true;
 		}
 
-		try {
+		List<OperationMetric> pendingMetricsToWrite = getPendingMetricsToWrite(currentDatabaseBatchSize);
 
+		if (!pendingMetricsToWrite.isEmpty()) {
+			WriterConnection writer = null;
 			try {
-				if (isTraceLogEnabled) {
-					String msg = "Writing " + pendingMetricsToWrite.size()
-							+ " Operation Metrics.";
-					LOGGER.log(Level.FINE, msg);
-				}
-
-				// $ANALYSIS-IGNORE
-				connection = dataSource.getConnection();
+				writer = acquireWriterConnection();
 
-				// $ANALYSIS-IGNORE
-				preparedStatement = connection
-						.prepareStatement(INSERT_METRIC_SQL);
-
-				int i = 0;
-
-				for (OperationMetric operationMetric : pendingMetricsToWrite) {
+				while (!pendingMetricsToWrite.isEmpty()) {
+					if (isTraceLogEnabled) {
+						String msg = "Writing " + pendingMetricsToWrite.size()
+								+ " Operation Metrics.";
+						LOGGER.log(Level.FINE, msg);
+					}
 
+					writeBatch(writer, pendingMetricsToWrite);
 					retVal = true;
 
-					addOperationMetricWriteToBatch(preparedStatement,
-							operationMetric);
-
-					i++;
-					if (i % maximumDatabaseBatchSize == 0) {
-
-						if (isTraceLogEnabled) {
-							String traceMessage = "maximumDatabaseBatchSize of "
-									+ maximumDatabaseBatchSize
-									+ "reached. Trigger execute batch.";
-							LOGGER.log(Level.FINE, traceMessage);
-						}
-
-						executeBatch(preparedStatement,
-								maximumDatabaseBatchSize);
-					}
+					pendingMetricsToWrite = getPendingMetricsToWrite(currentDatabaseBatchSize);
 				}
 
-				executeBatch(preparedStatement, i % maximumDatabaseBatchSize);
-
+				idleWriterConnections.offer(writer);
 				setRunningWithExceptions(false);
-			} finally {
-				CacheUtilities.closeQuietly(preparedStatement);
-				CacheUtilities.closeQuietly(connection);
+			} catch (Exception ex) {
+				// the connection state is unknown, open a new one next time
+				if (writer != null) {
+					writer.close();
+				}
+				statistics.logDroppedRecords(pendingMetricsToWrite.size());
+				logWriteMetricException(ex);
 			}
-
-		} catch (Exception ex) {
-			logWriteMetricException(ex);
 		}
+
 		if (entryExitLogEnabled) {
 			LOGGER.exiting(CLASS_NAME, METHODNAME);
 		}
@@ -217,40 +406,240 @@ public class DatabaseMetricGatherer extends AbstractMetricGatherer {
 	}
 
 	/**
-	 * Execute a batch of SQL statements. Used to gather timing metrics if trace
-	 * logs are enabled.
+	 * Fetch an idle writer connection or open a new one.
 	 * 
-	 * @param preparedStatement
-	 *            the prepared statement to execute.
-	 * @param batchSize
-	 *            the size of the batch being written.
+	 * @return the writer connection.
 	 * @throws SQLException
-	 *             any exception that occurs while writing the batch.
+	 *             if the connection or its statements can't be created.
+	 */
+	private WriterConnection acquireWriterConnection() throws SQLException {
+		WriterConnection writer = idleWriterConnections.poll();
+		if (writer != null) {
+			return writer;
+		}
+
+		writer = new WriterConnection();
+		try {
+			// $ANALYSIS-IGNORE
+			writer.connection = dataSource.getConnection();
+			// $ANALYSIS-IGNORE
+			writer.singleRowStatement = writer.connection
+					.prepareStatement(INSERT_METRIC_SQL);
+
+			int rowCount = multiRowInsertSize;
+			if (rowCount > 1 && isMultiRowInsertSupported(writer.connection)) {
+				try {
+					// $ANALYSIS-IGNORE
+					writer.multiRowStatement = writer.connection
+							.prepareStatement(buildMultiRowInsertSql(rowCount));
+					writer.rowsPerStatement = rowCount;
+				} catch (SQLException e) {
+					rejectMultiRowInsert(writer, e);
+				}
+			}
+		} catch (SQLException e) {
+			writer.close();
+			throw e;
+		}
+		rowsPerInsertStatement = writer.rowsPerStatement;
+		return writer;
+	}
+
+	/**
+	 * Stop using multi-row inserts once the database refused one.
+	 * 
+	 * @param writer
+	 *            the writer connection on which the statement failed.
+	 * @param e
+	 *            the database error.
+	 */
+	private void rejectMultiRowInsert(WriterConnection writer, SQLException e) {
+		multiRowInsertRejected = true;
+		useSingleRowInserts(writer);
+		LOGGER.log(Level.INFO,
+				"Multi-row inserts refused by the database, using single row inserts. "
+						+ e.getMessage());
+	}
+
+	/**
+	 * Switch a writer connection to single row inserts.
+	 * 
+	 * @param writer
+	 *            the writer connection.
+	 */
+	private void useSingleRowInserts(WriterConnection writer) {
+		CacheUtilities.closeQuietly(writer.multiRowStatement);
+		writer.multiRowStatement = null;
+		writer.rowsPerStatement = 1;
+		rowsPerInsertStatement = 1;
+	}
+
+	/**
+	 * Check if the database is known to support multi-row inserts.
 	 */
-	private void executeBatch(PreparedStatement preparedStatement, int batchSize)
+	private boolean isMultiRowInsertSupported(Connection connection)
 			throws SQLException {
-		boolean traceLogEnabled = LoggingHelper.isTraceEnabled(LOGGER);
+		if (multiRowInsertRejected) {
+			return false;
+		}
+		String productName = connection.getMetaData().getDatabaseProductName();
+		if (productName == null) {
+			return false;
+		}
+		for (String supportedProductName : MULTI_ROW_INSERT_DATABASES) {
+			if (productName.startsWith(supportedProductName)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Build an insert statement of several rows.
+	 * 
+	 * @param rowCount
+	 *            the number of rows inserted.
+	 * @return the SQL statement.
+	 */
+	static String buildMultiRowInsertSql(int rowCount) {
+		StringBuilder sql = new StringBuilder(INSERT_METRIC_SQL_PREFIX.length()
+				+ rowCount * (INSERT_METRIC_ROW_VALUES.length() + 1));
+		sql.append(INSERT_METRIC_SQL_PREFIX);
+		for (int i = 0; i < rowCount; ++i) {
+			if (i > 0) {
+				sql.append(',');
+			}
+			sql.append(INSERT_METRIC_ROW_VALUES);
+		}
+		return sql.toString();
+	}
 
-		long start = 0;
-		if (traceLogEnabled) {
-			start = System.currentTimeMillis();
+	/**
+	 * Write a batch of metrics, using multi-row inserts for as many rows as
+	 * possible and single row inserts for the remainder.
+	 * 
+	 * @param writer
+	 *            the writer connection.
+	 * @param metrics
+	 *            the metrics to write.
+	 * @throws SQLException
+	 *             any exception that occurs while writing the batch.
+	 */
+	private void writeBatch(WriterConnection writer,
+			List<OperationMetric> metrics) throws SQLException {
+		long start = System.nanoTime();
+
+		int batchSize = metrics.size();
+		int index = 0;
+		int rowsPerStatement = writer.rowsPerStatement;
+		if (rowsPerStatement > 1 && multiRowInsertRejected) {
+			// another writer connection found out the database refuses them
+			useSingleRowInserts(writer);
+			rowsPerStatement = 1;
+		}
+		if (rowsPerStatement > 1 && batchSize >= rowsPerStatement) {
+			PreparedStatement preparedStatement = writer.multiRowStatement;
+			while (batchSize - index >= rowsPerStatement) {
+				for (int row = 0; row < rowsPerStatement; ++row) {
+					addOperationMetricWriteToBatch(preparedStatement, row
+							* COLUMN_COUNT, metrics.get(index++));
+				}
+				preparedStatement.addBatch();
+			}
+			try {
+				preparedStatement.executeBatch();
+			} catch (SQLException e) {
+				// DB2 defers the prepare until the first execution, the
+				// refusal only shows up here. Write the batch again with
+				// single row inserts.
+				rejectMultiRowInsert(writer, e);
+				index = 0;
+			}
+		}
+		if (index < batchSize) {
+			PreparedStatement preparedStatement = writer.singleRowStatement;
+			while (index < batchSize) {
+				addOperationMetricWriteToBatch(preparedStatement, 0,
+						metrics.get(index++));
+				preparedStatement.addBatch();
+			}
+			preparedStatement.executeBatch();
 		}
 
-		preparedStatement.executeBatch();
+		long duration = System.nanoTime() - start;
+		statistics.logBatch(batchSize, 0, duration);
+		adjustBatchSize(batchSize, duration);
 
-		if (traceLogEnabled) {
-			long duration = System.currentTimeMillis() - start;
+		if (LoggingHelper.isTraceEnabled(LOGGER)) {
+			logBatchWriteTime(batchSize, TimeUnit.NANOSECONDS.toMillis(duration));
+		}
+	}
 
-			logBatchWriteTime(batchSize, duration);
+	/**
+	 * Tune the size of the next batches from the per row latency of a full
+	 * batch : the new size moves half way towards the number of rows that can
+	 * be written in {@link #getTargetBatchWriteTime()}.
+	 * 
+	 * @param batchSize
+	 *            the number of rows written.
+	 * @param duration
+	 *            the time taken to write them in nanoseconds.
+	 */
+	void adjustBatchSize(int batchSize, long duration) {
+		int currentSize = currentDatabaseBatchSize;
+		// partial batches carry the fixed cost of a round trip over fewer
+		// rows, their per row latency isn't representative
+		if (targetBatchWriteTime <= 0 || batchSize < currentSize) {
+			return;
 		}
+		long rowLatency = Math.max(1, duration / batchSize);
+		long targetSize = TimeUnit.MILLISECONDS.toNanos(targetBatchWriteTime)
+				/ rowLatency;
+		long newSize = (currentSize + targetSize) / 2;
+		newSize = Math.max(MINIMUM_DATABASE_BATCH_SIZE, newSize);
+		newSize = Math.min(maximumDatabaseBatchSize, newSize);
+		currentDatabaseBatchSize = (int) newSize;
+	}
 
+	// expose the write statistics through JMX
+	private void registerStatistics() {
+		final String METHODNAME = "registerStatistics()";
+		try {
+			ObjectName name = new ObjectName(
+					PerformanceLoggerManager.JMX_DOMAIN
+							+ ":type=DatabaseMetricGatherer,id="
+							+ Integer.toHexString(System.identityHashCode(this)));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(
+					statistics, name);
+			statisticsName = name;
+		} catch (Exception e) {
+			LoggingHelper.logUnexpectedException(LOGGER, CLASS_NAME,
+					METHODNAME, e);
+		}
+	}
+
+	private void unregisterStatistics() {
+		if (statisticsName == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+					statisticsName);
+		} catch (Exception e) // $ANALYSIS-IGNORE
+		{
+			// ignore
+		}
+		statisticsName = null;
 	}
 
 	/**
-	 * Add an operation metric insert to a SQL execution batch
+	 * Set the parameters of an operation metric insert. The caller adds the
+	 * statement to its batch once all its rows are set.
 	 * 
 	 * @param preparedStatement
 	 *            the batch in which to insert the new data
+	 * @param columnOffset
+	 *            the number of parameters before those of this row
 	 * @param operationMetric
 	 *            the operation metric to write
 	 * @throws SQLException
@@ -258,10 +647,10 @@ public class DatabaseMetricGatherer extends AbstractMetricGatherer {
 	 *             batch.
 	 */
 	private void addOperationMetricWriteToBatch(
-			PreparedStatement preparedStatement, OperationMetric operationMetric)
-			throws SQLException {
+			PreparedStatement preparedStatement, int columnOffset,
+			OperationMetric operationMetric) throws SQLException {
 
-		final String METHODNAME = "addOperationMetricWriteToBatch(PreparedStatement preparedStatement, OperationMetric operationMetric)";
+		final String METHODNAME = "addOperationMetricWriteToBatch(PreparedStatement preparedStatement, int columnOffset, OperationMetric operationMetric)";
 		boolean entryExitLogEnabled = LoggingHelper
 				.isEntryExitTraceEnabled(LOGGER);
 
@@ -270,34 +659,30 @@ public class DatabaseMetricGatherer extends AbstractMetricGatherer {
 			LOGGER.entering(CLASS_NAME, METHODNAME, params);
 		}
 
-		preparedStatement.setLong(START_TIME_INDEX, operationMetric
+		preparedStatement.setLong(columnOffset + START_TIME_INDEX, operationMetric
 				.getStartTime());
-		preparedStatement.setLong(STOP_TIME_INDEX, operationMetric
+		preparedStatement.setLong(columnOffset + STOP_TIME_INDEX, operationMetric
 				.getStopTime());
 		preparedStatement
-				.setLong(DURATION_INDEX, operationMetric.getDuration());
-		preparedStatement.setInt(RESULT_SIZE_INDEX, operationMetric
+				.setLong(columnOffset + DURATION_INDEX, operationMetric.getDuration());
+		preparedStatement.setInt(columnOffset + RESULT_SIZE_INDEX, operationMetric
 				.getResultSize());
 		boolean resultFetchedFromCache = operationMetric
 				.isResultFetchedFromCache();
 		String getBooleanString = getBooleanString(resultFetchedFromCache);
-		preparedStatement.setString(IS_CACHE_HIT_INDEX, getBooleanString);
-		preparedStatement.setString(IS_CACHE_ENABLED_INDEX,
+		preparedStatement.setString(columnOffset + IS_CACHE_HIT_INDEX, getBooleanString);
+		preparedStatement.setString(columnOffset + IS_CACHE_ENABLED_INDEX,
 				getBooleanString(operationMetric.isOperationCacheEnabled()));
-		String operationName = operationMetric.getOperationName();
-		operationName = adjustOperationName(operationName);
-		preparedStatement.setString(OPERATION_NAME_INDEX, truncateString(
-				operationName, MetricCompiler.OPERATION_NAME_MAXIMUM_LENGTH));
-		preparedStatement.setString(UNIQUE_KEY_INDEX, truncateString(
-				operationMetric.getUniqueKey(),
-				MetricCompiler.UNIQUE_KEY_MAXIMUM_LENGTH));
-		preparedStatement.setLong(IDENTIFIER_INDEX, operationMetric
+		preparedStatement.setString(columnOffset + OPERATION_NAME_INDEX,
+				normalizeOperationName(operationMetric.getOperationName(),
+						truncatingSqlSelect));
+		preparedStatement.setString(columnOffset + UNIQUE_KEY_INDEX,
+				normalizeUniqueKey(operationMetric.getUniqueKey()));
+		preparedStatement.setLong(columnOffset + IDENTIFIER_INDEX, operationMetric
 				.getIdentifier());
-		preparedStatement.setLong(PARENT_IDENTIFIER_INDEX, operationMetric
+		preparedStatement.setLong(columnOffset + PARENT_IDENTIFIER_INDEX, operationMetric
 				.getParentIdentifier());
 
-		preparedStatement.addBatch();
-
 		if (entryExitLogEnabled) {
 			LOGGER.exiting(CLASS_NAME, METHODNAME);
 		}
@@ -323,19 +708,34 @@ public class DatabaseMetricGatherer extends AbstractMetricGatherer {
 	}
 
 	/**
-	 * Adjust the operation name if necessary.
+	 * Adjust an operation name the way it is stored in the METRIC table.
 	 * 
 	 * @param operationName
 	 *            the operation name
+	 * @param truncatingSqlSelect
+	 *            set to true to truncate SQL select statements.
 	 * @return the adjusted operation.
 	 */
-	private String adjustOperationName(String operationName) {
+	public static String normalizeOperationName(String operationName,
+			boolean truncatingSqlSelect) {
 		String returnValue = operationName;
 		if (truncatingSqlSelect) {
 			returnValue = CacheUtilities
 					.truncateSqlSelectStatement(operationName);
 		}
-		return returnValue;
+		return truncateString(returnValue,
+				MetricCompiler.OPERATION_NAME_MAXIMUM_LENGTH);
+	}
+
+	/**
+	 * Adjust a unique key the way it is stored in the METRIC table.
+	 * 
+	 * @param uniqueKey
+	 *            the unique key
+	 * @return the adjusted key.
+	 */
+	public static String normalizeUniqueKey(String uniqueKey) {
+		return truncateString(uniqueKey, MetricCompiler.UNIQUE_KEY_MAXIMUM_LENGTH);
 	}
 
 	/**
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+/**
+ * Write statistics of a {@link DatabaseMetricGatherer}. Records are the rows
+ * inserted in the METRIC table.
+ */
+public class DatabaseWriteStatistics extends BatchWriteStatistics implements
+		DatabaseWriteStatisticsMXBean {
+
+	private final DatabaseMetricGatherer gatherer;
+
+	private volatile long startTime = System.nanoTime();
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param gatherer
+	 *            the gatherer writing the rows.
+	 */
+	public DatabaseWriteStatistics(DatabaseMetricGatherer gatherer) {
+		this.gatherer = gatherer;
+	}
+
+	@Override
+	public long getDroppedRecordCount() {
+		return super.getDroppedRecordCount()
+				+ gatherer.getDroppedMetricCount();
+	}
+
+	@Override
+	public int getPendingRecordCount() {
+		return gatherer.getPendingMetricCount();
+	}
+
+	@Override
+	public double getSustainedRowsPerSecond() {
+		long elapsed = System.nanoTime() - startTime;
+		if (elapsed <= 0) {
+			return 0;
+		}
+		return getRecordCount() * 1000000000.0 / elapsed;
+	}
+
+	@Override
+	public int getCurrentBatchSize() {
+		return gatherer.getCurrentDatabaseBatchSize();
+	}
+
+	@Override
+	public int getRowsPerInsertStatement() {
+		return gatherer.getRowsPerInsertStatement();
+	}
+
+	@Override
+	public int getWriterThreadCount() {
+		return gatherer.getWriterThreadCount();
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		startTime = System.nanoTime();
+	}
+}
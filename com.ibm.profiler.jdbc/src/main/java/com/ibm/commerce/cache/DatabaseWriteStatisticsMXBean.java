@@ -0,0 +1,49 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+/**
+ * This bean exposes the write throughput and the batch tuning of a
+ * {@link DatabaseMetricGatherer}.
+ */
+public interface DatabaseWriteStatisticsMXBean extends BatchWriteStatisticsMXBean {
+
+	/**
+	 * 
+	 * @return The number of rows inserted per second since the statistics
+	 *         were created or reset, idle time included.
+	 */
+	public double getSustainedRowsPerSecond();
+
+	/**
+	 * 
+	 * @return The number of rows currently written per batch.
+	 */
+	public int getCurrentBatchSize();
+
+	/**
+	 * 
+	 * @return The number of rows inserted by a single multi-row insert
+	 *         statement, 1 when multi-row inserts aren't used.
+	 */
+	public int getRowsPerInsertStatement();
+
+	/**
+	 * 
+	 * @return The number of metric writing threads.
+	 */
+	public int getWriterThreadCount();
+}
@@ -16,8 +16,6 @@
 package com.ibm.commerce.cache;
 
 
-import java.util.List;
-
 /**
  * Captures metrics to a database directly.
  */
@@ -42,8 +40,11 @@ public class DirectDatabaseMetricGatherer extends DatabaseMetricGatherer {
 	 */
 	@Override
 	public void gatherMetric(OperationMetric metric) {
-		List<OperationMetric> pendingMetrics = internalGetPendingMetrics();
-		pendingMetrics.add(metric);
+		RingBuffer<OperationMetric> pendingMetrics = internalGetPendingMetrics();
+		// never drop metrics while loading, write them synchronously instead.
+		while (!pendingMetrics.offer(metric)) {
+			writeMetrics();
+		}
 	}
 
 }
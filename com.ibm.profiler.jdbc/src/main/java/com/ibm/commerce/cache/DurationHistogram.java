@@ -0,0 +1,164 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size log-linear histogram of durations in nanoseconds. Each power of
+ * two range is split in {@value #SUB_BUCKET_COUNT} linear buckets, which
+ * bounds the percentile error to about 6% of the value. Durations are tracked
+ * with a 1024 nanoseconds resolution up to about 18 minutes, longer durations
+ * are counted in the last bucket.
+ * 
+ * Recording a value is lock free and does not allocate. Histograms of
+ * different time intervals are merged by adding their buckets.
+ */
+public class DurationHistogram {
+
+    /** number of low bits dropped from the durations */
+    private static final int RESOLUTION_SHIFT = 10;
+
+    private static final int SUB_BUCKET_BITS = 4;
+
+    /** number of linear buckets in each power of two */
+    public static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /** highest tracked power of two, in resolution units */
+    private static final int MAXIMUM_EXPONENT = 30;
+
+    private static final long MAXIMUM_TRACKED_VALUE = ( 1L << ( MAXIMUM_EXPONENT + 1 ) ) - 1;
+
+    /** number of buckets in the histogram */
+    public static final int BUCKET_COUNT = ( MAXIMUM_EXPONENT - SUB_BUCKET_BITS + 2 ) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray buckets = new AtomicLongArray( BUCKET_COUNT );
+
+    /**
+     * Constructor
+     */
+    public DurationHistogram() {
+        super();
+    }
+
+    /**
+     * recordValue
+     * 
+     * @param duration the duration in nanoseconds.
+     */
+    public void recordValue( long duration ) {
+        buckets.incrementAndGet( getBucketIndex( duration ) );
+    }
+
+    /**
+     * recordValue
+     * 
+     * @param duration the duration in nanoseconds.
+     * @param count the number of times the duration was observed.
+     */
+    public void recordValue( long duration, long count ) {
+        buckets.addAndGet( getBucketIndex( duration ), count );
+    }
+
+    /**
+     * add
+     * 
+     * @param histogram The histogram to add to this one.
+     */
+    public void add( DurationHistogram histogram ) {
+        for ( int i = 0; i < BUCKET_COUNT; ++i ) {
+            long count = histogram.buckets.get( i );
+            if ( count != 0 ) {
+                buckets.addAndGet( i, count );
+            }
+        }
+    }
+
+    /**
+     * Reset all the buckets to zero.
+     */
+    public void reset() {
+        for ( int i = 0; i < BUCKET_COUNT; ++i ) {
+            buckets.set( i, 0 );
+        }
+    }
+
+    /**
+     * getTotalCount
+     * 
+     * @return The number of recorded values.
+     */
+    public long getTotalCount() {
+        long total = 0;
+        for ( int i = 0; i < BUCKET_COUNT; ++i ) {
+            total += buckets.get( i );
+        }
+        return total;
+    }
+
+    /**
+     * getValueAtPercentile
+     * 
+     * @param percentile The percentile between 0.0 and 100.0.
+     * @return The highest duration in nanoseconds of the bucket holding the
+     *         requested percentile. Zero if no value was recorded.
+     */
+    public long getValueAtPercentile( double percentile ) {
+        long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        for ( int i = 0; i < BUCKET_COUNT; ++i ) {
+            long count = buckets.get( i );
+            counts[i] = count;
+            total += count;
+        }
+        if ( total == 0 ) {
+            return 0;
+        }
+        double boundedPercentile = Math.min( Math.max( percentile, 0.0 ), 100.0 );
+        long rank = Math.max( 1, (long) Math.ceil( boundedPercentile / 100.0 * total ) );
+        long cumulativeCount = 0;
+        for ( int i = 0; i < BUCKET_COUNT; ++i ) {
+            cumulativeCount += counts[i];
+            if ( cumulativeCount >= rank ) {
+                return getHighestValue( i );
+            }
+        }
+        return getHighestValue( BUCKET_COUNT - 1 );
+    }
+
+    static int getBucketIndex( long duration ) {
+        long value = Math.min( Math.max( duration, 0 ) >>> RESOLUTION_SHIFT, MAXIMUM_TRACKED_VALUE );
+        if ( value < SUB_BUCKET_COUNT ) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros( value );
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) ( value >>> shift ) - SUB_BUCKET_COUNT;
+        return ( shift + 1 ) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long getHighestValue( int bucketIndex ) {
+        long highestUnit;
+        if ( bucketIndex < SUB_BUCKET_COUNT ) {
+            highestUnit = bucketIndex;
+        } else {
+            int shift = bucketIndex / SUB_BUCKET_COUNT - 1;
+            long subBucket = bucketIndex % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+            highestUnit = ( ( subBucket + 1 ) << shift ) - 1;
+        }
+        return ( ( highestUnit + 1 ) << RESOLUTION_SHIFT ) - 1;
+    }
+}
@@ -15,9 +15,10 @@
  */
 package com.ibm.commerce.cache;
 
-import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.FileOutputStream;
-import java.io.OutputStreamWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -28,6 +29,20 @@ import java.util.logging.Logger;
 /**
  * Performance metric gathering utility that utilizes a file to write the
  * captured metrics.
+ * <p>
+ * Metrics are encoded straight into a reusable direct buffer by a
+ * {@link MetricChannelWriter} and written through a {@link FileChannel}, one
+ * write per full buffer. The file can optionally be rotated once it reaches
+ * {@link #getMaximumFileSize()} bytes or once it has been open for
+ * {@link #getRotationIntervalInMillisecond()} milliseconds. Rotated files are
+ * renamed to <code>fileName.1</code>, <code>fileName.2</code>, ... up to
+ * {@link #getMaximumFileCount()} files. The file content can also be forced
+ * to the storage device every {@link #getForceBatchCount()} batches.
+ * <p>
+ * When {@link #isBinaryFormat()} is set, metrics are written in the compact
+ * format of {@link BinaryMetricWriter} instead of the text format. The bytes
+ * lost when a binary write fails may hold dictionary entries, so the next
+ * batch rotates to a new file starting with a new header and dictionary.
  */
 public class FileMetricGatherer extends AbstractMetricGatherer {
 
@@ -36,7 +51,17 @@ public class FileMetricGatherer extends AbstractMetricGatherer {
 	/**
 	 * Line separator.
 	 */
-	private static final String LINE_SEPARATOR = "\n";
+	private static final char LINE_SEPARATOR = '\n';
+
+	/**
+	 * Default size of the write buffer in bytes.
+	 */
+	private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Default maximum number of files kept, including the current file.
+	 */
+	private static final int DEFAULT_MAXIMUM_FILE_COUNT = 5;
 
 	/**
 	 * Class name
@@ -54,21 +79,75 @@ public class FileMetricGatherer extends AbstractMetricGatherer {
 	private String fileName;
 
 	/**
-	 * Print writer used to write metric data. Linked to the
-	 * {@link #bufferedOutputStream}
+	 * File output stream used to write metric data
 	 */
-	private OutputStreamWriter writer;
+	private FileOutputStream fileOutputStream;
 
 	/**
-	 * File output stream used to write metric data
+	 * Channel of the {@link #fileOutputStream}
 	 */
-	private FileOutputStream fileOutputStream;
+	private FileChannel fileChannel;
+
+	/**
+	 * Writer encoding the metrics in the {@link #fileChannel}. Allocated once
+	 * and reused across files.
+	 */
+	private MetricChannelWriter writer;
+
+	/**
+	 * Binary encoder writing in the {@link #writer}, null when writing the
+	 * text format.
+	 */
+	private BinaryMetricWriter binaryWriter;
+
+	/**
+	 * Flag indicating if metrics are written in the binary format.
+	 */
+	private boolean binaryFormat = false;
+
+	/**
+	 * Size of the write buffer in bytes.
+	 */
+	private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+	/**
+	 * Size in bytes after which the file is rotated, 0 to never rotate on
+	 * size.
+	 */
+	private long maximumFileSize = 0;
+
+	/**
+	 * Time in milliseconds after which the file is rotated, 0 to never rotate
+	 * on time.
+	 */
+	private long rotationIntervalInMillisecond = 0;
+
+	/**
+	 * Maximum number of files kept, including the current file.
+	 */
+	private int maximumFileCount = DEFAULT_MAXIMUM_FILE_COUNT;
+
+	/**
+	 * Number of written batches after which the file content is forced to
+	 * the storage device, 0 to never force.
+	 */
+	private int forceBatchCount = 0;
+
+	/**
+	 * Flag indicating that a binary write failed and that the next batch
+	 * must start a new file.
+	 */
+	private boolean binaryWriteFailed = false;
 
 	/**
-	 * Buffered output stream used to write data to the
-	 * {@link #fileOutputStream}
+	 * Number of batches written since the last force.
 	 */
-	private BufferedOutputStream bufferedOutputStream;
+	private int batchesSinceForce = 0;
+
+	/**
+	 * Time at which the current file was opened.
+	 */
+	private long fileOpenTime;
 
 	/**
 	 * @return the file name to use
@@ -85,6 +164,106 @@ public class FileMetricGatherer extends AbstractMetricGatherer {
 		this.fileName = fileName;
 	}
 
+	/**
+	 * @return true if metrics are written in the binary format.
+	 */
+	public boolean isBinaryFormat() {
+		return binaryFormat;
+	}
+
+	/**
+	 * @param binaryFormat
+	 *            true to write metrics in the binary format. Only applies to
+	 *            writers created after this call.
+	 */
+	public void setBinaryFormat(boolean binaryFormat) {
+		this.binaryFormat = binaryFormat;
+	}
+
+	/**
+	 * @return the size of the write buffer in bytes.
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * @param bufferSize
+	 *            the size of the write buffer in bytes. Only applies to
+	 *            writers created after this call.
+	 */
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * @return the size in bytes after which the file is rotated, 0 to never
+	 *         rotate on size.
+	 */
+	public long getMaximumFileSize() {
+		return maximumFileSize;
+	}
+
+	/**
+	 * @param maximumFileSize
+	 *            the size in bytes after which the file is rotated, 0 to
+	 *            never rotate on size.
+	 */
+	public void setMaximumFileSize(long maximumFileSize) {
+		this.maximumFileSize = maximumFileSize;
+	}
+
+	/**
+	 * @return the time in milliseconds after which the file is rotated, 0 to
+	 *         never rotate on time.
+	 */
+	public long getRotationIntervalInMillisecond() {
+		return rotationIntervalInMillisecond;
+	}
+
+	/**
+	 * @param rotationIntervalInMillisecond
+	 *            the time in milliseconds after which the file is rotated, 0
+	 *            to never rotate on time.
+	 */
+	public void setRotationIntervalInMillisecond(
+			long rotationIntervalInMillisecond) {
+		this.rotationIntervalInMillisecond = rotationIntervalInMillisecond;
+	}
+
+	/**
+	 * @return the maximum number of files kept, including the current file.
+	 */
+	public int getMaximumFileCount() {
+		return maximumFileCount;
+	}
+
+	/**
+	 * @param maximumFileCount
+	 *            the maximum number of files kept, including the current
+	 *            file.
+	 */
+	public void setMaximumFileCount(int maximumFileCount) {
+		this.maximumFileCount = maximumFileCount;
+	}
+
+	/**
+	 * @return the number of written batches after which the file content is
+	 *         forced to the storage device, 0 to never force.
+	 */
+	public int getForceBatchCount() {
+		return forceBatchCount;
+	}
+
+	/**
+	 * @param forceBatchCount
+	 *            the number of written batches after which the file content
+	 *            is forced to the storage device, 0 to never force.
+	 */
+	public void setForceBatchCount(int forceBatchCount) {
+		this.forceBatchCount = forceBatchCount;
+	}
+
 	/**
 	 * @see AbstractMetricGatherer#writeMetrics()
 	 */
@@ -116,15 +295,34 @@ public class FileMetricGatherer extends AbstractMetricGatherer {
 
 			initializeWriter();
 
+			if (batchSize > 0 && isRotationIntervalElapsed()) {
+				rotate();
+			}
+
 			for (OperationMetric operationMetric : pendingMetricsToWrite) {
 
-				operationMetric.toSerializedString(writer);
-				writer.append(LINE_SEPARATOR);
+				if (binaryWriter != null) {
+					binaryWriter.write(operationMetric);
+				} else {
+					operationMetric.toSerializedBytes(writer);
+					writer.append(LINE_SEPARATOR);
+				}
 				retVal = true;
+
+				if (maximumFileSize > 0
+						&& writer.getLength() >= maximumFileSize) {
+					rotate();
+				}
 			}
 
 			writer.flush();
 
+			if (retVal && forceBatchCount > 0
+					&& ++batchesSinceForce >= forceBatchCount) {
+				fileChannel.force(false);
+				batchesSinceForce = 0;
+			}
+
 			if (isTraceLogEnabled) {
 				long duration = System.currentTimeMillis() - start;
 				logBatchWriteTime(batchSize, duration);
@@ -134,6 +332,10 @@ public class FileMetricGatherer extends AbstractMetricGatherer {
 
 		} catch (Exception ex) {
 			logWriteMetricException(ex);
+			if (binaryWriter != null) {
+				closeFileSilently();
+				binaryWriteFailed = true;
+			}
 		}
 
 		if (entryExitLogEnabled) {
@@ -143,6 +345,51 @@ public class FileMetricGatherer extends AbstractMetricGatherer {
 		return retVal;
 	}
 
+	/**
+	 * @return true if the current file was open for longer than the rotation
+	 *         interval and contains data.
+	 */
+	private boolean isRotationIntervalElapsed() {
+		return rotationIntervalInMillisecond > 0
+				&& writer.getLength() > 0
+				&& System.currentTimeMillis() - fileOpenTime >= rotationIntervalInMillisecond;
+	}
+
+	/**
+	 * Flush and close the current file, shift the previous files by one
+	 * generation and open a new empty file.
+	 * 
+	 * @throws Exception
+	 *             any unexpected error when rotating the files.
+	 */
+	private void rotate() throws Exception {
+		writer.flush();
+		closeFileSilently();
+		shiftFiles();
+		openFile();
+
+		if (LoggingHelper.isTraceEnabled(LOGGER)) {
+			LOGGER.log(Level.FINE, "FileMetricGatherer rotated file : "
+					+ fileName);
+		}
+	}
+
+	/**
+	 * Shift the previous files by one generation, deleting the oldest one.
+	 */
+	private void shiftFiles() {
+		if (maximumFileCount > 1) {
+			File oldest = new File(fileName + "." + (maximumFileCount - 1));
+			oldest.delete();
+			for (int i = maximumFileCount - 2; i >= 0; --i) {
+				File source = new File(i == 0 ? fileName : fileName + "." + i);
+				if (source.exists()) {
+					source.renameTo(new File(fileName + "." + (i + 1)));
+				}
+			}
+		}
+	}
+
 	/**
 	 * Initialize the writer to write on the file. If anything goes wrong, all
 	 * the required objects are closed.
@@ -152,7 +399,7 @@ public class FileMetricGatherer extends AbstractMetricGatherer {
 	 *             operations.
 	 */
 	private void initializeWriter() throws Exception {
-		if (writer != null) {
+		if (fileChannel != null) {
 			return;
 		}
 
@@ -163,30 +410,56 @@ public class FileMetricGatherer extends AbstractMetricGatherer {
 			LOGGER.entering(CLASS_NAME, METHODNAME);
 		}
 
+		if (writer == null) {
+			writer = new MetricChannelWriter(bufferSize);
+			if (binaryFormat) {
+				binaryWriter = new BinaryMetricWriter(writer);
+			}
+		}
+
+		if (binaryWriteFailed) {
+			// keep the file holding the records written before the failure
+			shiftFiles();
+			binaryWriteFailed = false;
+		}
+		openFile();
+
+		if (LOGGER.isLoggable(Level.INFO)) {
+			String msg = "FileMetricGatherer writer successfully created for file : "
+					+ fileName;
+			LOGGER.log(Level.INFO, msg);
+		}
+
+		if (isTraceLogEnabled) {
+			LOGGER.exiting(CLASS_NAME, METHODNAME);
+		}
+	}
+
+	/**
+	 * Open a new empty file and point the writer to its channel. If anything
+	 * goes wrong, the file is closed.
+	 * 
+	 * @throws Exception
+	 *             any unexpected error when opening the file.
+	 */
+	private void openFile() throws Exception {
 		try {
 			// $ANALYSIS-IGNORE this stream must remain open.
 			fileOutputStream = new FileOutputStream(fileName);
-			// $ANALYSIS-IGNORE this stream must remain open.
-			bufferedOutputStream = new BufferedOutputStream(fileOutputStream);
-			// $ANALYSIS-IGNORE this writer must remain open.
-			writer = new OutputStreamWriter(bufferedOutputStream, "UTF-8");
-
-			if (LOGGER.isLoggable(Level.INFO)) {
-				String msg = "FileMetricGatherer writer successfully created for file : "
-						+ fileName;
-				LOGGER.log(Level.INFO, msg);
+			fileChannel = fileOutputStream.getChannel();
+			writer.setChannel(fileChannel, 0);
+			if (binaryWriter != null) {
+				binaryWriter.writeHeader();
 			}
+			fileOpenTime = System.currentTimeMillis();
+			batchesSinceForce = 0;
 		} catch (Exception ex) {
 
 			// exceptions will be logged by the thread calling the writeMetrics
 			// method.
-			closeWriterSilently();
+			closeFileSilently();
 			throw ex;
 		}
-
-		if (isTraceLogEnabled) {
-			LOGGER.exiting(CLASS_NAME, METHODNAME);
-		}
 	}
 
 	/**
@@ -222,17 +495,30 @@ public class FileMetricGatherer extends AbstractMetricGatherer {
 			LOGGER.entering(CLASS_NAME, METHODNAME);
 		}
 
-		CacheUtilities.closeQuietly(writer);
-		CacheUtilities.closeQuietly(bufferedOutputStream);
-		CacheUtilities.closeQuietly(fileOutputStream);
+		if (writer != null && fileChannel != null) {
+			try {
+				writer.flush();
+			} catch (IOException ex) {
+				logWriteMetricException(ex);
+			}
+		}
 
-		writer = null;
-		bufferedOutputStream = null;
-		fileOutputStream = null;
+		closeFileSilently();
 
 		if (entryExitLogEnabled) {
 			LOGGER.exiting(CLASS_NAME, METHODNAME);
 		}
 	}
 
+	/**
+	 * Close the current file channel and output stream silently.
+	 */
+	private void closeFileSilently() {
+		CacheUtilities.closeQuietly(fileChannel);
+		CacheUtilities.closeQuietly(fileOutputStream);
+
+		fileChannel = null;
+		fileOutputStream = null;
+	}
+
 }
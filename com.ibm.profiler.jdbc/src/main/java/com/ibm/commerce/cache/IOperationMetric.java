@@ -129,6 +129,25 @@ public interface IOperationMetric {
 	 */
 	public void setSuccessful(boolean isSuccessful);
 
+	/**
+	 * @return the number of executions this metric stands for in the
+	 *         statistics, greater than 1 when the operation is sampled. Metrics
+	 *         that aren't sampled always stand for 1 execution.
+	 */
+	public default int getSamplingWeight() {
+		return 1;
+	}
+
+	/**
+	 * Set the number of executions this metric stands for. Ignored by metrics
+	 * that aren't sampled.
+	 * 
+	 * @param samplingWeight
+	 *            the number of executions this metric stands for.
+	 */
+	public default void setSamplingWeight(int samplingWeight) {
+	}
+
 
 	/**
 	 * check to see if an operation matches another one. To match, the operation
@@ -0,0 +1,614 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+/**
+ * Keeps the cache hit analysis of {@link MetricCompiler} up to date while
+ * metrics are loaded, instead of recomputing it from the whole METRIC table.
+ * <p>
+ * Gathered metrics are forwarded to a delegate, usually the METRIC table
+ * gatherer, and folded in running aggregates : one per operation and unique
+ * key, the UNIQUECACHEHITS rows, and one per operation and cache hit step, the
+ * CACHEHITSTEPS rows. When a key moves to another step, its contribution is
+ * removed from the old step and added to the new one.
+ * <p>
+ * {@link #initialize(DataSource)} seeds the aggregates from UNIQUECACHEHITS so
+ * that a new run only pays for the metrics it loads.
+ * {@link #writeResults(DataSource, long)} then updates the UNIQUECACHEHITS rows
+ * that changed and rewrites the small CACHEHITSTEPS and CACHEALLOCATION
+ * tables, allocating the cache space in memory.
+ */
+public class IncrementalCacheHitAggregator implements DirectMetricGather {
+
+	private static final String CLASS_NAME = IncrementalCacheHitAggregator.class
+			.getName();
+
+	private static final Logger LOGGER = LoggingHelper.getLogger(CLASS_NAME);
+
+	private static final String COUNT_METRICS_SQL = "SELECT count(*) from METRIC";
+
+	private static final String COUNT_UNIQUE_CACHE_HIT_CALLS_SQL = "SELECT sum(CALLCOUNT) from UNIQUECACHEHITS";
+
+	private static final String COUNT_UNIQUE_CACHE_HIT_SUM_CALLS_SQL = "SELECT sum(CALLCOUNT) from UNIQUECACHEHITSUMS";
+
+	/*
+	 * UNIQUECACHEHITS only keeps truncated averages. The exact sums of every
+	 * key are kept in a table of their own so that the tables of the regular
+	 * analysis are left as they are.
+	 */
+	private static final String CREATE_UNIQUE_CACHE_HIT_SUMS_TABLE_SQL = "CREATE TABLE UNIQUECACHEHITSUMS ("
+			+ "CALLCOUNT         BIGINT NOT NULL,"
+			+ "SUMDURATION       BIGINT NOT NULL,"
+			+ "SUMDURATIONMISS   BIGINT NOT NULL,"
+			+ "SUMDURATIONHIT    BIGINT NOT NULL,"
+			+ "SUMRESULTSIZE     BIGINT NOT NULL,"
+			+ "REALCACHEHITCOUNT BIGINT NOT NULL,"
+			+ "REALCACHEACTCOUNT BIGINT NOT NULL,"
+			+ "OPERATIONNAME     VARCHAR("
+			+ MetricCompiler.OPERATION_NAME_MAXIMUM_LENGTH
+			+ ") NOT NULL,"
+			+ "KEYVALUE          VARCHAR("
+			+ MetricCompiler.UNIQUE_KEY_MAXIMUM_LENGTH
+			+ ") NOT NULL, "
+			+ "CONSTRAINT PK_UNIQUECACHEHITSUMS PRIMARY KEY (OPERATIONNAME,KEYVALUE)"
+			+ ")";
+
+	private static final String CLEAR_UNIQUE_CACHE_HIT_SUMS_TABLE_SQL = "delete from UNIQUECACHEHITSUMS";
+
+	private static final String AGGREGATE_UNIQUE_CACHE_HIT_SUMS_SQL = "INSERT INTO UNIQUECACHEHITSUMS "
+			+ "(CALLCOUNT,SUMDURATION,SUMDURATIONMISS,SUMDURATIONHIT,SUMRESULTSIZE,REALCACHEHITCOUNT,REALCACHEACTCOUNT,OPERATIONNAME,KEYVALUE)"
+			+ " SELECT count(*), sum(DURATION), "
+			+ "sum(CASE WHEN FROMCACHE = '0' THEN DURATION ELSE 0 END), "
+			+ "sum(CASE WHEN FROMCACHE = '1' THEN DURATION ELSE 0 END), "
+			+ "sum(cast( RESULTSIZE as BIGINT )), "
+			+ "sum(cast( FROMCACHE as BIGINT )), "
+			+ "sum(cast( CACHEENABLED as BIGINT )), OPERATIONNAME, KEYVALUE "
+			+ "FROM METRIC GROUP BY OPERATIONNAME,KEYVALUE";
+
+	private static final String SELECT_UNIQUE_CACHE_HIT_SUMS_SQL = "SELECT OPERATIONNAME,KEYVALUE,CALLCOUNT,SUMDURATION,SUMDURATIONMISS,SUMDURATIONHIT,SUMRESULTSIZE,REALCACHEHITCOUNT,REALCACHEACTCOUNT from UNIQUECACHEHITSUMS";
+
+	/*
+	 * Both statements share the same parameters.
+	 */
+	private static final String INSERT_UNIQUE_CACHE_HIT_SQL = "INSERT INTO UNIQUECACHEHITS (CACHEHITCOUNT,CALLCOUNT,AVERAGEDURATION,AVERAGEDURATIONMISS,AVERAGEDURATIONHIT,AVERAGERESULTSIZE,REALCACHEHITCOUNT,REALCACHEACTCOUNT,OPERATIONNAME,KEYVALUE) VALUES (?,?,?,?,?,?,?,?,?,?)";
+
+	private static final String UPDATE_UNIQUE_CACHE_HIT_SQL = "UPDATE UNIQUECACHEHITS SET CACHEHITCOUNT=?,CALLCOUNT=?,AVERAGEDURATION=?,AVERAGEDURATIONMISS=?,AVERAGEDURATIONHIT=?,AVERAGERESULTSIZE=?,REALCACHEHITCOUNT=?,REALCACHEACTCOUNT=? WHERE OPERATIONNAME=? AND KEYVALUE=?";
+
+	/*
+	 * Both statements share the same parameters.
+	 */
+	private static final String INSERT_UNIQUE_CACHE_HIT_SUMS_SQL = "INSERT INTO UNIQUECACHEHITSUMS (CALLCOUNT,SUMDURATION,SUMDURATIONMISS,SUMDURATIONHIT,SUMRESULTSIZE,REALCACHEHITCOUNT,REALCACHEACTCOUNT,OPERATIONNAME,KEYVALUE) VALUES (?,?,?,?,?,?,?,?,?)";
+
+	private static final String UPDATE_UNIQUE_CACHE_HIT_SUMS_SQL = "UPDATE UNIQUECACHEHITSUMS SET CALLCOUNT=?,SUMDURATION=?,SUMDURATIONMISS=?,SUMDURATIONHIT=?,SUMRESULTSIZE=?,REALCACHEHITCOUNT=?,REALCACHEACTCOUNT=? WHERE OPERATIONNAME=? AND KEYVALUE=?";
+
+	/*
+	 * Positions in the per key accumulators.
+	 */
+	private static final int CALL_COUNT = 0;
+	private static final int SUM_DURATION = 1;
+	private static final int SUM_DURATION_MISS = 2;
+	private static final int SUM_DURATION_HIT = 3;
+	private static final int SUM_RESULT_SIZE = 4;
+	private static final int FROM_CACHE_COUNT = 5;
+	private static final int CACHE_ENABLED_COUNT = 6;
+	private static final int ACCUMULATOR_SIZE = 7;
+
+	/**
+	 * Number of sums kept per step, see
+	 * {@link ColumnarMetricAnalyzer#createCacheHitStep(String, String, double[])}
+	 * .
+	 */
+	private static final int STEP_SUM_SIZE = 11;
+
+	/**
+	 * Position of the key count in the step sums.
+	 */
+	private static final int STEP_KEY_COUNT = 6;
+
+	/**
+	 * Running aggregate of an operation and unique key.
+	 */
+	private static class KeyAggregate {
+		private final OperationAggregate operation;
+		private final String key;
+		private final long[] accumulator = new long[ACCUMULATOR_SIZE];
+		private int stepIndex = -1;
+		private boolean persisted = false;
+		private boolean dirty = false;
+
+		private KeyAggregate(OperationAggregate operation, String key) {
+			this.operation = operation;
+			this.key = key;
+		}
+	}
+
+	/**
+	 * Running aggregates of an operation.
+	 */
+	private static class OperationAggregate {
+		private final String operationName;
+		private final Map<String, KeyAggregate> keys = new HashMap<String, KeyAggregate>();
+		private final long[][] stepSums;
+		private final long[] totalSums = new long[STEP_SUM_SIZE];
+
+		private OperationAggregate(String operationName, int stepCount) {
+			this.operationName = operationName;
+			this.stepSums = new long[stepCount][STEP_SUM_SIZE];
+		}
+	}
+
+	private final DirectMetricGather delegate;
+
+	private final List<Step> steps;
+
+	private final Map<String, OperationAggregate> operations = new LinkedHashMap<String, OperationAggregate>();
+
+	private final List<KeyAggregate> dirtyKeys = new ArrayList<KeyAggregate>();
+
+	private boolean truncatingSqlSelect = true;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param delegate
+	 *            the gatherer receiving the metrics, usually writing the METRIC
+	 *            table.
+	 * @param stepSeparationPoints
+	 *            the cache hit step separation points, see
+	 *            {@link MetricCompiler#regroupCacheHitsInSteps(DataSource, long[])}
+	 *            .
+	 */
+	public IncrementalCacheHitAggregator(DirectMetricGather delegate,
+			long[] stepSeparationPoints) {
+		this.delegate = delegate;
+		this.steps = MetricCompiler
+				.getStepListFromBreakPoints(stepSeparationPoints);
+	}
+
+	/**
+	 * should SQL select statements be truncated ? Must match the delegate.
+	 *
+	 * @return true if they are.
+	 */
+	public boolean isTruncatingSqlSelect() {
+		return truncatingSqlSelect;
+	}
+
+	/**
+	 * should SQL select statements be truncated ? Must match the delegate.
+	 *
+	 * @param truncatingSqlSelect
+	 *            set to true to truncate, false otherwise.
+	 */
+	public void setTruncatingSqlSelect(boolean truncatingSqlSelect) {
+		this.truncatingSqlSelect = truncatingSqlSelect;
+	}
+
+	/**
+	 * Load the running aggregates from UNIQUECACHEHITSUMS, creating the table
+	 * when it is missing. UNIQUECACHEHITS and UNIQUECACHEHITSUMS are rebuilt
+	 * from the METRIC table first when they don't account for every metric,
+	 * for example when the previous run didn't compute the metrics or used the
+	 * regular analysis.
+	 *
+	 * @param dataSource
+	 *            the analysis database.
+	 * @throws SQLException
+	 *             any unexpected database error.
+	 */
+	public synchronized void initialize(DataSource dataSource)
+			throws SQLException {
+		long startTime = System.currentTimeMillis();
+		operations.clear();
+		dirtyKeys.clear();
+
+		long metricCount = queryLong(dataSource, COUNT_METRICS_SQL);
+		long aggregatedCount = queryLong(dataSource,
+				COUNT_UNIQUE_CACHE_HIT_CALLS_SQL);
+		boolean rebuilt = metricCount != aggregatedCount;
+		if (rebuilt) {
+			LOGGER.log(Level.INFO, "UNIQUECACHEHITS accounts for "
+					+ aggregatedCount + " of the " + metricCount
+					+ " metrics, rebuilding it.");
+			MetricCompiler.clearUniqueCacheHitsTable(dataSource);
+			MetricCompiler.aggregateCacheHits(dataSource);
+		}
+
+		createSumsTableIfMissing(dataSource);
+		long summedCount = queryLong(dataSource,
+				COUNT_UNIQUE_CACHE_HIT_SUM_CALLS_SQL);
+		if (rebuilt || metricCount != summedCount) {
+			LOGGER.log(Level.INFO, "UNIQUECACHEHITSUMS accounts for "
+					+ summedCount + " of the " + metricCount
+					+ " metrics, rebuilding it.");
+			CacheUtilities.execute(dataSource,
+					CLEAR_UNIQUE_CACHE_HIT_SUMS_TABLE_SQL);
+			CacheUtilities.executeUpdate(dataSource,
+					AGGREGATE_UNIQUE_CACHE_HIT_SUMS_SQL);
+		}
+
+		Connection connection = null;
+		Statement statement = null;
+		ResultSet rs = null;
+		int keyCount = 0;
+		try {
+			// $ANALYSIS-IGNORE
+			connection = dataSource.getConnection();
+			// $ANALYSIS-IGNORE
+			statement = connection.createStatement();
+			// $ANALYSIS-IGNORE
+			rs = statement.executeQuery(SELECT_UNIQUE_CACHE_HIT_SUMS_SQL);
+			while (rs.next()) {
+				KeyAggregate aggregate = getKeyAggregate(rs.getString(1),
+						rs.getString(2));
+				long[] accumulator = aggregate.accumulator;
+				accumulator[CALL_COUNT] = rs.getLong(3);
+				accumulator[SUM_DURATION] = rs.getLong(4);
+				accumulator[SUM_DURATION_MISS] = rs.getLong(5);
+				accumulator[SUM_DURATION_HIT] = rs.getLong(6);
+				accumulator[SUM_RESULT_SIZE] = rs.getLong(7);
+				accumulator[FROM_CACHE_COUNT] = rs.getLong(8);
+				accumulator[CACHE_ENABLED_COUNT] = rs.getLong(9);
+				aggregate.persisted = true;
+				addContribution(aggregate, 1);
+				++keyCount;
+			}
+		} finally {
+			CacheUtilities.closeQuietly(rs);
+			CacheUtilities.closeQuietly(statement);
+			CacheUtilities.closeQuietly(connection);
+		}
+
+		long duration = System.currentTimeMillis() - startTime;
+		LOGGER.log(Level.INFO, "Took " + duration + " ms to load " + keyCount
+				+ " unique cache hits.");
+	}
+
+	private static void createSumsTableIfMissing(DataSource dataSource)
+			throws SQLException {
+		try {
+			AnalyzeMetricFile.executeQuery(dataSource,
+					COUNT_UNIQUE_CACHE_HIT_SUM_CALLS_SQL);
+		} catch (SQLException e) {
+			LOGGER.log(Level.INFO, "Creating the UNIQUECACHEHITSUMS table.");
+			LOGGER.log(Level.FINE, "UNIQUECACHEHITSUMS table not present.", e);
+			CacheUtilities.execute(dataSource,
+					CREATE_UNIQUE_CACHE_HIT_SUMS_TABLE_SQL);
+		}
+	}
+
+	private static long queryLong(DataSource dataSource, String sql)
+			throws SQLException {
+		Object value = AnalyzeMetricFile.executeQuery(dataSource, sql).get(0)
+				.get(0);
+		if (value == null) {
+			return 0;
+		}
+		return ((Number) value).longValue();
+	}
+
+	@Override
+	public void gatherMetric(OperationMetric metric) {
+		delegate.gatherMetric(metric);
+
+		String operationName = DatabaseMetricGatherer.normalizeOperationName(
+				metric.getOperationName(), truncatingSqlSelect);
+		String key = DatabaseMetricGatherer.normalizeUniqueKey(metric
+				.getUniqueKey());
+		long duration = metric.getDuration();
+
+		synchronized (this) {
+			KeyAggregate aggregate = getKeyAggregate(operationName, key);
+			addContribution(aggregate, -1);
+
+			long[] accumulator = aggregate.accumulator;
+			accumulator[CALL_COUNT]++;
+			accumulator[SUM_DURATION] += duration;
+			accumulator[SUM_RESULT_SIZE] += metric.getResultSize();
+			if (metric.isResultFetchedFromCache()) {
+				accumulator[SUM_DURATION_HIT] += duration;
+				accumulator[FROM_CACHE_COUNT]++;
+			} else {
+				accumulator[SUM_DURATION_MISS] += duration;
+			}
+			if (metric.isOperationCacheEnabled()) {
+				accumulator[CACHE_ENABLED_COUNT]++;
+			}
+
+			addContribution(aggregate, 1);
+			if (!aggregate.dirty) {
+				aggregate.dirty = true;
+				dirtyKeys.add(aggregate);
+			}
+		}
+	}
+
+	private KeyAggregate getKeyAggregate(String operationName, String key) {
+		OperationAggregate operation = operations.get(operationName);
+		if (operation == null) {
+			operation = new OperationAggregate(operationName, steps.size());
+			operations.put(operationName, operation);
+		}
+		KeyAggregate aggregate = operation.keys.get(key);
+		if (aggregate == null) {
+			aggregate = new KeyAggregate(operation, key);
+			operation.keys.put(key, aggregate);
+		}
+		return aggregate;
+	}
+
+	/**
+	 * Add or remove the UNIQUECACHEHITS row of a key to the sums of its step
+	 * and of its operation, following the truncation of the BIGINT columns.
+	 *
+	 * @param aggregate
+	 *            the key.
+	 * @param sign
+	 *            1 to add, -1 to remove.
+	 */
+	private void addContribution(KeyAggregate aggregate, int sign) {
+		long[] accumulator = aggregate.accumulator;
+		long callCount = accumulator[CALL_COUNT];
+		if (callCount == 0) {
+			return;
+		}
+		long realCacheHitCount = accumulator[FROM_CACHE_COUNT];
+		long missCount = callCount - realCacheHitCount;
+		long cacheHitCount = callCount - 1;
+		long averageResultSize = accumulator[SUM_RESULT_SIZE] / callCount;
+
+		long[] contribution = new long[STEP_SUM_SIZE];
+		contribution[0] = accumulator[SUM_DURATION] / callCount * callCount;
+		contribution[1] = accumulator[SUM_DURATION_HIT]
+				/ Math.max(realCacheHitCount, 1) * realCacheHitCount;
+		contribution[2] = accumulator[SUM_DURATION_MISS]
+				/ Math.max(missCount, 1) * missCount;
+		contribution[3] = missCount;
+		contribution[4] = averageResultSize;
+		contribution[5] = averageResultSize * callCount;
+		contribution[STEP_KEY_COUNT] = 1;
+		contribution[7] = cacheHitCount;
+		contribution[8] = callCount;
+		contribution[9] = realCacheHitCount;
+		contribution[10] = accumulator[CACHE_ENABLED_COUNT];
+
+		if (sign > 0) {
+			aggregate.stepIndex = getStepIndex(cacheHitCount);
+		}
+		long[] stepSums = aggregate.operation.stepSums[aggregate.stepIndex];
+		long[] totalSums = aggregate.operation.totalSums;
+		for (int i = 0; i < STEP_SUM_SIZE; ++i) {
+			stepSums[i] += sign * contribution[i];
+			totalSums[i] += sign * contribution[i];
+		}
+	}
+
+	private int getStepIndex(long cacheHitCount) {
+		for (int i = 0; i < steps.size(); ++i) {
+			Step step = steps.get(i);
+			if (cacheHitCount >= step.getStart()
+					&& cacheHitCount <= step.getStop()) {
+				return i;
+			}
+		}
+		// the steps cover every positive count
+		return steps.size() - 1;
+	}
+
+	/**
+	 * Update the UNIQUECACHEHITS rows changed since the last call and rewrite
+	 * CACHEHITSTEPS and CACHEALLOCATION from the running aggregates. This
+	 * replaces {@link MetricCompiler#aggregateCacheHits(DataSource)},
+	 * {@link MetricCompiler#regroupCacheHitsInSteps(DataSource, long[])} and
+	 * {@link MetricCompiler#allocateCacheSpace(DataSource, long)}. The gathered
+	 * metrics should be written first with {@link #writeMetrics()}.
+	 *
+	 * @param dataSource
+	 *            the analysis database.
+	 * @param cacheSize
+	 *            the size of the cache to allocate.
+	 * @throws SQLException
+	 *             any unexpected database error.
+	 */
+	public synchronized void writeResults(DataSource dataSource, long cacheSize)
+			throws SQLException {
+		long startTime = System.currentTimeMillis();
+		int updatedKeyCount = dirtyKeys.size();
+		writeUniqueCacheHits(dataSource);
+
+		List<ColumnarMetricAnalyzer.CacheHitStep> cacheHitSteps = new ArrayList<ColumnarMetricAnalyzer.CacheHitStep>();
+		List<ColumnarMetricAnalyzer.CacheHitStep> cacheAllocations = new ArrayList<ColumnarMetricAnalyzer.CacheHitStep>();
+		String allocationStepName = new Step().toString();
+		for (OperationAggregate operation : operations.values()) {
+			for (int i = 0; i < steps.size(); ++i) {
+				long[] sums = operation.stepSums[i];
+				if (sums[STEP_KEY_COUNT] > 0) {
+					cacheHitSteps.add(ColumnarMetricAnalyzer.createCacheHitStep(
+							operation.operationName, steps.get(i).toString(),
+							toDoubles(sums)));
+				}
+			}
+			if (operation.totalSums[STEP_KEY_COUNT] > 0) {
+				cacheAllocations.add(ColumnarMetricAnalyzer.createCacheHitStep(
+						operation.operationName, allocationStepName,
+						toDoubles(operation.totalSums)));
+			}
+		}
+		ColumnarMetricAnalyzer.allocateCacheSpace(cacheHitSteps,
+				cacheAllocations, cacheSize);
+
+		MetricCompiler.clearCacheHitStepsTable(dataSource);
+		MetricCompiler.clearCacheAllocationTable(dataSource);
+		ColumnarMetricAnalyzer.insertSteps(dataSource,
+				"INSERT INTO CACHEHITSTEPS", cacheHitSteps);
+		ColumnarMetricAnalyzer.insertSteps(dataSource,
+				"INSERT INTO CACHEALLOCATION", cacheAllocations);
+
+		long duration = System.currentTimeMillis() - startTime;
+		LOGGER.log(Level.INFO, "Took " + duration + " ms to update "
+				+ updatedKeyCount + " unique cache hits and write "
+				+ cacheHitSteps.size() + " cache hit steps.");
+	}
+
+	private static double[] toDoubles(long[] sums) {
+		double[] values = new double[sums.length];
+		for (int i = 0; i < sums.length; ++i) {
+			values[i] = sums[i];
+		}
+		return values;
+	}
+
+	private void writeUniqueCacheHits(DataSource dataSource)
+			throws SQLException {
+		Connection connection = null;
+		PreparedStatement insertStatement = null;
+		PreparedStatement updateStatement = null;
+		PreparedStatement insertSumsStatement = null;
+		PreparedStatement updateSumsStatement = null;
+		try {
+			// $ANALYSIS-IGNORE
+			connection = dataSource.getConnection();
+			// $ANALYSIS-IGNORE
+			insertStatement = connection
+					.prepareStatement(INSERT_UNIQUE_CACHE_HIT_SQL);
+			// $ANALYSIS-IGNORE
+			updateStatement = connection
+					.prepareStatement(UPDATE_UNIQUE_CACHE_HIT_SQL);
+			// $ANALYSIS-IGNORE
+			insertSumsStatement = connection
+					.prepareStatement(INSERT_UNIQUE_CACHE_HIT_SUMS_SQL);
+			// $ANALYSIS-IGNORE
+			updateSumsStatement = connection
+					.prepareStatement(UPDATE_UNIQUE_CACHE_HIT_SUMS_SQL);
+			int maximumBatchSize = DatabaseMetricGatherer.INITIAL_MAXIMUM_DATABASE_BATCH_SIZE;
+			int insertCount = 0;
+			int updateCount = 0;
+			for (KeyAggregate aggregate : dirtyKeys) {
+				if (aggregate.persisted) {
+					bindUniqueCacheHit(updateStatement, aggregate);
+					bindUniqueCacheHitSums(updateSumsStatement, aggregate);
+					if (++updateCount % maximumBatchSize == 0) {
+						updateStatement.executeBatch();
+						updateSumsStatement.executeBatch();
+					}
+				} else {
+					bindUniqueCacheHit(insertStatement, aggregate);
+					bindUniqueCacheHitSums(insertSumsStatement, aggregate);
+					if (++insertCount % maximumBatchSize == 0) {
+						insertStatement.executeBatch();
+						insertSumsStatement.executeBatch();
+					}
+				}
+			}
+			insertStatement.executeBatch();
+			updateStatement.executeBatch();
+			insertSumsStatement.executeBatch();
+			updateSumsStatement.executeBatch();
+
+			for (KeyAggregate aggregate : dirtyKeys) {
+				aggregate.persisted = true;
+				aggregate.dirty = false;
+			}
+			dirtyKeys.clear();
+		} finally {
+			CacheUtilities.closeQuietly(insertStatement);
+			CacheUtilities.closeQuietly(updateStatement);
+			CacheUtilities.closeQuietly(insertSumsStatement);
+			CacheUtilities.closeQuietly(updateSumsStatement);
+			CacheUtilities.closeQuietly(connection);
+		}
+	}
+
+	private static void bindUniqueCacheHit(PreparedStatement statement,
+			KeyAggregate aggregate) throws SQLException {
+		long[] accumulator = aggregate.accumulator;
+		long callCount = accumulator[CALL_COUNT];
+		long fromCacheCount = accumulator[FROM_CACHE_COUNT];
+		statement.setLong(1, callCount - 1);
+		statement.setLong(2, callCount);
+		statement.setLong(3, accumulator[SUM_DURATION] / callCount);
+		statement.setLong(4, accumulator[SUM_DURATION_MISS]
+				/ Math.max(callCount - fromCacheCount, 1));
+		statement.setLong(5, accumulator[SUM_DURATION_HIT]
+				/ Math.max(fromCacheCount, 1));
+		statement.setLong(6, accumulator[SUM_RESULT_SIZE] / callCount);
+		statement.setLong(7, fromCacheCount);
+		statement.setLong(8, accumulator[CACHE_ENABLED_COUNT]);
+		statement.setString(9, aggregate.operation.operationName);
+		statement.setString(10, aggregate.key);
+		statement.addBatch();
+	}
+
+	private static void bindUniqueCacheHitSums(PreparedStatement statement,
+			KeyAggregate aggregate) throws SQLException {
+		long[] accumulator = aggregate.accumulator;
+		statement.setLong(1, accumulator[CALL_COUNT]);
+		statement.setLong(2, accumulator[SUM_DURATION]);
+		statement.setLong(3, accumulator[SUM_DURATION_MISS]);
+		statement.setLong(4, accumulator[SUM_DURATION_HIT]);
+		statement.setLong(5, accumulator[SUM_RESULT_SIZE]);
+		statement.setLong(6, accumulator[FROM_CACHE_COUNT]);
+		statement.setLong(7, accumulator[CACHE_ENABLED_COUNT]);
+		statement.setString(8, aggregate.operation.operationName);
+		statement.setString(9, aggregate.key);
+		statement.addBatch();
+	}
+
+	@Override
+	public void start() {
+		delegate.start();
+	}
+
+	@Override
+	public void stop() {
+		delegate.stop();
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return delegate.isEnabled();
+	}
+
+	@Override
+	public boolean isEnabled(String marker) {
+		return delegate.isEnabled(marker);
+	}
+
+	@Override
+	public int getPendingFlushSize() {
+		return delegate.getPendingFlushSize();
+	}
+
+	@Override
+	public boolean writeMetrics() {
+		return delegate.writeMetrics();
+	}
+}
@@ -91,6 +91,16 @@ public class LogMetricFileLoader extends MetricFileLoader {
 		return null;
 	}
 
+	/**
+	 * Only the lines holding an exit tag are metrics.
+	 * 
+	 * @see com.ibm.commerce.cache.MetricFileLoader#getLineMarker()
+	 */
+	@Override
+	protected String getLineMarker() {
+		return LogMetricGatherer.EXIT_XML_TAG_PREFIX;
+	}
+
 	/**
 	 * Isolate the performance metric from the log line.
 	 * 
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.util.Arrays;
+
+/**
+ * Map of primitive long keys to non negative int values using open
+ * addressing with linear probing. It avoids boxing a Long and an Integer per
+ * entry when indexing millions of metric identifiers.
+ * <p>
+ * Entries can't be removed. This class isn't thread safe.
+ */
+public class LongIntHashMap {
+
+	/**
+	 * Value returned when a key isn't in the map.
+	 */
+	public static final int NO_VALUE = -1;
+
+	/**
+	 * Maximum ratio of used slots before the table doubles.
+	 */
+	private static final float LOAD_FACTOR = 0.5f;
+
+	private long[] keys;
+
+	private int[] values;
+
+	private int mask;
+
+	private int size = 0;
+
+	private int resizeThreshold;
+
+	/**
+	 * @param expectedSize
+	 *            the number of entries expected, the table is sized to hold
+	 *            them without resizing.
+	 */
+	public LongIntHashMap(int expectedSize) {
+		long capacity = Long.highestOneBit(Math.max(4,
+				(long) (expectedSize / LOAD_FACTOR)) * 2 - 1);
+		if (capacity > (1 << 30)) {
+			capacity = 1 << 30;
+		}
+		allocate((int) capacity);
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new int[capacity];
+		Arrays.fill(values, NO_VALUE);
+		mask = capacity - 1;
+		resizeThreshold = (int) (capacity * LOAD_FACTOR);
+	}
+
+	/**
+	 * @param key
+	 *            the key.
+	 * @return the value of the key or {@link #NO_VALUE}.
+	 */
+	public int get(long key) {
+		int slot = hash(key) & mask;
+		while (values[slot] != NO_VALUE) {
+			if (keys[slot] == key) {
+				return values[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		return NO_VALUE;
+	}
+
+	/**
+	 * Associate a value to a key.
+	 * 
+	 * @param key
+	 *            the key.
+	 * @param value
+	 *            the value, must not be negative.
+	 * @return the previous value of the key or {@link #NO_VALUE}.
+	 */
+	public int put(long key, int value) {
+		if (value < 0) {
+			throw new IllegalArgumentException("negative value : " + value);
+		}
+		int slot = hash(key) & mask;
+		while (values[slot] != NO_VALUE) {
+			if (keys[slot] == key) {
+				int previous = values[slot];
+				values[slot] = value;
+				return previous;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		++size;
+		if (size > resizeThreshold) {
+			grow();
+		}
+		return NO_VALUE;
+	}
+
+	/**
+	 * @return the number of entries.
+	 */
+	public int size() {
+		return size;
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		if (oldKeys.length == (1 << 30)) {
+			throw new IllegalStateException("LongIntHashMap is full");
+		}
+		allocate(oldKeys.length * 2);
+		for (int i = 0; i < oldKeys.length; ++i) {
+			if (oldValues[i] != NO_VALUE) {
+				int slot = hash(oldKeys[i]) & mask;
+				while (values[slot] != NO_VALUE) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	/**
+	 * Spread the identifiers, which are often sequential, over the table.
+	 */
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Finds the lines of a region of a file directly in its memory mapped bytes,
+ * so that lines can be rejected before anything is decoded to characters.
+ * <p>
+ * Lines end with a line feed, a carriage return or both, like
+ * {@link java.io.BufferedReader#readLine()}. The region is mapped in windows
+ * of {@link #DEFAULT_WINDOW_SIZE} bytes, a window grows when a single line
+ * doesn't fit. Only charsets where a line terminator is always a single byte
+ * are supported, see {@link #isSupported(Charset)}.
+ * <p>
+ * This class isn't thread safe.
+ */
+public class MappedLineScanner {
+
+	/**
+	 * Default size of the mapped window in bytes.
+	 */
+	public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+	private final FileChannel channel;
+
+	private final Charset charset;
+
+	private final long regionEnd;
+
+	private final int windowSize;
+
+	private final byte lineFeed;
+
+	private final byte carriageReturn;
+
+	private MappedByteBuffer window = null;
+
+	/**
+	 * File position of the first byte of the window.
+	 */
+	private long windowStart;
+
+	/**
+	 * Position in the window where the next line starts.
+	 */
+	private int position = 0;
+
+	private int lineStart = 0;
+
+	private int lineEnd = 0;
+
+	private long lineCount = 0;
+
+	/**
+	 * @param channel
+	 *            the file, it stays owned by the caller.
+	 * @param charset
+	 *            the charset of the file.
+	 * @param offset
+	 *            the first byte of the region.
+	 * @param length
+	 *            the length of the region.
+	 */
+	public MappedLineScanner(FileChannel channel, Charset charset,
+			long offset, long length) {
+		this(channel, charset, offset, length, DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * @param channel
+	 *            the file, it stays owned by the caller.
+	 * @param charset
+	 *            the charset of the file.
+	 * @param offset
+	 *            the first byte of the region.
+	 * @param length
+	 *            the length of the region.
+	 * @param windowSize
+	 *            the size of the mapped window in bytes.
+	 */
+	public MappedLineScanner(FileChannel channel, Charset charset,
+			long offset, long length, int windowSize) {
+		this.channel = channel;
+		this.charset = charset;
+		this.windowStart = offset;
+		this.regionEnd = offset + length;
+		this.windowSize = Math.max(1, windowSize);
+		this.lineFeed = encodeSingleByte(charset, "\n");
+		this.carriageReturn = encodeSingleByte(charset, "\r");
+	}
+
+	/**
+	 * Check if files in the specified charset can be scanned for lines byte by
+	 * byte. True for UTF-8 and all single byte charsets.
+	 * 
+	 * @param charset
+	 *            the charset.
+	 * @return true if supported.
+	 */
+	public static boolean isSupported(Charset charset) {
+		return StandardCharsets.UTF_8.equals(charset)
+				|| (charset.canEncode() && charset.newEncoder()
+						.maxBytesPerChar() == 1.0f);
+	}
+
+	private static byte encodeSingleByte(Charset charset, String text) {
+		byte[] bytes = text.getBytes(charset);
+		if (bytes.length != 1) {
+			throw new IllegalArgumentException("Unsupported charset : "
+					+ charset);
+		}
+		return bytes[0];
+	}
+
+	/**
+	 * Move to the next line.
+	 * 
+	 * @return false when the region has no more lines.
+	 * @throws IOException
+	 *             if the file can't be mapped.
+	 */
+	public boolean nextLine() throws IOException {
+		if (window == null) {
+			mapWindow(windowStart, windowSize);
+		}
+		while (true) {
+			int limit = window.limit();
+			boolean lastWindow = windowStart + limit >= regionEnd;
+			for (int i = position; i < limit; ++i) {
+				byte b = window.get(i);
+				if (b == lineFeed) {
+					return setLine(i, i + 1);
+				}
+				if (b == carriageReturn) {
+					if (i + 1 < limit) {
+						return setLine(i,
+								window.get(i + 1) == lineFeed ? i + 2 : i + 1);
+					}
+					if (lastWindow) {
+						return setLine(i, i + 1);
+					}
+					// the line feed may follow in the next window
+					break;
+				}
+			}
+			if (lastWindow) {
+				if (position < limit) {
+					return setLine(limit, limit);
+				}
+				return false;
+			}
+			// map the rest of the line again, with more room if the line
+			// filled the whole window
+			int lineLength = limit - position;
+			mapWindow(windowStart + position,
+					lineLength == 0 ? windowSize : Math.max(windowSize,
+							lineLength * 2));
+		}
+	}
+
+	private boolean setLine(int end, int next) {
+		lineStart = position;
+		lineEnd = end;
+		position = next;
+		++lineCount;
+		return true;
+	}
+
+	private void mapWindow(long start, long size) throws IOException {
+		long length = Math.min(Math.min(size, Integer.MAX_VALUE), regionEnd
+				- start);
+		windowStart = start;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+		position = 0;
+	}
+
+	/**
+	 * @return the number of lines found so far.
+	 */
+	public long getLineCount() {
+		return lineCount;
+	}
+
+	/**
+	 * @return the length of the current line in bytes, terminator excluded.
+	 */
+	public int getLineLength() {
+		return lineEnd - lineStart;
+	}
+
+	/**
+	 * Find some bytes in the current line.
+	 * 
+	 * @param pattern
+	 *            the bytes to find.
+	 * @return the offset of the bytes from the start of the line or -1.
+	 */
+	public int indexOf(byte[] pattern) {
+		int last = lineEnd - pattern.length;
+		for (int i = lineStart; i <= last; ++i) {
+			if (window.get(i) == pattern[0]) {
+				int j = 1;
+				while (j < pattern.length && window.get(i + j) == pattern[j]) {
+					++j;
+				}
+				if (j == pattern.length) {
+					return i - lineStart;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Decode the end of the current line.
+	 * 
+	 * @param offset
+	 *            the offset of the first byte to decode from the start of the
+	 *            line.
+	 * @return the decoded text, malformed input is replaced.
+	 */
+	public String decode(int offset) {
+		ByteBuffer bytes = window.duplicate();
+		bytes.limit(lineEnd);
+		bytes.position(lineStart + offset);
+		return charset.decode(bytes).toString();
+	}
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Encodes metric fields straight into a reusable direct byte buffer and writes
+ * the buffer to a channel once it is full or when {@link #flush()} is called.
+ * <p>
+ * Numbers are formatted without creating intermediate strings and strings are
+ * escaped with the same rules as
+ * {@link CacheUtilities#escapeStringToWriter(java.io.Writer, String)} and
+ * encoded in UTF-8. The output is therefore byte for byte identical to the
+ * output of {@link OperationMetric#toSerializedString(java.io.Writer)} written
+ * through a UTF-8 writer.
+ * <p>
+ * This class isn't thread safe.
+ */
+public class MetricChannelWriter {
+
+	/**
+	 * Minimum size of the write buffer, large enough to hold any single
+	 * encoded value.
+	 */
+	private static final int MINIMUM_BUFFER_SIZE = 64;
+
+	/**
+	 * Byte written in place of unpaired surrogate characters.
+	 */
+	private static final byte REPLACEMENT_BYTE = '?';
+
+	/**
+	 * Reusable write buffer.
+	 */
+	private final ByteBuffer buffer;
+
+	/**
+	 * Scratch space used to format numbers.
+	 */
+	private final byte[] digits = new byte[20];
+
+	/**
+	 * Channel receiving the encoded bytes.
+	 */
+	private WritableByteChannel channel;
+
+	/**
+	 * Number of bytes written to the current channel.
+	 */
+	private long writtenLength;
+
+	/**
+	 * @param bufferSize
+	 *            the size of the write buffer in bytes.
+	 */
+	public MetricChannelWriter(int bufferSize) {
+		buffer = ByteBuffer.allocateDirect(Math.max(bufferSize,
+				MINIMUM_BUFFER_SIZE));
+	}
+
+	/**
+	 * Set the channel receiving the encoded bytes. Any pending bytes must be
+	 * flushed before changing the channel.
+	 * 
+	 * @param channel
+	 *            the new channel.
+	 * @param currentLength
+	 *            the number of bytes already in the channel.
+	 */
+	public void setChannel(WritableByteChannel channel, long currentLength) {
+		this.channel = channel;
+		this.writtenLength = currentLength;
+		buffer.clear();
+	}
+
+	/**
+	 * @return the number of bytes written to the current channel, including
+	 *         the bytes still pending in the buffer.
+	 */
+	public long getLength() {
+		return writtenLength + buffer.position();
+	}
+
+	/**
+	 * Append an ASCII character.
+	 * 
+	 * @param ch
+	 *            the character to append.
+	 * @throws IOException
+	 *             if the buffer had to be flushed and the write failed.
+	 */
+	public void append(char ch) throws IOException {
+		ensureRemaining(1);
+		buffer.put((byte) ch);
+	}
+
+	/**
+	 * Append an ASCII string, such as a separator.
+	 * 
+	 * @param text
+	 *            the string to append.
+	 * @throws IOException
+	 *             if the buffer had to be flushed and the write failed.
+	 */
+	public void appendAscii(String text) throws IOException {
+		int length = text.length();
+		for (int i = 0; i < length; ++i) {
+			ensureRemaining(1);
+			buffer.put((byte) text.charAt(i));
+		}
+	}
+
+	/**
+	 * Append the decimal representation of a number.
+	 * 
+	 * @param value
+	 *            the value to append.
+	 * @throws IOException
+	 *             if the buffer had to be flushed and the write failed.
+	 */
+	public void appendLong(long value) throws IOException {
+		ensureRemaining(digits.length);
+		if (value == Long.MIN_VALUE) {
+			appendAscii(Long.toString(value));
+			return;
+		}
+		if (value < 0) {
+			buffer.put((byte) '-');
+			value = -value;
+		}
+		int index = digits.length;
+		do {
+			digits[--index] = (byte) ('0' + (value % 10));
+			value /= 10;
+		} while (value != 0);
+		buffer.put(digits, index, digits.length - index);
+	}
+
+	/**
+	 * Append a boolean as "true" or "false".
+	 * 
+	 * @param value
+	 *            the value to append.
+	 * @throws IOException
+	 *             if the buffer had to be flushed and the write failed.
+	 */
+	public void appendBoolean(boolean value) throws IOException {
+		appendAscii(value ? "true" : "false");
+	}
+
+	/**
+	 * Escape a string and append it in UTF-8.
+	 * 
+	 * @param text
+	 *            the string to escape, null strings are ignored.
+	 * @throws IOException
+	 *             if the buffer had to be flushed and the write failed.
+	 */
+	public void appendEscaped(String text) throws IOException {
+		if (text == null) {
+			return;
+		}
+		int length = text.length();
+		for (int i = 0; i < length; ++i) {
+			char ch = text.charAt(i);
+			switch (ch) {
+			case '.':
+				appendAscii("&dot;");
+				break;
+			case ':':
+				appendAscii("&col;");
+				break;
+			case ',':
+				appendAscii("&com;");
+				break;
+			case ';':
+				appendAscii("&sem;");
+				break;
+			case '\n':
+				appendAscii("&nln;");
+				break;
+			case '\r':
+				appendAscii("&ret;");
+				break;
+			case '\t':
+				appendAscii("&tab;");
+				break;
+			case '&':
+				appendAscii("&amp;");
+				break;
+			default:
+				i = appendCharacter(text, i);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Append a string in UTF-8 without escaping it.
+	 * 
+	 * @param text
+	 *            the string to append.
+	 * @throws IOException
+	 *             if the buffer had to be flushed and the write failed.
+	 */
+	public void appendUtf8(String text) throws IOException {
+		int length = text.length();
+		for (int i = 0; i < length; ++i) {
+			i = appendCharacter(text, i);
+		}
+	}
+
+	/**
+	 * Compute the number of bytes written by {@link #appendUtf8(String)}.
+	 * 
+	 * @param text
+	 *            the string to measure.
+	 * @return the UTF-8 length of the string in bytes.
+	 */
+	public static int getUtf8Length(String text) {
+		int length = text.length();
+		int byteCount = 0;
+		for (int i = 0; i < length; ++i) {
+			char ch = text.charAt(i);
+			if (ch < 0x80) {
+				byteCount += 1;
+			} else if (ch < 0x800) {
+				byteCount += 2;
+			} else if (Character.isHighSurrogate(ch) && i + 1 < length
+					&& Character.isLowSurrogate(text.charAt(i + 1))) {
+				byteCount += 4;
+				++i;
+			} else if (Character.isSurrogate(ch)) {
+				byteCount += 1;
+			} else {
+				byteCount += 3;
+			}
+		}
+		return byteCount;
+	}
+
+	/**
+	 * Append a single byte.
+	 * 
+	 * @param value
+	 *            the byte to append.
+	 * @throws IOException
+	 *             if the buffer had to be flushed and the write failed.
+	 */
+	public void appendByte(int value) throws IOException {
+		ensureRemaining(1);
+		buffer.put((byte) value);
+	}
+
+	/**
+	 * Append an unsigned number using 7 bits per byte, the high bit of each
+	 * byte indicating that another byte follows.
+	 * 
+	 * @param value
+	 *            the value to append, treated as unsigned.
+	 * @throws IOException
+	 *             if the buffer had to be flushed and the write failed.
+	 */
+	public void appendVarLong(long value) throws IOException {
+		ensureRemaining(10);
+		while ((value & ~0x7FL) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	/**
+	 * Append the character at the specified index in UTF-8, combining it with
+	 * the next character if they form a surrogate pair.
+	 * 
+	 * @return the index of the last character consumed.
+	 */
+	private int appendCharacter(String text, int index) throws IOException {
+		char ch = text.charAt(index);
+		if (Character.isHighSurrogate(ch) && index + 1 < text.length()
+				&& Character.isLowSurrogate(text.charAt(index + 1))) {
+			appendCodePoint(Character.toCodePoint(ch, text.charAt(index + 1)));
+			return index + 1;
+		}
+		appendCodePoint(ch);
+		return index;
+	}
+
+	/**
+	 * Append a code point in UTF-8.
+	 * 
+	 * @param codePoint
+	 *            the code point to append.
+	 * @throws IOException
+	 *             if the buffer had to be flushed and the write failed.
+	 */
+	private void appendCodePoint(int codePoint) throws IOException {
+		ensureRemaining(4);
+		if (codePoint < 0x80) {
+			buffer.put((byte) codePoint);
+		} else if (codePoint < 0x800) {
+			buffer.put((byte) (0xC0 | (codePoint >> 6)));
+			buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+		} else if (Character.isSurrogate((char) codePoint)
+				&& codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+			buffer.put(REPLACEMENT_BYTE);
+		} else if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+			buffer.put((byte) (0xE0 | (codePoint >> 12)));
+			buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+			buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+		} else {
+			buffer.put((byte) (0xF0 | (codePoint >> 18)));
+			buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+			buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+			buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+		}
+	}
+
+	/**
+	 * Flush the buffer if it can't hold the specified number of bytes.
+	 */
+	private void ensureRemaining(int byteCount) throws IOException {
+		if (buffer.remaining() < byteCount) {
+			flush();
+		}
+	}
+
+	/**
+	 * Write all the pending bytes to the channel.
+	 * 
+	 * @throws IOException
+	 *             if the write failed.
+	 */
+	public void flush() throws IOException {
+		buffer.flip();
+		try {
+			while (buffer.hasRemaining()) {
+				writtenLength += channel.write(buffer);
+			}
+		} finally {
+			buffer.clear();
+		}
+	}
+}
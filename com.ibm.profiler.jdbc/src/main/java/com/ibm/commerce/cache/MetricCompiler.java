@@ -226,6 +226,11 @@ public class MetricCompiler {
      */
     public static final int MAX_CALLER_DEPTH = 20;
 
+    /**
+     * prefix of the reverse caller analysis tables
+     */
+    public static final String CALLER_TABLE_PREFIX = "CALLER";
+
     /**
      * Execute the database update to aggregate all the cache hits together in
      * the UNIQUECACHEHITS table based on the content of the METRIC table.
@@ -928,19 +933,50 @@ public class MetricCompiler {
      *             any unexpected database error
      */
     public static void createCallerTables( DataSource dataSource ) throws SQLException {
-        final String METHODNAME = "createCallerTables(DataSource dataSource)";
+        createCallerTables( dataSource, CALLER_TABLE_PREFIX );
+    }
+
+    /**
+     * create a set of tables used to analyze the reverse callers, one per
+     * depth, named with the prefix followed by the depth. Concurrent caller
+     * analysis each need their own set.
+     * 
+     * @param dataSource
+     *            The datasource to use.
+     * @param tablePrefix
+     *            the prefix of the table names.
+     * @throws SQLException
+     *             any unexpected database error
+     */
+    public static void createCallerTables( DataSource dataSource, String tablePrefix ) throws SQLException {
+        dropCallerTables( dataSource, tablePrefix );
+        for ( int i = 0; i < MAX_CALLER_DEPTH; ++i ) {
+            CacheUtilities.execute( dataSource, "CREATE TABLE " + tablePrefix + i + " (" + "IDENTIFIER BIGINT NOT NULL )" );
+        }
+    }
+
+    /**
+     * drop a set of tables used to analyze the reverse callers, ignoring the
+     * missing tables.
+     * 
+     * @param dataSource
+     *            The datasource to use.
+     * @param tablePrefix
+     *            the prefix of the table names.
+     */
+    public static void dropCallerTables( DataSource dataSource, String tablePrefix ) {
+        final String METHODNAME = "dropCallerTables(DataSource dataSource, String tablePrefix)";
         for ( int i = 0; i < MAX_CALLER_DEPTH; ++i ) {
             try {
-                CacheUtilities.execute( dataSource, "DROP TABLE CALLER" + i );
+                CacheUtilities.execute( dataSource, "DROP TABLE " + tablePrefix + i );
             } catch ( SQLException ex ) {
                 if ( LOGGER.isLoggable( Level.FINER ) ) {
                     String msg = "SQL Exception expected when dropping a table that might not exist.";
                     LOGGER.logp( Level.FINER, CLASS_NAME, METHODNAME, msg, ex );
                 }
             } catch ( Exception ex ) {
-                LoggingHelper.logUnexpectedException( LOGGER, CLASS_NAME, "createCallerTables(DataSource dataSource)", ex );
+                LoggingHelper.logUnexpectedException( LOGGER, CLASS_NAME, METHODNAME, ex );
             }
-            CacheUtilities.execute( dataSource, "CREATE TABLE CALLER" + i + " (" + "IDENTIFIER BIGINT NOT NULL )" );
         }
     }
 
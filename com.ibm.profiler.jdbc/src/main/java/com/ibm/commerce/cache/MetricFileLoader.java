@@ -20,16 +20,19 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.text.DateFormat;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -94,8 +97,8 @@ public class MetricFileLoader {
     /** default timestamp format */
     public static final String DEFAULT_TIMESTAMP_FORMAT = "d/M/yy H:mm:ss:SSS";
 
-    /** timestamp formatter */
-    private DateFormat formatter = new SimpleDateFormat( DEFAULT_TIMESTAMP_FORMAT );
+    /** timestamp parser */
+    private TimestampParser timestampParser = new TimestampParser( DEFAULT_TIMESTAMP_FORMAT );
 
     /** default JDBC trace regular expression */
     public static final String DEFAULT_JDBC_TRACE_REGEX = "\\[([0-9]{1,2}/[0-9]{1,2}/[0-9]{2} [0-9]{1,2}:[0-9]{2}:[0-9]{2}:[0-9]{3}) [A-Za-z]{1,3}\\] ([0-9a-fA-F]{8}) JDBCTrace.+?STMT : (.+?) : PARAMETERS\\[(.+?)\\] : Execution time = ([0-9,]*) ms.*";
@@ -118,11 +121,27 @@ public class MetricFileLoader {
     /** compiled entry trace pattern */
     private Pattern traceEntryPattern = Pattern.compile( DEFAULT_TRACE_ENTRY_REGEX );
 
-    /** Map that stores the execution stack of each thread */
-    private static final Map<String, List<OperationMetric>> THREAD_STACK_MAP = new HashMap<String, List<OperationMetric>>();
+    private static final int JDBC_TRACE_EXPRESSION = 0;
+
+    private static final int TRACE_ENTRY_EXPRESSION = 1;
+
+    private static final int TRACE_EXIT_EXPRESSION = 2;
+
+    /** literal prefilter of the trace patterns, rebuilt when a pattern changes */
+    private RegexPrefilter tracePrefilter;
+
+    /**
+     * Map that stores the execution stack of each thread. Kept per loader and
+     * across the files it loads, so that the entry and exit of an operation
+     * match when they are written to two rotated files loaded in order.
+     */
+    private final Map<String, List<OperationMetric>> threadStackMap = new HashMap<String, List<OperationMetric>>();
 
     /** Used to assign unique IDs to JDBC trace logs that were generated by WAS */
-    private static Long idAssigner = Long.MIN_VALUE;
+    private static final AtomicLong ID_ASSIGNER = new AtomicLong( Long.MIN_VALUE );
+
+    /** Number of lines or binary records read by this loader */
+    private long loadedLineCount = 0;
 
     /**
      * constructor
@@ -175,9 +194,10 @@ public class MetricFileLoader {
      * @param format
      *            the format according to the SimpleDateFormat class.
      * @see SimpleDateFormat
+     * @see TimestampParser
      */
     public void setTimestampFormat( String format ) {
-        formatter = new SimpleDateFormat( format );
+        timestampParser = new TimestampParser( format );
     }
 
     /**
@@ -188,6 +208,7 @@ public class MetricFileLoader {
      */
     public void setExitTraceRegularExpression( String regex ) {
         traceExitPattern = Pattern.compile( regex );
+        tracePrefilter = null;
     }
 
     /**
@@ -198,6 +219,7 @@ public class MetricFileLoader {
      */
     public void setEntryTraceRegularExpression( String regex ) {
         traceEntryPattern = Pattern.compile( regex );
+        tracePrefilter = null;
     }
 
     /**
@@ -208,6 +230,7 @@ public class MetricFileLoader {
      */
     public void setJdbcTraceRegularExpression( String regex ) {
         jdbcTracePattern = Pattern.compile( regex );
+        tracePrefilter = null;
     }
 
     /**
@@ -220,9 +243,26 @@ public class MetricFileLoader {
         this.parseJdbcTraceLogs = parseJdbcTraceLogs;
     }
 
+    /**
+     * @return the number of lines or binary records read by this loader.
+     */
+    public long getLoadedLineCount() {
+        return loadedLineCount;
+    }
+
+    /**
+     * @return true if WebSphere JDBC trace logs are parsed. Parsing them
+     *         relies on the order of the lines within a file.
+     */
+    public boolean isParseJdbcTraceLogs() {
+        return parseJdbcTraceLogs;
+    }
+
     /**
      * Read the content of a file containing serialized operation metrics and
-     * store them in the database. Any invalid metric will be ignored.
+     * store them in the database. Any invalid metric will be ignored. Files
+     * written in the binary metric format are detected from their header and
+     * read with a {@link BinaryMetricReader}.
      * 
      * @param fileName
      *            the file name from which to extract the serialized operation
@@ -248,7 +288,16 @@ public class MetricFileLoader {
 
         try {
             File loadFile = new File( fileName );
-            if ( loadFile.exists() ) {
+            if ( loadFile.exists() && BinaryMetricReader.isBinaryMetricFile( fileName ) ) {
+
+                // $ANALYSIS-IGNORE
+                fileInputStream = new FileInputStream( fileName );
+
+                readAllMetricsFromBinaryStream( start, fileInputStream );
+            } else if ( loadFile.exists() && !parseJdbcTraceLogs && MappedLineScanner.isSupported( Charset.forName( charsetName ) ) ) {
+
+                readAllLinesFromMappedFile( start, loadFile );
+            } else if ( loadFile.exists() ) {
 
                 // $ANALYSIS-IGNORE
                 fileInputStream = new FileInputStream( fileName );
@@ -309,6 +358,8 @@ public class MetricFileLoader {
             checkToForceDatabaseWrite( pendingFlushSize, i );
         }
 
+        loadedLineCount += i;
+
         // perform one last write metrics for the remaining data
         gatherer.writeMetrics();
 
@@ -316,12 +367,130 @@ public class MetricFileLoader {
 
         LOGGER.log( Level.INFO, "Read " + i + " lines. Wrote : " + logCount + " performance logs to the database in " + duration + "ms." );
 
+        if ( tracePrefilter != null ) {
+            LOGGER.log( Level.INFO, "Trace pattern statistics :\n" + tracePrefilter.getStatistics() );
+            tracePrefilter.resetStatistics();
+        }
+
         if ( entryExitLogEnabled ) {
             Object[] params = {};
             LOGGER.exiting( CLASS_NAME, METHODNAME, params );
         }
     }
 
+    /**
+     * Read a text file through its mapped bytes, only decoding the lines that
+     * may hold a metric. WebSphere JDBC traces need every line and are read
+     * with {@link #readAllLinesFromReader(long, BufferedReader)}.
+     */
+    private void readAllLinesFromMappedFile( long startTime, File file ) throws IOException {
+        int pendingFlushSize = gatherer.getPendingFlushSize();
+        byte[] lineMarker = encodeLineMarker();
+        int i = 0;
+        int logCount = 0;
+
+        FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ );
+        try {
+            MappedLineScanner scanner = new MappedLineScanner( channel, Charset.forName( charsetName ), 0, channel.size() );
+            while ( scanner.nextLine() ) {
+                ++i;
+                OperationMetric metric = parseScannedLine( scanner, lineMarker );
+                if ( metric != null ) {
+                    gatherer.gatherMetric( metric );
+                    ++logCount;
+                }
+
+                checkToForceDatabaseWrite( pendingFlushSize, i );
+            }
+        } finally {
+            CacheUtilities.closeQuietly( channel );
+        }
+
+        loadedLineCount += i;
+
+        // perform one last write metrics for the remaining data
+        gatherer.writeMetrics();
+
+        long duration = ( System.nanoTime() - startTime ) / 1000000;
+
+        LOGGER.log( Level.INFO, "Read " + i + " lines. Wrote : " + logCount + " performance logs to the database in " + duration + "ms." );
+    }
+
+    /**
+     * Text every line holding a metric contains. Lines of a mapped file
+     * without it are skipped without being decoded, the others are decoded
+     * and parsed from the marker on. Null when any line may hold a metric.
+     * 
+     * @return the line marker or null.
+     */
+    protected String getLineMarker() {
+        return null;
+    }
+
+    /**
+     * @return the line marker encoded in the file charset or null.
+     */
+    public byte[] encodeLineMarker() {
+        String lineMarker = getLineMarker();
+        if ( lineMarker == null ) {
+            return null;
+        }
+        return lineMarker.getBytes( Charset.forName( charsetName ) );
+    }
+
+    /**
+     * Parse the current line of a scanner.
+     * 
+     * @param scanner
+     *            the scanner positioned on a line.
+     * @param lineMarker
+     *            the line marker from {@link #encodeLineMarker()}.
+     * @return the parsed metric, null if the line isn't a valid metric.
+     */
+    public OperationMetric parseScannedLine( MappedLineScanner scanner, byte[] lineMarker ) {
+        int markerOffset = 0;
+        if ( lineMarker != null ) {
+            markerOffset = scanner.indexOf( lineMarker );
+            if ( markerOffset < 0 ) {
+                return null;
+            }
+        }
+        String readLine = scanner.decode( markerOffset );
+        if ( LoggingHelper.isTraceEnabled( LOGGER ) ) {
+            LOGGER.log( Level.FINE, "Parsing log entry line : " + readLine );
+        }
+        return parseLine( readLine );
+    }
+
+    private void readAllMetricsFromBinaryStream( long startTime, InputStream stream ) throws IOException {
+        // the reader doesn't own the stream, it is closed by the caller.
+        BinaryMetricReader reader = new BinaryMetricReader( stream );
+        int pendingFlushSize = gatherer.getPendingFlushSize();
+        int i = 0;
+
+        OperationMetric metric;
+        try {
+            while ( ( metric = reader.read() ) != null ) {
+                ++i;
+                adjustJdbcMetric( metric );
+                adjustCassandraMetric( metric );
+                gatherer.gatherMetric( metric );
+
+                checkToForceDatabaseWrite( pendingFlushSize, i );
+            }
+        } finally {
+            loadedLineCount += i;
+
+            // perform one last write metrics for the remaining data, also
+            // when the rest of the file can't be read
+            gatherer.writeMetrics();
+        }
+
+        long duration = ( System.nanoTime() - startTime ) / 1000000;
+
+        LOGGER.log( Level.INFO, "Read " + i + " binary records. Wrote : " + i + " performance logs to the database in " + duration + "ms." );
+    }
+
     private void checkToForceDatabaseWrite( int pendingFlushSize, int i ) {
         boolean isTraceLogEnabled = LoggingHelper.isTraceEnabled( LOGGER );
         if ( i % pendingFlushSize == 0 ) {
@@ -353,13 +522,15 @@ public class MetricFileLoader {
 
         } else if ( parseJdbcTraceLogs ) {
             try {
-                Matcher matcher = jdbcTracePattern.matcher( readLine );
-                if ( matcher.find() ) {
+                RegexPrefilter prefilter = getTracePrefilter();
+                long found = prefilter.scan( readLine );
+                Matcher matcher = findTracePattern( prefilter, found, JDBC_TRACE_EXPRESSION, jdbcTracePattern, readLine );
+                if ( matcher != null ) {
                     processJdbcTrace( matcher );
                     newLog = true;
                 } else {
-                    Matcher entryMatcher = traceEntryPattern.matcher( readLine );
-                    if ( entryMatcher.find() ) {
+                    Matcher entryMatcher = findTracePattern( prefilter, found, TRACE_ENTRY_EXPRESSION, traceEntryPattern, readLine );
+                    if ( entryMatcher != null ) {
                         processEntryTrace( entryMatcher );
                     }
                 }
@@ -374,6 +545,33 @@ public class MetricFileLoader {
         return newLog;
     }
 
+    private RegexPrefilter getTracePrefilter() {
+        if ( tracePrefilter == null ) {
+            String[] names = { "JDBC trace pattern", "Trace entry pattern", "Trace exit pattern" };
+            String[] regexes = { jdbcTracePattern.pattern(), traceEntryPattern.pattern(), traceExitPattern.pattern() };
+            tracePrefilter = new RegexPrefilter( names, regexes );
+        }
+        return tracePrefilter;
+    }
+
+    /**
+     * Run a trace pattern on a line unless the prefilter rejects it.
+     * 
+     * @return the matcher positioned on the match, null if the line doesn't
+     *         match.
+     */
+    private static Matcher findTracePattern( RegexPrefilter prefilter, long found, int expression, Pattern pattern, String readLine ) {
+        if ( !prefilter.mayMatch( expression, found ) ) {
+            return null;
+        }
+        Matcher matcher = pattern.matcher( readLine );
+        if ( !matcher.find() ) {
+            return null;
+        }
+        prefilter.recordMatch( expression );
+        return matcher;
+    }
+
     private void processEntryTrace( Matcher matcher ) throws ParseException {
         final String METHODNAME = "processEntryTrace(Matcher matcher) throws ParseException";
         // boolean isTraceLogEnabled = LoggingHelper.isTraceEnabled(LOGGER);
@@ -401,11 +599,11 @@ public class MetricFileLoader {
         // temporarily store the milli start time in the duration field
         metric.setDuration( startTimeMilli );
 
-        List<OperationMetric> list = THREAD_STACK_MAP.get( threadId );
+        List<OperationMetric> list = threadStackMap.get( threadId );
         OperationMetric metricParent = null;
         if ( list == null ) {
             list = new ArrayList<OperationMetric>();
-            THREAD_STACK_MAP.put( threadId, list );
+            threadStackMap.put( threadId, list );
         } else if ( list.size() > 0 ) {
             metricParent = list.get( list.size() - 1 );
         }
@@ -442,7 +640,7 @@ public class MetricFileLoader {
         long durationMilli = Long.parseLong( durationString );
         long startTimeMilli = stopTimeMilli - durationMilli;
 
-        List<OperationMetric> list = THREAD_STACK_MAP.get( threadId );
+        List<OperationMetric> list = threadStackMap.get( threadId );
         OperationMetric metricParent = null;
         if ( list != null && list.size() > 0 ) {
             metricParent = list.get( list.size() - 1 );
@@ -454,7 +652,7 @@ public class MetricFileLoader {
         metric.setKeyValuePairList( parameterList );
         metric.setOperationCacheEnabled( false );
         metric.setOperationName( "JDBCTrace : " + statement );
-        metric.setIdentifier( idAssigner++ );
+        metric.setIdentifier( ID_ASSIGNER.getAndIncrement() );
         metric.setResultFetchedFromCache( false );
         metric.setResultSize( 1000 );
 
@@ -512,13 +710,14 @@ public class MetricFileLoader {
         }
 
         try {
-            Matcher matcher = traceExitPattern.matcher( readLine );
-            if ( matcher.find() ) {
+            RegexPrefilter prefilter = getTracePrefilter();
+            Matcher matcher = findTracePattern( prefilter, prefilter.scan( readLine ), TRACE_EXIT_EXPRESSION, traceExitPattern, readLine );
+            if ( matcher != null ) {
                 // String timestamp = matcher.group(1);
                 // long stopTime = parseLogTimeStamp(timestamp);
                 String threadId = matcher.group( 2 );
 
-                List<OperationMetric> list = THREAD_STACK_MAP.get( threadId );
+                List<OperationMetric> list = threadStackMap.get( threadId );
                 boolean missingEntry = true;
                 if ( list != null && list.size() > 0 ) {
                     int lastIndex = list.size() - 1;
@@ -566,10 +765,7 @@ public class MetricFileLoader {
     }
 
     public long parseLogTimeStamp( String timestamp ) throws ParseException {
-        long stopTime = 0;
-        Date parse = formatter.parse( timestamp );
-        stopTime = parse.getTime();
-        return stopTime;
+        return timestampParser.parse( timestamp );
     }
 
     /**
@@ -606,11 +802,9 @@ public class MetricFileLoader {
             return;
         }
         
-        String newOperationName= substituteCassandraParameters(operationName);
-        
         ArrayList<String> parameters = new ArrayList<String>(metric.getKeyValuePairList());
         
-        addCassandraParameterSubstitution(operationName, parameters);
+        String newOperationName= substituteCassandraParameters(operationName, parameters);
         
         metric.setOperationName(newOperationName);
         metric.setKeyValuePairList(parameters);
@@ -628,11 +822,9 @@ public class MetricFileLoader {
             return;
         }
         
-        String newOperationName= substituteJdbcParameters(operationName);
-        
         ArrayList<String> parameters = new ArrayList<String>(metric.getKeyValuePairList());
         
-        addJdbcParameterSubstitution(operationName, parameters);
+        String newOperationName= substituteJdbcParameters(operationName, parameters);
         
         metric.setOperationName(newOperationName);
         metric.setKeyValuePairList(parameters);
@@ -651,14 +843,7 @@ public class MetricFileLoader {
      */
     public static void addJdbcParameterSubstitution(String operationName, List<String> asList)
     {
-        Matcher matcher = PARAMETER_SUBSTITUTION.matcher(operationName);
-
-        int count = 1;
-        while (matcher.find())
-        {
-            asList.add("*" + count++);
-            asList.add(matcher.group());
-        }
+        SqlLiteralTokenizer.addJdbcParameters(operationName, asList);
     }
     
     /**
@@ -674,14 +859,7 @@ public class MetricFileLoader {
      */
     public static void addCassandraParameterSubstitution(String operationName, List<String> asList)
     {
-        Matcher matcher = CASSANDRA_PARAMETER_SUBSTITUTION.matcher(operationName);
-
-        int count = 1;
-        while (matcher.find())
-        {
-            asList.add("*" + count++);
-            asList.add(matcher.group());
-        }
+        SqlLiteralTokenizer.addCassandraParameters(operationName, asList);
     }    
 
     /**
@@ -695,13 +873,27 @@ public class MetricFileLoader {
      *         markers
      */
 	public static String substituteJdbcParameters(String operationName) {
-		try {
-			Matcher matcher = PARAMETER_SUBSTITUTION.matcher(operationName);
-			String substitutedSql = matcher.replaceAll("*?");
+		return substituteJdbcParameters(operationName, null);
+	}
 
-			Matcher matcher2 = PARAMETER_LIST_SUBSTITUTION
-					.matcher(substitutedSql);
-			return matcher2.replaceAll("(**?)");
+    /**
+     * Substitute all the SQL numeric and textual parameters for a parameter
+     * marker and extract their values in the same pass.
+     * 
+     * @param operationName
+     *            The SQL with numeric and textual parameters
+     * @param asList
+     *            Optional list to fill with two entries for each parameter,
+     *            the first is the parameter name, the second is the parameter
+     *            string value.
+     * @return The SQL with numeric and textual parameters substituted with
+     *         markers
+     */
+	public static String substituteJdbcParameters(String operationName,
+			List<String> asList) {
+		try {
+			return SqlLiteralTokenizer.substituteJdbcParameters(operationName,
+					asList);
 		} catch (Exception ex) {
 			LoggingHelper.logUnexpectedException(LOGGER, CLASS_NAME,
 					"substituteJdbcParameters", ex);
@@ -720,21 +912,64 @@ public class MetricFileLoader {
      *         markers
      */
 	protected static String substituteCassandraParameters(String operationName) {
-		try {
-			Matcher matcher = CASSANDRA_PARAMETER_SUBSTITUTION
-					.matcher(operationName);
-			String substitutedSql = matcher.replaceAll("*?");
+		return substituteCassandraParameters(operationName, null);
+	}
 
-			Matcher matcher2 = PARAMETER_LIST_SUBSTITUTION
-					.matcher(substitutedSql);
-			return matcher2.replaceAll("(**?)");
+    /**
+     * Substitute all the CQL numeric, textual and UUID parameters for a
+     * parameter marker and extract their values in the same pass.
+     * 
+     * @param operationName
+     *            The CQL with numeric and textual parameters
+     * @param asList
+     *            Optional list to fill with two entries for each parameter,
+     *            the first is the parameter name, the second is the parameter
+     *            string value.
+     * @return The CQL with numeric and textual parameters substituted with
+     *         markers
+     */
+	protected static String substituteCassandraParameters(String operationName,
+			List<String> asList) {
+		try {
+			return SqlLiteralTokenizer.substituteCassandraParameters(
+					operationName, asList);
 		} catch (Exception ex) {
 			LoggingHelper.logUnexpectedException(LOGGER, CLASS_NAME,
-					"substituteJdbcParameters", ex);
+					"substituteCassandraParameters", ex);
 			return operationName;
 		}
 	}
 
+    /**
+     * Reference implementation of the parameter substitution based on regular
+     * expressions. The tokenizer must produce the exact same output.
+     * 
+     * @param operationName
+     *            The SQL or CQL
+     * @param cassandra
+     *            true to also substitute UUID values
+     * @param asList
+     *            Optional list to fill with the parameters
+     * @return The SQL with numeric and textual parameters substituted with
+     *         markers
+     */
+    static String substituteParametersWithRegex(String operationName, boolean cassandra, List<String> asList)
+    {
+        Pattern pattern = cassandra ? CASSANDRA_PARAMETER_SUBSTITUTION : PARAMETER_SUBSTITUTION;
+        if( asList != null ) 
+        {
+            Matcher matcher = pattern.matcher(operationName);
+            int count = 1;
+            while (matcher.find())
+            {
+                asList.add("*" + count++);
+                asList.add(matcher.group());
+            }
+        }
+        String substitutedSql = pattern.matcher(operationName).replaceAll("*?");
+        return PARAMETER_LIST_SUBSTITUTION.matcher(substitutedSql).replaceAll("(**?)");
+    }
+
     private static final Pattern PARAMETER_SUBSTITUTION = Pattern.compile("(" + QUOTED_STRING_REGEX + "|" +
         NUMBER_REGEX + ")");
 
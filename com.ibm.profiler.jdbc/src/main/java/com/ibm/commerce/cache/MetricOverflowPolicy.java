@@ -0,0 +1,41 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+/**
+ * What a metric gatherer does with a new metric when its pending buffer is
+ * full.
+ */
+public enum MetricOverflowPolicy {
+
+	/** ignore the new metric. */
+	DROP_NEWEST,
+
+	/** discard the oldest pending metric to make room for the new one. */
+	DROP_OLDEST,
+
+	/**
+	 * wait for the writer thread to make room, up to the block timeout, then
+	 * ignore the new metric.
+	 */
+	BLOCK,
+
+	/**
+	 * once the buffer is three quarters full, only keep one metric out of the
+	 * sampling rate. Ignore the new metric when the buffer is full.
+	 */
+	SAMPLE
+}
@@ -74,6 +74,8 @@ public class OperationMetric implements IOperationMetric
 
     public static final String FIELD_DURATION_MS = "durationMs";
 
+    public static final String FIELD_SAMPLING_WEIGHT = "samplingWeight";
+
     private static final Map<String, String> SANITIZED_KEY_VALUES;
 
     static
@@ -92,6 +94,7 @@ public class OperationMetric implements IOperationMetric
         putSanitizedFieldValue(sanitizedValues, FIELD_ID);
         putSanitizedFieldValue(sanitizedValues, FIELD_PARAMETERS);
         putSanitizedFieldValue(sanitizedValues, FIELD_DURATION_MS);
+        putSanitizedFieldValue(sanitizedValues, FIELD_SAMPLING_WEIGHT);
 
         SANITIZED_KEY_VALUES = Collections.unmodifiableMap(sanitizedValues);
     }
@@ -151,6 +154,11 @@ public class OperationMetric implements IOperationMetric
      */
     private boolean isSuccessful = true;
 
+    /**
+     * number of executions this metric stands for when the operation is sampled
+     */
+    private int samplingWeight = 1;
+
     /**
      * list of all the key and value pairs used to identify unique operations.
      * The list assumes that even indexes (0,2,4...) refer to key names and that
@@ -460,6 +468,26 @@ public class OperationMetric implements IOperationMetric
         this.isSuccessful = isSuccessful;
     }
 
+    /**
+     * @return the number of executions this metric stands for in the
+     *         statistics, greater than 1 when the operation is sampled.
+     */
+    @Override
+    public int getSamplingWeight()
+    {
+        return samplingWeight;
+    }
+
+    /**
+     * @param samplingWeight
+     *            the number of executions this metric stands for.
+     */
+    @Override
+    public void setSamplingWeight(int samplingWeight)
+    {
+        this.samplingWeight = samplingWeight;
+    }
+
     /**
      * Start an operation, automatically capture the operation start time.
      * 
@@ -670,6 +698,11 @@ public class OperationMetric implements IOperationMetric
         builder.append(isOperationCacheEnabled);
         builder.append(SERIALIZATION_SEPARATOR);
         builder.append(isSuccessful);
+        if (samplingWeight != 1)
+        {
+            builder.append(SERIALIZATION_SEPARATOR);
+            builder.append(samplingWeight);
+        }
     }
 
     private long getDurationInMilliseconds()
@@ -722,6 +755,64 @@ public class OperationMetric implements IOperationMetric
         builder.append(Boolean.toString(isOperationCacheEnabled));
         builder.append(SERIALIZATION_SEPARATOR);
         builder.append(Boolean.toString(isSuccessful));
+        if (samplingWeight != 1)
+        {
+            builder.append(SERIALIZATION_SEPARATOR);
+            builder.append(Integer.toString(samplingWeight));
+        }
+    }
+
+    /**
+     * Write the metric to a channel writer, in the same format as
+     * {@link #toSerializedString(Writer)}.
+     * 
+     * @param writer
+     *            The channel writer to fill with metric data.
+     * @throws IOException
+     *             if anything goes wrong.
+     */
+    public void toSerializedBytes(MetricChannelWriter writer) throws IOException
+    {
+        writer.appendLong(identifier);
+        writer.appendAscii(SERIALIZATION_SEPARATOR);
+        writer.appendLong(parentIdentifier);
+        writer.appendAscii(SERIALIZATION_SEPARATOR);
+
+        writer.appendEscaped(operationName);
+
+        writer.appendAscii(SERIALIZATION_SEPARATOR);
+
+        if (keyValuePairList != null)
+        {
+            for (String currentString : keyValuePairList)
+            {
+
+                writer.appendEscaped(currentString);
+                writer.appendAscii(KEY_VALUE_SEPARATOR);
+            }
+        }
+
+        writer.appendAscii(SERIALIZATION_SEPARATOR);
+        writer.appendLong(startTime);
+        writer.appendAscii(SERIALIZATION_SEPARATOR);
+        writer.appendLong(stopTime);
+        writer.appendAscii(SERIALIZATION_SEPARATOR);
+        writer.appendLong(duration);
+        writer.appendAscii(SERIALIZATION_SEPARATOR);
+        writer.appendLong(getDurationInMilliseconds());
+        writer.appendAscii(SERIALIZATION_SEPARATOR);
+        writer.appendLong(resultSize);
+        writer.appendAscii(SERIALIZATION_SEPARATOR);
+        writer.appendBoolean(isResultFetchedFromCache);
+        writer.appendAscii(SERIALIZATION_SEPARATOR);
+        writer.appendBoolean(isOperationCacheEnabled);
+        writer.appendAscii(SERIALIZATION_SEPARATOR);
+        writer.appendBoolean(isSuccessful);
+        if (samplingWeight != 1)
+        {
+            writer.appendAscii(SERIALIZATION_SEPARATOR);
+            writer.appendLong(samplingWeight);
+        }
     }
 
     /**
@@ -805,6 +896,15 @@ public class OperationMetric implements IOperationMetric
         builder.append(EQUAL_OPEN_QUOTE);
         builder.append(Boolean.toString(isSuccessful));
         builder.append(DOUBLE_QUOTE);
+
+        if (samplingWeight != 1)
+        {
+            builder.append(SPACE);
+            builder.append(FIELD_SAMPLING_WEIGHT);
+            builder.append(EQUAL_OPEN_QUOTE);
+            builder.append(Integer.toString(samplingWeight));
+            builder.append(DOUBLE_QUOTE);
+        }
     }
 
     /**
@@ -967,6 +1067,13 @@ public class OperationMetric implements IOperationMetric
             {
                 isSuccessful = Boolean.parseBoolean(split[i++]);
             }
+
+            // sampling weight is only written for sampled operations.
+            samplingWeight = 1;
+            if (split.length > i)
+            {
+                samplingWeight = parseSamplingWeight(split[i++]);
+            }
         }
         catch (Exception ex)
         {
@@ -1029,7 +1136,8 @@ public class OperationMetric implements IOperationMetric
             startTime == otherMetric.startTime && stopTime == otherMetric.stopTime &&
             duration == otherMetric.duration && resultSize == otherMetric.resultSize &&
             isResultFetchedFromCache == otherMetric.isResultFetchedFromCache &&
-            isSuccessful == otherMetric.isSuccessful && isOperationCacheEnabled == otherMetric.isOperationCacheEnabled;
+            isSuccessful == otherMetric.isSuccessful && isOperationCacheEnabled == otherMetric.isOperationCacheEnabled &&
+            samplingWeight == otherMetric.samplingWeight;
     }
 
     /**
@@ -1052,6 +1160,7 @@ public class OperationMetric implements IOperationMetric
         builder.append(isResultFetchedFromCache);
         builder.append(isOperationCacheEnabled);
         builder.append(isSuccessful);
+        builder.append(samplingWeight);
 
         return builder.toHashCode();
     }
@@ -1169,7 +1278,33 @@ public class OperationMetric implements IOperationMetric
         {
             isSuccessful = Boolean.valueOf(namedItem.getNodeValue());
         }
+
+        samplingWeight = 1;
+        Node samplingWeightItem = documentElement.getAttributes().getNamedItem(FIELD_SAMPLING_WEIGHT);
+        if (samplingWeightItem != null)
+        {
+            samplingWeight = parseSamplingWeight(samplingWeightItem.getNodeValue());
+        }
         return true;
     }
 
+    /**
+     * Parse a serialized sampling weight.
+     * 
+     * @param serializedWeight
+     *            the serialized sampling weight.
+     * @return the sampling weight.
+     * @throws NumberFormatException
+     *             if the weight isn't a positive number.
+     */
+    private static int parseSamplingWeight(String serializedWeight)
+    {
+        int weight = Integer.parseInt(serializedWeight);
+        if (weight < 1)
+        {
+            throw new NumberFormatException("Invalid sampling weight : " + serializedWeight);
+        }
+        return weight;
+    }
+
 }
@@ -23,6 +23,9 @@ public class OperationStatistics implements TimeInterval {
     /** line separator */
     private static final String LINE_SEPARATOR = System.getProperty( "line.separator" );
 
+    /** create striped statistics instead of synchronized ones */
+    private static volatile boolean stripedStatisticsEnabled = false;
+
     /** the operation name */
     private String name;
 
@@ -49,11 +52,14 @@ public class OperationStatistics implements TimeInterval {
     private long sumExecutionTimeFragment;
 
     /** the smallest execution time */
-    private long minExecutionTime;
+    private long minExecutionTime = Long.MAX_VALUE;
 
     /** the biggest execution time */
     private long maxExecutionTime;
 
+    /** distribution of the execution times, used to calculate percentiles */
+    private final DurationHistogram durationHistogram = new DurationHistogram();
+
     // $ANALYSIS-IGNORE
     /** the sum of all the result size, used to calculate the average */
     private float sumResultSize;
@@ -62,7 +68,7 @@ public class OperationStatistics implements TimeInterval {
     private long sumResultSizeFragment;
 
     /** the minimum result size */
-    private long minResultSize;
+    private long minResultSize = Long.MAX_VALUE;
 
     /** the maximum result size */
     private long maxResultSize;
@@ -87,7 +93,38 @@ public class OperationStatistics implements TimeInterval {
      * Constructor
      */
     public OperationStatistics() {
-        reset();
+        super();
+    }
+
+    /**
+     * createStatistics
+     * 
+     * @return new statistics to accumulate operation executions, striped when
+     *         enabled, synchronized otherwise.
+     */
+    public static OperationStatistics createStatistics() {
+        if ( stripedStatisticsEnabled ) {
+            return new StripedOperationStatistics();
+        }
+        return new OperationStatistics();
+    }
+
+    /**
+     * isStripedStatisticsEnabled
+     * 
+     * @return true if {@link #createStatistics()} creates striped statistics.
+     */
+    public static boolean isStripedStatisticsEnabled() {
+        return stripedStatisticsEnabled;
+    }
+
+    /**
+     * setStripedStatisticsEnabled
+     * 
+     * @param enabled true to make {@link #createStatistics()} create striped statistics.
+     */
+    public static void setStripedStatisticsEnabled( boolean enabled ) {
+        stripedStatisticsEnabled = enabled;
     }
 
 	/**
@@ -154,30 +191,61 @@ public class OperationStatistics implements TimeInterval {
 			OperationStatistics statistics, long minimumIndex, long maximumIndex) {
 		// ensure the target object doesn't change.
 		synchronized (statistics) {
-			long targetIndex = statistics.index;
+			long targetIndex = statistics.getIndex();
 			boolean inRange = CacheUtilities.isIndexInRange(targetIndex, minimumIndex,
 					maximumIndex);
 			
-			if( ! inRange ) {
+			if( ! inRange || statistics.getCallCount() == 0 ) {
 				return;
 			}
 
-			callCount += statistics.callCount;
-			successCallCount += statistics.successCallCount;
-			maxExecutionTime = Math.max(maxExecutionTime,
-					statistics.maxExecutionTime);
-			minExecutionTime = Math.min(minExecutionTime,
-					statistics.minExecutionTime);
-			addExecutionTime(statistics.getSumExecutionTime());
-
-			maxResultSize = Math.max(maxResultSize, statistics.maxResultSize);
-			minResultSize = Math.min(minResultSize, statistics.minResultSize);
-			addResultSize( statistics.getSumResultSize() );
-			cacheEnabledCallCount += statistics.cacheEnabledCallCount;
-			cacheHitCount += statistics.cacheHitCount;
+			addStatistics(statistics.getCallCount(),
+					statistics.getSuccessCallCount(),
+					statistics.getCacheEnabledCallCount(),
+					statistics.getCacheHitCount(),
+					statistics.getSumExecutionTime(),
+					statistics.getMinExecutionTime(),
+					statistics.getMaxExecutionTime(),
+					statistics.getSumResultSize(),
+					statistics.getMinResultSize(),
+					statistics.getMaxResultSize());
+			durationHistogram.add(statistics.getDurationHistogram());
 		}
 	}
 
+	/**
+	 * Add already aggregated statistics to these statistics.
+	 * 
+	 * @param addedCallCount number of calls.
+	 * @param addedSuccessCallCount number of successful calls.
+	 * @param addedCacheEnabledCallCount number of calls with cache enabled.
+	 * @param addedCacheHitCount number of cache hits.
+	 * @param addedSumExecutionTime sum of the execution times.
+	 * @param addedMinExecutionTime smallest execution time.
+	 * @param addedMaxExecutionTime biggest execution time.
+	 * @param addedSumResultSize sum of the result sizes.
+	 * @param addedMinResultSize smallest result size.
+	 * @param addedMaxResultSize biggest result size.
+	 */
+	protected synchronized void addStatistics(long addedCallCount,
+			long addedSuccessCallCount, long addedCacheEnabledCallCount,
+			long addedCacheHitCount, float addedSumExecutionTime,
+			long addedMinExecutionTime, long addedMaxExecutionTime,
+			float addedSumResultSize, long addedMinResultSize,
+			long addedMaxResultSize) {
+		callCount += addedCallCount;
+		successCallCount += addedSuccessCallCount;
+		maxExecutionTime = Math.max(maxExecutionTime, addedMaxExecutionTime);
+		minExecutionTime = Math.min(minExecutionTime, addedMinExecutionTime);
+		addExecutionTime(addedSumExecutionTime);
+
+		maxResultSize = Math.max(maxResultSize, addedMaxResultSize);
+		minResultSize = Math.min(minResultSize, addedMinResultSize);
+		addResultSize(addedSumResultSize);
+		cacheEnabledCallCount += addedCacheEnabledCallCount;
+		cacheHitCount += addedCacheHitCount;
+	}
+
 
     
 
@@ -197,7 +265,8 @@ public class OperationStatistics implements TimeInterval {
         boolean resultFetchedFromCache = metric.isResultFetchedFromCache();
         boolean successful = metric.isSuccessful();
 
-        logStatistic( duration, resultSize, operationCacheEnabled, resultFetchedFromCache, successful );
+        logStatistic( duration, resultSize, operationCacheEnabled, resultFetchedFromCache, successful,
+            metric.getSamplingWeight() );
     }
 
     /**
@@ -209,23 +278,40 @@ public class OperationStatistics implements TimeInterval {
      * @param resultFetchedFromCache Was result fetched from cache.
      * @param successful is the request successful.
      */
-    public synchronized void logStatistic( long duration, int resultSize, boolean operationCacheEnabled, boolean resultFetchedFromCache, boolean successful) {
-        ++callCount;
+    public void logStatistic( long duration, int resultSize, boolean operationCacheEnabled, boolean resultFetchedFromCache, boolean successful) {
+        logStatistic( duration, resultSize, operationCacheEnabled, resultFetchedFromCache, successful, 1 );
+    }
+
+    /**
+     * Log a sampled execution statistic. The counts and sums are scaled by the
+     * sampling weight so that the totals and averages cover the executions
+     * that weren't sampled.
+     * 
+     * @param duration The duration.
+     * @param resultSize The result size.
+     * @param operationCacheEnabled Was operation cache enabled.
+     * @param resultFetchedFromCache Was result fetched from cache.
+     * @param successful is the request successful.
+     * @param weight the number of executions the statistic stands for.
+     */
+    public synchronized void logStatistic( long duration, int resultSize, boolean operationCacheEnabled, boolean resultFetchedFromCache, boolean successful, long weight) {
+        callCount += weight;
         if( successful) {
-        	++successCallCount;
+        	successCallCount += weight;
         }
         maxExecutionTime = Math.max( maxExecutionTime, duration );
         minExecutionTime = Math.min( minExecutionTime, duration );
-        addExecutionTime(duration);
+        addExecutionTime(duration * weight);
+        durationHistogram.recordValue( duration, weight );
 
         maxResultSize = Math.max( maxResultSize, resultSize );
         minResultSize = Math.min( minResultSize, resultSize );
-        addResultSize(resultSize);
+        addResultSize(resultSize * weight);
         if ( operationCacheEnabled ) {
-            ++cacheEnabledCallCount;
+            cacheEnabledCallCount += weight;
         }
         if ( resultFetchedFromCache ) {
-            ++cacheHitCount;
+            cacheHitCount += weight;
         }
     }
     
@@ -259,7 +345,7 @@ public class OperationStatistics implements TimeInterval {
      * @param operationCacheEnabled Was operation cache enabled.
      * @param resultFetchedFromCache Was result fetched from cache.
      */
-    public synchronized void logStatistic( long duration, int resultSize, boolean operationCacheEnabled, boolean resultFetchedFromCache ) {
+    public void logStatistic( long duration, int resultSize, boolean operationCacheEnabled, boolean resultFetchedFromCache ) {
     	logStatistic(duration, resultSize, operationCacheEnabled, resultFetchedFromCache, true);
     }
 
@@ -279,6 +365,7 @@ public class OperationStatistics implements TimeInterval {
         successCallCount = 0;
         sumExecutionTimeFragment = 0;
         sumResultSizeFragment = 0;
+        durationHistogram.reset();
     }
 
     /**
@@ -297,7 +384,8 @@ public class OperationStatistics implements TimeInterval {
      * @param builder The builder in which to append statistics.
      */
     public synchronized void appendStatistics( StringBuilder builder ) {
-        if ( callCount > 0 ) {
+        long currentCallCount = getCallCount();
+        if ( currentCallCount > 0 ) {
             clearCompleted = false;
         } else if ( !clearCompleted ) {
             // ensure that we print cleared out operations at least once
@@ -307,33 +395,34 @@ public class OperationStatistics implements TimeInterval {
             return;
         }
 
+        long currentSuccessCallCount = getSuccessCallCount();
         builder.append( LINE_SEPARATOR );
         builder.append( "Op:" );
         builder.append( printName );
         builder.append( ",count:" );
-        builder.append( callCount );
+        builder.append( currentCallCount );
         builder.append( ",cacheEnabledCount:" );
-        builder.append( cacheEnabledCallCount );
+        builder.append( getCacheEnabledCallCount() );
         builder.append( ",cacheHitCount:" );
-        builder.append( cacheHitCount );
+        builder.append( getCacheHitCount() );
         builder.append( ",avgTime:" );
         // $ANALYSIS-IGNORE
-        builder.append( callCount == 0 ? 0 : (long) ( getSumExecutionTime() / ( callCount * 1000000 ) ) );
+        builder.append( currentCallCount == 0 ? 0 : (long) ( getSumExecutionTime() / ( currentCallCount * 1000000 ) ) );
         builder.append( ",minTime:" );
-        builder.append( callCount == 0 ? 0 : minExecutionTime / 1000000 );
+        builder.append( currentCallCount == 0 ? 0 : getMinExecutionTime() / 1000000 );
         builder.append( ",maxTime:" );
-        builder.append( maxExecutionTime / 1000000 );
+        builder.append( getMaxExecutionTime() / 1000000 );
         builder.append( ",avgResultSize:" );
         // $ANALYSIS-IGNORE
-        builder.append( callCount == 0 ? 0 : (long) ( getSumResultSize() / callCount ) );
+        builder.append( currentCallCount == 0 ? 0 : (long) ( getSumResultSize() / currentCallCount ) );
         builder.append( ",minSize:" );
-        builder.append( callCount == 0 ? 0 : minResultSize );
+        builder.append( currentCallCount == 0 ? 0 : getMinResultSize() );
         builder.append( ",maxSize:" );
-        builder.append( maxResultSize );
+        builder.append( getMaxResultSize() );
         builder.append( ",successCount:" );
-        builder.append( successCallCount );        
+        builder.append( currentSuccessCallCount );        
         builder.append( ",errorCount:" );
-        builder.append( callCount - successCallCount );   
+        builder.append( currentCallCount - currentSuccessCallCount );   
     }
 
 	public String getPrintName() {
@@ -372,6 +461,28 @@ public class OperationStatistics implements TimeInterval {
 		return maxExecutionTime;
 	}
 
+	/**
+	 * getDurationHistogram
+	 * 
+	 * @return the distribution of the execution times.
+	 */
+	public DurationHistogram getDurationHistogram() {
+		return durationHistogram;
+	}
+
+	/**
+	 * getDurationPercentile
+	 * 
+	 * @param percentile
+	 *            The percentile between 0.0 and 100.0.
+	 * @return The execution time in nanoseconds at the requested percentile,
+	 *         never above the maximum execution time.
+	 */
+	public long getDurationPercentile(double percentile) {
+		long value = durationHistogram.getValueAtPercentile(percentile);
+		return Math.min(value, getMaxExecutionTime());
+	}
+
 	public synchronized float getSumResultSize() {
 		return sumResultSize + sumResultSizeFragment;
 	}
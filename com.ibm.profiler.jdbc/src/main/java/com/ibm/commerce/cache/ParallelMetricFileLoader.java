@@ -0,0 +1,492 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Loads several metric files in parallel on a {@link ForkJoinPool}.
+ * <p>
+ * Large text files are split at line boundaries into chunks of about
+ * {@link #getChunkSize()} bytes. Each chunk is memory mapped and parsed by its
+ * own {@link MetricFileLoader}. Files that can't be split, binary metric files
+ * and files using a multi byte charset other than UTF-8, are parsed whole by a
+ * single worker with {@link MetricFileLoader#gatherMetricsFromFile(String)}.
+ * The parsed metrics are then handed to the gatherer in file and chunk order
+ * by the calling thread, flushing the gatherer every
+ * {@link DirectMetricGather#getPendingFlushSize()} metrics. Only a limited
+ * number of parts are parsed ahead of the merge to bound the memory used.
+ * <p>
+ * When WebSphere JDBC traces are parsed, correlating their entry and exit
+ * lines depends on the order of the lines, across the rotated files of a
+ * log. All the files are then loaded in order by a single loader on the
+ * calling thread, which keeps the thread stacks from one file to the next.
+ */
+public class ParallelMetricFileLoader {
+
+	/**
+	 * Factory of configured loaders. A new loader is created for every file
+	 * or chunk, loaders don't need to be thread safe.
+	 */
+	public interface LoaderFactory {
+
+		/**
+		 * @return a new configured loader.
+		 * @throws Exception
+		 *             if the loader can't be created.
+		 */
+		MetricFileLoader createLoader() throws Exception;
+	}
+
+	/**
+	 * Default chunk size in bytes.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 16 * 1024 * 1024;
+
+	/**
+	 * Size of the buffer used to find the end of a line.
+	 */
+	private static final int LINE_SEARCH_BUFFER_SIZE = 8192;
+
+	/**
+	 * Class name
+	 */
+	private static final String CLASS_NAME = ParallelMetricFileLoader.class
+			.getName();
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOGGER = LoggingHelper.getLogger(CLASS_NAME);
+
+	/**
+	 * Factory creating the loaders.
+	 */
+	private final LoaderFactory loaderFactory;
+
+	/**
+	 * Gatherer receiving the loaded metrics.
+	 */
+	private DirectMetricGather gatherer;
+
+	/**
+	 * Number of worker threads.
+	 */
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Approximate size of a chunk in bytes.
+	 */
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+	/**
+	 * Number of lines read by all the workers.
+	 */
+	private final AtomicLong lineCount = new AtomicLong();
+
+	/**
+	 * Number of files or chunks that failed to load.
+	 */
+	private int failedPartCount = 0;
+
+	/**
+	 * @param loaderFactory
+	 *            the factory creating the loaders.
+	 */
+	public ParallelMetricFileLoader(LoaderFactory loaderFactory) {
+		this.loaderFactory = loaderFactory;
+	}
+
+	/**
+	 * @return the gatherer receiving the loaded metrics.
+	 */
+	public DirectMetricGather getGatherer() {
+		return gatherer;
+	}
+
+	/**
+	 * @param gatherer
+	 *            the gatherer receiving the loaded metrics. It must accept
+	 *            metrics and writes from several threads.
+	 */
+	public void setGatherer(DirectMetricGather gatherer) {
+		this.gatherer = gatherer;
+	}
+
+	/**
+	 * @return the number of worker threads.
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * @param parallelism
+	 *            the number of worker threads.
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	/**
+	 * @return the approximate size of a chunk in bytes.
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * @param chunkSize
+	 *            the approximate size of a chunk in bytes.
+	 */
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = Math.max(1, chunkSize);
+	}
+
+	/**
+	 * Load all the specified files. Missing files are skipped. A file or chunk
+	 * that fails to load doesn't stop the loading of the others, the failure
+	 * is reported once they are all loaded.
+	 * 
+	 * @param fileNames
+	 *            the files to load.
+	 * @throws Exception
+	 *             if a loader can't be created or if a file or chunk failed to
+	 *             load.
+	 */
+	public void gatherMetricsFromFiles(List<String> fileNames)
+			throws Exception {
+		if (fileNames.isEmpty()) {
+			return;
+		}
+		long start = System.nanoTime();
+		lineCount.set(0);
+		failedPartCount = 0;
+
+		MetricFileLoader template = loaderFactory.createLoader();
+		if (template.isParseJdbcTraceLogs()) {
+			gatherMetricsInOrder(template, fileNames);
+		} else {
+			gatherMetricsInParallel(template, fileNames, start);
+		}
+		gatherer.writeMetrics();
+
+		if (failedPartCount > 0) {
+			throw new IOException(failedPartCount
+					+ " file parts failed to load, see the logged errors.");
+		}
+	}
+
+	/**
+	 * Load the files one after the other with the same loader.
+	 */
+	private void gatherMetricsInOrder(MetricFileLoader loader,
+			List<String> fileNames) {
+		final String METHODNAME = "gatherMetricsInOrder(MetricFileLoader loader, List<String> fileNames)";
+		loader.setGatherer(gatherer);
+		for (String fileName : fileNames) {
+			if (!new File(fileName).exists()) {
+				LOGGER.log(Level.INFO, "Skipping missing log file : "
+						+ fileName);
+				continue;
+			}
+			LOGGER.log(Level.INFO, "Loading data file : " + fileName);
+			try {
+				loader.gatherMetricsFromFile(fileName);
+			} catch (Exception e) {
+				++failedPartCount;
+				LoggingHelper.logUnexpectedException(LOGGER, CLASS_NAME,
+						METHODNAME, e);
+			}
+		}
+		lineCount.set(loader.getLoadedLineCount());
+	}
+
+	/**
+	 * Parse the files and their chunks on a pool of workers.
+	 */
+	private void gatherMetricsInParallel(MetricFileLoader template,
+			List<String> fileNames, long start) throws IOException {
+		Charset charset = Charset.forName(template.getCharsetName());
+		boolean splitFiles = MappedLineScanner.isSupported(charset);
+
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			List<Callable<List<OperationMetric>>> parts = new ArrayList<Callable<List<OperationMetric>>>();
+
+			for (String fileName : fileNames) {
+				File file = new File(fileName);
+				if (!file.exists()) {
+					LOGGER.log(Level.INFO, "Skipping missing log file : "
+							+ fileName);
+				} else if (splitFiles && file.length() > chunkSize
+						&& !BinaryMetricReader.isBinaryMetricFile(fileName)) {
+					LOGGER.log(Level.INFO, "Loading data file in chunks : "
+							+ fileName);
+					splitFile(fileName, charset, parts);
+				} else {
+					LOGGER.log(Level.INFO, "Loading data file : " + fileName);
+					parts.add(new WholeFileTask(fileName));
+				}
+			}
+
+			long metricCount = mergeParts(pool, parts);
+
+			long durationNano = Math.max(1, System.nanoTime() - start);
+			long lines = lineCount.get();
+			LOGGER.log(Level.INFO, "Read " + lines + " lines from "
+					+ fileNames.size() + " files in " + durationNano / 1000000
+					+ "ms (" + (lines * 1000000000L / durationNano)
+					+ " lines/s) using " + parallelism + " threads. Merged "
+					+ metricCount + " metrics from " + parts.size()
+					+ " parts.");
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Parse the files and chunks on the pool and hand their metrics to the
+	 * gatherer in order, keeping at most two parts per thread in flight.
+	 * 
+	 * @return the number of merged metrics.
+	 */
+	private long mergeParts(ForkJoinPool pool,
+			List<Callable<List<OperationMetric>>> parts) {
+		int pendingFlushSize = Math.max(1, gatherer.getPendingFlushSize());
+		int maximumInFlight = parallelism * 2;
+		Deque<Future<List<OperationMetric>>> inFlight = new ArrayDeque<Future<List<OperationMetric>>>();
+		int nextPart = 0;
+		int sinceFlush = 0;
+		long metricCount = 0;
+
+		while (nextPart < parts.size() || !inFlight.isEmpty()) {
+			while (nextPart < parts.size() && inFlight.size() < maximumInFlight) {
+				inFlight.add(pool.submit(parts.get(nextPart++)));
+			}
+
+			List<OperationMetric> metrics = waitForTask(inFlight.poll());
+			if (metrics == null) {
+				++failedPartCount;
+				continue;
+			}
+			for (OperationMetric metric : metrics) {
+				gatherer.gatherMetric(metric);
+				if (++sinceFlush >= pendingFlushSize) {
+					gatherer.writeMetrics();
+					sinceFlush = 0;
+				}
+			}
+			metricCount += metrics.size();
+		}
+		return metricCount;
+	}
+
+	/**
+	 * Wait for a task to complete, logging its failure.
+	 * 
+	 * @return the task result, null if it failed.
+	 */
+	private <T> T waitForTask(Future<T> task) {
+		final String METHODNAME = "waitForTask(Future<T> task)";
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LoggingHelper.logUnexpectedException(LOGGER, CLASS_NAME,
+					METHODNAME, e);
+		} catch (ExecutionException e) {
+			LoggingHelper.logUnexpectedException(LOGGER, CLASS_NAME,
+					METHODNAME, e.getCause());
+		}
+		return null;
+	}
+
+	/**
+	 * Split a file in chunks ending right after a new line byte.
+	 */
+	private void splitFile(String fileName, Charset charset,
+			List<Callable<List<OperationMetric>>> chunks) throws IOException {
+		FileChannel channel = FileChannel.open(new File(fileName).toPath(),
+				StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			long chunkStart = 0;
+			while (chunkStart < size) {
+				long chunkEnd = chunkStart + chunkSize;
+				if (chunkEnd >= size) {
+					chunkEnd = size;
+				} else {
+					chunkEnd = findLineEnd(channel, chunkEnd, size);
+				}
+				chunks.add(new FileChunk(fileName, charset, chunkStart,
+						chunkEnd - chunkStart));
+				chunkStart = chunkEnd;
+			}
+		} finally {
+			CacheUtilities.closeQuietly(channel);
+		}
+	}
+
+	/**
+	 * @return the position following the first new line byte found at or
+	 *         after the specified position, or the file size.
+	 */
+	private static long findLineEnd(FileChannel channel, long position,
+			long size) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(LINE_SEARCH_BUFFER_SIZE);
+		long current = position;
+		while (current < size) {
+			buffer.clear();
+			int read = channel.read(buffer, current);
+			if (read <= 0) {
+				break;
+			}
+			for (int i = 0; i < read; ++i) {
+				if (buffer.get(i) == '\n') {
+					return current + i + 1;
+				}
+			}
+			current += read;
+		}
+		return size;
+	}
+
+	/**
+	 * Parse a whole file with its own loader.
+	 */
+	private class WholeFileTask implements Callable<List<OperationMetric>> {
+
+		private final String fileName;
+
+		WholeFileTask(String fileName) {
+			this.fileName = fileName;
+		}
+
+		@Override
+		public List<OperationMetric> call() throws Exception {
+			MetricFileLoader loader = loaderFactory.createLoader();
+			MetricListGatherer metrics = new MetricListGatherer();
+			loader.setGatherer(metrics);
+			loader.gatherMetricsFromFile(fileName);
+			lineCount.addAndGet(loader.getLoadedLineCount());
+			return metrics.metrics;
+		}
+	}
+
+	/**
+	 * Gatherer keeping the metrics of a whole file until they are merged.
+	 */
+	private static class MetricListGatherer implements DirectMetricGather {
+
+		private final List<OperationMetric> metrics = new ArrayList<OperationMetric>();
+
+		@Override
+		public void gatherMetric(OperationMetric metric) {
+			metrics.add(metric);
+		}
+
+		@Override
+		public void start() {
+		}
+
+		@Override
+		public void stop() {
+		}
+
+		@Override
+		public boolean isEnabled() {
+			return true;
+		}
+
+		@Override
+		public boolean isEnabled(String marker) {
+			return true;
+		}
+
+		@Override
+		public int getPendingFlushSize() {
+			return Integer.MAX_VALUE;
+		}
+
+		@Override
+		public boolean writeMetrics() {
+			return false;
+		}
+	}
+
+	/**
+	 * Memory mapped region of a file, parsed with its own loader.
+	 */
+	private class FileChunk implements Callable<List<OperationMetric>> {
+
+		private final String fileName;
+
+		private final Charset charset;
+
+		private final long offset;
+
+		private final long length;
+
+		FileChunk(String fileName, Charset charset, long offset, long length) {
+			this.fileName = fileName;
+			this.charset = charset;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		@Override
+		public List<OperationMetric> call() throws Exception {
+			MetricFileLoader loader = loaderFactory.createLoader();
+			byte[] lineMarker = loader.encodeLineMarker();
+
+			List<OperationMetric> metrics = new ArrayList<OperationMetric>();
+			FileChannel channel = FileChannel.open(new File(fileName).toPath(),
+					StandardOpenOption.READ);
+			try {
+				MappedLineScanner scanner = new MappedLineScanner(channel,
+						charset, offset, length);
+				while (scanner.nextLine()) {
+					OperationMetric metric = loader.parseScannedLine(scanner,
+							lineMarker);
+					if (metric != null) {
+						metrics.add(metric);
+					}
+				}
+				lineCount.addAndGet(scanner.getLineCount());
+			} finally {
+				CacheUtilities.closeQuietly(channel);
+			}
+			return metrics;
+		}
+	}
+}
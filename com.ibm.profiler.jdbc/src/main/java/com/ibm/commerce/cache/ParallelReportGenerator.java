@@ -0,0 +1,356 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Generates one report per operation, or per execution, on a bounded pool of
+ * threads.
+ * <p>
+ * Every worker thread gets its own {@link ReportSession} : a database
+ * connection opened on first use and a cache of prepared statements, so that
+ * workers never share JDBC objects. The session of the current thread is
+ * available through {@link #getCurrentSession()}.
+ * <p>
+ * Each report writes its own files, the output doesn't depend on the order in
+ * which the workers complete. A failed report is logged and counted without
+ * stopping the others. Progress is logged every
+ * {@link #getProgressLogInterval()} milliseconds.
+ */
+public class ParallelReportGenerator {
+
+	/**
+	 * Opens the connection of a worker.
+	 */
+	public interface ConnectionFactory {
+
+		/**
+		 * @return a new connection.
+		 * @throws SQLException
+		 *             if the connection can't be opened.
+		 */
+		Connection createConnection() throws SQLException;
+	}
+
+	/**
+	 * Report of a single item, usually an operation name.
+	 */
+	public interface Report<T> {
+
+		/**
+		 * Generate the report of an item. Called from the worker threads.
+		 * 
+		 * @param item
+		 *            the item.
+		 * @throws Exception
+		 *             if the report fails.
+		 */
+		void generate(T item) throws Exception;
+	}
+
+	/**
+	 * JDBC objects owned by a worker thread.
+	 */
+	public static class ReportSession {
+
+		private final ConnectionFactory connectionFactory;
+
+		private final int workerIndex;
+
+		private Connection connection;
+
+		private final Map<String, PreparedStatement> statementCache = new HashMap<String, PreparedStatement>();
+
+		ReportSession(ConnectionFactory connectionFactory, int workerIndex) {
+			this.connectionFactory = connectionFactory;
+			this.workerIndex = workerIndex;
+		}
+
+		/**
+		 * @return the index of the worker, from 0 to the parallelism minus
+		 *         one.
+		 */
+		public int getWorkerIndex() {
+			return workerIndex;
+		}
+
+		/**
+		 * @return the connection of the worker. Must not be closed.
+		 * @throws SQLException
+		 *             if the connection can't be opened.
+		 */
+		public Connection getConnection() throws SQLException {
+			if (connection == null) {
+				connection = connectionFactory.createConnection();
+			}
+			return connection;
+		}
+
+		/**
+		 * @param sql
+		 *            the statement.
+		 * @return the cached prepared statement. Must not be closed.
+		 * @throws SQLException
+		 *             if the statement can't be prepared.
+		 */
+		public PreparedStatement prepareStatement(String sql)
+				throws SQLException {
+			PreparedStatement statement = statementCache.get(sql);
+			if (statement == null) {
+				// $ANALYSIS-IGNORE
+				statement = getConnection().prepareStatement(sql);
+				statementCache.put(sql, statement);
+			}
+			return statement;
+		}
+
+		void close() {
+			for (PreparedStatement statement : statementCache.values()) {
+				CacheUtilities.closeQuietly(statement);
+			}
+			statementCache.clear();
+			CacheUtilities.closeQuietly(connection);
+			connection = null;
+		}
+	}
+
+	/**
+	 * Default interval between two progress messages.
+	 */
+	public static final long DEFAULT_PROGRESS_LOG_INTERVAL = 10000;
+
+	/**
+	 * Class name
+	 */
+	private static final String CLASS_NAME = ParallelReportGenerator.class
+			.getName();
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOGGER = LoggingHelper.getLogger(CLASS_NAME);
+
+	/**
+	 * Session of the worker running on the current thread.
+	 */
+	private static final ThreadLocal<ReportSession> CURRENT_SESSION = new ThreadLocal<ReportSession>();
+
+	private final ConnectionFactory connectionFactory;
+
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+
+	private long progressLogInterval = DEFAULT_PROGRESS_LOG_INTERVAL;
+
+	private final AtomicLong completedCount = new AtomicLong();
+
+	private final AtomicLong failedCount = new AtomicLong();
+
+	private final AtomicLong lastProgressLogTime = new AtomicLong();
+
+	private volatile long reportsPerSecond = 0;
+
+	/**
+	 * @param connectionFactory
+	 *            the factory opening the worker connections.
+	 */
+	public ParallelReportGenerator(ConnectionFactory connectionFactory) {
+		this.connectionFactory = connectionFactory;
+	}
+
+	/**
+	 * @return the session of the worker running on the current thread, null
+	 *         when not called from a report.
+	 */
+	public static ReportSession getCurrentSession() {
+		return CURRENT_SESSION.get();
+	}
+
+	/**
+	 * @return the number of worker threads.
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * @param parallelism
+	 *            the number of worker threads.
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	/**
+	 * @return the interval between two progress messages in milliseconds.
+	 */
+	public long getProgressLogInterval() {
+		return progressLogInterval;
+	}
+
+	/**
+	 * @param progressLogInterval
+	 *            the interval between two progress messages in milliseconds.
+	 */
+	public void setProgressLogInterval(long progressLogInterval) {
+		this.progressLogInterval = progressLogInterval;
+	}
+
+	/**
+	 * @return the number of reports generated by the last run.
+	 */
+	public long getCompletedCount() {
+		return completedCount.get();
+	}
+
+	/**
+	 * @return the number of reports that failed in the last run.
+	 */
+	public long getFailedCount() {
+		return failedCount.get();
+	}
+
+	/**
+	 * @return the number of reports generated per second by the last run.
+	 */
+	public long getReportsPerSecond() {
+		return reportsPerSecond;
+	}
+
+	/**
+	 * Generate the report of every item and wait for them.
+	 * 
+	 * @param reportName
+	 *            the name of the report, for logging.
+	 * @param items
+	 *            the items to report on.
+	 * @param report
+	 *            the report to generate.
+	 */
+	public <T> void generateReports(final String reportName, List<T> items,
+			final Report<T> report) {
+		final int total = items.size();
+		final long startTime = System.currentTimeMillis();
+		completedCount.set(0);
+		failedCount.set(0);
+		lastProgressLogTime.set(startTime);
+
+		int workerCount = Math.max(1, Math.min(parallelism, total));
+		final List<ReportSession> sessions = new ArrayList<ReportSession>(
+				workerCount);
+		// a fixed pool never runs a task on the calling thread, which keeps
+		// the sessions confined to the workers
+		ExecutorService pool = Executors.newFixedThreadPool(workerCount);
+		try {
+			List<Future<?>> tasks = new ArrayList<Future<?>>(total);
+			for (final T item : items) {
+				tasks.add(pool.submit(new Callable<Object>() {
+					@Override
+					public Object call() throws Exception {
+						generateReport(reportName, item, report, sessions,
+								total, startTime);
+						return null;
+					}
+				}));
+			}
+			for (Future<?> task : tasks) {
+				waitForTask(task);
+			}
+		} finally {
+			pool.shutdown();
+			synchronized (sessions) {
+				for (ReportSession session : sessions) {
+					session.close();
+				}
+			}
+		}
+
+		long duration = Math.max(1, System.currentTimeMillis() - startTime);
+		reportsPerSecond = completedCount.get() * 1000 / duration;
+		LOGGER.log(Level.INFO, "Generated " + completedCount.get() + " "
+				+ reportName + " reports in " + duration + " ms ("
+				+ reportsPerSecond + " reports/s) using " + workerCount
+				+ " threads, " + failedCount.get() + " failed.");
+	}
+
+	private <T> void generateReport(String reportName, T item,
+			Report<T> report, List<ReportSession> sessions, int total,
+			long startTime) {
+		final String METHODNAME = "generateReport(String reportName, T item, Report<T> report, List<ReportSession> sessions, int total, long startTime)";
+		ReportSession session = CURRENT_SESSION.get();
+		if (session == null) {
+			synchronized (sessions) {
+				session = new ReportSession(connectionFactory, sessions.size());
+				sessions.add(session);
+			}
+			CURRENT_SESSION.set(session);
+		}
+
+		try {
+			report.generate(item);
+			completedCount.incrementAndGet();
+		} catch (Exception e) {
+			failedCount.incrementAndGet();
+			LOGGER.log(Level.WARNING, "Failed to generate the " + reportName
+					+ " report of : " + item);
+			LoggingHelper.logUnexpectedException(LOGGER, CLASS_NAME,
+					METHODNAME, e);
+		}
+
+		logProgress(reportName, total, startTime);
+	}
+
+	private void logProgress(String reportName, int total, long startTime) {
+		long now = System.currentTimeMillis();
+		long lastLogTime = lastProgressLogTime.get();
+		if (now - lastLogTime < progressLogInterval
+				|| !lastProgressLogTime.compareAndSet(lastLogTime, now)) {
+			return;
+		}
+		long done = completedCount.get() + failedCount.get();
+		long rate = done * 1000 / Math.max(1, now - startTime);
+		LOGGER.log(Level.INFO, "Generated " + done + " of " + total + " "
+				+ reportName + " reports (" + rate + " reports/s).");
+	}
+
+	private void waitForTask(Future<?> task) {
+		final String METHODNAME = "waitForTask(Future<?> task)";
+		try {
+			task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LoggingHelper.logUnexpectedException(LOGGER, CLASS_NAME,
+					METHODNAME, e);
+		} catch (ExecutionException e) {
+			LoggingHelper.logUnexpectedException(LOGGER, CLASS_NAME,
+					METHODNAME, e.getCause());
+		}
+	}
+}
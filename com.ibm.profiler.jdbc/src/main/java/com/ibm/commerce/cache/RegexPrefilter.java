@@ -0,0 +1,429 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rejects the lines that can't match a set of regular expressions before they
+ * are run.
+ * <p>
+ * The literal text every match of an expression must contain, such as
+ * "JDBCTrace" or "PerfLog &lt;entry", is extracted from the expression. All the
+ * literals are searched in a single pass over a line with an Aho-Corasick
+ * automaton, and an expression only needs to run when all of its literals
+ * were found. Expressions without extractable literals always run.
+ * <p>
+ * The prefilter counts the lines checked, rejected and matched for each
+ * expression. It isn't thread safe, each loader has its own.
+ */
+public class RegexPrefilter {
+
+	/**
+	 * shorter literals reject too few lines to be worth searching
+	 */
+	public static final int MINIMUM_LITERAL_LENGTH = 3;
+
+	/**
+	 * literals are limited to ASCII characters, other lines characters reset
+	 * the automaton
+	 */
+	private static final int ALPHABET_SIZE = 128;
+
+	/**
+	 * found literals are tracked in a long bit mask
+	 */
+	private static final int MAXIMUM_LITERAL_COUNT = 64;
+
+	private final String[] names;
+
+	/**
+	 * bit mask of the literals required by each expression
+	 */
+	private final long[] requiredMasks;
+
+	/**
+	 * automaton transitions, [state * ALPHABET_SIZE + character]
+	 */
+	private final int[] transitions;
+
+	/**
+	 * bit mask of the literals ending at each state
+	 */
+	private final long[] outputs;
+
+	private final long[] checkedCounts;
+
+	private final long[] rejectedCounts;
+
+	private final long[] matchedCounts;
+
+	/**
+	 * @param names
+	 *            the expression names, used in the statistics.
+	 * @param regexes
+	 *            the regular expressions.
+	 */
+	public RegexPrefilter(String[] names, String[] regexes) {
+		this.names = names.clone();
+		int count = regexes.length;
+		requiredMasks = new long[count];
+		checkedCounts = new long[count];
+		rejectedCounts = new long[count];
+		matchedCounts = new long[count];
+
+		Map<String, Integer> literalIndexes = new LinkedHashMap<String, Integer>();
+		for (int i = 0; i < count; ++i) {
+			for (String literal : getRequiredLiterals(regexes[i])) {
+				Integer index = literalIndexes.get(literal);
+				if (index == null) {
+					if (literalIndexes.size() == MAXIMUM_LITERAL_COUNT) {
+						// skipping a literal only weakens the filter
+						continue;
+					}
+					index = Integer.valueOf(literalIndexes.size());
+					literalIndexes.put(literal, index);
+				}
+				requiredMasks[i] |= 1L << index.intValue();
+			}
+		}
+
+		List<int[]> gotoList = new ArrayList<int[]>();
+		List<Long> outputList = new ArrayList<Long>();
+		gotoList.add(newState());
+		outputList.add(Long.valueOf(0));
+		for (Map.Entry<String, Integer> entry : literalIndexes.entrySet()) {
+			String literal = entry.getKey();
+			int state = 0;
+			for (int c = 0; c < literal.length(); ++c) {
+				int[] next = gotoList.get(state);
+				char character = literal.charAt(c);
+				if (next[character] < 0) {
+					next[character] = gotoList.size();
+					gotoList.add(newState());
+					outputList.add(Long.valueOf(0));
+				}
+				state = next[character];
+			}
+			outputList.set(state, Long.valueOf(outputList.get(state)
+					.longValue() | (1L << entry.getValue().intValue())));
+		}
+
+		// breadth first, turn the trie into a complete automaton
+		int stateCount = gotoList.size();
+		transitions = new int[stateCount * ALPHABET_SIZE];
+		outputs = new long[stateCount];
+		int[] failures = new int[stateCount];
+		Deque<Integer> queue = new ArrayDeque<Integer>();
+		int[] root = gotoList.get(0);
+		for (int character = 0; character < ALPHABET_SIZE; ++character) {
+			int next = root[character];
+			if (next < 0) {
+				transitions[character] = 0;
+			} else {
+				transitions[character] = next;
+				failures[next] = 0;
+				queue.add(Integer.valueOf(next));
+			}
+		}
+		outputs[0] = outputList.get(0).longValue();
+		while (!queue.isEmpty()) {
+			int state = queue.poll().intValue();
+			outputs[state] = outputList.get(state).longValue()
+					| outputs[failures[state]];
+			int[] next = gotoList.get(state);
+			for (int character = 0; character < ALPHABET_SIZE; ++character) {
+				int fallback = transitions[failures[state] * ALPHABET_SIZE
+						+ character];
+				if (next[character] < 0) {
+					transitions[state * ALPHABET_SIZE + character] = fallback;
+				} else {
+					transitions[state * ALPHABET_SIZE + character] = next[character];
+					failures[next[character]] = fallback;
+					queue.add(Integer.valueOf(next[character]));
+				}
+			}
+		}
+	}
+
+	private static int[] newState() {
+		int[] next = new int[ALPHABET_SIZE];
+		Arrays.fill(next, -1);
+		return next;
+	}
+
+	/**
+	 * Search all the literals in a line.
+	 * 
+	 * @param line
+	 *            the line.
+	 * @return the bit mask of the literals found.
+	 */
+	public long scan(CharSequence line) {
+		long found = 0;
+		int state = 0;
+		int length = line.length();
+		for (int i = 0; i < length; ++i) {
+			char character = line.charAt(i);
+			if (character >= ALPHABET_SIZE) {
+				state = 0;
+				continue;
+			}
+			state = transitions[state * ALPHABET_SIZE + character];
+			found |= outputs[state];
+		}
+		return found;
+	}
+
+	/**
+	 * Check if an expression may match a line and count the line.
+	 * 
+	 * @param expression
+	 *            the expression index.
+	 * @param found
+	 *            the literals found in the line by {@link #scan(CharSequence)}.
+	 * @return false if the expression can't match the line.
+	 */
+	public boolean mayMatch(int expression, long found) {
+		++checkedCounts[expression];
+		long required = requiredMasks[expression];
+		if ((found & required) != required) {
+			++rejectedCounts[expression];
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Count a line matched by an expression.
+	 * 
+	 * @param expression
+	 *            the expression index.
+	 */
+	public void recordMatch(int expression) {
+		++matchedCounts[expression];
+	}
+
+	public long getCheckedCount(int expression) {
+		return checkedCounts[expression];
+	}
+
+	public long getRejectedCount(int expression) {
+		return rejectedCounts[expression];
+	}
+
+	public long getMatchedCount(int expression) {
+		return matchedCounts[expression];
+	}
+
+	/**
+	 * Reset the statistics.
+	 */
+	public void resetStatistics() {
+		Arrays.fill(checkedCounts, 0);
+		Arrays.fill(rejectedCounts, 0);
+		Arrays.fill(matchedCounts, 0);
+	}
+
+	/**
+	 * @return one line of statistics per expression checked since the last
+	 *         reset.
+	 */
+	public String getStatistics() {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < names.length; ++i) {
+			if (checkedCounts[i] == 0) {
+				continue;
+			}
+			long ran = checkedCounts[i] - rejectedCounts[i];
+			if (builder.length() > 0) {
+				builder.append('\n');
+			}
+			builder.append(names[i]).append(" : ").append(checkedCounts[i])
+					.append(" lines checked, ").append(rejectedCounts[i])
+					.append(" rejected by the prefilter, ").append(ran)
+					.append(" ran the expression, ").append(matchedCounts[i])
+					.append(" matched, ").append(ran - matchedCounts[i])
+					.append(" prefilter false positives.");
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Extract the literal text every match of a regular expression contains.
+	 * <p>
+	 * Only the text outside of groups and character classes, that isn't made
+	 * optional by a quantifier, is considered. Expressions using alternatives,
+	 * embedded flags, quoting or escapes other than character classes and
+	 * escaped punctuation get no literals, so they always run.
+	 * 
+	 * @param regex
+	 *            the regular expression.
+	 * @return the literals of at least {@link #MINIMUM_LITERAL_LENGTH}
+	 *         characters.
+	 */
+	public static List<String> getRequiredLiterals(String regex) {
+		List<String> literals = new ArrayList<String>();
+		StringBuilder run = new StringBuilder();
+		int depth = 0;
+		int length = regex.length();
+		int i = 0;
+		while (i < length) {
+			char c = regex.charAt(i);
+			boolean literal = false;
+			switch (c) {
+			case '|':
+				return new ArrayList<String>();
+			case '\\':
+				if (i + 1 >= length) {
+					return new ArrayList<String>();
+				}
+				char escaped = regex.charAt(i + 1);
+				i += 2;
+				if (!Character.isLetterOrDigit(escaped)) {
+					c = escaped;
+					literal = true;
+				} else if ("dDsSwWbBAzZG".indexOf(escaped) >= 0) {
+					literal = false;
+				} else if (escaped >= '1' && escaped <= '9') {
+					// back reference
+					while (i < length && Character.isDigit(regex.charAt(i))) {
+						++i;
+					}
+				} else {
+					return new ArrayList<String>();
+				}
+				break;
+			case '(':
+				if (i + 2 < length && regex.charAt(i + 1) == '?'
+						&& ":=!<>".indexOf(regex.charAt(i + 2)) < 0) {
+					// embedded flags may change the case sensitivity
+					return new ArrayList<String>();
+				}
+				++depth;
+				++i;
+				break;
+			case ')':
+				--depth;
+				++i;
+				break;
+			case '[':
+				i = skipCharacterClass(regex, i);
+				if (i < 0) {
+					return new ArrayList<String>();
+				}
+				break;
+			case '.':
+			case '^':
+			case '$':
+				++i;
+				break;
+			default:
+				literal = true;
+				++i;
+				break;
+			}
+
+			boolean optional = false;
+			if (i < length) {
+				char quantifier = regex.charAt(i);
+				if (quantifier == '?' || quantifier == '*'
+						|| quantifier == '+' || quantifier == '{') {
+					optional = quantifier == '?' || quantifier == '*'
+							|| (quantifier == '{' && i + 1 < length && regex
+									.charAt(i + 1) == '0');
+					if (quantifier == '{') {
+						int end = regex.indexOf('}', i);
+						if (end < 0) {
+							return new ArrayList<String>();
+						}
+						i = end;
+					}
+					++i;
+					// lazy and possessive quantifiers
+					if (i < length
+							&& (regex.charAt(i) == '?' || regex.charAt(i) == '+')) {
+						++i;
+					}
+					if (literal && !optional && depth == 0) {
+						// the character is required, the run ends after it
+						run.append(c);
+					}
+					addLiteral(literals, run);
+					continue;
+				}
+			}
+
+			if (literal && depth == 0) {
+				run.append(c);
+			} else {
+				addLiteral(literals, run);
+			}
+		}
+		addLiteral(literals, run);
+		return literals;
+	}
+
+	private static void addLiteral(List<String> literals, StringBuilder run) {
+		if (run.length() >= MINIMUM_LITERAL_LENGTH) {
+			String literal = run.toString();
+			boolean ascii = true;
+			for (int i = 0; i < literal.length(); ++i) {
+				if (literal.charAt(i) >= ALPHABET_SIZE) {
+					ascii = false;
+				}
+			}
+			if (ascii && !literals.contains(literal)) {
+				literals.add(literal);
+			}
+		}
+		run.setLength(0);
+	}
+
+	/**
+	 * @return the index following the character class starting at start, -1
+	 *         if it isn't closed.
+	 */
+	private static int skipCharacterClass(String regex, int start) {
+		int depth = 0;
+		int i = start;
+		int length = regex.length();
+		while (i < length) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				i += 2;
+				continue;
+			}
+			if (c == '[') {
+				++depth;
+			} else if (c == ']' && i > start + 1
+					&& !(i == start + 2 && regex.charAt(start + 1) == '^')) {
+				--depth;
+				if (depth == 0) {
+					return i + 1;
+				}
+			}
+			++i;
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock free ring buffer. Any number of threads can offer elements
+ * while a single consumer drains them. Each slot carries a sequence number
+ * that tells producers and consumers whose turn it is, so no thread ever waits
+ * on a monitor. Polling is also safe from producer threads, which is used to
+ * discard the oldest element when the buffer is full.
+ * 
+ * @param <E>
+ *            the element type.
+ */
+public class RingBuffer<E> {
+
+	private final int capacity;
+
+	private final int mask;
+
+	private final AtomicReferenceArray<E> elements;
+
+	private final AtomicLongArray sequences;
+
+	private final AtomicLong producerPosition = new AtomicLong(0);
+
+	private final AtomicLong consumerPosition = new AtomicLong(0);
+
+	/**
+	 * Constructor
+	 * 
+	 * @param requestedCapacity
+	 *            the minimum number of elements the buffer can hold, rounded
+	 *            up to the next power of two.
+	 */
+	public RingBuffer(int requestedCapacity) {
+		int size = 1;
+		while (size < requestedCapacity && size < (1 << 30)) {
+			size <<= 1;
+		}
+		capacity = size;
+		mask = size - 1;
+		elements = new AtomicReferenceArray<E>(size);
+		sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; ++i) {
+			sequences.set(i, i);
+		}
+	}
+
+	/**
+	 * Add an element at the end of the buffer.
+	 * 
+	 * @param element
+	 *            the element to add, must not be null.
+	 * @return false if the buffer is full.
+	 */
+	public boolean offer(E element) {
+		long position = producerPosition.get();
+		while (true) {
+			int index = (int) (position & mask);
+			long difference = sequences.get(index) - position;
+			if (difference == 0) {
+				if (producerPosition.compareAndSet(position, position + 1)) {
+					elements.lazySet(index, element);
+					sequences.set(index, position + 1);
+					return true;
+				}
+				position = producerPosition.get();
+			} else if (difference < 0) {
+				return false;
+			} else {
+				position = producerPosition.get();
+			}
+		}
+	}
+
+	/**
+	 * Remove the oldest element of the buffer.
+	 * 
+	 * @return the oldest element, null if the buffer is empty.
+	 */
+	public E poll() {
+		long position = consumerPosition.get();
+		while (true) {
+			int index = (int) (position & mask);
+			long difference = sequences.get(index) - (position + 1);
+			if (difference == 0) {
+				if (consumerPosition.compareAndSet(position, position + 1)) {
+					E element = elements.get(index);
+					elements.lazySet(index, null);
+					sequences.set(index, position + capacity);
+					return element;
+				}
+				position = consumerPosition.get();
+			} else if (difference < 0) {
+				return null;
+			} else {
+				position = consumerPosition.get();
+			}
+		}
+	}
+
+	/**
+	 * Move up to the specified number of elements to a collection.
+	 * 
+	 * @param target
+	 *            the collection receiving the elements.
+	 * @param maximumCount
+	 *            the maximum number of elements to move.
+	 * @return the number of elements moved.
+	 */
+	public int drainTo(Collection<? super E> target, int maximumCount) {
+		int count = 0;
+		while (count < maximumCount) {
+			E element = poll();
+			if (element == null) {
+				break;
+			}
+			target.add(element);
+			++count;
+		}
+		return count;
+	}
+
+	/**
+	 * 
+	 * @return the approximate number of elements in the buffer.
+	 */
+	public int size() {
+		long size = producerPosition.get() - consumerPosition.get();
+		if (size < 0) {
+			return 0;
+		}
+		return (int) Math.min(size, capacity);
+	}
+
+	/**
+	 * 
+	 * @return the number of elements the buffer can hold.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+}
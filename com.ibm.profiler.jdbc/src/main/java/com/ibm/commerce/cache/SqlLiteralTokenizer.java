@@ -0,0 +1,361 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.util.List;
+
+/**
+ * Single pass SQL literal scanner. It replaces every quoted string and number
+ * literal of a SQL (or CQL) statement by a parameter marker, extracts the
+ * literal values and folds lists of parameter markers into a single list
+ * marker. The output is identical to the regular expressions it replaces, but
+ * the scan is linear and never backtracks on long IN lists or large quoted
+ * literals.
+ */
+public final class SqlLiteralTokenizer {
+
+    /** marker that replaces a single literal */
+    public static final String PARAMETER_MARKER = "*?";
+
+    /** marker that replaces a list of parameter markers */
+    public static final String PARAMETER_LIST_MARKER = "(**?)";
+
+    /** characters allowed right before and right after a number */
+    private static final String NUMBER_DELIMITERS = ", \n\t\r();=<>!";
+
+    private static final int UUID_LENGTH = 36;
+
+    // states of the parameter list folding automaton.
+    private static final int LIST_IDLE = 0;
+
+    private static final int LIST_OPEN = 1;
+
+    private static final int LIST_STAR = 2;
+
+    private static final int LIST_FIRST_MARKER = 3;
+
+    private static final int LIST_CONTENT = 4;
+
+    private SqlLiteralTokenizer() {
+    }
+
+    /**
+     * Substitute all the SQL numeric and textual literals for a parameter
+     * marker and fold lists of markers.
+     * 
+     * @param sql
+     *            The SQL with numeric and textual literals
+     * @param parameters
+     *            Optional list to fill with two entries for each literal, the
+     *            first is the parameter name, the second is the literal value.
+     * @return The SQL with its literals substituted with markers
+     */
+    public static String substituteJdbcParameters( String sql, List<String> parameters ) {
+        return scan( sql, false, parameters, true );
+    }
+
+    /**
+     * Extract the SQL numeric and textual literals without building the
+     * substituted SQL.
+     * 
+     * @param sql
+     *            The SQL with numeric and textual literals
+     * @param parameters
+     *            The list to fill with two entries for each literal, the first
+     *            is the parameter name, the second is the literal value.
+     */
+    public static void addJdbcParameters( String sql, List<String> parameters ) {
+        scan( sql, false, parameters, false );
+    }
+
+    /**
+     * Substitute all the CQL numeric, textual and UUID literals for a parameter
+     * marker and fold lists of markers.
+     * 
+     * @param cql
+     *            The CQL with literals
+     * @param parameters
+     *            Optional list to fill with two entries for each literal, the
+     *            first is the parameter name, the second is the literal value.
+     * @return The CQL with its literals substituted with markers
+     */
+    public static String substituteCassandraParameters( String cql, List<String> parameters ) {
+        return scan( cql, true, parameters, true );
+    }
+
+    /**
+     * Extract the CQL numeric, textual and UUID literals without building the
+     * substituted CQL.
+     * 
+     * @param cql
+     *            The CQL with literals
+     * @param parameters
+     *            The list to fill with two entries for each literal, the first
+     *            is the parameter name, the second is the literal value.
+     */
+    public static void addCassandraParameters( String cql, List<String> parameters ) {
+        scan( cql, true, parameters, false );
+    }
+
+    private static String scan( String sql, boolean matchUuid, List<String> parameters, boolean buildOutput ) {
+        int length = sql.length();
+        ListFoldingBuilder output = null;
+        if ( buildOutput ) {
+            output = new ListFoldingBuilder( length );
+        }
+        int count = 1;
+        int i = 0;
+        while ( i < length ) {
+            char c = sql.charAt( i );
+            int end = -1;
+            if ( c == '\'' ) {
+                end = matchQuotedString( sql, i );
+            } else if ( c == '-' || isDigit( c ) ) {
+                end = matchNumber( sql, i );
+            }
+            if ( end < 0 && matchUuid && isHexDigit( c ) ) {
+                end = matchUuid( sql, i );
+            }
+
+            if ( end < 0 ) {
+                if ( output != null ) {
+                    output.append( c );
+                }
+                ++i;
+            } else {
+                if ( parameters != null ) {
+                    parameters.add( "*" + count++ );
+                    parameters.add( sql.substring( i, end ) );
+                }
+                if ( output != null ) {
+                    output.append( '*' );
+                    output.append( '?' );
+                }
+                i = end;
+            }
+        }
+
+        if ( output == null ) {
+            return null;
+        }
+        return output.toString();
+    }
+
+    /**
+     * Match a quoted string where quotes are escaped by doubling them. When the
+     * closing quote is missing, the match ends at the last escaped quote, like
+     * a backtracking regular expression would.
+     * 
+     * @return the end of the match (exclusive), -1 if there is no match.
+     */
+    private static int matchQuotedString( String sql, int start ) {
+        int length = sql.length();
+        int lastEscapedQuote = -1;
+        int j = start + 1;
+        while ( j < length ) {
+            if ( sql.charAt( j ) != '\'' ) {
+                ++j;
+            } else if ( j + 1 < length && sql.charAt( j + 1 ) == '\'' ) {
+                lastEscapedQuote = j;
+                j += 2;
+            } else {
+                return j + 1;
+            }
+        }
+        if ( lastEscapedQuote >= 0 ) {
+            return lastEscapedQuote + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Match -?[0-9]+(\.[0-9]*)?([eE][+-]?[0-9+])? surrounded by delimiters.
+     * 
+     * @return the end of the match (exclusive), -1 if there is no match.
+     */
+    private static int matchNumber( String sql, int start ) {
+        if ( !isDelimitedBefore( sql, start ) ) {
+            return -1;
+        }
+        int length = sql.length();
+        int j = start;
+        if ( sql.charAt( j ) == '-' ) {
+            ++j;
+        }
+        int digitStart = j;
+        while ( j < length && isDigit( sql.charAt( j ) ) ) {
+            ++j;
+        }
+        if ( j == digitStart ) {
+            return -1;
+        }
+
+        // a shorter integer part is always followed by a digit, which is never
+        // a valid delimiter, so only the full integer part can match.
+        if ( j < length && sql.charAt( j ) == '.' ) {
+            int fractionEnd = j + 1;
+            while ( fractionEnd < length && isDigit( sql.charAt( fractionEnd ) ) ) {
+                ++fractionEnd;
+            }
+            int end = matchExponentAndDelimiter( sql, fractionEnd );
+            if ( end >= 0 ) {
+                return end;
+            }
+        }
+        return matchExponentAndDelimiter( sql, j );
+    }
+
+    private static int matchExponentAndDelimiter( String sql, int position ) {
+        int length = sql.length();
+        if ( position < length ) {
+            char c = sql.charAt( position );
+            if ( c == 'e' || c == 'E' ) {
+                if ( position + 2 < length ) {
+                    char sign = sql.charAt( position + 1 );
+                    if ( ( sign == '+' || sign == '-' ) && isDigitOrPlus( sql.charAt( position + 2 ) )
+                        && isDelimitedAfter( sql, position + 3 ) ) {
+                        return position + 3;
+                    }
+                }
+                if ( position + 1 < length && isDigitOrPlus( sql.charAt( position + 1 ) )
+                    && isDelimitedAfter( sql, position + 2 ) ) {
+                    return position + 2;
+                }
+            }
+        }
+        if ( isDelimitedAfter( sql, position ) ) {
+            return position;
+        }
+        return -1;
+    }
+
+    private static int matchUuid( String sql, int start ) {
+        int end = start + UUID_LENGTH;
+        if ( end > sql.length() || !isDelimitedBefore( sql, start ) ) {
+            return -1;
+        }
+        for ( int i = start; i < end; ++i ) {
+            int offset = i - start;
+            char c = sql.charAt( i );
+            if ( offset == 8 || offset == 13 || offset == 18 || offset == 23 ) {
+                if ( c != '-' ) {
+                    return -1;
+                }
+            } else if ( !isHexDigit( c ) ) {
+                return -1;
+            }
+        }
+        if ( isDelimitedAfter( sql, end ) ) {
+            return end;
+        }
+        return -1;
+    }
+
+    private static boolean isDelimitedBefore( String sql, int position ) {
+        return position == 0 || NUMBER_DELIMITERS.indexOf( sql.charAt( position - 1 ) ) >= 0;
+    }
+
+    /**
+     * Equivalent of the look ahead ([, \n\t\r();=<>!]|$) where $ also matches
+     * before a final line terminator.
+     */
+    private static boolean isDelimitedAfter( String sql, int position ) {
+        int length = sql.length();
+        if ( position >= length ) {
+            return true;
+        }
+        char c = sql.charAt( position );
+        if ( NUMBER_DELIMITERS.indexOf( c ) >= 0 ) {
+            return true;
+        }
+        return position == length - 1 && ( c == '\u0085' || c == '\u2028' || c == '\u2029' );
+    }
+
+    private static boolean isDigit( char c ) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isDigitOrPlus( char c ) {
+        return c == '+' || isDigit( c );
+    }
+
+    private static boolean isHexDigit( char c ) {
+        return isDigit( c ) || ( c >= 'a' && c <= 'f' ) || ( c >= 'A' && c <= 'F' );
+    }
+
+    /**
+     * String builder that replaces \( *\*?\? *,[ ,\*\?]*\) by the parameter
+     * list marker as characters are appended.
+     */
+    private static final class ListFoldingBuilder {
+
+        private final StringBuilder builder;
+
+        private int state = LIST_IDLE;
+
+        private int listStart = -1;
+
+        private ListFoldingBuilder( int capacity ) {
+            builder = new StringBuilder( capacity );
+        }
+
+        private void append( char c ) {
+            builder.append( c );
+            if ( c == '(' ) {
+                state = LIST_OPEN;
+                listStart = builder.length() - 1;
+                return;
+            }
+            switch ( state ) {
+            case LIST_OPEN:
+                if ( c == '*' ) {
+                    state = LIST_STAR;
+                } else if ( c == '?' ) {
+                    state = LIST_FIRST_MARKER;
+                } else if ( c != ' ' ) {
+                    state = LIST_IDLE;
+                }
+                break;
+            case LIST_STAR:
+                state = c == '?' ? LIST_FIRST_MARKER : LIST_IDLE;
+                break;
+            case LIST_FIRST_MARKER:
+                if ( c == ',' ) {
+                    state = LIST_CONTENT;
+                } else if ( c != ' ' ) {
+                    state = LIST_IDLE;
+                }
+                break;
+            case LIST_CONTENT:
+                if ( c == ')' ) {
+                    builder.setLength( listStart );
+                    builder.append( PARAMETER_LIST_MARKER );
+                    state = LIST_IDLE;
+                } else if ( c != ' ' && c != ',' && c != '*' && c != '?' ) {
+                    state = LIST_IDLE;
+                }
+                break;
+            default:
+                break;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return builder.toString();
+        }
+    }
+}
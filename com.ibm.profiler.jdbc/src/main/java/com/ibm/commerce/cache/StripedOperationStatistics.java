@@ -0,0 +1,194 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Operation statistics that never lock when logging a statistic. Counters and
+ * sums are striped cells that only get added up when read and the minimum and
+ * maximum values are updated with compare and set. Hot operations logged by
+ * many threads at once no longer serialize on the statistics monitor.
+ * 
+ * Reading the statistics while they are updated gives a snapshot that can be
+ * off by the calls in progress.
+ */
+public class StripedOperationStatistics extends OperationStatistics {
+
+    /** number of calls to the operation */
+    private final LongAdder callCount = new LongAdder();
+
+    /** number of calls to the operation that were successful */
+    private final LongAdder successCallCount = new LongAdder();
+
+    /** number of calls where cache was enabled */
+    private final LongAdder cacheEnabledCallCount = new LongAdder();
+
+    /** number of calls that resulted in a cache hit */
+    private final LongAdder cacheHitCount = new LongAdder();
+
+    /** the sum of all execution time */
+    private final LongAdder sumExecutionTime = new LongAdder();
+
+    /** the smallest execution time */
+    private final AtomicLong minExecutionTime = new AtomicLong( Long.MAX_VALUE );
+
+    /** the biggest execution time */
+    private final AtomicLong maxExecutionTime = new AtomicLong( 0 );
+
+    /** the sum of all the result size */
+    private final LongAdder sumResultSize = new LongAdder();
+
+    /** the minimum result size */
+    private final AtomicLong minResultSize = new AtomicLong( Long.MAX_VALUE );
+
+    /** the maximum result size */
+    private final AtomicLong maxResultSize = new AtomicLong( 0 );
+
+    /**
+     * Constructor
+     */
+    public StripedOperationStatistics() {
+        super();
+    }
+
+    @Override
+    public void logStatistic( long duration, int resultSize, boolean operationCacheEnabled,
+        boolean resultFetchedFromCache, boolean successful, long weight ) {
+        // update the boundaries first so that a reader never sees a call without its minimum.
+        updateMinimum( minExecutionTime, duration );
+        updateMaximum( maxExecutionTime, duration );
+        updateMinimum( minResultSize, resultSize );
+        updateMaximum( maxResultSize, resultSize );
+        sumExecutionTime.add( duration * weight );
+        sumResultSize.add( resultSize * weight );
+        getDurationHistogram().recordValue( duration, weight );
+        if ( successful ) {
+            successCallCount.add( weight );
+        }
+        if ( operationCacheEnabled ) {
+            cacheEnabledCallCount.add( weight );
+        }
+        if ( resultFetchedFromCache ) {
+            cacheHitCount.add( weight );
+        }
+        callCount.add( weight );
+    }
+
+    @Override
+    protected void addStatistics( long addedCallCount, long addedSuccessCallCount, long addedCacheEnabledCallCount,
+        long addedCacheHitCount, float addedSumExecutionTime, long addedMinExecutionTime,
+        long addedMaxExecutionTime, float addedSumResultSize, long addedMinResultSize, long addedMaxResultSize ) {
+        updateMinimum( minExecutionTime, addedMinExecutionTime );
+        updateMaximum( maxExecutionTime, addedMaxExecutionTime );
+        updateMinimum( minResultSize, addedMinResultSize );
+        updateMaximum( maxResultSize, addedMaxResultSize );
+        sumExecutionTime.add( (long) addedSumExecutionTime );
+        sumResultSize.add( (long) addedSumResultSize );
+        successCallCount.add( addedSuccessCallCount );
+        cacheEnabledCallCount.add( addedCacheEnabledCallCount );
+        cacheHitCount.add( addedCacheHitCount );
+        callCount.add( addedCallCount );
+    }
+
+    @Override
+    public synchronized void reset() {
+        callCount.reset();
+        successCallCount.reset();
+        cacheEnabledCallCount.reset();
+        cacheHitCount.reset();
+        sumExecutionTime.reset();
+        sumResultSize.reset();
+        minExecutionTime.set( Long.MAX_VALUE );
+        maxExecutionTime.set( 0 );
+        minResultSize.set( Long.MAX_VALUE );
+        maxResultSize.set( 0 );
+        getDurationHistogram().reset();
+    }
+
+    @Override
+    public long getCallCount() {
+        return callCount.sum();
+    }
+
+    @Override
+    public long getSuccessCallCount() {
+        return successCallCount.sum();
+    }
+
+    @Override
+    public long getCacheEnabledCallCount() {
+        return cacheEnabledCallCount.sum();
+    }
+
+    @Override
+    public long getCacheHitCount() {
+        return cacheHitCount.sum();
+    }
+
+    @Override
+    public float getSumExecutionTime() {
+        return sumExecutionTime.sum();
+    }
+
+    @Override
+    public long getMinExecutionTime() {
+        long value = minExecutionTime.get();
+        if ( value == Long.MAX_VALUE ) {
+            return 0;
+        }
+        return value;
+    }
+
+    @Override
+    public long getMaxExecutionTime() {
+        return maxExecutionTime.get();
+    }
+
+    @Override
+    public float getSumResultSize() {
+        return sumResultSize.sum();
+    }
+
+    @Override
+    public long getMinResultSize() {
+        long value = minResultSize.get();
+        if ( value == Long.MAX_VALUE ) {
+            return 0;
+        }
+        return value;
+    }
+
+    @Override
+    public long getMaxResultSize() {
+        return maxResultSize.get();
+    }
+
+    private static void updateMinimum( AtomicLong minimum, long value ) {
+        long current = minimum.get();
+        while ( value < current && !minimum.compareAndSet( current, value ) ) {
+            current = minimum.get();
+        }
+    }
+
+    private static void updateMaximum( AtomicLong maximum, long value ) {
+        long current = maximum.get();
+        while ( value > current && !maximum.compareAndSet( current, value ) ) {
+            current = maximum.get();
+        }
+    }
+}
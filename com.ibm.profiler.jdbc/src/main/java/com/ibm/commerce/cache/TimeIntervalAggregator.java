@@ -17,6 +17,7 @@ package com.ibm.commerce.cache;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
@@ -38,6 +39,9 @@ public abstract class TimeIntervalAggregator<IntervalType extends TimeInterval>
 
 	private final AtomicReferenceArray<IntervalType> intervalArray;
 
+	/** empty interval created ahead of time for the next rollover */
+	private final AtomicReference<IntervalType> nextInterval = new AtomicReference<IntervalType>();
+
 	private final long intervalWidthInNanos;
 
 	private final int intervalCount;
@@ -87,21 +91,35 @@ public abstract class TimeIntervalAggregator<IntervalType extends TimeInterval>
 				.get(index);
 		long intervalIndex = operationIntervalStatistics.getIndex();
 		if (intervalStartIndex != intervalIndex) {
-			// need to reset
-			IntervalType newStats = createNewInterval();
+			// need to reset, use the interval prepared ahead of time if any.
+			IntervalType newStats = nextInterval.getAndSet(null);
+			if (newStats == null) {
+				newStats = createNewInterval();
+			}
 			newStats.setIndex(intervalStartIndex);
 			boolean setSuccessful = intervalArray.compareAndSet(index,
 					operationIntervalStatistics, newStats);
 			if (setSuccessful) {
 				operationIntervalStatistics = newStats;
 			} else {
-				// another thread won, get its update.
+				// another thread won, get its update and keep the unused interval.
+				nextInterval.compareAndSet(null, newStats);
 				operationIntervalStatistics = intervalArray.get(index);
 			}
 		}
 		return operationIntervalStatistics;
 	}
 
+	/**
+	 * Create the next interval ahead of time so that the thread that rolls
+	 * over to a new interval doesn't have to create it.
+	 */
+	public void prepareNextInterval() {
+		if (nextInterval.get() == null) {
+			nextInterval.compareAndSet(null, createNewInterval());
+		}
+	}
+
 	protected abstract IntervalType createNewInterval();
 
 	/**
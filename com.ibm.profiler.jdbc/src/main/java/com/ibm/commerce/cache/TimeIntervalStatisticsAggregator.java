@@ -120,7 +120,7 @@ public final class TimeIntervalStatisticsAggregator extends TimeIntervalAggregat
 
 	@Override
 	protected OperationStatistics createNewInterval() {
-		return new OperationStatistics();
+		return OperationStatistics.createStatistics();
 	}
 
 }
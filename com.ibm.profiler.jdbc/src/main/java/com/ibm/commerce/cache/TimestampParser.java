@@ -0,0 +1,413 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Thread safe parser of log timestamps.
+ * <p>
+ * Patterns made only of the numeric year, month, day, hour, minute, second and
+ * millisecond fields (y, M, d, H, m, s, S) separated by literal characters,
+ * such as the WebSphere Application Server trace format
+ * {@link MetricFileLoader#DEFAULT_TIMESTAMP_FORMAT}, are compiled. The compiled
+ * form parses the digits directly and caches the time of the last parsed hour,
+ * so parsing the timestamps of a log doesn't allocate.
+ * <p>
+ * Other patterns, timestamps that don't match the compiled pattern, out of
+ * range fields and hours with a time zone transition are parsed with a
+ * {@link SimpleDateFormat} of the same pattern, one per thread, so the result
+ * is always the one of {@link SimpleDateFormat#parse(String)}.
+ */
+public class TimestampParser {
+
+	private static final int YEAR = 0;
+
+	private static final int MONTH = 1;
+
+	private static final int DAY = 2;
+
+	private static final int HOUR = 3;
+
+	private static final int MINUTE = 4;
+
+	private static final int SECOND = 5;
+
+	private static final int MILLISECOND = 6;
+
+	private static final int FIELD_COUNT = 7;
+
+	private static final int FIRST_GREGORIAN_YEAR = 1583;
+
+	private static final long MILLISECONDS_PER_HOUR = 3600000L;
+
+	private final String pattern;
+
+	private final TimeZone timeZone;
+
+	/**
+	 * compiled pattern, null when the pattern isn't supported
+	 */
+	private final Token[] tokens;
+
+	/**
+	 * number of letters of the year field in the pattern
+	 */
+	private final int yearLetterCount;
+
+	/**
+	 * first year of the century used to resolve two digit years
+	 */
+	private final int defaultCenturyStartYear;
+
+	private final ThreadLocal<DateFormat> fallbackFormatter;
+
+	/**
+	 * last parsed hour, replaced as a whole so that threads see a consistent
+	 * key and time
+	 */
+	private volatile CachedHour cachedHour;
+
+	/**
+	 * @param pattern
+	 *            the format according to the SimpleDateFormat class.
+	 * @throws IllegalArgumentException
+	 *             if the pattern is invalid.
+	 */
+	public TimestampParser(final String pattern) {
+		this.pattern = pattern;
+		SimpleDateFormat format = new SimpleDateFormat(pattern);
+		this.timeZone = format.getTimeZone();
+		Calendar centuryStart = new GregorianCalendar(timeZone);
+		centuryStart.setTime(format.get2DigitYearStart());
+		this.defaultCenturyStartYear = centuryStart.get(Calendar.YEAR);
+
+		this.fallbackFormatter = new ThreadLocal<DateFormat>() {
+			@Override
+			protected DateFormat initialValue() {
+				return new SimpleDateFormat(pattern);
+			}
+		};
+
+		int[] letterCount = new int[1];
+		this.tokens = compile(pattern, letterCount);
+		this.yearLetterCount = letterCount[0];
+	}
+
+	/**
+	 * @return the pattern according to the SimpleDateFormat class.
+	 */
+	public String getPattern() {
+		return pattern;
+	}
+
+	/**
+	 * @return true if the pattern is compiled, false if every timestamp is
+	 *         parsed with a SimpleDateFormat.
+	 */
+	public boolean isCompiled() {
+		return tokens != null;
+	}
+
+	/**
+	 * Parse a timestamp.
+	 * 
+	 * @param timestamp
+	 *            the timestamp text.
+	 * @return the time in milliseconds since the epoch.
+	 * @throws ParseException
+	 *             if the timestamp doesn't match the pattern.
+	 */
+	public long parse(String timestamp) throws ParseException {
+		if (tokens != null) {
+			long time = parseCompiled(timestamp);
+			if (time != Long.MIN_VALUE) {
+				return time;
+			}
+		}
+		return fallbackFormatter.get().parse(timestamp).getTime();
+	}
+
+	/**
+	 * @return the parsed time or Long.MIN_VALUE if the timestamp needs the
+	 *         fallback formatter.
+	 */
+	private long parseCompiled(String timestamp) {
+		int year = 0;
+		int month = 1;
+		int day = 1;
+		int hour = 0;
+		int minute = 0;
+		int second = 0;
+		int millisecond = 0;
+		int yearDigitCount = 0;
+		int length = timestamp.length();
+		int position = 0;
+		for (Token token : tokens) {
+			if (token.field < 0) {
+				if (position >= length
+						|| timestamp.charAt(position) != token.literal) {
+					return Long.MIN_VALUE;
+				}
+				++position;
+				continue;
+			}
+			int end = token.width > 0 ? position + token.width : length;
+			if (end > length) {
+				return Long.MIN_VALUE;
+			}
+			int start = position;
+			int value = 0;
+			while (position < end) {
+				int digit = timestamp.charAt(position) - '0';
+				if (digit < 0 || digit > 9) {
+					break;
+				}
+				// more digits than any valid field, let the formatter decide
+				if (position - start == 9) {
+					return Long.MIN_VALUE;
+				}
+				value = value * 10 + digit;
+				++position;
+			}
+			if (position == start || (token.width > 0 && position != end)) {
+				return Long.MIN_VALUE;
+			}
+			switch (token.field) {
+			case YEAR:
+				year = value;
+				yearDigitCount = position - start;
+				break;
+			case MONTH:
+				month = value;
+				break;
+			case DAY:
+				day = value;
+				break;
+			case HOUR:
+				hour = value;
+				break;
+			case MINUTE:
+				minute = value;
+				break;
+			case SECOND:
+				second = value;
+				break;
+			default:
+				millisecond = value;
+				break;
+			}
+		}
+
+		year = resolveYear(year, yearDigitCount);
+		// SimpleDateFormat is lenient, leave the roll over and the Julian
+		// calendar to it
+		if (year < FIRST_GREGORIAN_YEAR || month < 1 || month > 12 || day < 1
+				|| day > daysInMonth(year, month) || hour > 23 || minute > 59
+				|| second > 59 || millisecond > 999) {
+			return Long.MIN_VALUE;
+		}
+
+		long hourStart = getHourStart(year, month, day, hour);
+		if (hourStart == Long.MIN_VALUE) {
+			return Long.MIN_VALUE;
+		}
+		return hourStart + minute * 60000L + second * 1000L + millisecond;
+	}
+
+	/**
+	 * Resolve the year the way SimpleDateFormat does : two digit years of a
+	 * pattern with one or two year letters fall in the 100 years following
+	 * the default century start.
+	 * 
+	 * @return the year, 0 if it depends on the date within the year of the
+	 *         default century start.
+	 */
+	private int resolveYear(int year, int digitCount) {
+		if (yearLetterCount > 2 || digitCount != 2) {
+			return year;
+		}
+		int resolved = defaultCenturyStartYear / 100 * 100 + year;
+		if (resolved == defaultCenturyStartYear) {
+			return 0;
+		}
+		if (resolved < defaultCenturyStartYear) {
+			resolved += 100;
+		}
+		return resolved;
+	}
+
+	/**
+	 * @return the time of the start of the hour, Long.MIN_VALUE if the hour
+	 *         holds a time zone transition.
+	 */
+	private long getHourStart(int year, int month, int day, int hour) {
+		long key = (((long) year * 16 + month) * 32 + day) * 32 + hour;
+		CachedHour cached = cachedHour;
+		if (cached != null && cached.key == key) {
+			return cached.time;
+		}
+
+		Calendar calendar = new GregorianCalendar(timeZone);
+		calendar.clear();
+		calendar.set(year, month - 1, day, hour, 0, 0);
+		long time = calendar.getTimeInMillis();
+		if (calendar.get(Calendar.HOUR_OF_DAY) != hour
+				|| timeZone.getOffset(time) != timeZone.getOffset(time
+						+ MILLISECONDS_PER_HOUR - 1)) {
+			return Long.MIN_VALUE;
+		}
+		cachedHour = new CachedHour(key, time);
+		return time;
+	}
+
+	private static int daysInMonth(int year, int month) {
+		if (month == 2) {
+			boolean leapYear = year % 4 == 0
+					&& (year % 100 != 0 || year % 400 == 0);
+			return leapYear ? 29 : 28;
+		}
+		return month == 4 || month == 6 || month == 9 || month == 11 ? 30
+				: 31;
+	}
+
+	/**
+	 * Compile a pattern into tokens.
+	 * 
+	 * @param letterCount
+	 *            receives the number of letters of the year field.
+	 * @return the tokens, null if the pattern isn't supported.
+	 */
+	private static Token[] compile(String pattern, int[] letterCount) {
+		List<Token> tokens = new ArrayList<Token>();
+		boolean[] seen = new boolean[FIELD_COUNT];
+		int length = pattern.length();
+		int i = 0;
+		while (i < length) {
+			char letter = pattern.charAt(i);
+			if (letter == '\'') {
+				// quoted text isn't supported
+				return null;
+			}
+			if (!isLetter(letter)) {
+				tokens.add(new Token(-1, 0, letter));
+				++i;
+				continue;
+			}
+			int count = 1;
+			while (i + count < length && pattern.charAt(i + count) == letter) {
+				++count;
+			}
+			int field = getField(letter);
+			if (field < 0 || seen[field] || (field == MONTH && count > 2)) {
+				return null;
+			}
+			seen[field] = true;
+			if (field == YEAR) {
+				letterCount[0] = count;
+			}
+			tokens.add(new Token(field, count, '\0'));
+			i += count;
+		}
+		if (!seen[YEAR]) {
+			// SimpleDateFormat defaults to 1970, keep it simple
+			return null;
+		}
+
+		// numeric fields followed by a literal take all the digits, abutting
+		// fields have the width of their pattern
+		Token[] compiled = new Token[tokens.size()];
+		for (int t = 0; t < compiled.length; ++t) {
+			Token token = tokens.get(t);
+			boolean abutting = token.field >= 0 && t + 1 < compiled.length
+					&& tokens.get(t + 1).field >= 0;
+			compiled[t] = new Token(token.field, abutting ? token.width : 0,
+					token.literal);
+		}
+		return compiled;
+	}
+
+	private static boolean isLetter(char value) {
+		return (value >= 'a' && value <= 'z') || (value >= 'A' && value <= 'Z');
+	}
+
+	private static int getField(char letter) {
+		switch (letter) {
+		case 'y':
+			return YEAR;
+		case 'M':
+			return MONTH;
+		case 'd':
+			return DAY;
+		case 'H':
+			return HOUR;
+		case 'm':
+			return MINUTE;
+		case 's':
+			return SECOND;
+		case 'S':
+			return MILLISECOND;
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * Literal character or numeric field of a compiled pattern.
+	 */
+	private static class Token {
+
+		/**
+		 * field index, -1 for a literal
+		 */
+		private final int field;
+
+		/**
+		 * number of digits of the field, 0 to take all the digits
+		 */
+		private final int width;
+
+		private final char literal;
+
+		Token(int field, int width, char literal) {
+			this.field = field;
+			this.width = width;
+			this.literal = literal;
+		}
+	}
+
+	/**
+	 * Start time of the last parsed hour.
+	 */
+	private static class CachedHour {
+
+		private final long key;
+
+		private final long time;
+
+		CachedHour(long key, long time) {
+			this.key = key;
+			this.time = time;
+		}
+	}
+}
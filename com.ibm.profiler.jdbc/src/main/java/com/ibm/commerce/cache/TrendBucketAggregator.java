@@ -0,0 +1,295 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+/**
+ * Rolls the metrics up in fixed width time buckets per operation while they
+ * are loaded, so that the trend reports read a few rows per operation instead
+ * of grouping the METRIC table once per operation.
+ * <p>
+ * Gathered metrics are forwarded to a delegate, usually the METRIC table
+ * gatherer. A bucket is identified like the trend query did : the stop time
+ * divided by the bucket width. Each bucket keeps the call count and the
+ * minimum, maximum and total duration in primitive arrays, memory grows with
+ * the number of operations times the number of buckets, not with the number
+ * of metrics.
+ * <p>
+ * {@link #initialize(DataSource)} seeds the buckets with the metrics already
+ * in the METRIC table.
+ */
+public class TrendBucketAggregator implements DirectMetricGather {
+
+	private static final String CLASS_NAME = TrendBucketAggregator.class
+			.getName();
+
+	private static final Logger LOGGER = LoggingHelper.getLogger(CLASS_NAME);
+
+	/**
+	 * Initial number of buckets allocated per operation.
+	 */
+	private static final int INITIAL_BUCKET_CAPACITY = 64;
+
+	/**
+	 * Buckets of an operation.
+	 */
+	private static class TrendSeries {
+
+		private final LongIntHashMap slotByBucket = new LongIntHashMap(
+				INITIAL_BUCKET_CAPACITY);
+
+		private long[] buckets = new long[INITIAL_BUCKET_CAPACITY];
+
+		private long[] counts = new long[INITIAL_BUCKET_CAPACITY];
+
+		private long[] minimums = new long[INITIAL_BUCKET_CAPACITY];
+
+		private long[] maximums = new long[INITIAL_BUCKET_CAPACITY];
+
+		private long[] sums = new long[INITIAL_BUCKET_CAPACITY];
+
+		private int size = 0;
+
+		private synchronized void add(long bucket, long count, long minimum,
+				long maximum, long sum) {
+			int slot = slotByBucket.get(bucket);
+			if (slot == LongIntHashMap.NO_VALUE) {
+				if (size == buckets.length) {
+					grow();
+				}
+				slot = size++;
+				slotByBucket.put(bucket, slot);
+				buckets[slot] = bucket;
+				counts[slot] = count;
+				minimums[slot] = minimum;
+				maximums[slot] = maximum;
+				sums[slot] = sum;
+			} else {
+				counts[slot] += count;
+				minimums[slot] = Math.min(minimums[slot], minimum);
+				maximums[slot] = Math.max(maximums[slot], maximum);
+				sums[slot] += sum;
+			}
+		}
+
+		private void grow() {
+			int capacity = buckets.length * 2;
+			buckets = Arrays.copyOf(buckets, capacity);
+			counts = Arrays.copyOf(counts, capacity);
+			minimums = Arrays.copyOf(minimums, capacity);
+			maximums = Arrays.copyOf(maximums, capacity);
+			sums = Arrays.copyOf(sums, capacity);
+		}
+
+		private synchronized List<List<Object>> getRows() {
+			long[] sortedBuckets = Arrays.copyOf(buckets, size);
+			Arrays.sort(sortedBuckets);
+			List<List<Object>> rows = new ArrayList<List<Object>>(size);
+			for (long bucket : sortedBuckets) {
+				int slot = slotByBucket.get(bucket);
+				List<Object> row = new ArrayList<Object>(5);
+				row.add(Long.valueOf(bucket));
+				row.add(Long.valueOf(counts[slot]));
+				row.add(Long.valueOf(minimums[slot]));
+				row.add(Long.valueOf(sums[slot] / counts[slot]));
+				row.add(Long.valueOf(maximums[slot]));
+				rows.add(row);
+			}
+			return rows;
+		}
+	}
+
+	private final DirectMetricGather delegate;
+
+	private final long bucketWidth;
+
+	private final ConcurrentMap<String, TrendSeries> seriesMap = new ConcurrentHashMap<String, TrendSeries>();
+
+	private boolean truncatingSqlSelect = true;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param delegate
+	 *            the gatherer receiving the metrics.
+	 * @param bucketWidth
+	 *            the width of a bucket in nanoseconds.
+	 */
+	public TrendBucketAggregator(DirectMetricGather delegate, long bucketWidth) {
+		this.delegate = delegate;
+		this.bucketWidth = bucketWidth;
+	}
+
+	/**
+	 * should SQL select statements be truncated ? Must match the delegate.
+	 *
+	 * @return true if they are.
+	 */
+	public boolean isTruncatingSqlSelect() {
+		return truncatingSqlSelect;
+	}
+
+	/**
+	 * should SQL select statements be truncated ? Must match the delegate.
+	 *
+	 * @param truncatingSqlSelect
+	 *            set to true to truncate, false otherwise.
+	 */
+	public void setTruncatingSqlSelect(boolean truncatingSqlSelect) {
+		this.truncatingSqlSelect = truncatingSqlSelect;
+	}
+
+	/**
+	 * @return the width of a bucket in nanoseconds.
+	 */
+	public long getBucketWidth() {
+		return bucketWidth;
+	}
+
+	/**
+	 * Replace the buckets with the content of the METRIC table, grouped in a
+	 * single query.
+	 *
+	 * @param dataSource
+	 *            the analysis database.
+	 * @throws SQLException
+	 *             any unexpected database error.
+	 */
+	public void initialize(DataSource dataSource) throws SQLException {
+		long startTime = System.currentTimeMillis();
+		seriesMap.clear();
+
+		String bucketExpression = "(STOPTIME/" + bucketWidth + ")";
+		String select = "SELECT OPERATIONNAME, " + bucketExpression
+				+ ", count(*), MIN(DURATION), MAX(DURATION), SUM(DURATION) from METRIC group by OPERATIONNAME, "
+				+ bucketExpression;
+
+		Connection connection = null;
+		Statement statement = null;
+		ResultSet rs = null;
+		int bucketCount = 0;
+		try {
+			// $ANALYSIS-IGNORE
+			connection = dataSource.getConnection();
+			// $ANALYSIS-IGNORE
+			statement = connection.createStatement();
+			// $ANALYSIS-IGNORE
+			rs = statement.executeQuery(select);
+			while (rs.next()) {
+				String operationName = rs.getString(1);
+				if (operationName != null) {
+					getSeries(operationName).add(rs.getLong(2), rs.getLong(3),
+							rs.getLong(4), rs.getLong(5), rs.getLong(6));
+					++bucketCount;
+				}
+			}
+		} finally {
+			CacheUtilities.closeQuietly(rs);
+			CacheUtilities.closeQuietly(statement);
+			CacheUtilities.closeQuietly(connection);
+		}
+
+		long duration = System.currentTimeMillis() - startTime;
+		LOGGER.log(Level.INFO, "Took " + duration + " ms to load " + bucketCount
+				+ " trend buckets.");
+	}
+
+	@Override
+	public void gatherMetric(OperationMetric metric) {
+		delegate.gatherMetric(metric);
+
+		String operationName = DatabaseMetricGatherer.normalizeOperationName(
+				metric.getOperationName(), truncatingSqlSelect);
+		if (operationName == null) {
+			return;
+		}
+		long duration = metric.getDuration();
+		getSeries(operationName).add(metric.getStopTime() / bucketWidth, 1,
+				duration, duration, duration);
+	}
+
+	private TrendSeries getSeries(String operationName) {
+		TrendSeries series = seriesMap.get(operationName);
+		if (series == null) {
+			series = new TrendSeries();
+			TrendSeries existing = seriesMap.putIfAbsent(operationName, series);
+			if (existing != null) {
+				series = existing;
+			}
+		}
+		return series;
+	}
+
+	/**
+	 * Fetch the trend of an operation, in the format of the former trend query
+	 * : one row per bucket in ascending order holding the bucket, the call
+	 * count and the minimum, average and maximum duration.
+	 *
+	 * @param operationName
+	 *            the normalized operation name.
+	 * @return the rows, empty if the operation is unknown.
+	 */
+	public List<List<Object>> getTrend(String operationName) {
+		TrendSeries series = seriesMap.get(operationName);
+		if (series == null) {
+			return new ArrayList<List<Object>>();
+		}
+		return series.getRows();
+	}
+
+	@Override
+	public void start() {
+		delegate.start();
+	}
+
+	@Override
+	public void stop() {
+		delegate.stop();
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return delegate.isEnabled();
+	}
+
+	@Override
+	public boolean isEnabled(String marker) {
+		return delegate.isEnabled(marker);
+	}
+
+	@Override
+	public int getPendingFlushSize() {
+		return delegate.getPendingFlushSize();
+	}
+
+	@Override
+	public boolean writeMetrics() {
+		return delegate.writeMetrics();
+	}
+}
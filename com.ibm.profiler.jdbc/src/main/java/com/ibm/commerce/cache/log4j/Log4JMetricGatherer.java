@@ -268,6 +268,7 @@ public class Log4JMetricGatherer extends AbstractLogMetricGatherer {
             ctx.put(OperationMetric.FIELD_CACHE_HIT, Boolean.toString(metric.isResultFetchedFromCache()));
             ctx.put(OperationMetric.FIELD_CACHE_ENABLED, Boolean.toString(metric.isOperationCacheEnabled()));
             ctx.put(OperationMetric.FIELD_SUCCESSFUL, Boolean.toString(metric.isSuccessful()));
+            ctx.put(OperationMetric.FIELD_SAMPLING_WEIGHT, Integer.toString(metric.getSamplingWeight()));
             
             Map<String, String> properties = metric.getProperties();
             if( properties != null ) {
@@ -17,7 +17,6 @@ package com.ibm.issw.jdbc.profiler;
 
 
 import java.io.Serializable;
-import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -27,6 +26,12 @@ import java.util.Map;
 public final class JdbcEvent implements Serializable {
 
 	private static final long serialVersionUID = 7516690936155498183L;
+
+	/**
+	 * sampling weight of an execution the sampling didn't decide on yet
+	 */
+	public static final int SAMPLING_UNDECIDED = -1;
+
 	private String sqlStatement = "";
 
 	private long startTime = -1;
@@ -56,7 +61,12 @@ public final class JdbcEvent implements Serializable {
 	private String transactionId = null;
 	
 	private StackTraceElement[] stack;
-	private Map<Integer, Serializable> parameters = new HashMap<Integer, Serializable>();
+
+	private String callSite;
+
+	private int samplingWeight = SAMPLING_UNDECIDED;
+
+	private final ParameterBuffer parameters = new ParameterBuffer();
 
 	/*
 	 * (non-Javadoc)
@@ -345,12 +355,60 @@ public final class JdbcEvent implements Serializable {
 		this.stack = stack;
 	}
 
+	/**
+	 * 
+	 * getCallSite
+	 * @return the first frame outside of the JDBC wrappers, null if it wasn't
+	 *         recorded.
+	 */
+	public String getCallSite() {
+		return callSite;
+	}
+
+	/**
+	 * 
+	 * setCallSite
+	 * @param callSite the first frame outside of the JDBC wrappers
+	 */
+	public void setCallSite(String callSite) {
+		this.callSite = callSite;
+	}
+
+	/**
+	 * 
+	 * getSamplingWeight
+	 * @return the number of executions the measure of this one stands for, 0
+	 *         when the sampling skips it or {@link #SAMPLING_UNDECIDED}.
+	 */
+	public int getSamplingWeight() {
+		return samplingWeight;
+	}
+
+	/**
+	 * 
+	 * setSamplingWeight
+	 * @param samplingWeight the number of executions the measure of this one
+	 *            stands for, 0 when the sampling skips it
+	 */
+	public void setSamplingWeight(int samplingWeight) {
+		this.samplingWeight = samplingWeight;
+	}
+
 	/**
 	 * 
 	 * getParameters
-	 * @return parameters
+	 * @return a copy of the parameters, with boxed values
 	 */
 	public Map<Integer, Serializable> getParameters() {
+		return parameters.toMap();
+	}
+
+	/**
+	 * 
+	 * getParameterBuffer
+	 * @return the parameters, without boxing them
+	 */
+	public ParameterBuffer getParameterBuffer() {
 		return parameters;
 	}
 
@@ -360,7 +418,11 @@ public final class JdbcEvent implements Serializable {
 	 * @param parameters the parameters 
 	 */
 	public void setParameters(Map<Integer, Serializable> parameters) {
-		this.parameters = parameters;
+		this.parameters.clear();
+		for (Map.Entry<Integer, Serializable> entry : parameters.entrySet()) {
+			this.parameters.setObject(entry.getKey().intValue(),
+					entry.getValue());
+		}
 	}
 
 	/**
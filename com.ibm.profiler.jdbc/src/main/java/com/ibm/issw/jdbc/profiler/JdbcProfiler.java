@@ -19,14 +19,10 @@ package com.ibm.issw.jdbc.profiler;
 import java.io.Serializable;
 import java.text.NumberFormat;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -34,7 +30,6 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import com.ibm.commerce.cache.LoggingHelper;
-import com.ibm.commerce.cache.MetricFileLoader;
 import com.ibm.commerce.cache.OperationMetric;
 import com.ibm.logger.PerformanceLogger;
 import com.ibm.service.detailed.JdbcLogger;
@@ -92,6 +87,8 @@ public final class JdbcProfiler {
 	public static final String STATEMENT = "statement";
     /** operation type constant */
     public static final String TRANSACTION_ID = "transactionId";
+    /** metric property holding the first frame outside of the JDBC wrappers */
+    public static final String CALL_SITE = "callSite";
 
 	/**
 	 * Each thread contains a list of all the JDBC events that occurred after
@@ -148,7 +145,7 @@ public final class JdbcProfiler {
 				throw new IllegalArgumentException("Operation cannot be null");
 			}
 			Map<String, Long> map = OPERATION_MAP.get();
-			Long startTime = new Long(System.nanoTime());
+			Long startTime = Long.valueOf(System.nanoTime());
 			if (LOG.isLoggable(Level.FINE)) {
 				LOG.fine("Adding to operation map: " + operation + objRef + ","
 						+ startTime);
@@ -157,6 +154,21 @@ public final class JdbcProfiler {
 		}
 	}
 
+	/**
+	 * 
+	 * start an operation without keeping any per-thread state. The returned
+	 * value must be handed back to {@link #stop(String, String, long)}.
+	 * 
+	 * @return the operation start time in nanoseconds, 0 if profiling is
+	 *         disabled.
+	 */
+	public long start() {
+		if (profilingEnabled) {
+			return System.nanoTime();
+		}
+		return 0L;
+	}
+
 	/**
 	 * 
 	 * stop
@@ -175,51 +187,73 @@ public final class JdbcProfiler {
 				LOG.fine("Fetching operation for " + operation + objRef);
 			}
 			Long startTime = map.remove(operation + objRef);
-			if (LOG.isLoggable(Level.FINE)) {
-				LOG.fine("Operation " + operation + " startTime " + startTime
-						+ " endTime " + endTime);
-			}
+			stopOperation(operation, objRef, startTime.longValue(), endTime);
+		}
+	}
 
-			long operationTime = 0L;
-			operationTime = endTime - startTime.longValue();
-			
-			if (LOG.isLoggable(Level.FINE)) {
-				LOG.fine("Operation " + operation + " time ("
-						+ NumberFormat.getInstance().format(operationTime)
-						+ " ms)");
+	/**
+	 * 
+	 * stop an operation started with {@link #start()}.
+	 * 
+	 * @param operation the operation
+	 * @param objRef the reference string
+	 * @param startTime the start time returned by {@link #start()}
+	 */
+	public void stop(String operation, String objRef, long startTime) {
+		if (profilingEnabled) {
+			if (operation == null) {
+				throw new IllegalArgumentException("Operation cannot be null");
 			}
-
-			JdbcEvent event = null;
-			if (!COMMIT.equals(operation) && !OP_ROLLBACK.equals(operation)) {
-				event = getJdbcEvent(objRef);
+			long endTime = System.nanoTime();
+			if (startTime == 0L) {
+				// profiling was enabled while the operation was running.
+				return;
 			}
+			stopOperation(operation, objRef, startTime, endTime);
+		}
+	}
 
-			if (OP_PREPARE.equals(operation)) {
-				event.setPrepareTime(new Long(operationTime));
-			} else if ((OP_EXECUTE_QUERY.equals(operation))
-					|| (OP_EXECUTE_UPDATE.equals(operation))
-					|| (OP_EXECUTE_BATCH.equals(operation))) {
-				event.setExecuteTime(new Long(operationTime));
-				event.setStartTime(startTime);
-				event.setStopTime(endTime);
-				event.setThreadName(Thread.currentThread().getName());
-
-				Integer s = SEQUENCE.get();
-				s = new Integer(s.intValue() + 1);
-				SEQUENCE.set(s);
-				event.setSequence(s);
-
-			} else if (COMMIT.equals(operation)) {
-				SEQUENCE.set(Integer.valueOf(0));
-				if (LOG.isLoggable(Level.FINE)) {
-					LOG.fine("Transaction completion time " + operationTime);
-				}
-				JdbcEventManager.notifyListeners(EVENTS.getEvents());
-				clearPendingEvents();
-			} else if (OP_ROLLBACK.equals(operation)) {
-                SEQUENCE.set(Integer.valueOf(0));
-				clearPendingEvents();
+	private void stopOperation(String operation, String objRef,
+			long startTime, long endTime) {
+		if (LOG.isLoggable(Level.FINE)) {
+			LOG.fine("Operation " + operation + " startTime " + startTime
+					+ " endTime " + endTime);
+		}
+
+		long operationTime = endTime - startTime;
+
+		if (LOG.isLoggable(Level.FINE)) {
+			LOG.fine("Operation " + operation + " time ("
+					+ NumberFormat.getInstance().format(operationTime)
+					+ " ms)");
+		}
+
+		JdbcEvent event = null;
+		if (!COMMIT.equals(operation) && !OP_ROLLBACK.equals(operation)) {
+			event = getJdbcEvent(objRef);
+		}
+
+		if (OP_PREPARE.equals(operation)) {
+			event.setPrepareTime(operationTime);
+		} else if ((OP_EXECUTE_QUERY.equals(operation))
+				|| (OP_EXECUTE_UPDATE.equals(operation))
+				|| (OP_EXECUTE_BATCH.equals(operation))) {
+			event.setExecuteTime(operationTime);
+			event.setStartTime(startTime);
+			event.setStopTime(endTime);
+			event.setThreadName(Thread.currentThread().getName());
+			event.setSequence(SEQUENCE.next());
+
+		} else if (COMMIT.equals(operation)) {
+			SEQUENCE.reset();
+			if (LOG.isLoggable(Level.FINE)) {
+				LOG.fine("Transaction completion time " + operationTime);
 			}
+			JdbcEventManager.notifyListeners(EVENTS.getEvents());
+			clearPendingEvents();
+		} else if (OP_ROLLBACK.equals(operation)) {
+			SEQUENCE.reset();
+			clearPendingEvents();
 		}
 	}
 
@@ -272,11 +306,33 @@ public final class JdbcProfiler {
 	public void addSqlStatement(String sql, String objRef, String transactionId) {
 		if (profilingEnabled) {
 			JdbcEvent event = getJdbcEvent(objRef);
-			event.setSqlStatement(sql.trim());
+			String trimmedSql = sql.trim();
+			event.setSqlStatement(trimmedSql);
 			event.setTransactionId(transactionId);
+			getSamplingWeight(event, trimmedSql);
 		}
 	}
 
+	/**
+	 * Decide once per execution, before its parameters are captured, if the
+	 * statement sampling measures it.
+	 * 
+	 * @return the sampling weight of the execution, 0 when it is skipped.
+	 */
+	private static int getSamplingWeight(JdbcEvent event, String sql) {
+		int samplingWeight = event.getSamplingWeight();
+		if (samplingWeight == JdbcEvent.SAMPLING_UNDECIDED) {
+			samplingWeight = 1;
+			StatementSampling sampling = StatementSampling.getInstance();
+			if (eventMeasurementEnabled && sampling.isEnabled()) {
+				samplingWeight = sampling.sample(SqlShapeCache.getInstance()
+						.getShape(sql));
+			}
+			event.setSamplingWeight(samplingWeight);
+		}
+		return samplingWeight;
+	}
+
 	/**
 	 * 
 	 * addRowsUpdated
@@ -368,14 +424,28 @@ public final class JdbcProfiler {
 	private static AtomicLong uniqueIDincrementer = new AtomicLong();
 
 	private void measureEvent(JdbcEvent event, boolean success) {
+		int samplingWeight = event.getSamplingWeight();
+		if (samplingWeight == 0) {
+			// skipped by the sampling, unless it turned out to be slow.
+			if (event.getStartTime() == -1
+					|| !StatementSampling.getInstance().isMeasuredAnyway(
+							event.getStopTime() - event.getStartTime())) {
+				return;
+			}
+			samplingWeight = 1;
+		} else if (samplingWeight == JdbcEvent.SAMPLING_UNDECIDED) {
+			samplingWeight = 1;
+		}
+
 		OperationMetric metric = new OperationMetric();
 
-		String operationName = event.getSqlStatement();
+		SqlShape shape = SqlShapeCache.getInstance().getShape(
+				event.getSqlStatement());
 		List<String> asList = null;
 		
-		if (isSelectStatement(operationName)) {
-			asList = getOrderedParameterKeyValueArray(event.getParameters());
-			MetricFileLoader.addJdbcParameterSubstitution(operationName, asList);
+		if (shape.getKind() == StatementKind.SELECT) {
+			asList = event.getParameterBuffer().toKeyValueList();
+			asList.addAll(shape.getLiteralParameters());
 		} else {
 			// hide all the parameters for create/update/delete operations
 			String retVal = "unique " + uniqueIDincrementer.getAndIncrement();
@@ -392,7 +462,7 @@ public final class JdbcProfiler {
 		// asList.add(uniqueParameterName);
 		// }
 
-		String metricOperationName = adjustJdbcOperationName(operationName);
+		String metricOperationName = shape.getOperationName();
 		metric.startOperation(metricOperationName, false);
 		metric.setKeyValuePairList(asList);
 		
@@ -429,6 +499,11 @@ public final class JdbcProfiler {
 		if( transactionIdentifier != null ) {
 		    metric.setProperty(JdbcProfiler.TRANSACTION_ID, transactionIdentifier);
 		}
+		String callSite = event.getCallSite();
+		if( callSite != null ) {
+		    metric.setProperty(CALL_SITE, callSite);
+		}
+		metric.setSamplingWeight(samplingWeight);
 
 		JdbcLogger.GATHERER.gatherMetric(metric);
 
@@ -438,9 +513,8 @@ public final class JdbcProfiler {
 	}
 
 	public String adjustJdbcOperationName(String operationName) {
-		String parameterizedSql = MetricFileLoader.substituteJdbcParameters(operationName);
-		String metricOperationName = "JDBC : " + parameterizedSql;
-		return metricOperationName;
+		return SqlShapeCache.getInstance().getShape(operationName)
+				.getOperationName();
 	}
 
     private static final Pattern SELECT_PATTERN = Pattern.compile("[ ]*?select .*", Pattern.CASE_INSENSITIVE);
@@ -470,35 +544,6 @@ public final class JdbcProfiler {
 	// testIsSelect(" UPDATE SELECT BLAH");
 	// }
 
-	private static List<String> getOrderedParameterKeyValueArray(
-			Map<Integer, Serializable> parameterMap) {
-
-		SortedMap<Integer, Serializable> keyValueSortedMap = new TreeMap<Integer, Serializable>();
-
-		keyValueSortedMap.putAll(parameterMap);
-
-		int keyValueCount = keyValueSortedMap.size();
-		List<String> orderedParametersKeyValues = new ArrayList<String>(
-				keyValueCount * 2 + 1);
-
-		Set<Entry<Integer, Serializable>> entrySet = keyValueSortedMap
-				.entrySet();
-		for (Entry<Integer, Serializable> entry : entrySet) {
-			orderedParametersKeyValues.add(entry.getKey().toString());
-			Serializable value = entry.getValue();
-			String stringValue = null;
-			if (value != null) {
-				if (value.getClass().isArray()) {
-					stringValue = Arrays.deepToString((Object[]) value);
-				} else {
-					stringValue = value.toString();
-				}
-			}
-			orderedParametersKeyValues.add(stringValue);
-		}
-		return orderedParametersKeyValues;
-	}
-
 	/**
 	 * 
 	 * setStatementType
@@ -526,6 +571,9 @@ public final class JdbcProfiler {
 			event.setStack(new StackTraceElement[stack.length - 2]);
 			System.arraycopy(stack, 2, event.getStack(), 0,
 					event.getStack().length);
+		} else if (profilingEnabled
+				&& SlowQueryCapture.getInstance().isEnabled()) {
+			SlowQueryCapture.getInstance().capture(getJdbcEvent(objRef));
 		}
 	}
 
@@ -538,26 +586,74 @@ public final class JdbcProfiler {
 	 * @param objRef the execution reference
 	 */
 	public void addSetData(int index, Object data, String objRef) {
-		final String methodName = "addSetData(int index, Object data, String objRef)";
-		if (profilingEnabled) {
+		if (profilingEnabled && isParameterCaptureEnabled()) {
 			JdbcEvent event = getJdbcEvent(objRef);
-			Serializable serializableData = null;
-			if (data == null) {
-				serializableData = "null";
-			} else if ((data instanceof Serializable)) {
-				serializableData = (Serializable) data;
-			} else {
-				serializableData = "unserializable:?";
-				try {
-					serializableData = "unserializable:" + data.toString();
-				} catch (Throwable ex) {
-					LoggingHelper.logUnexpectedException(LOG, CLASSNAME,
-							methodName, ex);
-				}
+			event.getParameterBuffer().setObject(index,
+					toSerializableParameter(data));
+		}
+	}
+
+	/**
+	 * 
+	 * toSerializableParameter
+	 * 
+	 * @param data the parameter value
+	 * @return the value to capture for the parameter
+	 */
+	public static Serializable toSerializableParameter(Object data) {
+		final String methodName = "toSerializableParameter(Object data)";
+		Serializable serializableData = null;
+		if (data == null) {
+			serializableData = "null";
+		} else if ((data instanceof Serializable)) {
+			serializableData = (Serializable) data;
+		} else {
+			serializableData = "unserializable:?";
+			try {
+				serializableData = "unserializable:" + data.toString();
+			} catch (Throwable ex) {
+				LoggingHelper.logUnexpectedException(LOG, CLASSNAME,
+						methodName, ex);
 			}
+		}
+		return serializableData;
+	}
 
-			event.getParameters().put(Integer.valueOf(index), serializableData);
+	/**
+	 * 
+	 * getParameterBuffer
+	 * 
+	 * @param objRef the execution reference
+	 * @param sql the statement about to be executed
+	 * @return the buffer to store the parameters of the execution in, null
+	 *         when no parameter needs to be captured.
+	 */
+	public ParameterBuffer getParameterBuffer(String objRef, String sql) {
+		if (profilingEnabled && isParameterCaptureEnabled()) {
+			JdbcEvent event = getJdbcEvent(objRef);
+			// only the metric gatherer can do without the parameters of an
+			// execution skipped by the sampling.
+			if (eventListeningEnabled
+					|| SlowQueryCapture.getInstance().isEnabled()
+					|| getSamplingWeight(event, sql.trim()) != 0) {
+				return event.getParameterBuffer();
+			}
 		}
+		return null;
+	}
+
+	/**
+	 * 
+	 * isParameterCaptureEnabled
+	 * 
+	 * @return true if an enabled consumer uses the parameters : the event
+	 *         listeners, an enabled JDBC metric gatherer or the slow query
+	 *         capture.
+	 */
+	public static boolean isParameterCaptureEnabled() {
+		return eventListeningEnabled
+				|| (eventMeasurementEnabled && JdbcLogger.isLoggable())
+				|| SlowQueryCapture.getInstance().isEnabled();
 	}
 
 	/**
@@ -636,15 +732,35 @@ public final class JdbcProfiler {
 		}
 	}
 
-	private static final class SequenceThreadLocal extends ThreadLocal<Integer> {
+	private static final class SequenceThreadLocal extends ThreadLocal<int[]> {
 		/*
 		 * (non-Javadoc)
 		 * 
 		 * @see java.lang.ThreadLocal#initialValue()
 		 */
 		@Override
-        protected Integer initialValue() {
-			return Integer.valueOf(0);
+        protected int[] initialValue() {
+			return new int[1];
+		}
+
+		/**
+		 * 
+		 * next
+		 * 
+		 * @return the next sequence number of the current thread
+		 */
+		public int next() {
+			int[] sequence = get();
+			sequence[0]++;
+			return sequence[0];
+		}
+
+		/**
+		 * 
+		 * reset
+		 */
+		public void reset() {
+			get()[0] = 0;
 		}
 	}
 
@@ -0,0 +1,325 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.issw.jdbc.profiler;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 
+ * ParameterBuffer : parameters of a statement execution, stored in parallel
+ * arrays indexed by parameter position. Primitive values are kept unboxed and
+ * values are only turned into strings when a gatherer asks for them. Index -1
+ * holds the size of a batch.
+ */
+public final class ParameterBuffer implements Serializable {
+
+	private static final long serialVersionUID = -5418347624810276361L;
+
+	private static final byte EMPTY = 0;
+
+	private static final byte BOOLEAN = 1;
+
+	private static final byte BYTE = 2;
+
+	private static final byte SHORT = 3;
+
+	private static final byte INT = 4;
+
+	private static final byte LONG = 5;
+
+	private static final byte FLOAT = 6;
+
+	private static final byte DOUBLE = 7;
+
+	private static final byte OBJECT = 8;
+
+	private static final byte STRING = 9;
+
+	private static final int FIRST_INDEX = -1;
+
+	private static final int INITIAL_CAPACITY = 8;
+
+	private byte[] types;
+
+	private long[] longValues;
+
+	private double[] doubleValues;
+
+	private Serializable[] objectValues;
+
+	private int count;
+
+	/**
+	 * 
+	 * setBoolean
+	 * 
+	 * @param index the parameter index
+	 * @param value the value
+	 */
+	public void setBoolean(int index, boolean value) {
+		int position = reserve(index, BOOLEAN);
+		longValues[position] = value ? 1 : 0;
+	}
+
+	/**
+	 * 
+	 * setByte
+	 * 
+	 * @param index the parameter index
+	 * @param value the value
+	 */
+	public void setByte(int index, byte value) {
+		int position = reserve(index, BYTE);
+		longValues[position] = value;
+	}
+
+	/**
+	 * 
+	 * setShort
+	 * 
+	 * @param index the parameter index
+	 * @param value the value
+	 */
+	public void setShort(int index, short value) {
+		int position = reserve(index, SHORT);
+		longValues[position] = value;
+	}
+
+	/**
+	 * 
+	 * setInt
+	 * 
+	 * @param index the parameter index
+	 * @param value the value
+	 */
+	public void setInt(int index, int value) {
+		int position = reserve(index, INT);
+		longValues[position] = value;
+	}
+
+	/**
+	 * 
+	 * setLong
+	 * 
+	 * @param index the parameter index
+	 * @param value the value
+	 */
+	public void setLong(int index, long value) {
+		int position = reserve(index, LONG);
+		longValues[position] = value;
+	}
+
+	/**
+	 * 
+	 * setFloat
+	 * 
+	 * @param index the parameter index
+	 * @param value the value
+	 */
+	public void setFloat(int index, float value) {
+		int position = reserve(index, FLOAT);
+		doubleValues[position] = value;
+	}
+
+	/**
+	 * 
+	 * setDouble
+	 * 
+	 * @param index the parameter index
+	 * @param value the value
+	 */
+	public void setDouble(int index, double value) {
+		int position = reserve(index, DOUBLE);
+		doubleValues[position] = value;
+	}
+
+	/**
+	 * 
+	 * setObject
+	 * 
+	 * @param index the parameter index
+	 * @param value the value
+	 */
+	public void setObject(int index, Serializable value) {
+		int position = reserve(index, OBJECT);
+		objectValues[position] = value;
+	}
+
+	/**
+	 * 
+	 * setString : store a string parameter, rendered between quotes.
+	 * 
+	 * @param index the parameter index
+	 * @param value the value
+	 */
+	public void setString(int index, String value) {
+		int position = reserve(index, STRING);
+		objectValues[position] = value;
+	}
+
+	private int reserve(int index, byte type) {
+		int position = index - FIRST_INDEX;
+		if (position < 0) {
+			throw new IllegalArgumentException("Invalid parameter index : "
+					+ index);
+		}
+		if (types == null) {
+			int capacity = Math.max(INITIAL_CAPACITY, position + 1);
+			types = new byte[capacity];
+			longValues = new long[capacity];
+			doubleValues = new double[capacity];
+			objectValues = new Serializable[capacity];
+		} else if (position >= types.length) {
+			int capacity = Math.max(types.length * 2, position + 1);
+			types = Arrays.copyOf(types, capacity);
+			longValues = Arrays.copyOf(longValues, capacity);
+			doubleValues = Arrays.copyOf(doubleValues, capacity);
+			objectValues = Arrays.copyOf(objectValues, capacity);
+		}
+		if (types[position] == EMPTY) {
+			++count;
+		} else if (types[position] >= OBJECT) {
+			objectValues[position] = null;
+		}
+		types[position] = type;
+		return position;
+	}
+
+	/**
+	 * @return the number of parameters set.
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Remove all the parameters.
+	 */
+	public void clear() {
+		if (count > 0) {
+			Arrays.fill(types, EMPTY);
+			Arrays.fill(objectValues, null);
+			count = 0;
+		}
+	}
+
+	/**
+	 * @param index the parameter index
+	 * @return the boxed parameter value, null if it isn't set.
+	 */
+	public Serializable get(int index) {
+		int position = index - FIRST_INDEX;
+		if (types == null || position < 0 || position >= types.length) {
+			return null;
+		}
+		switch (types[position]) {
+		case BOOLEAN:
+			return Boolean.valueOf(longValues[position] != 0);
+		case BYTE:
+			return Byte.valueOf((byte) longValues[position]);
+		case SHORT:
+			return Short.valueOf((short) longValues[position]);
+		case INT:
+			return Integer.valueOf((int) longValues[position]);
+		case LONG:
+			return Long.valueOf(longValues[position]);
+		case FLOAT:
+			return Float.valueOf((float) doubleValues[position]);
+		case DOUBLE:
+			return Double.valueOf(doubleValues[position]);
+		case OBJECT:
+			return objectValues[position];
+		case STRING:
+			return "'" + objectValues[position] + "'";
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * @return the parameters in a map, boxing every value.
+	 */
+	public Map<Integer, Serializable> toMap() {
+		Map<Integer, Serializable> map = new HashMap<Integer, Serializable>();
+		if (types != null) {
+			for (int position = 0; position < types.length; ++position) {
+				if (types[position] != EMPTY) {
+					int index = position + FIRST_INDEX;
+					map.put(Integer.valueOf(index), get(index));
+				}
+			}
+		}
+		return map;
+	}
+
+	/**
+	 * 
+	 * toKeyValueList
+	 * 
+	 * @return the parameter indexes and values as strings, in index order.
+	 */
+	public List<String> toKeyValueList() {
+		List<String> keyValues = new ArrayList<String>(count * 2 + 1);
+		if (types != null) {
+			for (int position = 0; position < types.length; ++position) {
+				byte type = types[position];
+				if (type == EMPTY) {
+					continue;
+				}
+				keyValues.add(Integer.toString(position + FIRST_INDEX));
+				keyValues.add(toString(position, type));
+			}
+		}
+		return keyValues;
+	}
+
+	private String toString(int position, byte type) {
+		switch (type) {
+		case BOOLEAN:
+			return Boolean.toString(longValues[position] != 0);
+		case BYTE:
+		case SHORT:
+		case INT:
+		case LONG:
+			return Long.toString(longValues[position]);
+		case FLOAT:
+			return Float.toString((float) doubleValues[position]);
+		case DOUBLE:
+			return Double.toString(doubleValues[position]);
+		case STRING:
+			return "'" + objectValues[position] + "'";
+		default:
+			Serializable value = objectValues[position];
+			if (value == null) {
+				return null;
+			}
+			if (value instanceof Object[]) {
+				return Arrays.deepToString((Object[]) value);
+			}
+			if (value.getClass().isArray()) {
+				// primitive array
+				String wrapped = Arrays.deepToString(new Object[] { value });
+				return wrapped.substring(1, wrapped.length() - 1);
+			}
+			return value.toString();
+		}
+	}
+}
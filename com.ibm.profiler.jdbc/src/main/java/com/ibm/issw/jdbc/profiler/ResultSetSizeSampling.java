@@ -0,0 +1,194 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.issw.jdbc.profiler;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.ObjectName;
+
+import com.ibm.commerce.cache.LoggingHelper;
+import com.ibm.logger.PerformanceLogger;
+import com.ibm.logger.PerformanceLoggerManager;
+
+/**
+ * 
+ * ResultSetSizeSampling : controls how much of a result set is measured when
+ * result set sizes are measured. The first rows of a result set are always
+ * measured, then one row in the sample interval, and the size of the rows
+ * that weren't measured is extrapolated from the measured ones. Result sets
+ * made only of fixed width columns can instead be sized from their metadata,
+ * without measuring any cell. The default interval of 1 measures every row.
+ */
+public final class ResultSetSizeSampling implements
+		ResultSetSizeSamplingMXBean {
+
+	private static final String PROPERTY_SAMPLE_INTERVAL = "com.ibm.issw.jdbc.profiler.resultSetSizeSampleInterval";
+
+	private static final String PROPERTY_FIRST_MEASURED_ROW_COUNT = "com.ibm.issw.jdbc.profiler.resultSetSizeFirstMeasuredRowCount";
+
+	private static final String PROPERTY_METADATA_ESTIMATE_ENABLED = "com.ibm.issw.jdbc.profiler.resultSetSizeMetadataEstimateEnabled";
+
+	private static final int DEFAULT_FIRST_MEASURED_ROW_COUNT = 10;
+
+	private static final String CLASSNAME = ResultSetSizeSampling.class
+			.getName();
+
+	private static final Logger LOG = Logger.getLogger(CLASSNAME);
+
+	private static final ResultSetSizeSampling INSTANCE = new ResultSetSizeSampling();
+
+	static {
+		INSTANCE.setSampleInterval(PerformanceLogger.parseIntegerProperty(
+				PROPERTY_SAMPLE_INTERVAL, 1));
+		INSTANCE.setFirstMeasuredRowCount(PerformanceLogger
+				.parseIntegerProperty(PROPERTY_FIRST_MEASURED_ROW_COUNT,
+						DEFAULT_FIRST_MEASURED_ROW_COUNT));
+		INSTANCE.setMetadataEstimateEnabled(PerformanceLogger
+				.parseBooleanProperty(PROPERTY_METADATA_ESTIMATE_ENABLED,
+						false));
+		INSTANCE.register();
+	}
+
+	private volatile int sampleInterval = 1;
+
+	private volatile int firstMeasuredRowCount = DEFAULT_FIRST_MEASURED_ROW_COUNT;
+
+	private volatile boolean metadataEstimateEnabled;
+
+	/**
+	 * sample intervals by parameterized SQL
+	 */
+	private final Map<String, Integer> shapeSampleIntervals = new ConcurrentHashMap<String, Integer>();
+
+	/**
+	 * 
+	 * getInstance
+	 * 
+	 * @return the sampling shared by the JDBC wrappers.
+	 */
+	public static ResultSetSizeSampling getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @return the JMX object name of the shared sampling.
+	 */
+	public static ObjectName getObjectName() {
+		try {
+			return new ObjectName(PerformanceLoggerManager.JMX_DOMAIN
+					+ ":JdbcProfiler=ResultSetSizeSampling");
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void register() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+					getObjectName());
+		} catch (InstanceAlreadyExistsException e) {
+			// another class loader already exposed its own sampling.
+			LOG.log(Level.FINE, "Result set size sampling already registered",
+					e);
+		} catch (Exception e) {
+			LoggingHelper.logUnexpectedException(LOG, CLASSNAME, "register",
+					e);
+		}
+	}
+
+	/**
+	 * 
+	 * getSampleInterval
+	 * 
+	 * @param sql the SQL of the result set
+	 * @return the sample interval of the statement shape.
+	 */
+	public int getSampleInterval(String sql) {
+		if (sql != null && !shapeSampleIntervals.isEmpty()) {
+			Integer interval = shapeSampleIntervals.get(SqlShapeCache
+					.getInstance().getShape(sql).getParameterizedSql());
+			if (interval != null) {
+				return interval.intValue();
+			}
+		}
+		return sampleInterval;
+	}
+
+	@Override
+	public int getSampleInterval() {
+		return sampleInterval;
+	}
+
+	@Override
+	public void setSampleInterval(int sampleInterval) {
+		this.sampleInterval = checkSampleInterval(sampleInterval);
+	}
+
+	private static int checkSampleInterval(int sampleInterval) {
+		if (sampleInterval < 1) {
+			throw new IllegalArgumentException(
+					"Sample interval must be at least 1");
+		}
+		return sampleInterval;
+	}
+
+	@Override
+	public int getFirstMeasuredRowCount() {
+		return firstMeasuredRowCount;
+	}
+
+	@Override
+	public void setFirstMeasuredRowCount(int firstMeasuredRowCount) {
+		if (firstMeasuredRowCount < 0) {
+			throw new IllegalArgumentException(
+					"First measured row count can't be negative");
+		}
+		this.firstMeasuredRowCount = firstMeasuredRowCount;
+	}
+
+	@Override
+	public boolean isMetadataEstimateEnabled() {
+		return metadataEstimateEnabled;
+	}
+
+	@Override
+	public void setMetadataEstimateEnabled(boolean metadataEstimateEnabled) {
+		this.metadataEstimateEnabled = metadataEstimateEnabled;
+	}
+
+	@Override
+	public Map<String, Integer> getShapeSampleIntervals() {
+		return new HashMap<String, Integer>(shapeSampleIntervals);
+	}
+
+	@Override
+	public void setShapeSampleInterval(String sql, int sampleInterval) {
+		String parameterizedSql = SqlShapeCache.getInstance().getShape(sql)
+				.getParameterizedSql();
+		if (sampleInterval == 0) {
+			shapeSampleIntervals.remove(parameterizedSql);
+		} else {
+			shapeSampleIntervals.put(parameterizedSql,
+					Integer.valueOf(checkSampleInterval(sampleInterval)));
+		}
+	}
+}
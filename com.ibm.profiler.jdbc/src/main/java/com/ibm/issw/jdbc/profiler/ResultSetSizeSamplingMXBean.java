@@ -0,0 +1,73 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.issw.jdbc.profiler;
+
+import java.util.Map;
+
+/**
+ * 
+ * JMX view of the result set size sampling.
+ */
+public interface ResultSetSizeSamplingMXBean {
+
+	/**
+	 * @return one row in this many is measured after the first rows, 1 to
+	 *         measure every row.
+	 */
+	public int getSampleInterval();
+
+	/**
+	 * @param sampleInterval one row in this many is measured after the first
+	 *            rows, 1 to measure every row.
+	 */
+	public void setSampleInterval(int sampleInterval);
+
+	/**
+	 * @return the number of rows always measured at the start of a result set.
+	 */
+	public int getFirstMeasuredRowCount();
+
+	/**
+	 * @param firstMeasuredRowCount the number of rows always measured at the
+	 *            start of a result set.
+	 */
+	public void setFirstMeasuredRowCount(int firstMeasuredRowCount);
+
+	/**
+	 * @return true if result sets made only of fixed width columns are sized
+	 *         from their metadata.
+	 */
+	public boolean isMetadataEstimateEnabled();
+
+	/**
+	 * @param metadataEstimateEnabled true to size result sets made only of
+	 *            fixed width columns from their metadata.
+	 */
+	public void setMetadataEstimateEnabled(boolean metadataEstimateEnabled);
+
+	/**
+	 * @return the sample intervals of the statement shapes that override the
+	 *         default, by parameterized SQL.
+	 */
+	public Map<String, Integer> getShapeSampleIntervals();
+
+	/**
+	 * @param sql a statement of the shape
+	 * @param sampleInterval the sample interval of the shape, 0 to use the
+	 *            default.
+	 */
+	public void setShapeSampleInterval(String sql, int sampleInterval);
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.issw.jdbc.profiler;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.ObjectName;
+
+import com.ibm.commerce.cache.LoggingHelper;
+import com.ibm.logger.PerformanceLogger;
+import com.ibm.logger.PerformanceLoggerManager;
+
+/**
+ * 
+ * ResultSetTracking : how the statement wrappers keep track of the result
+ * sets they return.
+ * <p>
+ * A statement only holds the result sets that are still open, the ones closed
+ * by the application are dropped on the next execution. Result sets the
+ * application didn't close, either because the driver closed them when the
+ * statement executed again or because the statement was closed first, are
+ * ended by the statement and counted here by SQL shape, so that leaks can be
+ * found without holding on to the result sets.
+ * <p>
+ * When wrapper reuse is enabled, a statement reuses the wrapper of its last
+ * closed result set for the next one, so executing a statement in a loop
+ * doesn't allocate a wrapper. A reused wrapper stays the same object : an
+ * application that keeps using a result set after closing it would then act
+ * on the statement's newer result set, which is why reuse is off by default.
+ */
+public final class ResultSetTracking implements ResultSetTrackingMXBean {
+
+	private static final String PROPERTY_WRAPPER_REUSE_ENABLED = "com.ibm.issw.jdbc.profiler.resultSetWrapperReuseEnabled";
+
+	private static final String CLASSNAME = ResultSetTracking.class.getName();
+
+	private static final Logger LOG = Logger.getLogger(CLASSNAME);
+
+	private static final ResultSetTracking INSTANCE = new ResultSetTracking();
+
+	static {
+		INSTANCE.setWrapperReuseEnabled(PerformanceLogger.parseBooleanProperty(
+				PROPERTY_WRAPPER_REUSE_ENABLED, false));
+		INSTANCE.register();
+	}
+
+	private volatile boolean wrapperReuseEnabled;
+
+	/**
+	 * unclosed result set counts by parameterized SQL
+	 */
+	private final ConcurrentHashMap<String, AtomicLong> unclosedCounts = new ConcurrentHashMap<String, AtomicLong>();
+
+	private final AtomicLong unclosedCount = new AtomicLong();
+
+	/**
+	 * 
+	 * getInstance
+	 * 
+	 * @return the tracking shared by the JDBC wrappers.
+	 */
+	public static ResultSetTracking getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @return the JMX object name of the shared tracking.
+	 */
+	public static ObjectName getObjectName() {
+		try {
+			return new ObjectName(PerformanceLoggerManager.JMX_DOMAIN
+					+ ":JdbcProfiler=ResultSetTracking");
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void register() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+					getObjectName());
+		} catch (InstanceAlreadyExistsException e) {
+			// another class loader already exposed its own tracking.
+			LOG.log(Level.FINE, "Result set tracking already registered", e);
+		} catch (Exception e) {
+			LoggingHelper.logUnexpectedException(LOG, CLASSNAME, "register",
+					e);
+		}
+	}
+
+	/**
+	 * 
+	 * reportUnclosedResultSet
+	 * 
+	 * @param sql the SQL of a result set ended without being closed by the
+	 *            application
+	 */
+	public void reportUnclosedResultSet(String sql) {
+		String parameterizedSql = SqlShapeCache.getInstance().getShape(
+				sql == null ? "" : sql).getParameterizedSql();
+		AtomicLong count = unclosedCounts.get(parameterizedSql);
+		if (count == null) {
+			AtomicLong newCount = new AtomicLong();
+			count = unclosedCounts.putIfAbsent(parameterizedSql, newCount);
+			if (count == null) {
+				count = newCount;
+				LOG.log(Level.INFO,
+						"Result set not closed by the application : "
+								+ parameterizedSql
+								+ ". Future occurrences are counted in the "
+								+ CLASSNAME + " MBean.");
+			}
+		}
+		count.incrementAndGet();
+		unclosedCount.incrementAndGet();
+	}
+
+	@Override
+	public boolean isWrapperReuseEnabled() {
+		return wrapperReuseEnabled;
+	}
+
+	@Override
+	public void setWrapperReuseEnabled(boolean wrapperReuseEnabled) {
+		this.wrapperReuseEnabled = wrapperReuseEnabled;
+	}
+
+	@Override
+	public Map<String, Long> getUnclosedResultSetCounts() {
+		Map<String, Long> counts = new HashMap<String, Long>();
+		for (Map.Entry<String, AtomicLong> entry : unclosedCounts.entrySet()) {
+			counts.put(entry.getKey(), Long.valueOf(entry.getValue().get()));
+		}
+		return counts;
+	}
+
+	@Override
+	public long getUnclosedResultSetCount() {
+		return unclosedCount.get();
+	}
+
+	@Override
+	public void clear() {
+		unclosedCounts.clear();
+		unclosedCount.set(0);
+	}
+}
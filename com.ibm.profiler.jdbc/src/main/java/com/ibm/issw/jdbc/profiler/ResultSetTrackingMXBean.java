@@ -0,0 +1,54 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.issw.jdbc.profiler;
+
+import java.util.Map;
+
+/**
+ * 
+ * JMX view of the result set tracking.
+ */
+public interface ResultSetTrackingMXBean {
+
+	/**
+	 * @return true if a statement reuses the wrapper of its last closed
+	 *         result set.
+	 */
+	public boolean isWrapperReuseEnabled();
+
+	/**
+	 * @param wrapperReuseEnabled true to let a statement reuse the wrapper of
+	 *            its last closed result set.
+	 */
+	public void setWrapperReuseEnabled(boolean wrapperReuseEnabled);
+
+	/**
+	 * @return the number of result sets ended without being closed by the
+	 *         application, by parameterized SQL.
+	 */
+	public Map<String, Long> getUnclosedResultSetCounts();
+
+	/**
+	 * @return the total number of result sets ended without being closed by
+	 *         the application.
+	 */
+	public long getUnclosedResultSetCount();
+
+	/**
+	 * Clear the unclosed result set counts.
+	 */
+	public void clear();
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.issw.jdbc.profiler;
+
+/**
+ * 
+ * SlowQuery : a statement execution that went over the slow query threshold,
+ * with the stack that executed it.
+ */
+public final class SlowQuery {
+
+	private final long timestamp;
+
+	private final long duration;
+
+	private final String sql;
+
+	private final String parameters;
+
+	private final String threadName;
+
+	private final String callSite;
+
+	private final String[] stack;
+
+	/**
+	 * ctor
+	 * 
+	 * @param timestamp the time the execution completed, in milliseconds
+	 * @param duration the execution duration in milliseconds
+	 * @param sql the executed SQL
+	 * @param parameters the statement parameters
+	 * @param threadName the executing thread
+	 * @param callSite the first frame outside of the JDBC wrappers
+	 * @param stack the stack frames outside of the JDBC wrappers
+	 */
+	public SlowQuery(long timestamp, long duration, String sql,
+			String parameters, String threadName, String callSite,
+			String[] stack) {
+		this.timestamp = timestamp;
+		this.duration = duration;
+		this.sql = sql;
+		this.parameters = parameters;
+		this.threadName = threadName;
+		this.callSite = callSite;
+		this.stack = stack;
+	}
+
+	/**
+	 * @return the time the execution completed, in milliseconds
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return the execution duration in milliseconds
+	 */
+	public long getDuration() {
+		return duration;
+	}
+
+	/**
+	 * @return the executed SQL
+	 */
+	public String getSql() {
+		return sql;
+	}
+
+	/**
+	 * @return the statement parameters
+	 */
+	public String getParameters() {
+		return parameters;
+	}
+
+	/**
+	 * @return the executing thread
+	 */
+	public String getThreadName() {
+		return threadName;
+	}
+
+	/**
+	 * @return the first frame outside of the JDBC wrappers
+	 */
+	public String getCallSite() {
+		return callSite;
+	}
+
+	/**
+	 * @return the stack frames outside of the JDBC wrappers
+	 */
+	public String[] getStack() {
+		return stack.clone();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "SlowQuery [duration=" + duration + ", callSite=" + callSite
+				+ ", sql=" + sql + ", parameters=" + parameters + "]";
+	}
+}
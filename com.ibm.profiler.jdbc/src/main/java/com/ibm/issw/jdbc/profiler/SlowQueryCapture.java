@@ -0,0 +1,322 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.issw.jdbc.profiler;
+
+import java.lang.StackWalker.StackFrame;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.ObjectName;
+
+import com.ibm.commerce.cache.LoggingHelper;
+import com.ibm.logger.PerformanceLogger;
+import com.ibm.logger.PerformanceLoggerManager;
+
+/**
+ * 
+ * SlowQueryCapture : records where statements are executed from without the
+ * cost of a full stack trace. Every execution gets a call site, the first
+ * frame outside of the JDBC wrappers found within a few frames. Executions
+ * over the threshold also get their full stack and are kept, with their SQL
+ * and parameters, in a ring of the last slow executions.
+ */
+public final class SlowQueryCapture implements SlowQueryCaptureMXBean {
+
+	private static final String PROPERTY_ENABLED = "com.ibm.issw.jdbc.profiler.slowQueryCaptureEnabled";
+
+	private static final String PROPERTY_THRESHOLD = "com.ibm.issw.jdbc.profiler.slowQueryThreshold";
+
+	private static final String PROPERTY_CAPACITY = "com.ibm.issw.jdbc.profiler.slowQueryCapacity";
+
+	private static final String PROPERTY_CALL_SITE_DEPTH = "com.ibm.issw.jdbc.profiler.callSiteDepth";
+
+	private static final int DEFAULT_THRESHOLD = 1000;
+
+	private static final int DEFAULT_CAPACITY = 100;
+
+	private static final int DEFAULT_CALL_SITE_DEPTH = 16;
+
+	private static final String WRAPPER_PACKAGE = "com.ibm.issw.jdbc.wrappers.";
+
+	private static final String PROFILER_CLASSNAME = JdbcProfiler.class
+			.getName();
+
+	private static final String CLASSNAME = SlowQueryCapture.class.getName();
+
+	private static final Logger LOG = Logger.getLogger(CLASSNAME);
+
+	private static final StackWalker WALKER = StackWalker.getInstance();
+
+	private static final SlowQueryCapture INSTANCE = new SlowQueryCapture();
+
+	static {
+		INSTANCE.setThreshold(PerformanceLogger.parseIntegerProperty(
+				PROPERTY_THRESHOLD, DEFAULT_THRESHOLD));
+		INSTANCE.setCapacity(PerformanceLogger.parseIntegerProperty(
+				PROPERTY_CAPACITY, DEFAULT_CAPACITY));
+		INSTANCE.setCallSiteDepth(PerformanceLogger.parseIntegerProperty(
+				PROPERTY_CALL_SITE_DEPTH, DEFAULT_CALL_SITE_DEPTH));
+		INSTANCE.setEnabled(PerformanceLogger.parseBooleanProperty(
+				PROPERTY_ENABLED, false));
+		INSTANCE.register();
+	}
+
+	private volatile boolean enabled;
+
+	private volatile long threshold = TimeUnit.MILLISECONDS
+			.toNanos(DEFAULT_THRESHOLD);
+
+	private volatile int callSiteDepth = DEFAULT_CALL_SITE_DEPTH;
+
+	/**
+	 * the last slow executions, guarded by this
+	 */
+	private SlowQuery[] slowQueries = new SlowQuery[DEFAULT_CAPACITY];
+
+	/**
+	 * position of the next slow execution in the ring, guarded by this
+	 */
+	private int nextPosition;
+
+	/**
+	 * number of slow executions seen, guarded by this
+	 */
+	private long slowQueryCount;
+
+	private final Function<Stream<StackFrame>, String> callSiteFinder = new Function<Stream<StackFrame>, String>() {
+		@Override
+		public String apply(Stream<StackFrame> frames) {
+			Iterator<StackFrame> iterator = frames.limit(callSiteDepth)
+					.iterator();
+			while (iterator.hasNext()) {
+				StackFrame frame = iterator.next();
+				if (!isProfilerFrame(frame.getClassName())) {
+					return toCallSite(frame);
+				}
+			}
+			return null;
+		}
+	};
+
+	private static final Function<Stream<StackFrame>, List<StackTraceElement>> STACK_COLLECTOR = new Function<Stream<StackFrame>, List<StackTraceElement>>() {
+		@Override
+		public List<StackTraceElement> apply(Stream<StackFrame> frames) {
+			List<StackTraceElement> stack = new ArrayList<StackTraceElement>();
+			Iterator<StackFrame> iterator = frames.iterator();
+			while (iterator.hasNext()) {
+				StackFrame frame = iterator.next();
+				// skip the frames of the profiler and the wrappers on top
+				if (stack.isEmpty() && isProfilerFrame(frame.getClassName())) {
+					continue;
+				}
+				stack.add(frame.toStackTraceElement());
+			}
+			return stack;
+		}
+	};
+
+	/**
+	 * 
+	 * getInstance
+	 * 
+	 * @return the capture shared by the JDBC profiler.
+	 */
+	public static SlowQueryCapture getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @return the JMX object name of the shared capture.
+	 */
+	public static ObjectName getObjectName() {
+		try {
+			return new ObjectName(PerformanceLoggerManager.JMX_DOMAIN
+					+ ":JdbcProfiler=SlowQueryCapture");
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void register() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+					getObjectName());
+		} catch (InstanceAlreadyExistsException e) {
+			// another class loader already exposed its own capture.
+			LOG.log(Level.FINE, "Slow query capture already registered", e);
+		} catch (Exception e) {
+			LoggingHelper.logUnexpectedException(LOG, CLASSNAME, "register",
+					e);
+		}
+	}
+
+	private static boolean isProfilerFrame(String className) {
+		return className.startsWith(WRAPPER_PACKAGE)
+				|| className.equals(PROFILER_CLASSNAME)
+				|| className.startsWith(PROFILER_CLASSNAME + '$')
+				|| className.equals(CLASSNAME);
+	}
+
+	private static String toCallSite(StackFrame frame) {
+		return frame.getClassName() + '.' + frame.getMethodName() + ':'
+				+ frame.getLineNumber();
+	}
+
+	private static String toCallSite(StackTraceElement element) {
+		return element.getClassName() + '.' + element.getMethodName() + ':'
+				+ element.getLineNumber();
+	}
+
+	/**
+	 * 
+	 * capture : record the call site of an execution that just completed, on
+	 * the thread that executed it. Slow executions also get their stack and
+	 * are kept.
+	 * 
+	 * @param event the execution event
+	 */
+	public void capture(JdbcEvent event) {
+		if (event.getExecuteTime() < threshold) {
+			event.setCallSite(WALKER.walk(callSiteFinder));
+			return;
+		}
+
+		List<StackTraceElement> stack = WALKER.walk(STACK_COLLECTOR);
+		String[] frames = new String[stack.size()];
+		for (int i = 0; i < frames.length; i++) {
+			frames[i] = stack.get(i).toString();
+		}
+		String callSite = stack.isEmpty() ? null : toCallSite(stack.get(0));
+		event.setCallSite(callSite);
+		event.setStack(stack.toArray(new StackTraceElement[stack.size()]));
+
+		SlowQuery slowQuery = new SlowQuery(System.currentTimeMillis(),
+				TimeUnit.NANOSECONDS.toMillis(event.getExecuteTime()),
+				event.getSqlStatement(), formatParameters(event),
+				event.getThreadName(), callSite, frames);
+		add(slowQuery);
+	}
+
+	private static String formatParameters(JdbcEvent event) {
+		List<String> keyValues = event.getParameterBuffer().toKeyValueList();
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i + 1 < keyValues.size(); i += 2) {
+			if (i > 0) {
+				builder.append(", ");
+			}
+			builder.append(keyValues.get(i));
+			builder.append('=');
+			builder.append(keyValues.get(i + 1));
+		}
+		return builder.toString();
+	}
+
+	private synchronized void add(SlowQuery slowQuery) {
+		slowQueries[nextPosition] = slowQuery;
+		nextPosition = (nextPosition + 1) % slowQueries.length;
+		++slowQueryCount;
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	@Override
+	public long getThreshold() {
+		return TimeUnit.NANOSECONDS.toMillis(threshold);
+	}
+
+	@Override
+	public void setThreshold(long threshold) {
+		if (threshold < 0) {
+			throw new IllegalArgumentException("Threshold can't be negative");
+		}
+		this.threshold = TimeUnit.MILLISECONDS.toNanos(threshold);
+	}
+
+	@Override
+	public synchronized int getCapacity() {
+		return slowQueries.length;
+	}
+
+	@Override
+	public synchronized void setCapacity(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be at least 1");
+		}
+		List<SlowQuery> current = getSlowQueries();
+		int kept = Math.min(capacity, current.size());
+		slowQueries = new SlowQuery[capacity];
+		for (int i = 0; i < kept; i++) {
+			slowQueries[i] = current.get(current.size() - kept + i);
+		}
+		nextPosition = kept % capacity;
+	}
+
+	@Override
+	public int getCallSiteDepth() {
+		return callSiteDepth;
+	}
+
+	@Override
+	public void setCallSiteDepth(int callSiteDepth) {
+		if (callSiteDepth < 1) {
+			throw new IllegalArgumentException(
+					"Call site depth must be at least 1");
+		}
+		this.callSiteDepth = callSiteDepth;
+	}
+
+	@Override
+	public synchronized List<SlowQuery> getSlowQueries() {
+		List<SlowQuery> result = new ArrayList<SlowQuery>(slowQueries.length);
+		for (int i = 0; i < slowQueries.length; i++) {
+			SlowQuery slowQuery = slowQueries[(nextPosition + i)
+					% slowQueries.length];
+			if (slowQuery != null) {
+				result.add(slowQuery);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public synchronized long getSlowQueryCount() {
+		return slowQueryCount;
+	}
+
+	@Override
+	public synchronized void clear() {
+		Arrays.fill(slowQueries, null);
+		nextPosition = 0;
+		slowQueryCount = 0;
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.issw.jdbc.profiler;
+
+import java.util.List;
+
+/**
+ * 
+ * JMX view of the slow query capture.
+ */
+public interface SlowQueryCaptureMXBean {
+
+	/**
+	 * @return true if call sites are recorded and slow executions are kept.
+	 */
+	public boolean isEnabled();
+
+	/**
+	 * @param enabled true to record call sites and keep slow executions.
+	 */
+	public void setEnabled(boolean enabled);
+
+	/**
+	 * @return the duration in milliseconds above which an execution is kept
+	 *         with its full stack.
+	 */
+	public long getThreshold();
+
+	/**
+	 * @param threshold the duration in milliseconds above which an execution
+	 *            is kept with its full stack.
+	 */
+	public void setThreshold(long threshold);
+
+	/**
+	 * @return the number of slow executions kept.
+	 */
+	public int getCapacity();
+
+	/**
+	 * @param capacity the number of slow executions kept.
+	 */
+	public void setCapacity(int capacity);
+
+	/**
+	 * @return the maximum number of frames walked to find a call site.
+	 */
+	public int getCallSiteDepth();
+
+	/**
+	 * @param callSiteDepth the maximum number of frames walked to find a call
+	 *            site.
+	 */
+	public void setCallSiteDepth(int callSiteDepth);
+
+	/**
+	 * @return the last slow executions, oldest first.
+	 */
+	public List<SlowQuery> getSlowQueries();
+
+	/**
+	 * @return the number of slow executions seen since the last clear.
+	 */
+	public long getSlowQueryCount();
+
+	/**
+	 * Forget the slow executions.
+	 */
+	public void clear();
+}
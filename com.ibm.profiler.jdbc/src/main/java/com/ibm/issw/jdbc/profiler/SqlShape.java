@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.issw.jdbc.profiler;
+
+import java.util.List;
+
+/**
+ * 
+ * SqlShape : the normalized form of a raw SQL statement. Instances are
+ * immutable and shared by every execution of the same SQL text.
+ */
+public final class SqlShape {
+
+	private final String sql;
+
+	private final String parameterizedSql;
+
+	private final String operationName;
+
+	private final StatementKind kind;
+
+	private final List<String> literalParameters;
+
+	/**
+	 * ctor
+	 * 
+	 * @param sql the raw SQL
+	 * @param parameterizedSql the SQL with its literals replaced by markers
+	 * @param operationName the metric operation name
+	 * @param kind the statement kind
+	 * @param literalParameters the literal values extracted from the SQL, as
+	 *            marker name / value pairs. Must not be modified.
+	 */
+	public SqlShape(String sql, String parameterizedSql, String operationName,
+			StatementKind kind, List<String> literalParameters) {
+		this.sql = sql;
+		this.parameterizedSql = parameterizedSql;
+		this.operationName = operationName;
+		this.kind = kind;
+		this.literalParameters = literalParameters;
+	}
+
+	/**
+	 * 
+	 * getSql
+	 * 
+	 * @return the raw SQL
+	 */
+	public String getSql() {
+		return sql;
+	}
+
+	/**
+	 * 
+	 * getParameterizedSql
+	 * 
+	 * @return the SQL with its literals replaced by markers
+	 */
+	public String getParameterizedSql() {
+		return parameterizedSql;
+	}
+
+	/**
+	 * 
+	 * getOperationName
+	 * 
+	 * @return the metric operation name
+	 */
+	public String getOperationName() {
+		return operationName;
+	}
+
+	/**
+	 * 
+	 * getKind
+	 * 
+	 * @return the statement kind
+	 */
+	public StatementKind getKind() {
+		return kind;
+	}
+
+	/**
+	 * 
+	 * getLiteralParameters
+	 * 
+	 * @return the literal values extracted from the SQL, as marker name / value
+	 *         pairs.
+	 */
+	public List<String> getLiteralParameters() {
+		return literalParameters;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return kind + ":" + parameterizedSql;
+	}
+}
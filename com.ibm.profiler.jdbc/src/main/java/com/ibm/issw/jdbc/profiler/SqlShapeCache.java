@@ -0,0 +1,246 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.issw.jdbc.profiler;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.ObjectName;
+
+import com.ibm.commerce.cache.LoggingHelper;
+import com.ibm.commerce.cache.MetricFileLoader;
+import com.ibm.logger.PerformanceLogger;
+import com.ibm.logger.PerformanceLoggerManager;
+
+/**
+ * 
+ * SqlShapeCache : bounded cache from raw SQL text to its normalized shape.
+ * Applications reuse a limited number of distinct SQL strings, so the regular
+ * expressions used to normalize a statement only need to run once per
+ * distinct SQL. The cache is split in segments, each one a small LRU map
+ * guarded by its own lock.
+ */
+public final class SqlShapeCache implements SqlShapeCacheMXBean {
+
+	private static final String PROPERTY_SQL_SHAPE_CACHE_SIZE = "com.ibm.issw.jdbc.profiler.sqlShapeCacheSize";
+
+	private static final int DEFAULT_MAXIMUM_SIZE = 5000;
+
+	private static final int SEGMENT_COUNT = 16;
+
+	private static final String JDBC_OPERATION_PREFIX = "JDBC : ";
+
+	private static final String CLASSNAME = SqlShapeCache.class.getName();
+
+	private static final Logger LOG = Logger.getLogger(CLASSNAME);
+
+	private static final SqlShapeCache INSTANCE = new SqlShapeCache(
+			PerformanceLogger.parseIntegerProperty(
+					PROPERTY_SQL_SHAPE_CACHE_SIZE, DEFAULT_MAXIMUM_SIZE));
+
+	static {
+		INSTANCE.register();
+	}
+
+	private final Segment[] segments = new Segment[SEGMENT_COUNT];
+
+	private volatile int maximumSize;
+
+	private final AtomicLong hitCount = new AtomicLong();
+
+	private final AtomicLong missCount = new AtomicLong();
+
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	/**
+	 * ctor
+	 * 
+	 * @param maximumSize the maximum number of shapes to keep.
+	 */
+	public SqlShapeCache(int maximumSize) {
+		setMaximumSize(maximumSize);
+		for (int i = 0; i < SEGMENT_COUNT; i++) {
+			segments[i] = new Segment();
+		}
+	}
+
+	/**
+	 * 
+	 * getInstance
+	 * 
+	 * @return the cache shared by the JDBC wrappers.
+	 */
+	public static SqlShapeCache getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @return the JMX object name of the shared cache.
+	 */
+	public static ObjectName getObjectName() {
+		try {
+			return new ObjectName(PerformanceLoggerManager.JMX_DOMAIN
+					+ ":JdbcProfiler=SqlShapeCache");
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void register() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+					getObjectName());
+		} catch (InstanceAlreadyExistsException e) {
+			// another class loader already exposed its own cache.
+			LOG.log(Level.FINE, "SQL shape cache already registered", e);
+		} catch (Exception e) {
+			LoggingHelper.logUnexpectedException(LOG, CLASSNAME, "register",
+					e);
+		}
+	}
+
+	/**
+	 * 
+	 * getShape
+	 * 
+	 * @param sql the raw SQL
+	 * @return the normalized shape of the SQL
+	 */
+	public SqlShape getShape(String sql) {
+		Segment segment = segmentFor(sql);
+		SqlShape shape;
+		synchronized (segment) {
+			shape = segment.get(sql);
+		}
+		if (shape != null) {
+			hitCount.incrementAndGet();
+			return shape;
+		}
+
+		missCount.incrementAndGet();
+		shape = createShape(sql);
+		synchronized (segment) {
+			segment.put(sql, shape);
+		}
+		return shape;
+	}
+
+	private Segment segmentFor(String sql) {
+		int hash = sql.hashCode();
+		hash ^= (hash >>> 16);
+		return segments[hash & (SEGMENT_COUNT - 1)];
+	}
+
+	private static SqlShape createShape(String sql) {
+		List<String> literals = new ArrayList<String>();
+		String parameterizedSql = MetricFileLoader.substituteJdbcParameters(
+				sql, literals);
+		return new SqlShape(sql, parameterizedSql, JDBC_OPERATION_PREFIX
+				+ parameterizedSql, StatementKind.fromSql(sql),
+				Collections.unmodifiableList(literals));
+	}
+
+	@Override
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	@Override
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	@Override
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	@Override
+	public double getHitRatio() {
+		long hits = hitCount.get();
+		long total = hits + missCount.get();
+		if (total == 0) {
+			return 0.0;
+		}
+		return (double) hits / total;
+	}
+
+	@Override
+	public int getSize() {
+		int size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	@Override
+	public int getMaximumSize() {
+		return maximumSize;
+	}
+
+	@Override
+	public void setMaximumSize(int maximumSize) {
+		if (maximumSize < SEGMENT_COUNT) {
+			throw new IllegalArgumentException(
+					"Maximum size must be at least " + SEGMENT_COUNT);
+		}
+		this.maximumSize = maximumSize;
+	}
+
+	@Override
+	public void clear() {
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+		hitCount.set(0);
+		missCount.set(0);
+		evictionCount.set(0);
+	}
+
+	/**
+	 * LRU map holding a share of the cached shapes.
+	 */
+	private final class Segment extends LinkedHashMap<String, SqlShape> {
+
+		private static final long serialVersionUID = -2838400947361237542L;
+
+		private Segment() {
+			super(16, 0.75f, true);
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, SqlShape> eldest) {
+			if (size() > maximumSize / SEGMENT_COUNT) {
+				evictionCount.incrementAndGet();
+				return true;
+			}
+			return false;
+		}
+	}
+}
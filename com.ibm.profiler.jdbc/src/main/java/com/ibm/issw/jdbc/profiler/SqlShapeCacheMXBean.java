@@ -0,0 +1,63 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.issw.jdbc.profiler;
+
+/**
+ * 
+ * JMX view of the SQL shape cache.
+ */
+public interface SqlShapeCacheMXBean {
+
+	/**
+	 * @return the number of lookups that found a cached shape.
+	 */
+	public long getHitCount();
+
+	/**
+	 * @return the number of lookups that had to normalize the SQL.
+	 */
+	public long getMissCount();
+
+	/**
+	 * @return the number of shapes evicted to respect the maximum size.
+	 */
+	public long getEvictionCount();
+
+	/**
+	 * @return the ratio of lookups that found a cached shape.
+	 */
+	public double getHitRatio();
+
+	/**
+	 * @return the number of shapes currently cached.
+	 */
+	public int getSize();
+
+	/**
+	 * @return the maximum number of shapes to keep.
+	 */
+	public int getMaximumSize();
+
+	/**
+	 * @param maximumSize the maximum number of shapes to keep.
+	 */
+	public void setMaximumSize(int maximumSize);
+
+	/**
+	 * Clear the cached shapes and the counters.
+	 */
+	public void clear();
+}
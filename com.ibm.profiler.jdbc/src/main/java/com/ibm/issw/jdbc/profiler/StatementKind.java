@@ -0,0 +1,77 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.issw.jdbc.profiler;
+
+/**
+ * 
+ * StatementKind : the kind of SQL statement, based on its first keyword.
+ */
+public enum StatementKind {
+	SELECT,
+	INSERT,
+	UPDATE,
+	DELETE,
+	CALL,
+	OTHER;
+
+	/**
+	 * 
+	 * fromSql
+	 * 
+	 * @param sql the SQL statement
+	 * @return the statement kind
+	 */
+	public static StatementKind fromSql(String sql) {
+		if (JdbcProfiler.isSelectStatement(sql)) {
+			return SELECT;
+		}
+
+		int length = sql.length();
+		int start = 0;
+		while (start < length) {
+			char c = sql.charAt(start);
+			if (c == '(' || c == '{' || Character.isWhitespace(c)) {
+				++start;
+			} else {
+				break;
+			}
+		}
+
+		if (startsWithKeyword(sql, start, "insert")) {
+			return INSERT;
+		}
+		if (startsWithKeyword(sql, start, "update")) {
+			return UPDATE;
+		}
+		if (startsWithKeyword(sql, start, "delete")) {
+			return DELETE;
+		}
+		if (startsWithKeyword(sql, start, "call")) {
+			return CALL;
+		}
+		return OTHER;
+	}
+
+	private static boolean startsWithKeyword(String sql, int start,
+			String keyword) {
+		int end = start + keyword.length();
+		if (!sql.regionMatches(true, start, keyword, 0, keyword.length())) {
+			return false;
+		}
+		return end == sql.length()
+				|| !Character.isLetterOrDigit(sql.charAt(end));
+	}
+}
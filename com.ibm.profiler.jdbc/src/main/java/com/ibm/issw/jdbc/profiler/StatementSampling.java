@@ -0,0 +1,317 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.issw.jdbc.profiler;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.ObjectName;
+
+import com.ibm.commerce.cache.LoggingHelper;
+import com.ibm.logger.PerformanceLogger;
+import com.ibm.logger.PerformanceLoggerManager;
+
+/**
+ * 
+ * StatementSampling : decides which statement executions are measured when
+ * sampling is enabled. Each statement shape has its own rate controller that
+ * measures one execution in an interval sized to keep about the target number
+ * of samples per second, so rare statements are always measured while the
+ * busiest ones only a fraction of the time. A sampled execution carries the
+ * interval as its weight so that the call counts of the statistics and of the
+ * gathered metrics remain totals.
+ * <p>
+ * The decision is taken before the execution starts, so that a skipped
+ * execution doesn't have its parameters captured nor a metric built and
+ * gathered. Skipped executions are still timed : one slower than the latency
+ * threshold is measured anyway, with a weight of 1 and without its
+ * parameters.
+ */
+public final class StatementSampling implements StatementSamplingMXBean {
+
+	private static final String PROPERTY_SAMPLING_ENABLED = "com.ibm.issw.jdbc.profiler.statementSamplingEnabled";
+
+	private static final String PROPERTY_TARGET_SAMPLE_RATE = "com.ibm.issw.jdbc.profiler.statementSamplingTargetRate";
+
+	private static final String PROPERTY_LATENCY_THRESHOLD = "com.ibm.issw.jdbc.profiler.statementSamplingLatencyThreshold";
+
+	private static final int DEFAULT_TARGET_SAMPLE_RATE = 10;
+
+	private static final int DEFAULT_LATENCY_THRESHOLD = 100;
+
+	/**
+	 * number of shapes tracked before the controllers start over
+	 */
+	private static final int MAXIMUM_SHAPE_COUNT = 5000;
+
+	/**
+	 * period over which the execution rate of a shape is measured
+	 */
+	private static final long RATE_WINDOW = TimeUnit.SECONDS.toNanos(1);
+
+	private static final String CLASSNAME = StatementSampling.class.getName();
+
+	private static final Logger LOG = Logger.getLogger(CLASSNAME);
+
+	private static final StatementSampling INSTANCE = new StatementSampling();
+
+	static {
+		INSTANCE.setTargetSampleRate(PerformanceLogger.parseIntegerProperty(
+				PROPERTY_TARGET_SAMPLE_RATE, DEFAULT_TARGET_SAMPLE_RATE));
+		INSTANCE.setLatencyThreshold(PerformanceLogger.parseIntegerProperty(
+				PROPERTY_LATENCY_THRESHOLD, DEFAULT_LATENCY_THRESHOLD));
+		INSTANCE.setEnabled(PerformanceLogger.parseBooleanProperty(
+				PROPERTY_SAMPLING_ENABLED, false));
+		INSTANCE.register();
+	}
+
+	private volatile boolean enabled;
+
+	private volatile int targetSampleRate = DEFAULT_TARGET_SAMPLE_RATE;
+
+	private volatile long latencyThreshold = TimeUnit.MILLISECONDS
+			.toNanos(DEFAULT_LATENCY_THRESHOLD);
+
+	/**
+	 * rate controllers by parameterized SQL
+	 */
+	private final ConcurrentMap<String, RateController> controllers = new ConcurrentHashMap<String, RateController>();
+
+	private final AtomicLong sampledCount = new AtomicLong();
+
+	private final AtomicLong skippedCount = new AtomicLong();
+
+	private final AtomicLong slowCount = new AtomicLong();
+
+	/**
+	 * 
+	 * getInstance
+	 * 
+	 * @return the sampling shared by the JDBC profiler.
+	 */
+	public static StatementSampling getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @return the JMX object name of the shared sampling.
+	 */
+	public static ObjectName getObjectName() {
+		try {
+			return new ObjectName(PerformanceLoggerManager.JMX_DOMAIN
+					+ ":JdbcProfiler=StatementSampling");
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void register() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+					getObjectName());
+		} catch (InstanceAlreadyExistsException e) {
+			// another class loader already exposed its own sampling.
+			LOG.log(Level.FINE, "Statement sampling already registered", e);
+		} catch (Exception e) {
+			LoggingHelper.logUnexpectedException(LOG, CLASSNAME, "register",
+					e);
+		}
+	}
+
+	/**
+	 * 
+	 * sample
+	 * 
+	 * @param shape the shape of the statement about to be executed
+	 * @return the sampling weight of the execution, 0 if it shouldn't be
+	 *         measured.
+	 */
+	public int sample(SqlShape shape) {
+		return sample(shape, System.nanoTime());
+	}
+
+	int sample(SqlShape shape, long now) {
+		RateController controller = getController(
+				shape.getParameterizedSql(), now);
+		int weight = controller.sample(now, targetSampleRate);
+		if (weight == 0) {
+			skippedCount.incrementAndGet();
+		} else {
+			sampledCount.incrementAndGet();
+		}
+		return weight;
+	}
+
+	/**
+	 * 
+	 * isMeasuredAnyway
+	 * 
+	 * @param duration the duration in nanoseconds of a skipped execution
+	 * @return true if the skipped execution is over the latency threshold and
+	 *         must be measured anyway.
+	 */
+	public boolean isMeasuredAnyway(long duration) {
+		if (duration < latencyThreshold) {
+			return false;
+		}
+		skippedCount.decrementAndGet();
+		slowCount.incrementAndGet();
+		return true;
+	}
+
+	private RateController getController(String parameterizedSql, long now) {
+		RateController controller = controllers.get(parameterizedSql);
+		if (controller == null) {
+			if (controllers.size() >= MAXIMUM_SHAPE_COUNT) {
+				controllers.clear();
+			}
+			controller = new RateController(now);
+			RateController existing = controllers.putIfAbsent(
+					parameterizedSql, controller);
+			if (existing != null) {
+				controller = existing;
+			}
+		}
+		return controller;
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	@Override
+	public int getTargetSampleRate() {
+		return targetSampleRate;
+	}
+
+	@Override
+	public void setTargetSampleRate(int targetSampleRate) {
+		if (targetSampleRate < 1) {
+			throw new IllegalArgumentException(
+					"Target sample rate must be at least 1");
+		}
+		this.targetSampleRate = targetSampleRate;
+	}
+
+	@Override
+	public long getLatencyThreshold() {
+		return TimeUnit.NANOSECONDS.toMillis(latencyThreshold);
+	}
+
+	@Override
+	public void setLatencyThreshold(long latencyThreshold) {
+		if (latencyThreshold < 0) {
+			throw new IllegalArgumentException(
+					"Latency threshold can't be negative");
+		}
+		this.latencyThreshold = TimeUnit.MILLISECONDS.toNanos(latencyThreshold);
+	}
+
+	@Override
+	public Map<String, Integer> getShapeSampleIntervals() {
+		Map<String, Integer> intervals = new HashMap<String, Integer>();
+		for (Entry<String, RateController> entry : controllers.entrySet()) {
+			intervals.put(entry.getKey(),
+					Integer.valueOf(entry.getValue().interval));
+		}
+		return intervals;
+	}
+
+	@Override
+	public long getSampledCount() {
+		return sampledCount.get();
+	}
+
+	@Override
+	public long getSkippedCount() {
+		return skippedCount.get();
+	}
+
+	@Override
+	public long getSlowCount() {
+		return slowCount.get();
+	}
+
+	@Override
+	public void clear() {
+		controllers.clear();
+		sampledCount.set(0);
+		skippedCount.set(0);
+		slowCount.set(0);
+	}
+
+	/**
+	 * Measures the execution rate of a shape and derives the interval between
+	 * two samples from it. The interval computed over a window applies to the
+	 * next one.
+	 */
+	private static final class RateController {
+
+		private final AtomicLong sequence = new AtomicLong();
+
+		private final AtomicLong windowCount = new AtomicLong();
+
+		private volatile long windowStart;
+
+		private volatile int interval = 1;
+
+		RateController(long now) {
+			windowStart = now;
+		}
+
+		int sample(long now, int targetSampleRate) {
+			windowCount.incrementAndGet();
+			long elapsed = now - windowStart;
+			if (elapsed >= RATE_WINDOW) {
+				adjustInterval(now, targetSampleRate);
+			}
+			int currentInterval = interval;
+			if (sequence.incrementAndGet() % currentInterval == 0) {
+				return currentInterval;
+			}
+			return 0;
+		}
+
+		private synchronized void adjustInterval(long now,
+				int targetSampleRate) {
+			long elapsed = now - windowStart;
+			if (elapsed < RATE_WINDOW) {
+				// another thread already started the next window.
+				return;
+			}
+			long count = windowCount.getAndSet(0);
+			double rate = count * (double) RATE_WINDOW / elapsed;
+			interval = (int) Math.max(1,
+					Math.min(Integer.MAX_VALUE, rate / targetSampleRate));
+			windowStart = now;
+		}
+	}
+}
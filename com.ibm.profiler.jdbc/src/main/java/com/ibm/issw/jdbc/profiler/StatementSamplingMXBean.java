@@ -0,0 +1,87 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.issw.jdbc.profiler;
+
+import java.util.Map;
+
+/**
+ * 
+ * JMX view of the statement sampling.
+ */
+public interface StatementSamplingMXBean {
+
+	/**
+	 * @return true if only a sample of the statement executions is measured.
+	 */
+	public boolean isEnabled();
+
+	/**
+	 * @param enabled true to measure only a sample of the statement
+	 *            executions.
+	 */
+	public void setEnabled(boolean enabled);
+
+	/**
+	 * @return the number of executions measured per second for each
+	 *         statement shape.
+	 */
+	public int getTargetSampleRate();
+
+	/**
+	 * @param targetSampleRate the number of executions measured per second for
+	 *            each statement shape.
+	 */
+	public void setTargetSampleRate(int targetSampleRate);
+
+	/**
+	 * @return the duration in milliseconds above which a skipped execution is
+	 *         measured anyway.
+	 */
+	public long getLatencyThreshold();
+
+	/**
+	 * @param latencyThreshold the duration in milliseconds above which a
+	 *            skipped execution is measured anyway.
+	 */
+	public void setLatencyThreshold(long latencyThreshold);
+
+	/**
+	 * @return the current sample interval of each statement shape, by
+	 *         parameterized SQL.
+	 */
+	public Map<String, Integer> getShapeSampleIntervals();
+
+	/**
+	 * @return the number of sampled executions that were measured.
+	 */
+	public long getSampledCount();
+
+	/**
+	 * @return the number of executions that weren't measured.
+	 */
+	public long getSkippedCount();
+
+	/**
+	 * @return the number of skipped executions measured anyway because they
+	 *         were over the latency threshold.
+	 */
+	public long getSlowCount();
+
+	/**
+	 * Forget the statement shapes and reset the counters.
+	 */
+	public void clear();
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.issw.jdbc.wrappers;
+
+import java.sql.ResultSet;
+
+import com.ibm.issw.jdbc.profiler.JdbcEvent;
+
+/**
+ * 
+ * TrackedResultSet : result set wrapper kept by its statement until it is
+ * closed.
+ */
+interface TrackedResultSet extends ResultSet {
+
+	/**
+	 * @return true once the result set was closed through the wrapper.
+	 */
+	boolean isReleased();
+
+	/**
+	 * @return the event of the result set.
+	 */
+	JdbcEvent getEvent();
+
+	/**
+	 * @return the execution reference the result set reports through.
+	 */
+	String getReference();
+}
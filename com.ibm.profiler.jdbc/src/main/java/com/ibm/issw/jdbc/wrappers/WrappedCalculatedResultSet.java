@@ -17,6 +17,7 @@ package com.ibm.issw.jdbc.wrappers;
 
 import com.ibm.issw.jdbc.profiler.JdbcEvent;
 import com.ibm.issw.jdbc.profiler.JdbcProfiler;
+import com.ibm.issw.jdbc.profiler.ResultSetSizeSampling;
 
 import java.io.InputStream;
 import java.io.Reader;
@@ -37,6 +38,7 @@ import java.sql.SQLXML;
 import java.sql.Statement;
 import java.sql.Time;
 import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.Calendar;
 import java.util.Map;
 import java.util.logging.Level;
@@ -44,9 +46,14 @@ import java.util.logging.Logger;
 
 /**
  * 
- * WrappedCalculatedResultSet
+ * WrappedCalculatedResultSet : measures the size of the cells read. The rows
+ * measured are chosen by {@link ResultSetSizeSampling}, the other rows are
+ * sized with the average of the rows measured so far and corrected with the
+ * final average when the result set is closed. The sizes are added to the
+ * event as the rows are read, so an event ended before the result set is
+ * closed still holds the bytes read.
  */
-public class WrappedCalculatedResultSet implements ResultSet {
+public class WrappedCalculatedResultSet implements TrackedResultSet {
 
 
 	private static final int DATA_CELL_OVERHEAD = 2;
@@ -60,7 +67,30 @@ public class WrappedCalculatedResultSet implements ResultSet {
 	private int rowsRead = 0;
 	private String ref;
 	private JdbcEvent event;
-	
+	private boolean released = false;
+
+	private final int sampleInterval;
+
+	private final int firstMeasuredRowCount;
+
+	/**
+	 * size of a row estimated from the metadata, -1 when the cells are measured
+	 */
+	private long metadataRowSize = -1;
+
+	private boolean rowMeasured = true;
+
+	private long measuredRowCount = 0;
+
+	private long measuredSize = 0;
+
+	private long unmeasuredRowCount = 0;
+
+	/**
+	 * size added to the event for the rows that weren't measured
+	 */
+	private long estimatedSize = 0;
+
 	/**
 	 * ctor
 	 * @param resultSet the result set
@@ -77,6 +107,82 @@ public class WrappedCalculatedResultSet implements ResultSet {
 
 		event.setReadSize(event.getReadSize() + ROW_READ_OVERHEAD);
 
+		ResultSetSizeSampling sampling = ResultSetSizeSampling.getInstance();
+		sampleInterval = sampling.getSampleInterval(event.getSqlStatement());
+		firstMeasuredRowCount = sampling.getFirstMeasuredRowCount();
+		if (sampling.isMetadataEstimateEnabled()) {
+			try {
+				metadataRowSize = estimateRowSize(resultSet.getMetaData());
+			} catch (SQLException e) {
+				LOG.log(Level.FINE, "failed to estimate the row size", e);
+			}
+			rowMeasured = metadataRowSize < 0;
+		}
+	}
+
+	@Override
+	public boolean isReleased() {
+		return released;
+	}
+
+	@Override
+	public JdbcEvent getEvent() {
+		return event;
+	}
+
+	@Override
+	public String getReference() {
+		return ref;
+	}
+
+	/**
+	 * Estimate the size of a row from the column types, the size each
+	 * getter would measure.
+	 * 
+	 * @param metaData the result set metadata
+	 * @return the row size, -1 if a column has a variable width.
+	 * @throws SQLException if the metadata can't be read
+	 */
+	public static long estimateRowSize(ResultSetMetaData metaData)
+			throws SQLException {
+		long rowSize = 0;
+		int columnCount = metaData.getColumnCount();
+		for (int column = 1; column <= columnCount; ++column) {
+			int size;
+			switch (metaData.getColumnType(column)) {
+			case Types.BIT:
+			case Types.BOOLEAN:
+			case Types.TINYINT:
+				size = 1;
+				break;
+			case Types.SMALLINT:
+				size = 2;
+				break;
+			case Types.INTEGER:
+			case Types.REAL:
+			case Types.TIMESTAMP:
+				size = 4;
+				break;
+			case Types.BIGINT:
+			case Types.FLOAT:
+			case Types.DOUBLE:
+			case Types.DATE:
+			case Types.TIME:
+				size = 8;
+				break;
+			case Types.CHAR:
+			case Types.NCHAR:
+				size = metaData.getPrecision(column);
+				if (size <= 0) {
+					return -1;
+				}
+				break;
+			default:
+				return -1;
+			}
+			rowSize += size + DATA_CELL_OVERHEAD;
+		}
+		return rowSize;
 	}
 	/*
 	 * (non-Javadoc)
@@ -88,8 +194,24 @@ public class WrappedCalculatedResultSet implements ResultSet {
 		if (havemore) {
 			this.rowsRead += 1;
 
-			event.setReadSize(event.getReadSize() + ROW_READ_OVERHEAD);
-
+			long size = ROW_READ_OVERHEAD;
+			if (metadataRowSize >= 0) {
+				size += metadataRowSize;
+			} else {
+				rowMeasured = rowsRead <= firstMeasuredRowCount
+						|| rowsRead % sampleInterval == 0;
+				if (rowMeasured) {
+					++measuredRowCount;
+				} else {
+					++unmeasuredRowCount;
+					if (measuredRowCount > 0) {
+						long rowSize = measuredSize / measuredRowCount;
+						estimatedSize += rowSize;
+						size += rowSize;
+					}
+				}
+			}
+			event.setReadSize(event.getReadSize() + size);
 		}
 		return havemore;
 	}
@@ -99,6 +221,8 @@ public class WrappedCalculatedResultSet implements ResultSet {
 	 */
 	@Override
     public void close() throws SQLException {
+		released = true;
+		correctEstimatedReadSize();
 		JdbcProfiler.getInstance().addRowsRead(this.rowsRead, this.ref, true);
 		this.rslt.close();
 	}
@@ -125,8 +249,25 @@ public class WrappedCalculatedResultSet implements ResultSet {
 	}
 
 	private void addReadSize(long addReadSize) {
-		event.setReadSize(event.getReadSize() + addReadSize);
-		event.setReadSize(event.getReadSize() + DATA_CELL_OVERHEAD);
+		if (rowMeasured) {
+			measuredSize += addReadSize + DATA_CELL_OVERHEAD;
+			event.setReadSize(event.getReadSize() + addReadSize
+					+ DATA_CELL_OVERHEAD);
+		}
+	}
+
+	/**
+	 * Replace the size of the rows that weren't measured with the average
+	 * of all the measured rows.
+	 */
+	private void correctEstimatedReadSize() {
+		if (measuredRowCount > 0 && unmeasuredRowCount > 0) {
+			long size = (long) ((double) measuredSize * unmeasuredRowCount
+					/ measuredRowCount);
+			event.setReadSize(event.getReadSize() + size - estimatedSize);
+		}
+		unmeasuredRowCount = 0;
+		estimatedSize = 0;
 	}
 	/*
 	 * (non-Javadoc)
@@ -227,6 +368,9 @@ public class WrappedCalculatedResultSet implements ResultSet {
 	}
 
 	private int bigDecimalLengthSafe(BigDecimal bigDecimal) {
+		if (!rowMeasured) {
+			return 0;
+		}
 		if (bigDecimal == null) {
 			return 4;
 		}
@@ -247,6 +391,9 @@ public class WrappedCalculatedResultSet implements ResultSet {
 	}
 
 	private int getArrayLengthSafe(byte[] bytes) {
+		if (!rowMeasured) {
+			return 0;
+		}
 		if (bytes == null) {
 			return 4;
 		}
@@ -339,6 +486,9 @@ public class WrappedCalculatedResultSet implements ResultSet {
 	}
 
 	private int safeStringLength(String string) {
+		if (!rowMeasured) {
+			return 0;
+		}
 		if (string == null) {
 			// null value token
 			return 4;
@@ -585,6 +735,9 @@ public class WrappedCalculatedResultSet implements ResultSet {
 	}
 
 	private int getObjectSizeSafe(Object object) {
+		if (!rowMeasured) {
+			return 0;
+		}
 		if (object == null) {
 			return 4;
 		}
@@ -1494,6 +1647,9 @@ public class WrappedCalculatedResultSet implements ResultSet {
 	}
 
 	private long getNClobSize(NClob clob) {
+		if (!rowMeasured) {
+			return 0;
+		}
 		if (clob == null) {
 			return 4;
 		}
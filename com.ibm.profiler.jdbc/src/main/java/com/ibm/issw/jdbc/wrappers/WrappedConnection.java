@@ -109,10 +109,11 @@ public class WrappedConnection implements Connection {
 
 		boolean wrappingEnabled = isWrappingEnabled();
 		String ref = null;
+		long startTime = 0L;
 		if (wrappingEnabled) {
 			ref = getNextRefCount();
 			JdbcProfiler.getInstance().setStatementType(JdbcProfiler.PREPARED, ref);
-			JdbcProfiler.getInstance().start(JdbcProfiler.OP_PREPARE, ref);
+			startTime = JdbcProfiler.getInstance().start();
 		}
 		PreparedStatement prepareStatement = this.realConnection
 				.prepareStatement(sql);
@@ -120,7 +121,7 @@ public class WrappedConnection implements Connection {
 
 			PreparedStatement pstmt = null;
 			pstmt = wrapPreparedStatement(sql, ref, prepareStatement);
-			JdbcProfiler.getInstance().stop(JdbcProfiler.OP_PREPARE, ref);
+			JdbcProfiler.getInstance().stop(JdbcProfiler.OP_PREPARE, ref, startTime);
 			return pstmt;
 
 		}
@@ -129,7 +130,7 @@ public class WrappedConnection implements Connection {
 
     public static String getNextRefCount()
     {
-        return REF_COUNT.nextValue().toString();
+        return Long.toString(REF_COUNT.nextValue());
     }
 
     protected WrappedDB2PreparedStatement wrapPreparedStatement(String sql, String ref, PreparedStatement prepareStatement)
@@ -146,16 +147,17 @@ public class WrappedConnection implements Connection {
     public final CallableStatement prepareCall(String sql) throws SQLException {
 		boolean wrappingEnabled = isWrappingEnabled();
 		String ref = null;
+		long startTime = 0L;
 		if (wrappingEnabled) {
 			ref = getNextRefCount();
 			JdbcProfiler.getInstance().setStatementType(JdbcProfiler.CALLABLE, ref);
-			JdbcProfiler.getInstance().start(JdbcProfiler.OP_PREPARE, ref);
+			startTime = JdbcProfiler.getInstance().start();
 		}
 		CallableStatement prepareCall = this.realConnection.prepareCall(sql);
 		if (wrappingEnabled) {
 
 			CallableStatement stmt = wrapCallableStatement(sql, ref, (DB2CallableStatement) prepareCall);
-			JdbcProfiler.getInstance().stop(JdbcProfiler.OP_PREPARE, ref);
+			JdbcProfiler.getInstance().stop(JdbcProfiler.OP_PREPARE, ref, startTime);
 			return stmt;
 		}
 		return prepareCall;
@@ -193,6 +195,7 @@ public class WrappedConnection implements Connection {
     public final void commit() throws SQLException {
         OperationMetric metric = null;
         String ref = null;
+        long startTime = 0L;
         boolean wrappingEnabled = isWrappingEnabled();
         if (wrappingEnabled) {
             ref = getNextRefCount();
@@ -202,7 +205,7 @@ public class WrappedConnection implements Connection {
             metric.setProperty(JdbcProfiler.TRANSACTION_ID, transaction);
             JdbcLogger.GATHERER.gatherMetricEntryLog(metric);
             
-            JdbcProfiler.getInstance().start(JdbcProfiler.OP_ROLLBACK, ref);
+            startTime = JdbcProfiler.getInstance().start();
         }
 
         try
@@ -216,7 +219,7 @@ public class WrappedConnection implements Connection {
             {
                 metric.stopOperation(1, false);
                 JdbcLogger.GATHERER.gatherMetric(metric);
-                JdbcProfiler.getInstance().stop(JdbcProfiler.OP_ROLLBACK, ref);
+                JdbcProfiler.getInstance().stop(JdbcProfiler.OP_ROLLBACK, ref, startTime);
             }
         }   
 	}
@@ -228,6 +231,7 @@ public class WrappedConnection implements Connection {
     public final void rollback() throws SQLException {
         OperationMetric metric = null;
         String ref = null;
+        long startTime = 0L;
         boolean wrappingEnabled = isWrappingEnabled();
         if (wrappingEnabled) {
             ref = getNextRefCount();
@@ -237,7 +241,7 @@ public class WrappedConnection implements Connection {
             metric.setProperty(JdbcProfiler.TRANSACTION_ID, transaction);
             JdbcLogger.GATHERER.gatherMetricEntryLog(metric);
             
-            JdbcProfiler.getInstance().start(JdbcProfiler.OP_ROLLBACK, ref);
+            startTime = JdbcProfiler.getInstance().start();
         }
 
         try
@@ -251,7 +255,7 @@ public class WrappedConnection implements Connection {
             {
                 metric.stopOperation(1, false);
                 JdbcLogger.GATHERER.gatherMetric(metric);
-                JdbcProfiler.getInstance().stop(JdbcProfiler.OP_ROLLBACK, ref);
+                JdbcProfiler.getInstance().stop(JdbcProfiler.OP_ROLLBACK, ref, startTime);
             }
         }		
 	}
@@ -398,11 +402,13 @@ public class WrappedConnection implements Connection {
 			int resultSetType, int resultSetConcurrency) throws SQLException {
 
 		String ref = null;
+
+		long startTime = 0L;
 		boolean wrappingEnabled = isWrappingEnabled();
 		if (wrappingEnabled) {
 			ref = getNextRefCount();
 			JdbcProfiler.getInstance().setStatementType(JdbcProfiler.PREPARED, ref);
-			JdbcProfiler.getInstance().start(JdbcProfiler.OP_PREPARE, ref);
+			startTime = JdbcProfiler.getInstance().start();
 		}
 		PreparedStatement prepareStatement = this.realConnection
 				.prepareStatement(sql, resultSetType, resultSetConcurrency);
@@ -412,7 +418,7 @@ public class WrappedConnection implements Connection {
 
 			pstmt = wrapPreparedStatement(sql, ref, prepareStatement);
 
-			JdbcProfiler.getInstance().stop(JdbcProfiler.OP_PREPARE, ref);
+			JdbcProfiler.getInstance().stop(JdbcProfiler.OP_PREPARE, ref, startTime);
 			return pstmt;
 		}
 		return prepareStatement;
@@ -426,10 +432,11 @@ public class WrappedConnection implements Connection {
 			int resultSetConcurrency) throws SQLException {
 		boolean wrappingEnabled = isWrappingEnabled();
 		String ref = null;
+		long startTime = 0L;
 		if (wrappingEnabled) {
 			ref = getNextRefCount();
 			JdbcProfiler.getInstance().setStatementType(JdbcProfiler.CALLABLE, ref);
-			JdbcProfiler.getInstance().start(JdbcProfiler.OP_PREPARE, ref);
+			startTime = JdbcProfiler.getInstance().start();
 		}
 		CallableStatement prepareCall = this.realConnection.prepareCall(sql,
 				resultSetType, resultSetConcurrency);
@@ -437,7 +444,7 @@ public class WrappedConnection implements Connection {
 		if (wrappingEnabled) {
 
 			CallableStatement stmt = wrapCallableStatement(sql, ref, (DB2CallableStatement) prepareCall);
-			JdbcProfiler.getInstance().stop(JdbcProfiler.OP_PREPARE, ref);
+			JdbcProfiler.getInstance().stop(JdbcProfiler.OP_PREPARE, ref, startTime);
 			return stmt;
 		}
 		return prepareCall;
@@ -534,10 +541,11 @@ public class WrappedConnection implements Connection {
 			int resultSetHoldability) throws SQLException {
 		boolean wrappingEnabled = isWrappingEnabled();
 		String ref = null;
+		long startTime = 0L;
 		if (wrappingEnabled) {
 			ref = getNextRefCount();
 			JdbcProfiler.getInstance().setStatementType(JdbcProfiler.PREPARED, ref);
-			JdbcProfiler.getInstance().start(JdbcProfiler.OP_PREPARE, ref);
+			startTime = JdbcProfiler.getInstance().start();
 		}
 		PreparedStatement prepareStatement = this.realConnection
 				.prepareStatement(sql, resultSetType, resultSetConcurrency,
@@ -546,7 +554,7 @@ public class WrappedConnection implements Connection {
 		if (wrappingEnabled) {
 			PreparedStatement pstmt = null;
 			pstmt = wrapPreparedStatement(sql, ref, prepareStatement);
-			JdbcProfiler.getInstance().stop(JdbcProfiler.OP_PREPARE, ref);
+			JdbcProfiler.getInstance().stop(JdbcProfiler.OP_PREPARE, ref, startTime);
 			return pstmt;
 		}
 		return prepareStatement;
@@ -561,10 +569,11 @@ public class WrappedConnection implements Connection {
 			throws SQLException {
 		boolean wrappingEnabled = isWrappingEnabled();
 		String ref = null;
+		long startTime = 0L;
 		if (wrappingEnabled) {
 			ref = getNextRefCount();
 			JdbcProfiler.getInstance().setStatementType(JdbcProfiler.CALLABLE, ref);
-			JdbcProfiler.getInstance().start(JdbcProfiler.OP_PREPARE, ref);
+			startTime = JdbcProfiler.getInstance().start();
 		}
 
 		CallableStatement prepareCall = this.realConnection.prepareCall(sql,
@@ -573,7 +582,7 @@ public class WrappedConnection implements Connection {
 		if (wrappingEnabled) {
 
 			CallableStatement stmt = wrapCallableStatement(sql, ref, (DB2CallableStatement) prepareCall);
-			JdbcProfiler.getInstance().stop(JdbcProfiler.OP_PREPARE, ref);
+			JdbcProfiler.getInstance().stop(JdbcProfiler.OP_PREPARE, ref, startTime);
 			return stmt;
 		}
 		return prepareCall;
@@ -587,10 +596,11 @@ public class WrappedConnection implements Connection {
 			int autoGeneratedKeys) throws SQLException {
 		boolean wrappingEnabled = isWrappingEnabled();
 		String ref = null;
+		long startTime = 0L;
 		if (wrappingEnabled) {
 			ref = getNextRefCount();
 			JdbcProfiler.getInstance().setStatementType(JdbcProfiler.PREPARED, ref);
-			JdbcProfiler.getInstance().start(JdbcProfiler.OP_PREPARE, ref);
+			startTime = JdbcProfiler.getInstance().start();
 
 		}
 		PreparedStatement prepareStatement = this.realConnection
@@ -600,7 +610,7 @@ public class WrappedConnection implements Connection {
 
 			PreparedStatement pstmt = null;
 			pstmt = wrapPreparedStatement(sql, ref, prepareStatement);
-			JdbcProfiler.getInstance().stop(JdbcProfiler.OP_PREPARE, ref);
+			JdbcProfiler.getInstance().stop(JdbcProfiler.OP_PREPARE, ref, startTime);
 			return pstmt;
 		}
 		return prepareStatement;
@@ -615,10 +625,11 @@ public class WrappedConnection implements Connection {
 			int[] columnIndexes) throws SQLException {
 		boolean wrappingEnabled = isWrappingEnabled();
 		String ref = null;
+		long startTime = 0L;
 		if (wrappingEnabled) {
 			ref = getNextRefCount();
 			JdbcProfiler.getInstance().setStatementType(JdbcProfiler.PREPARED, ref);
-			JdbcProfiler.getInstance().start(JdbcProfiler.OP_PREPARE, ref);
+			startTime = JdbcProfiler.getInstance().start();
 		}
 		PreparedStatement prepareStatement = this.realConnection
 				.prepareStatement(sql, columnIndexes);
@@ -626,7 +637,7 @@ public class WrappedConnection implements Connection {
 		if (wrappingEnabled) {
 			PreparedStatement pstmt = null;
 			pstmt = wrapPreparedStatement(sql, ref, prepareStatement);
-			JdbcProfiler.getInstance().stop(JdbcProfiler.OP_PREPARE, ref);
+			JdbcProfiler.getInstance().stop(JdbcProfiler.OP_PREPARE, ref, startTime);
 			return pstmt;
 		}
 		return prepareStatement;
@@ -641,10 +652,11 @@ public class WrappedConnection implements Connection {
 
 		boolean wrappingEnabled = isWrappingEnabled();
 		String ref = null;
+		long startTime = 0L;
 		if (wrappingEnabled) {
 			ref = getNextRefCount();
 			JdbcProfiler.getInstance().setStatementType(JdbcProfiler.PREPARED, ref);
-			JdbcProfiler.getInstance().start(JdbcProfiler.OP_PREPARE, ref);
+			startTime = JdbcProfiler.getInstance().start();
 		}
 		PreparedStatement prepareStatement = this.realConnection
 				.prepareStatement(sql, columnNames);
@@ -652,34 +664,34 @@ public class WrappedConnection implements Connection {
 		if (wrappingEnabled) {
 			PreparedStatement pstmt = null;
 			pstmt = wrapPreparedStatement(sql, ref, prepareStatement);
-			JdbcProfiler.getInstance().stop(JdbcProfiler.OP_PREPARE, ref);
+			JdbcProfiler.getInstance().stop(JdbcProfiler.OP_PREPARE, ref, startTime);
 			return pstmt;
 		}
 		return prepareStatement;
 	}
 
-	private static final class RefCountThreadLocal extends ThreadLocal<Long> {
+	private static final class RefCountThreadLocal extends ThreadLocal<long[]> {
 		/*
 		 * (non-Javadoc)
 		 * @see java.lang.ThreadLocal#initialValue()
 		 */
 		@Override
-        protected Long initialValue() {
-			return new Long(0L);
+        protected long[] initialValue() {
+			return new long[1];
 		}
 
 		/**
 		 * @return the next value 
 		 */
-		public Long nextValue() {
-			Long val = get();
-			long l = val.intValue();
-			l += 1L;
+		public long nextValue() {
+			long[] counter = get();
+			long val = counter[0];
+			long l = val + 1L;
 
-			if (9223372036854775807L == l) {
+			if (Long.MAX_VALUE == l) {
 				l = 0L;
 			}
-			set(new Long(l));
+			counter[0] = l;
 			return val;
 		}
 	}
@@ -287,11 +287,12 @@ public class WrappedDB2Connection extends WrappedConnection implements DB2Connec
 
         boolean wrappingEnabled = isWrappingEnabled();
         String ref = null;
+        long startTime = 0L;
         if (wrappingEnabled)
         {
             ref = getNextRefCount();
             JdbcProfiler.getInstance().setStatementType(JdbcProfiler.PREPARED, ref);
-            JdbcProfiler.getInstance().start(JdbcProfiler.OP_PREPARE, ref);
+            startTime = JdbcProfiler.getInstance().start();
         }
         PreparedStatement prepareStatement = connection.prepareDB2OptimisticLockingQuery(arg0, arg1);
         if (wrappingEnabled)
@@ -299,7 +300,7 @@ public class WrappedDB2Connection extends WrappedConnection implements DB2Connec
 
             PreparedStatement pstmt = null;
             pstmt = wrapPreparedStatement(arg0, ref, prepareStatement);
-            JdbcProfiler.getInstance().stop(JdbcProfiler.OP_PREPARE, ref);
+            JdbcProfiler.getInstance().stop(JdbcProfiler.OP_PREPARE, ref, startTime);
             return pstmt;
 
         }
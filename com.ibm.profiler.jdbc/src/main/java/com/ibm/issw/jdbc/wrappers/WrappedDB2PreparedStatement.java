@@ -19,6 +19,7 @@ package com.ibm.issw.jdbc.wrappers;
 import com.ibm.db2.jcc.*;
 import com.ibm.issw.jdbc.profiler.JdbcEvent;
 import com.ibm.issw.jdbc.profiler.JdbcProfiler;
+import com.ibm.issw.jdbc.profiler.ParameterBuffer;
 
 import java.io.*;
 import java.math.BigDecimal;
@@ -74,23 +75,22 @@ public class WrappedDB2PreparedStatement extends WrappedDB2Statement implements
 
 		ResultSet rslt = null;
 
+		reuseRef();
 		if ((this instanceof CallableStatement)){
 			JdbcProfiler.getInstance().setStatementType(JdbcProfiler.CALLABLE, this.ref);}
 		else {
 			JdbcProfiler.getInstance().setStatementType(JdbcProfiler.PREPARED, this.ref);
 		}
 		profileSqlStatement(this.sqlStatement);
-		JdbcProfiler.getInstance().start(JdbcProfiler.OP_EXECUTE_QUERY, this.ref);
+		this.operationStartTime = JdbcProfiler.getInstance().start();
 		JdbcEvent jdbcEvent = JdbcProfiler.getInstance().getJdbcEvent(ref);
 
 		ResultSet resultSet = this.pstmt.executeQuery();
 		String currentRef = this.ref;
 		rslt = wrapResultSet(jdbcEvent, resultSet, currentRef);
-		JdbcProfiler.getInstance().stop(JdbcProfiler.OP_EXECUTE_QUERY, this.ref);
+		JdbcProfiler.getInstance().stop(JdbcProfiler.OP_EXECUTE_QUERY, this.ref, this.operationStartTime);
 		JdbcProfiler.getInstance().addStack(this.ref);
 
-		allocateNewRef();
-
 		return rslt;
 	}
 
@@ -101,6 +101,17 @@ public class WrappedDB2PreparedStatement extends WrappedDB2Statement implements
 	public void allocateNewRef() {
 		this.ref = WrappedConnection.getNextRefCount();
 	}
+
+	/**
+	 * Keep the reference for the next execution, unless a result set is still
+	 * open and reports through it. The event of the reference is removed once
+	 * it is logged, so the reference is free again.
+	 */
+	private void reuseRef() {
+		if (hasOpenResultSet(this.ref)) {
+			allocateNewRef();
+		}
+	}
 	/*
 	 * (non-Javadoc)
 	 * @see java.sql.PreparedStatement#executeUpdate()
@@ -112,13 +123,14 @@ public class WrappedDB2PreparedStatement extends WrappedDB2Statement implements
 		}
 
 		int rows = 0;
+		reuseRef();
 		if ((this instanceof CallableStatement)) {
 			JdbcProfiler.getInstance().setStatementType(JdbcProfiler.CALLABLE, this.ref);
 		} else {
 			JdbcProfiler.getInstance().setStatementType(JdbcProfiler.PREPARED, this.ref);
 		}
 		profileSqlStatement(this.sqlStatement);
-		JdbcProfiler.getInstance().start(JdbcProfiler.OP_EXECUTE_UPDATE, this.ref);
+		this.operationStartTime = JdbcProfiler.getInstance().start();
 		
         boolean success = false;
         try
@@ -128,13 +140,11 @@ public class WrappedDB2PreparedStatement extends WrappedDB2Statement implements
         }
         finally
         {
-            JdbcProfiler.getInstance().stop(JdbcProfiler.OP_EXECUTE_UPDATE, this.ref);
+            JdbcProfiler.getInstance().stop(JdbcProfiler.OP_EXECUTE_UPDATE, this.ref, this.operationStartTime);
             JdbcProfiler.getInstance().addStack(this.ref);
             JdbcProfiler.getInstance().addRowsUpdated(rows, this.ref, success);
         }
 
-		allocateNewRef();
-
 		return rows;
 	}
 	/*
@@ -154,7 +164,10 @@ public class WrappedDB2PreparedStatement extends WrappedDB2Statement implements
 	@Override
     public final void setBoolean(int parameterIndex, boolean x)
 			throws SQLException {
-		setData(parameterIndex, new Boolean(x));
+		ParameterBuffer parameters = getParameterBuffer();
+		if (parameters != null) {
+			parameters.setBoolean(parameterIndex, x);
+		}
 		this.pstmt.setBoolean(parameterIndex, x);
 	}
 	/*
@@ -163,7 +176,10 @@ public class WrappedDB2PreparedStatement extends WrappedDB2Statement implements
 	 */
 	@Override
     public final void setByte(int parameterIndex, byte x) throws SQLException {
-		setData(parameterIndex, new Byte(x));
+		ParameterBuffer parameters = getParameterBuffer();
+		if (parameters != null) {
+			parameters.setByte(parameterIndex, x);
+		}
 		this.pstmt.setByte(parameterIndex, x);
 	}
 	/*
@@ -172,7 +188,10 @@ public class WrappedDB2PreparedStatement extends WrappedDB2Statement implements
 	 */
 	@Override
     public final void setShort(int parameterIndex, short x) throws SQLException {
-		setData(parameterIndex, new Short(x));
+		ParameterBuffer parameters = getParameterBuffer();
+		if (parameters != null) {
+			parameters.setShort(parameterIndex, x);
+		}
 		this.pstmt.setShort(parameterIndex, x);
 	}
 	/*
@@ -181,7 +200,10 @@ public class WrappedDB2PreparedStatement extends WrappedDB2Statement implements
 	 */
 	@Override
     public final void setInt(int parameterIndex, int x) throws SQLException {
-		setData(parameterIndex, new Integer(x));
+		ParameterBuffer parameters = getParameterBuffer();
+		if (parameters != null) {
+			parameters.setInt(parameterIndex, x);
+		}
 		this.pstmt.setInt(parameterIndex, x);
 	}
 	/*
@@ -190,7 +212,10 @@ public class WrappedDB2PreparedStatement extends WrappedDB2Statement implements
 	 */
 	@Override
     public final void setLong(int parameterIndex, long x) throws SQLException {
-		setData(parameterIndex, new Long(x));
+		ParameterBuffer parameters = getParameterBuffer();
+		if (parameters != null) {
+			parameters.setLong(parameterIndex, x);
+		}
 		this.pstmt.setLong(parameterIndex, x);
 	}
 	/*
@@ -199,7 +224,10 @@ public class WrappedDB2PreparedStatement extends WrappedDB2Statement implements
 	 */
 	@Override
     public final void setFloat(int parameterIndex, float x) throws SQLException {
-		setData(parameterIndex, new Float(x));
+		ParameterBuffer parameters = getParameterBuffer();
+		if (parameters != null) {
+			parameters.setFloat(parameterIndex, x);
+		}
 		this.pstmt.setFloat(parameterIndex, x);
 	}
 
@@ -210,7 +238,10 @@ public class WrappedDB2PreparedStatement extends WrappedDB2Statement implements
 	@Override
     public final void setDouble(int parameterIndex, double x)
 			throws SQLException {
-		setData(parameterIndex, new Double(x));
+		ParameterBuffer parameters = getParameterBuffer();
+		if (parameters != null) {
+			parameters.setDouble(parameterIndex, x);
+		}
 		this.pstmt.setDouble(parameterIndex, x);
 	}
 	/*
@@ -230,7 +261,7 @@ public class WrappedDB2PreparedStatement extends WrappedDB2Statement implements
 	@Override
     public final void setString(int parameterIndex, String x)
 			throws SQLException {
-		setData(parameterIndex, "'" + x + "'");
+		setStringData(parameterIndex, x);
 		this.pstmt.setString(parameterIndex, x);
 	}
 	/*
@@ -320,7 +351,7 @@ public class WrappedDB2PreparedStatement extends WrappedDB2Statement implements
     public final void setObject(int parameterIndex, Object x,
 			int targetSqlType, int scale) throws SQLException {
 		if ((x instanceof String)){
-			setData(parameterIndex, "'" + (String) x + "'");}
+			setStringData(parameterIndex, (String) x);}
 		else {
 			setData(parameterIndex, x);
 		}
@@ -335,7 +366,7 @@ public class WrappedDB2PreparedStatement extends WrappedDB2Statement implements
     public final void setObject(int parameterIndex, Object x, int targetSqlType)
 			throws SQLException {
 		if ((x instanceof String)){
-			setData(parameterIndex, "'" + (String) x + "'");}
+			setStringData(parameterIndex, (String) x);}
 		else {
 			setData(parameterIndex, x);
 		}
@@ -349,7 +380,7 @@ public class WrappedDB2PreparedStatement extends WrappedDB2Statement implements
     public final void setObject(int parameterIndex, Object x)
 			throws SQLException {
 		if ((x instanceof String)){
-			setData(parameterIndex, "'" + (String) x + "'");}
+			setStringData(parameterIndex, (String) x);}
 		else {
 			setData(parameterIndex, x);
 		}
@@ -361,6 +392,7 @@ public class WrappedDB2PreparedStatement extends WrappedDB2Statement implements
 	 */
 	@Override
     public final boolean execute() throws SQLException {
+		reuseRef();
 		if ((this instanceof CallableStatement)){
 			JdbcProfiler.getInstance().setStatementType(JdbcProfiler.CALLABLE, this.ref);}
 		else {
@@ -368,7 +400,7 @@ public class WrappedDB2PreparedStatement extends WrappedDB2Statement implements
 		}
 
         profileSqlStatement(this.sqlStatement);
-        JdbcProfiler.getInstance().start(JdbcProfiler.OP_EXECUTE_QUERY, this.ref);
+        this.operationStartTime = JdbcProfiler.getInstance().start();
         boolean bool = false;
         boolean success = false;
         try
@@ -378,12 +410,11 @@ public class WrappedDB2PreparedStatement extends WrappedDB2Statement implements
         }
         finally
         {
-            JdbcProfiler.getInstance().stop(JdbcProfiler.OP_EXECUTE_QUERY, this.ref);
+            JdbcProfiler.getInstance().stop(JdbcProfiler.OP_EXECUTE_QUERY, this.ref, this.operationStartTime);
+            JdbcProfiler.getInstance().addStack(this.ref);
             JdbcProfiler.getInstance().addRowsUpdated(1, this.ref, success);
         }
 
-		allocateNewRef();
-
 		return bool;
 	}
 	/*
@@ -442,7 +473,27 @@ public class WrappedDB2PreparedStatement extends WrappedDB2Statement implements
 
 	
 	private void setData(int i, Object x) throws SQLException {
-		JdbcProfiler.getInstance().addSetData(i, x, this.ref);
+		ParameterBuffer parameters = getParameterBuffer();
+		if (parameters != null) {
+			parameters.setObject(i, JdbcProfiler.toSerializableParameter(x));
+		}
+	}
+
+	private void setStringData(int i, String x) {
+		ParameterBuffer parameters = getParameterBuffer();
+		if (parameters != null) {
+			parameters.setString(i, x);
+		}
+	}
+
+	/**
+	 * @return the buffer of the current execution parameters, null when the
+	 *         parameters aren't captured.
+	 */
+	private ParameterBuffer getParameterBuffer() {
+		reuseRef();
+		return JdbcProfiler.getInstance().getParameterBuffer(this.ref,
+				this.sqlStatement);
 	}
 	/*
 	 * (non-Javadoc)
@@ -15,11 +15,12 @@
  */
 package com.ibm.issw.jdbc.wrappers;
 
-import com.ibm.commerce.cache.MetricFileLoader;
 import com.ibm.db2.jcc.DB2ExternalTableResult;
 import com.ibm.db2.jcc.DB2Statement;
 import com.ibm.issw.jdbc.profiler.JdbcEvent;
 import com.ibm.issw.jdbc.profiler.JdbcProfiler;
+import com.ibm.issw.jdbc.profiler.ResultSetTracking;
+import com.ibm.issw.jdbc.profiler.SqlShapeCache;
 
 import java.sql.*;
 import java.util.ArrayList;
@@ -61,10 +62,26 @@ public class WrappedDB2Statement implements DB2Statement {
 	
 	protected String transaction;
 	
+	/**
+	 * Start time in nanoseconds of the operation currently executing on this
+	 * statement. Kept as a primitive so that timing an execution doesn't
+	 * allocate.
+	 */
+	protected long operationStartTime;
+	
 	protected final Connection connection;
 	
+	/**
+	 * result sets returned by the statement that may still be open
+	 */
 	protected List<ResultSet> pendingResultSets = new ArrayList<ResultSet>();
 
+	/**
+	 * closed result set wrapper kept for the next result set when wrapper
+	 * reuse is enabled
+	 */
+	private WrappedResultSet spareResultSet;
+
 	public WrappedDB2Statement(Statement statement, String reference, String transaction, Connection connection) {
 		this.stmt = statement;
 		this.ref = reference;
@@ -87,8 +104,7 @@ public class WrappedDB2Statement implements DB2Statement {
 	@Override
     public final ResultSet executeQuery(String sql) throws SQLException {
 		profileSqlStatement(sql);
-		JdbcProfiler.getInstance().start(JdbcProfiler.OP_EXECUTE_QUERY,
-				this.ref);
+		this.operationStartTime = JdbcProfiler.getInstance().start();
 		JdbcEvent jdbcEvent = JdbcProfiler.getInstance().getJdbcEvent(ref);
 
 		ResultSet result = null;
@@ -100,8 +116,7 @@ public class WrappedDB2Statement implements DB2Statement {
 			rslt = wrapResultSet(jdbcEvent, executeQuery, this.ref);
 			success = true;
 		} finally {
-			JdbcProfiler.getInstance().stop(JdbcProfiler.OP_EXECUTE_QUERY,
-					this.ref);
+			JdbcProfiler.getInstance().stop(JdbcProfiler.OP_EXECUTE_QUERY, this.ref, this.operationStartTime);
 			JdbcProfiler.getInstance().addStack(this.ref);
 			if (!success) {
 				// log the failure on error. Otherwise, let the result set do
@@ -119,9 +134,89 @@ public class WrappedDB2Statement implements DB2Statement {
 		return wrapResultSet;
     }
 	protected void addPendingResultSet(ResultSet wrapResultSet) {
+		releaseClosedResultSets(false);
 		pendingResultSets.add(wrapResultSet);
 	}
 
+	/**
+	 * @param reference
+	 *            the execution reference
+	 * @return true if a result set of the reference wasn't closed yet.
+	 */
+	boolean hasOpenResultSet(String reference) {
+		for (int i = 0; i < pendingResultSets.size(); i++) {
+			ResultSet pending = pendingResultSets.get(i);
+			if (!(pending instanceof TrackedResultSet)) {
+				return true;
+			}
+			TrackedResultSet tracked = (TrackedResultSet) pending;
+			if (!tracked.isReleased()
+					&& reference.equals(tracked.getReference())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the closed wrapper to reuse for the next result set, null if
+	 *         there is none.
+	 */
+	WrappedResultSet takeSpareResultSet() {
+		releaseClosedResultSets(false);
+		WrappedResultSet spare = spareResultSet;
+		spareResultSet = null;
+		return spare;
+	}
+
+	/**
+	 * Drop the pending result sets that were closed. The ones the
+	 * application didn't close are ended and reported : the ones the driver
+	 * closed, and all of them when the statement is about to execute again
+	 * since the execution closes them. Those are ended before the execution
+	 * replaces the event of the statement reference, so that they are logged
+	 * with their own execution.
+	 * 
+	 * @param executing
+	 *            true if the statement is about to execute again.
+	 */
+	private void releaseClosedResultSets(boolean executing) {
+		for (int i = pendingResultSets.size() - 1; i >= 0; i--) {
+			ResultSet pending = pendingResultSets.get(i);
+			if (!(pending instanceof TrackedResultSet)) {
+				continue;
+			}
+			TrackedResultSet tracked = (TrackedResultSet) pending;
+			boolean released = tracked.isReleased();
+			if (!released) {
+				try {
+					if (!executing && !tracked.isClosed()) {
+						continue;
+					}
+					endUnclosedResultSet(tracked);
+				} catch (SQLException e) {
+					if (!tracked.isReleased()) {
+						// keep it until the statement closes
+						continue;
+					}
+					LOG.log(Level.FINE, "failed to close a result set", e);
+				}
+			}
+			pendingResultSets.remove(i);
+			if (released && tracked instanceof WrappedResultSet
+					&& ResultSetTracking.getInstance().isWrapperReuseEnabled()) {
+				spareResultSet = (WrappedResultSet) tracked;
+			}
+		}
+	}
+
+	private static void endUnclosedResultSet(TrackedResultSet tracked)
+			throws SQLException {
+		ResultSetTracking.getInstance().reportUnclosedResultSet(
+				tracked.getEvent().getSqlStatement());
+		tracked.close();
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -130,16 +225,14 @@ public class WrappedDB2Statement implements DB2Statement {
 	@Override
     public final int executeUpdate(String sql) throws SQLException {
 		profileSqlStatement(sql);
-		JdbcProfiler.getInstance().start(JdbcProfiler.OP_EXECUTE_UPDATE,
-				this.ref);
+		this.operationStartTime = JdbcProfiler.getInstance().start();
 		int rows = 0;
 		boolean success = false;
 		try {
 			rows = this.stmt.executeUpdate(sql);
 			success = true;
 		} finally {
-			JdbcProfiler.getInstance().stop(JdbcProfiler.OP_EXECUTE_UPDATE,
-					this.ref);
+			JdbcProfiler.getInstance().stop(JdbcProfiler.OP_EXECUTE_UPDATE, this.ref, this.operationStartTime);
 			JdbcProfiler.getInstance().addStack(this.ref);
 			JdbcProfiler.getInstance().addRowsUpdated(rows, this.ref, success);
 		}
@@ -156,9 +249,17 @@ public class WrappedDB2Statement implements DB2Statement {
     public final void close() throws SQLException {
 		
 		for (ResultSet pendingResultSet : pendingResultSets) {
-			pendingResultSet.close();
+			if (pendingResultSet instanceof TrackedResultSet) {
+				TrackedResultSet tracked = (TrackedResultSet) pendingResultSet;
+				if (!tracked.isReleased()) {
+					endUnclosedResultSet(tracked);
+				}
+			} else {
+				pendingResultSet.close();
+			}
 		}
 		pendingResultSets.clear();
+		spareResultSet = null;
 		
 		this.stmt.close();
 	}
@@ -279,7 +380,7 @@ public class WrappedDB2Statement implements DB2Statement {
     public final boolean execute(String sql) throws SQLException
     {
         profileSqlStatement(sql);
-        JdbcProfiler.getInstance().start(JdbcProfiler.OP_EXECUTE_QUERY, this.ref);
+        this.operationStartTime = JdbcProfiler.getInstance().start();
 
         boolean result = false;
         boolean success = false;
@@ -291,7 +392,7 @@ public class WrappedDB2Statement implements DB2Statement {
         finally
         {
 
-            JdbcProfiler.getInstance().stop(JdbcProfiler.OP_EXECUTE_QUERY, this.ref);
+            JdbcProfiler.getInstance().stop(JdbcProfiler.OP_EXECUTE_QUERY, this.ref, this.operationStartTime);
             JdbcProfiler.getInstance().addStack(this.ref);
             JdbcProfiler.getInstance().addRowsUpdated(1, this.ref, success);
         }
@@ -426,7 +527,7 @@ public class WrappedDB2Statement implements DB2Statement {
 		String sql = getBatchSql();
 
 		profileSqlStatement(sql);
-		JdbcProfiler.getInstance().start(JdbcProfiler.OP_EXECUTE_BATCH, this.ref);
+		this.operationStartTime = JdbcProfiler.getInstance().start();
 		int[] rows = null;
 		boolean success = false;
 		try {
@@ -434,7 +535,7 @@ public class WrappedDB2Statement implements DB2Statement {
 		   success = true;
 		}
 		finally {
-		JdbcProfiler.getInstance().stop(JdbcProfiler.OP_EXECUTE_BATCH, this.ref);
+		JdbcProfiler.getInstance().stop(JdbcProfiler.OP_EXECUTE_BATCH, this.ref, this.operationStartTime);
 		JdbcProfiler.getInstance().addStack(this.ref);
         int rowCount = sumRows(rows);
         JdbcProfiler.getInstance().addRowsUpdated(rowCount, this.ref, success);
@@ -464,7 +565,8 @@ public class WrappedDB2Statement implements DB2Statement {
 		for (String string : batchList) {
 			if(! existingQueries.contains(string)) {
 				existingQueries.add(string);
-				String sanitizedSql = MetricFileLoader.substituteJdbcParameters(string);
+				String sanitizedSql = SqlShapeCache.getInstance().getShape(string)
+						.getParameterizedSql();
 				if(! existingQueries.contains(sanitizedSql)) {
 					existingQueries.add(sanitizedSql);
 					retVal.append(sanitizedSql);
@@ -509,7 +611,7 @@ public class WrappedDB2Statement implements DB2Statement {
     public final int executeUpdate(String sql, int autoGeneratedKeys)
 			throws SQLException {
         profileSqlStatement(sql);
-        JdbcProfiler.getInstance().start(JdbcProfiler.OP_EXECUTE_UPDATE, this.ref);
+        this.operationStartTime = JdbcProfiler.getInstance().start();
 
         int rows = 0;
         boolean success = false;
@@ -520,7 +622,7 @@ public class WrappedDB2Statement implements DB2Statement {
         }
         finally
         {
-            JdbcProfiler.getInstance().stop(JdbcProfiler.OP_EXECUTE_UPDATE, this.ref);
+            JdbcProfiler.getInstance().stop(JdbcProfiler.OP_EXECUTE_UPDATE, this.ref, this.operationStartTime);
             JdbcProfiler.getInstance().addStack(this.ref);
             JdbcProfiler.getInstance().addRowsUpdated(rows, this.ref, success);
         }
@@ -534,7 +636,7 @@ public class WrappedDB2Statement implements DB2Statement {
     public final int executeUpdate(String sql, int[] columnIndexes)
 			throws SQLException {
 		profileSqlStatement(sql);
-		JdbcProfiler.getInstance().start(JdbcProfiler.OP_EXECUTE_UPDATE, this.ref);
+		this.operationStartTime = JdbcProfiler.getInstance().start();
         int rows = 0;
         boolean success = false;
         try
@@ -544,7 +646,7 @@ public class WrappedDB2Statement implements DB2Statement {
         }
         finally
         {
-            JdbcProfiler.getInstance().stop(JdbcProfiler.OP_EXECUTE_UPDATE, this.ref);
+            JdbcProfiler.getInstance().stop(JdbcProfiler.OP_EXECUTE_UPDATE, this.ref, this.operationStartTime);
             JdbcProfiler.getInstance().addStack(this.ref);
             JdbcProfiler.getInstance().addRowsUpdated(rows, this.ref, success);
         }
@@ -558,7 +660,7 @@ public class WrappedDB2Statement implements DB2Statement {
     public final int executeUpdate(String sql, String[] columnNames)
 			throws SQLException {
 		profileSqlStatement(sql);
-		JdbcProfiler.getInstance().start(JdbcProfiler.OP_EXECUTE_UPDATE, this.ref);
+		this.operationStartTime = JdbcProfiler.getInstance().start();
         int rows = 0;
         boolean success = false;
         try
@@ -569,7 +671,7 @@ public class WrappedDB2Statement implements DB2Statement {
         finally
         {
 
-            JdbcProfiler.getInstance().stop(JdbcProfiler.OP_EXECUTE_UPDATE, this.ref);
+            JdbcProfiler.getInstance().stop(JdbcProfiler.OP_EXECUTE_UPDATE, this.ref, this.operationStartTime);
             JdbcProfiler.getInstance().addStack(this.ref);
             JdbcProfiler.getInstance().addRowsUpdated(rows, this.ref, success);
         }
@@ -584,7 +686,7 @@ public class WrappedDB2Statement implements DB2Statement {
     public final boolean execute(String sql, int autoGeneratedKeys)
 			throws SQLException {
 		profileSqlStatement(sql);
-		JdbcProfiler.getInstance().start(JdbcProfiler.OP_EXECUTE_QUERY, this.ref);
+		this.operationStartTime = JdbcProfiler.getInstance().start();
 		
         boolean result = false;
         boolean success = false;
@@ -595,7 +697,7 @@ public class WrappedDB2Statement implements DB2Statement {
         }
         finally
         {
-            JdbcProfiler.getInstance().stop(JdbcProfiler.OP_EXECUTE_QUERY, this.ref);
+            JdbcProfiler.getInstance().stop(JdbcProfiler.OP_EXECUTE_QUERY, this.ref, this.operationStartTime);
             JdbcProfiler.getInstance().addStack(this.ref);
             JdbcProfiler.getInstance().addRowsUpdated(1, this.ref, success);
         }
@@ -609,7 +711,7 @@ public class WrappedDB2Statement implements DB2Statement {
     public final boolean execute(String sql, int[] columnIndexes)
 			throws SQLException {
 		profileSqlStatement(sql);
-        JdbcProfiler.getInstance().start(JdbcProfiler.OP_EXECUTE_QUERY, this.ref);
+        this.operationStartTime = JdbcProfiler.getInstance().start();
         boolean result = false;
         boolean success = false;
         try
@@ -619,7 +721,7 @@ public class WrappedDB2Statement implements DB2Statement {
         }
         finally
         {
-            JdbcProfiler.getInstance().stop(JdbcProfiler.OP_EXECUTE_QUERY, this.ref);
+            JdbcProfiler.getInstance().stop(JdbcProfiler.OP_EXECUTE_QUERY, this.ref, this.operationStartTime);
             JdbcProfiler.getInstance().addStack(this.ref);
             JdbcProfiler.getInstance().addRowsUpdated(1, this.ref, success);
         }
@@ -634,7 +736,7 @@ public class WrappedDB2Statement implements DB2Statement {
     public final boolean execute(String sql, String[] columnNames)
 			throws SQLException {
 		profileSqlStatement(sql);
-		JdbcProfiler.getInstance().start(JdbcProfiler.OP_EXECUTE_QUERY, this.ref);
+		this.operationStartTime = JdbcProfiler.getInstance().start();
         boolean result = false;
         boolean success = false;
         try
@@ -644,7 +746,7 @@ public class WrappedDB2Statement implements DB2Statement {
         }
         finally
         {
-            JdbcProfiler.getInstance().stop(JdbcProfiler.OP_EXECUTE_QUERY, this.ref);
+            JdbcProfiler.getInstance().stop(JdbcProfiler.OP_EXECUTE_QUERY, this.ref, this.operationStartTime);
             JdbcProfiler.getInstance().addStack(this.ref);
             JdbcProfiler.getInstance().addRowsUpdated(1, this.ref, success);
         }
@@ -669,6 +771,9 @@ public class WrappedDB2Statement implements DB2Statement {
 		if (sql == null) {
 			throw new AssertionError("SQL can not be null");
 		}
+		if (!pendingResultSets.isEmpty()) {
+			releaseClosedResultSets(true);
+		}
 		if (JdbcProfiler.isProfilingEnabled()) {
 			String[] tables = getTableNames(sql);
 			if (LOG.isLoggable(Level.FINE)) {
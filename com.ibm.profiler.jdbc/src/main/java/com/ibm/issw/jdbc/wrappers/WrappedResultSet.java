@@ -32,7 +32,7 @@ import java.util.Map;
  * 
  * WrappedResultSet
  */
-public class WrappedResultSet implements ResultSet {
+public class WrappedResultSet implements TrackedResultSet {
 
 //	private static final int DATA_CELL_OVERHEAD = 2;
 //
@@ -46,6 +46,7 @@ public class WrappedResultSet implements ResultSet {
 	private int rowsRead = 0;
 	private String ref;
 	private JdbcEvent event;
+	private boolean released = false;
 
 	/**
 	 * 
@@ -63,7 +64,13 @@ public class WrappedResultSet implements ResultSet {
 			rslt = new WrappedCalculatedResultSet(resultSet, currentRef,
 					jdbcEvent);
 		} else {
-			rslt = new WrappedResultSet(resultSet, currentRef, jdbcEvent);
+			WrappedResultSet spare = statement.takeSpareResultSet();
+			if (spare != null) {
+				spare.reset(resultSet, currentRef, jdbcEvent);
+				rslt = spare;
+			} else {
+				rslt = new WrappedResultSet(resultSet, currentRef, jdbcEvent);
+			}
 		}
 
 		statement.addPendingResultSet( rslt );
@@ -80,7 +87,36 @@ public class WrappedResultSet implements ResultSet {
 			JdbcEvent event) {
 		this.rslt = resultSet;
 		this.ref = reference;
-//		this.event = event;
+		this.event = event;
+	}
+
+	/**
+	 * Wrap another result set with this closed wrapper.
+	 * @param resultSet the result set
+	 * @param reference the reference number
+	 * @param event the event
+	 */
+	void reset(ResultSet resultSet, String reference, JdbcEvent event) {
+		this.rslt = resultSet;
+		this.ref = reference;
+		this.event = event;
+		this.rowsRead = 0;
+		this.released = false;
+	}
+
+	@Override
+	public boolean isReleased() {
+		return released;
+	}
+
+	@Override
+	public JdbcEvent getEvent() {
+		return event;
+	}
+
+	@Override
+	public String getReference() {
+		return ref;
 	}
 
 	/*
@@ -101,6 +137,7 @@ public class WrappedResultSet implements ResultSet {
 	 */
 	@Override
     public void close() throws SQLException {
+		released = true;
 		JdbcProfiler.getInstance().addRowsRead(this.rowsRead, this.ref, true);
 		this.rslt.close();
 	}
@@ -27,6 +27,10 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -43,6 +47,7 @@ import org.apache.commons.lang3.StringUtils;
 import com.ibm.commerce.cache.CacheUtilities;
 import com.ibm.commerce.cache.LoggingHelper;
 import com.ibm.commerce.cache.OperationMetric;
+import com.ibm.commerce.cache.OperationStatistics;
 import com.ibm.logger.jmx.JMXBeanRegistrar;
 import com.ibm.logger.jmx.TimeIntervalLogEntryMXBean;
 import com.ibm.logger.stats.LogEntry;
@@ -74,6 +79,10 @@ public class PerformanceLogger implements Serializable
 
     private static final String PROPERTY_PERFORMANCE_LOGGER_ENABLED = "com.ibm.logger.performanceLogger.enabled";
 
+    private static final String PROPERTY_MAINTENANCE_INTERVAL_IN_MILLISECOND = "com.ibm.logger.performanceLogger.maintenanceIntervalInMillisecond";
+
+    private static final String PROPERTY_STRIPED_STATISTICS_ENABLED = "com.ibm.logger.performanceLogger.stripedStatisticsEnabled";
+
     private static final String DEFAULT_PERIODIC_PRINTER = SummaryPerformanceLogsToSystemOutPrinter.class.getName();
 
     private static final int MILLIS_PER_NANO = 1000000;
@@ -108,6 +117,10 @@ public class PerformanceLogger implements Serializable
 
     private static int cleanupDelayInMillisecond = 60 * 60 * 1000;
 
+    private static int maintenanceIntervalInMillisecond = 1000;
+
+    private static ScheduledExecutorService maintenanceExecutor = null;
+
     protected static int loggerCountBeforeCleanup = 5000;
 
     protected static int csvPrintCountLimit = 10000;
@@ -141,6 +154,11 @@ public class PerformanceLogger implements Serializable
 
         csvPrintCountLimit = parseIntegerProperty(PROPERTY_CSV_PRINT_COUNT_LIMIT, 10000);
 
+        maintenanceIntervalInMillisecond = parseIntegerProperty(PROPERTY_MAINTENANCE_INTERVAL_IN_MILLISECOND, 1000);
+
+        OperationStatistics.setStripedStatisticsEnabled(parseBooleanProperty(PROPERTY_STRIPED_STATISTICS_ENABLED,
+            false));
+
         try
         {
             periodicMetricPrintClassName = parseStringProperty(PROPERTY_PERIODIC_METRIC_PRINT_CLASS_NAME,
@@ -405,13 +423,15 @@ public class PerformanceLogger implements Serializable
     private static final String OP_STRING_LENGTH = "60";
 
     private static final String PRINT_METRIC = "%-" + OP_STRING_LENGTH + "." + OP_STRING_LENGTH +
-        "s %8d %11.2f %11d %11d %14.2f";
+        "s %8d %11.2f %11d %11d %14.2f %11.2f %11.2f %11.2f";
 
     private static final String HEADER_DASH = "%-" + OP_STRING_LENGTH + "." + OP_STRING_LENGTH +
-        "s %8.8s %11.11s %11.11s %11.11s %14.14s";
+        "s %8.8s %11.11s %11.11s %11.11s %14.14s %11.11s %11.11s %11.11s";
 
     private static final String HEADER_FORMAT = "%-" + OP_STRING_LENGTH + "." + OP_STRING_LENGTH +
-        "s %8.8s %11.11s %11.11s %11.11s %14.14s";
+        "s %8.8s %11.11s %11.11s %11.11s %14.14s %11.11s %11.11s %11.11s";
+
+    private static final double MILLIS_PER_NANO_DOUBLE = MILLIS_PER_NANO;
 
     /**
      * Dump the performance logs table to a human readable multi-line string
@@ -434,9 +454,10 @@ public class PerformanceLogger implements Serializable
                 headers = true;
                 String dash = "===================================================================================================================================================";
                 build.append(
-                    String.format(HEADER_FORMAT, "Name", "NumCalls", "AverageMS", "MinimumMS", "MaximumMS", "TotalMS"));
+                    String.format(HEADER_FORMAT, "Name", "NumCalls", "AverageMS", "MinimumMS", "MaximumMS", "TotalMS",
+                        "P50MS", "P95MS", "P99MS"));
                 build.append(LINE_SEPARATOR);
-                build.append(String.format(HEADER_DASH, dash, dash, dash, dash, dash, dash));
+                build.append(String.format(HEADER_DASH, dash, dash, dash, dash, dash, dash, dash, dash, dash));
                 build.append(LINE_SEPARATOR);
             }
             // build.append( String.format( "%-45.45s %8d %11.2f %11.2f %11.2f",
@@ -444,7 +465,10 @@ public class PerformanceLogger implements Serializable
             // pil.getMinimumDuration(), pil.getMaximumDuration() ) );
             build.append(String.format(PRINT_METRIC, pil.getName(), pil.getCallCount(),
                 pil.getAverageDuration() / MILLIS_PER_NANO, pil.getMinimumDuration() / MILLIS_PER_NANO,
-                pil.getMaximumDuration() / MILLIS_PER_NANO, pil.getTotalDuration() / MILLIS_PER_NANO));
+                pil.getMaximumDuration() / MILLIS_PER_NANO, pil.getTotalDuration() / MILLIS_PER_NANO,
+                pil.getDurationPercentile50() / MILLIS_PER_NANO_DOUBLE,
+                pil.getDurationPercentile95() / MILLIS_PER_NANO_DOUBLE,
+                pil.getDurationPercentile99() / MILLIS_PER_NANO_DOUBLE));
             build.append(LINE_SEPARATOR);
         }
 
@@ -517,7 +541,7 @@ public class PerformanceLogger implements Serializable
     private static void printCsvHeaders(StringBuilder build)
     {
         build.append(
-            "Name,Number of calls,Average Duration milliseconds,Minimum Duration milliseconds,Maximum Duration milliseconds,Total Duration milliseconds,Average Size,Maximum Size,Total Size,Cache enabled count,Cache hit count, Error count");
+            "Name,Number of calls,Average Duration milliseconds,Minimum Duration milliseconds,Maximum Duration milliseconds,Total Duration milliseconds,Average Size,Maximum Size,Total Size,Cache enabled count,Cache hit count, Error count,50th Percentile Duration milliseconds,95th Percentile Duration milliseconds,99th Percentile Duration milliseconds,99.9th Percentile Duration milliseconds");
 
         if (csvPrintIntervalName != null)
         {
@@ -543,6 +567,14 @@ public class PerformanceLogger implements Serializable
             build.append(csvPrintIntervalName);
             build.append(",Error count ");
             build.append(csvPrintIntervalName);
+            build.append(",50th Percentile Duration milliseconds ");
+            build.append(csvPrintIntervalName);
+            build.append(",95th Percentile Duration milliseconds ");
+            build.append(csvPrintIntervalName);
+            build.append(",99th Percentile Duration milliseconds ");
+            build.append(csvPrintIntervalName);
+            build.append(",99.9th Percentile Duration milliseconds ");
+            build.append(csvPrintIntervalName);
         }
 
         build.append(LINE_SEPARATOR);
@@ -573,6 +605,14 @@ public class PerformanceLogger implements Serializable
         build.append(pil.getCacheHitCount());
         build.append(",");
         build.append(pil.getErrorCallCount());
+        build.append(",");
+        build.append(String.format("%1.3f", pil.getDurationPercentile50() / MILLIS_PER_NANO_DOUBLE));
+        build.append(",");
+        build.append(String.format("%1.3f", pil.getDurationPercentile95() / MILLIS_PER_NANO_DOUBLE));
+        build.append(",");
+        build.append(String.format("%1.3f", pil.getDurationPercentile99() / MILLIS_PER_NANO_DOUBLE));
+        build.append(",");
+        build.append(String.format("%1.3f", pil.getDurationPercentile999() / MILLIS_PER_NANO_DOUBLE));
     }
 
     /**
@@ -689,7 +729,10 @@ public class PerformanceLogger implements Serializable
             boolean resultFetchedFromCache = metric.isResultFetchedFromCache();
             boolean successful = metric.isSuccessful();
 
-            logEntry.addValue(duration, resultSize, operationCacheEnabled, resultFetchedFromCache, !successful);
+            int samplingWeight = metric.getSamplingWeight();
+
+            logEntry.addValue(duration, resultSize, operationCacheEnabled, resultFetchedFromCache, !successful,
+                samplingWeight);
         }
     }
 
@@ -824,9 +867,6 @@ public class PerformanceLogger implements Serializable
      */
     protected static TimeIntervalLogEntryMXBean getOrCreateEntry(final String id, final String type)
     {
-
-        checkToPerformCleanupAndPrint();
-
         TimeIntervalLogEntryMXBean myEntry = _logEntries.get(id);
         if (myEntry == null)
         {
@@ -838,6 +878,7 @@ public class PerformanceLogger implements Serializable
                 {
                     return myEntry;
                 }
+                startMaintenance();
                 myEntry = getOrCreateLogEntryOnCacheMiss(id);
                 _logEntries.put(id, myEntry);
                 return myEntry;
@@ -942,6 +983,88 @@ public class PerformanceLogger implements Serializable
         return myEntry;
     }
 
+    /**
+     * Start the maintenance thread that performs the cleanup, the periodic
+     * printing and the interval rollover outside of the threads that record
+     * metrics. Calling this method when the maintenance is already running has
+     * no effect.
+     */
+    public static void startMaintenance()
+    {
+        synchronized (globalLock)
+        {
+            if (maintenanceExecutor != null)
+            {
+                return;
+            }
+            maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable runnable)
+                {
+                    Thread thread = new Thread(runnable, "PerformanceLogger maintenance");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            long period = Math.max(1, maintenanceIntervalInMillisecond);
+            maintenanceExecutor.scheduleWithFixedDelay(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    performMaintenance();
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stop the maintenance thread. It will be restarted the next time a new
+     * operation gets measured.
+     */
+    public static void stopMaintenance()
+    {
+        synchronized (globalLock)
+        {
+            if (maintenanceExecutor != null)
+            {
+                maintenanceExecutor.shutdownNow();
+                maintenanceExecutor = null;
+            }
+        }
+    }
+
+    /**
+     * Perform the periodic maintenance. This is called by the maintenance
+     * thread, it cleans up unused log entries to prevent memory leaks, prints
+     * the metrics and prepares the next time intervals so that recording
+     * threads don't have to create them.
+     */
+    protected static void performMaintenance()
+    {
+        try
+        {
+            checkToPerformCleanupAndPrint();
+            prepareNextIntervals();
+        }
+        catch (Exception ex)
+        {
+            LoggingHelper.logUnexpectedException(LOGGER, CLASS_NAME, "performMaintenance()", ex);
+        }
+    }
+
+    /**
+     * Create the upcoming time interval of every registered log entry.
+     */
+    private static void prepareNextIntervals()
+    {
+        for (TotalLogEntry entry : statsRegister.getAllRegisteredBeans().values())
+        {
+            entry.prepareNextIntervals();
+        }
+    }
+
     /**
      * This method will check once every hour to cleanup unused log entries to
      * prevent memory leaks.
@@ -44,6 +44,33 @@ public interface TimeIntervalLogEntryMXBean {
 	 */
 	public long getMaximumDuration();
 
+	/**
+	 * 
+	 * @return The median call duration during the interval in nanoseconds.
+	 */
+	public long getDurationPercentile50();
+
+	/**
+	 * 
+	 * @return The 95th percentile call duration during the interval in
+	 *         nanoseconds.
+	 */
+	public long getDurationPercentile95();
+
+	/**
+	 * 
+	 * @return The 99th percentile call duration during the interval in
+	 *         nanoseconds.
+	 */
+	public long getDurationPercentile99();
+
+	/**
+	 * 
+	 * @return The 99.9th percentile call duration during the interval in
+	 *         nanoseconds.
+	 */
+	public long getDurationPercentile999();
+
 	/**
 	 * 
 	 * @return The average call result size during the interval in bytes.
@@ -195,6 +222,25 @@ public interface TimeIntervalLogEntryMXBean {
      */
     public void addValue(long duration, int resultSize, boolean operationCacheEnabled, boolean resultFetchedFromCache,
         boolean failed);
+
+    /**
+     * Add a sampled execution statistic.
+     * 
+     * @param duration
+     *            Duration in nanoseconds.
+     * @param resultSize
+     *            result size.
+     * @param operationCacheEnabled
+     *            was cache enabled.
+     * @param resultFetchedFromCache
+     *            was result fetched from cache.
+     * @param failed
+     *            was call failed.
+     * @param weight
+     *            number of executions the statistic stands for.
+     */
+    public void addValue(long duration, int resultSize, boolean operationCacheEnabled, boolean resultFetchedFromCache,
+        boolean failed, long weight);
     
     
 	/**
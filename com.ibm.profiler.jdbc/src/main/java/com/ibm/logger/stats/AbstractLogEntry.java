@@ -57,9 +57,15 @@ public abstract class AbstractLogEntry implements TimeIntervalLogEntryMXBean {
 		addValue(value, 0, false, false, failed);
 	}
 
+	@Override
+    public void addValue(long processed, int responseSize,
+			boolean cacheEnabled, boolean cacheHit, boolean failed) {
+		addValue(processed, responseSize, cacheEnabled, cacheHit, failed, 1);
+	}
+
 	@Override
     public abstract void addValue(long processed, int responseSize,
-			boolean cacheEnabled, boolean cacheHit, boolean failed);
+			boolean cacheEnabled, boolean cacheHit, boolean failed, long weight);
 
 	@Override
 	public String getId() {
@@ -107,6 +113,27 @@ public abstract class AbstractLogEntry implements TimeIntervalLogEntryMXBean {
 	}
 
 	
+	@Override
+	public long getDurationPercentile50() {
+		return getStatistics().getDurationPercentile(50.0);
+	}
+
+	@Override
+	public long getDurationPercentile95() {
+		return getStatistics().getDurationPercentile(95.0);
+	}
+
+	@Override
+	public long getDurationPercentile99() {
+		return getStatistics().getDurationPercentile(99.0);
+	}
+
+	@Override
+	public long getDurationPercentile999() {
+		return getStatistics().getDurationPercentile(99.9);
+	}
+
+	
 	@Override
     public double getAverageResponseSize() {
 		OperationStatistics statistics = getStatistics();
@@ -106,9 +106,16 @@ public class TimeIntervalLogEntry extends AbstractLogEntry {
 	 * */
 	@Override
     public void addValue(long processed, int responseSize,
-			boolean cacheEnabled, boolean cacheHit, boolean failed) {
+			boolean cacheEnabled, boolean cacheHit, boolean failed, long weight) {
 		statistics.getCurrentInterval().logStatistic(processed,
-				responseSize, cacheEnabled, cacheHit, !failed);
+				responseSize, cacheEnabled, cacheHit, !failed, weight);
+	}
+
+	/**
+	 * Create the next time interval ahead of time.
+	 */
+	public void prepareNextInterval() {
+		statistics.prepareNextInterval();
 	}
 
 	/**
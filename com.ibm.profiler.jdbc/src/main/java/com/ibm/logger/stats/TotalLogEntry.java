@@ -34,7 +34,7 @@ public class TotalLogEntry extends AbstractLogEntry {
 	private static final Logger LOGGER = Logger.getLogger(TotalLogEntry.class
 			.getName());
 
-	private final OperationStatistics totalStatistics = new OperationStatistics();
+	private final OperationStatistics totalStatistics = OperationStatistics.createStatistics();
 
 	private final TimeIntervalLogEntry[] intervalStatistics;
 	
@@ -77,12 +77,22 @@ public class TotalLogEntry extends AbstractLogEntry {
 	 * */
 	@Override
     public void addValue(long processed, int responseSize,
-			boolean cacheEnabled, boolean cacheHit, boolean failed) {
+			boolean cacheEnabled, boolean cacheHit, boolean failed, long weight) {
 		totalStatistics.logStatistic(processed, responseSize, cacheEnabled,
-				cacheHit, !failed);
+				cacheHit, !failed, weight);
 		for (int i = 0; i < intervalStatistics.length; i++) {
 			intervalStatistics[i].addValue(processed, responseSize,
-					cacheEnabled, cacheHit, failed);
+					cacheEnabled, cacheHit, failed, weight);
+		}
+	}
+
+	/**
+	 * Create the next time interval of every interval statistics ahead of
+	 * time.
+	 */
+	public void prepareNextIntervals() {
+		for (int i = 0; i < intervalStatistics.length; i++) {
+			intervalStatistics[i].prepareNextInterval();
 		}
 	}
 
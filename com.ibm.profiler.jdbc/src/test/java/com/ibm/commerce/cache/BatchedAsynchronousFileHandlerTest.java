@@ -0,0 +1,123 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BatchedAsynchronousFileHandlerTest {
+
+	@Test
+	public void testWriteAndRotate() throws Exception {
+		File directory = Files.createTempDirectory("batchedHandler").toFile();
+		String pattern = new File(directory, "test%g.log").getPath();
+
+		BatchedAsynchronousFileHandler handler = new BatchedAsynchronousFileHandler(pattern, 4096, 2);
+		handler.setFormatter(new Formatter() {
+			@Override
+			public String format(LogRecord record) {
+				return record.getMessage() + "\n";
+			}
+		});
+
+		int recordCount = 1000;
+		for (int i = 0; i < recordCount; ++i) {
+			handler.publish(new LogRecord(Level.INFO, "record-" + i));
+		}
+		handler.close();
+
+		BatchWriteStatisticsMXBean statistics = handler.getStatistics();
+		Assert.assertEquals(recordCount, statistics.getRecordCount());
+		Assert.assertEquals(0, statistics.getDroppedRecordCount());
+		Assert.assertTrue(statistics.getBatchCount() > 0);
+
+		// the newest records are in the first generation
+		List<String> lines = Files.readAllLines(new File(directory, "test0.log").toPath(), StandardCharsets.UTF_8);
+		Assert.assertFalse(lines.isEmpty());
+		Assert.assertEquals("record-" + (recordCount - 1), lines.get(lines.size() - 1));
+		Assert.assertTrue(new File(directory, "test1.log").length() >= 4096);
+		int previous = -1;
+		for (String line : lines) {
+			int index = Integer.parseInt(line.substring("record-".length()));
+			Assert.assertEquals(previous < 0 ? index : previous + 1, index);
+			previous = index;
+		}
+
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void testResizeWhilePublishing() throws Exception {
+		File directory = Files.createTempDirectory("batchedHandler").toFile();
+		String pattern = new File(directory, "resize%g.log").getPath();
+
+		final BatchedAsynchronousFileHandler handler = new BatchedAsynchronousFileHandler(pattern,
+				64 * 1024 * 1024, 1);
+		handler.setFormatter(new Formatter() {
+			@Override
+			public String format(LogRecord record) {
+				return record.getMessage() + "\n";
+			}
+		});
+		handler.setMaximumPendingSize(100000);
+
+		final int publisherCount = 4;
+		final int perPublisher = 20000;
+		List<Thread> publishers = new ArrayList<Thread>();
+		for (int p = 0; p < publisherCount; ++p) {
+			Thread publisher = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < perPublisher; ++i) {
+						handler.publish(new LogRecord(Level.INFO, "record-" + i));
+					}
+				}
+			});
+			publishers.add(publisher);
+			publisher.start();
+		}
+		boolean publishing = true;
+		for (int i = 0; publishing; ++i) {
+			publishing = false;
+			for (Thread publisher : publishers) {
+				publishing |= publisher.isAlive();
+			}
+			handler.setMaximumPendingSize(i % 2 == 0 ? 100000 : 120000);
+		}
+		handler.close();
+
+		BatchWriteStatisticsMXBean statistics = handler.getStatistics();
+		Assert.assertEquals(0, statistics.getDroppedRecordCount());
+		Assert.assertEquals(publisherCount * perPublisher, statistics.getRecordCount());
+
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BinaryMetricFormatTest {
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		Random random = new Random(11);
+		List<OperationMetric> metrics = new ArrayList<OperationMetric>();
+		for (int i = 0; i < 5000; ++i) {
+			metrics.add(createMetric(random, i));
+		}
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		MetricChannelWriter channelWriter = new MetricChannelWriter(128);
+		channelWriter.setChannel(Channels.newChannel(output), 0);
+		BinaryMetricWriter writer = new BinaryMetricWriter(channelWriter);
+		// a small dictionary also exercises the inline strings
+		writer.setMaximumDictionarySize(10);
+		writer.writeHeader();
+		for (OperationMetric metric : metrics) {
+			writer.write(metric);
+		}
+		channelWriter.flush();
+
+		BinaryMetricReader reader = new BinaryMetricReader(
+				new ByteArrayInputStream(output.toByteArray()));
+		for (OperationMetric metric : metrics) {
+			OperationMetric read = reader.read();
+			Assert.assertNotNull(read);
+			Assert.assertEquals(metric.toSerializedString(), read.toSerializedString());
+			Assert.assertEquals(metric.getSamplingWeight(), read.getSamplingWeight());
+
+			OperationMetric parsed = new OperationMetric();
+			Assert.assertTrue(parsed.fromSerializedString(metric.toSerializedString()));
+			Assert.assertEquals(metric.getSamplingWeight(), parsed.getSamplingWeight());
+		}
+		Assert.assertNull(reader.read());
+		reader.close();
+	}
+
+	@Test
+	public void testTruncatedLastRecord() throws IOException {
+		Random random = new Random(5);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		MetricChannelWriter channelWriter = new MetricChannelWriter(128);
+		channelWriter.setChannel(Channels.newChannel(output), 0);
+		BinaryMetricWriter writer = new BinaryMetricWriter(channelWriter);
+		writer.writeHeader();
+		for (int i = 0; i < 10; ++i) {
+			writer.write(createMetric(random, i));
+		}
+		channelWriter.flush();
+		int completeLength = output.size();
+		writer.write(createMetric(random, 10));
+		channelWriter.flush();
+
+		// a writer flushing in the middle of the last record
+		byte[] bytes = Arrays.copyOf(output.toByteArray(),
+				(completeLength + output.size()) / 2);
+		BinaryMetricReader reader = new BinaryMetricReader(
+				new ByteArrayInputStream(bytes));
+		for (int i = 0; i < 10; ++i) {
+			Assert.assertNotNull(reader.read());
+		}
+		Assert.assertFalse(reader.isTruncated());
+		Assert.assertNull(reader.read());
+		Assert.assertTrue(reader.isTruncated());
+		Assert.assertNull(reader.read());
+		reader.close();
+	}
+
+	@Test
+	public void testCorruptedKeyValuePairCount() throws IOException {
+		// a record announcing Integer.MAX_VALUE key value pairs, cut after one
+		byte[] bytes = createRecord(new byte[] { (byte) 0xFF, (byte) 0xFF,
+				(byte) 0xFF, (byte) 0xFF, 0x07,
+				BinaryMetricWriter.STRING_NULL });
+		BinaryMetricReader reader = new BinaryMetricReader(
+				new ByteArrayInputStream(bytes));
+		Assert.assertNull(reader.read());
+		Assert.assertTrue(reader.isTruncated());
+		reader.close();
+
+		// a count that doesn't fit in an int
+		bytes = createRecord(new byte[] { (byte) 0x80, (byte) 0x80,
+				(byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01 });
+		reader = new BinaryMetricReader(new ByteArrayInputStream(bytes));
+		try {
+			reader.read();
+			Assert.fail("the count should be rejected");
+		} catch (IOException ex) {
+			// expected
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * @return a stream with a metric record without identifiers or name,
+	 *         followed by the specified key value pair bytes.
+	 */
+	private static byte[] createRecord(byte[] keyValuePairs) {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		output.write(BinaryMetricWriter.MAGIC, 0,
+				BinaryMetricWriter.MAGIC.length);
+		output.write(BinaryMetricWriter.FORMAT_VERSION);
+		output.write(BinaryMetricWriter.RECORD_METRIC);
+		output.write(0);
+		output.write(0);
+		output.write(BinaryMetricWriter.STRING_NULL);
+		output.write(keyValuePairs, 0, keyValuePairs.length);
+		return output.toByteArray();
+	}
+
+	@Test
+	public void testConvertTextFile() throws Exception {
+		Random random = new Random(3);
+		File textFile = File.createTempFile("metrics", ".txt");
+		File binaryFile = File.createTempFile("metrics", ".bin");
+		try {
+			StringBuilder text = new StringBuilder();
+			List<String> expected = new ArrayList<String>();
+			for (int i = 0; i < 100; ++i) {
+				String serialized = createMetric(random, i).toSerializedString();
+				text.append(serialized).append('\n');
+				// compare with what the text format itself preserves
+				OperationMetric parsed = new OperationMetric();
+				parsed.fromSerializedString(serialized);
+				expected.add(parsed.toSerializedString());
+			}
+			text.append("not a metric\n");
+			Files.write(textFile.toPath(), text.toString().getBytes(StandardCharsets.UTF_8));
+
+			int converted = ConvertMetricFile.convertTextToBinary(textFile.getPath(), binaryFile.getPath());
+			Assert.assertEquals(100, converted);
+			Assert.assertTrue(BinaryMetricReader.isBinaryMetricFile(binaryFile.getPath()));
+			Assert.assertFalse(BinaryMetricReader.isBinaryMetricFile(textFile.getPath()));
+
+			BinaryMetricReader reader = new BinaryMetricReader(new FileInputStream(binaryFile));
+			for (String serialized : expected) {
+				Assert.assertEquals(serialized, reader.read().toSerializedString());
+			}
+			Assert.assertNull(reader.read());
+			reader.close();
+		} finally {
+			textFile.delete();
+			binaryFile.delete();
+		}
+	}
+
+	private static OperationMetric createMetric(Random random, int index) {
+		String[] operations = { "select_*_from_a_where_b=?", "op.name:1", "unicode_é😀" };
+		OperationMetric metric = new OperationMetric();
+		metric.setIdentifier(random.nextLong());
+		metric.setParentIdentifier(index % 5 == 0 ? -1 : random.nextInt(1000));
+		metric.setOperationName(operations[random.nextInt(operations.length)] + (index % 20));
+		if (index % 3 != 0) {
+			metric.setKeyValuePairList(Arrays.asList("key" + random.nextInt(4), "value" + random.nextLong(),
+					"other", "line\nbreak"));
+		}
+		long startTime = 1500000000000L + random.nextInt(1000000);
+		metric.setStartTime(startTime);
+		metric.setStopTime(startTime + random.nextInt(5000));
+		metric.setDuration(random.nextInt(Integer.MAX_VALUE));
+		metric.setResultSize(random.nextInt(100) - 1);
+		metric.setResultFetchedFromCache(random.nextBoolean());
+		metric.setOperationCacheEnabled(random.nextBoolean());
+		metric.setSuccessful(random.nextBoolean());
+		if (index % 7 == 0) {
+			metric.setSamplingWeight(2 + random.nextInt(200));
+		}
+		return metric;
+	}
+}
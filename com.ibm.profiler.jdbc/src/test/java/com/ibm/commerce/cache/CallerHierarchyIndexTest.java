@@ -0,0 +1,167 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares the caller trees of {@link CallerHierarchyIndex} with the level by
+ * level SQL queries on the METRIC table they replace.
+ */
+public class CallerHierarchyIndexTest {
+
+	private static final int MAXIMUM_DEPTH = 5;
+
+	private static final String CALLER_FIELDS = "METRIC.OPERATIONNAME, count(METRIC.IDENTIFIER), avg(METRIC.DURATION), avg(METRIC.RESULTSIZE), "
+			+ "count(DISTINCT(METRIC.KEYVALUE)), cast( count(METRIC.IDENTIFIER) as float)/count(DISTINCT(METRIC.IDENTIFIER)), count(DISTINCT(METRIC.IDENTIFIER))";
+
+	private MetricTestDatabase database;
+
+	@Before
+	public void createDatabase() throws Exception {
+		database = new MetricTestDatabase("callerHierarchyIndexTest");
+	}
+
+	@After
+	public void dropDatabase() throws Exception {
+		database.drop();
+	}
+
+	@Test
+	public void testMatchesSqlCallers() throws Exception {
+		SingleJdbcDataSource dataSource = database.getDataSource();
+
+		DirectDatabaseMetricGatherer gatherer = new DirectDatabaseMetricGatherer();
+		gatherer.setDataSource(dataSource);
+		ColumnarMetricStore store = new ColumnarMetricStore();
+
+		Random random = new Random(11);
+		for (int i = 1; i <= 800; ++i) {
+			OperationMetric metric = new OperationMetric();
+			metric.setIdentifier(i);
+			// a few roots, the others call earlier metrics, up to 10 deep
+			metric.setParentIdentifier(i % 10 == 1 ? 0 : i - 1 - random.nextInt(Math.min(i - 1, 3)));
+			metric.setOperationName("operation" + random.nextInt(4));
+			metric.setKeyValuePairList(new ArrayList<String>(Arrays.asList(
+					"key", "value" + random.nextInt(6))));
+			metric.setDuration(random.nextInt(1000000));
+			metric.setResultSize(random.nextInt(5000));
+			gatherer.gatherMetric(metric);
+			store.gatherMetric(metric);
+			// identifiers loaded twice join twice
+			if (i % 53 == 0) {
+				gatherer.gatherMetric(metric);
+				store.gatherMetric(metric);
+			}
+		}
+		gatherer.writeMetrics();
+
+		ColumnarMetricStore databaseStore = new ColumnarMetricStore();
+		databaseStore.loadFromDatabase(dataSource);
+		Assert.assertEquals(store.getRowCount(), databaseStore.getRowCount());
+
+		CallerHierarchyIndex index = new CallerHierarchyIndex(store,
+				MAXIMUM_DEPTH);
+		CallerHierarchyIndex databaseIndex = new CallerHierarchyIndex(
+				databaseStore, MAXIMUM_DEPTH);
+		Assert.assertNull(index.buildCallerTree("unknown"));
+
+		for (int i = 0; i < 4; ++i) {
+			String operationName = "operation" + i;
+			List<Object> root = AnalyzeMetricFile.executeQuery(
+					dataSource,
+					"select " + CALLER_FIELDS
+							+ " from METRIC where OPERATIONNAME = '"
+							+ operationName + "' group by OPERATIONNAME").get(0);
+			CallerHierarchyIndex.CallerNode node = index
+					.buildCallerTree(operationName);
+			assertNodeEquals(root, node);
+			assertCallersEqual(dataSource, node, 0);
+			assertTreeEquals(node, databaseIndex.buildCallerTree(operationName));
+		}
+	}
+
+	/**
+	 * Former caller analysis : the parent identifiers of a level are stored in
+	 * the CALLER table of the level and joined with METRIC.
+	 */
+	private static void assertCallersEqual(SingleJdbcDataSource dataSource,
+			CallerHierarchyIndex.CallerNode node, int depth) throws Exception {
+		if (depth >= MAXIMUM_DEPTH) {
+			Assert.assertTrue(node.getChildList().isEmpty());
+			return;
+		}
+		String where = depth == 0 ? "" : "IDENTIFIER in (SELECT IDENTIFIER from CALLER" + (depth - 1) + ") and ";
+		CacheUtilities.execute(dataSource, "delete from CALLER" + depth);
+		PreparedStatement insert = dataSource.getConnection().prepareStatement(
+				"INSERT INTO CALLER" + depth + "(IDENTIFIER) select PARENTIDENTIFIER from METRIC where "
+						+ where + "OPERATIONNAME = ?");
+		insert.setString(1, node.getOperationName());
+		insert.executeUpdate();
+		insert.close();
+
+		List<List<Object>> callers = AnalyzeMetricFile.executeQuery(dataSource,
+				"select " + CALLER_FIELDS + " from METRIC INNER JOIN CALLER"
+						+ depth + " ON METRIC.IDENTIFIER=CALLER" + depth
+						+ ".IDENTIFIER GROUP BY METRIC.OPERATIONNAME ORDER BY METRIC.OPERATIONNAME");
+		Assert.assertEquals(callers.size(), node.getChildList().size());
+		for (int i = 0; i < callers.size(); ++i) {
+			CallerHierarchyIndex.CallerNode child = node.getChildList().get(i);
+			assertNodeEquals(callers.get(i), child);
+			assertCallersEqual(dataSource, child, depth + 1);
+		}
+	}
+
+	private static void assertNodeEquals(List<Object> expected,
+			CallerHierarchyIndex.CallerNode node) {
+		Assert.assertEquals(expected.get(0), node.getOperationName());
+		Assert.assertEquals(((Number) expected.get(1)).longValue(),
+				node.getCallCount());
+		Assert.assertEquals(((Number) expected.get(2)).longValue(),
+				node.getAverageDuration());
+		Assert.assertEquals(((Number) expected.get(3)).longValue(),
+				node.getAverageSize());
+		Assert.assertEquals(((Number) expected.get(4)).longValue(),
+				node.getUniqueCallerCount());
+		Assert.assertEquals(((Number) expected.get(5)).floatValue(),
+				node.getAverageCallCount(), 0f);
+		Assert.assertEquals(((Number) expected.get(6)).longValue(),
+				node.getParentCount());
+	}
+
+	private static void assertTreeEquals(CallerHierarchyIndex.CallerNode expected,
+			CallerHierarchyIndex.CallerNode actual) {
+		Assert.assertEquals(expected.getOperationName(), actual.getOperationName());
+		Assert.assertEquals(expected.getCallCount(), actual.getCallCount());
+		Assert.assertEquals(expected.getAverageDuration(), actual.getAverageDuration());
+		Assert.assertEquals(expected.getAverageSize(), actual.getAverageSize());
+		Assert.assertEquals(expected.getUniqueCallerCount(), actual.getUniqueCallerCount());
+		Assert.assertEquals(expected.getParentCount(), actual.getParentCount());
+		Assert.assertEquals(expected.getChildList().size(), actual.getChildList().size());
+		for (int i = 0; i < expected.getChildList().size(); ++i) {
+			assertTreeEquals(expected.getChildList().get(i), actual.getChildList().get(i));
+		}
+	}
+}
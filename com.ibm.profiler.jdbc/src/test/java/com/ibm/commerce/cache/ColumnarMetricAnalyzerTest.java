@@ -0,0 +1,193 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares the in memory analysis with the SQL analysis of
+ * {@link MetricCompiler} on the same metrics.
+ */
+public class ColumnarMetricAnalyzerTest {
+
+	private static final long[] STEPS = { 2, 10, 50 };
+
+	private MetricTestDatabase database;
+
+	@Before
+	public void createDatabase() throws Exception {
+		database = new MetricTestDatabase("columnarMetricAnalyzerTest");
+	}
+
+	@After
+	public void dropDatabase() throws Exception {
+		database.drop();
+	}
+
+	@Test
+	public void testMatchesSqlAnalysis() throws Exception {
+		SingleJdbcDataSource dataSource = database.getDataSource();
+
+		DirectDatabaseMetricGatherer gatherer = new DirectDatabaseMetricGatherer();
+		gatherer.setDataSource(dataSource);
+		ColumnarMetricStore store = new ColumnarMetricStore();
+
+		Random random = new Random(7);
+		for (int i = 0; i < 3000; ++i) {
+			OperationMetric metric = createMetric(random, i);
+			gatherer.gatherMetric(metric);
+			store.gatherMetric(metric);
+		}
+		gatherer.writeMetrics();
+
+		ColumnarMetricAnalyzer analyzer = new ColumnarMetricAnalyzer(store);
+		analyzer.setParallelism(4);
+		analyzer.setMinimumRangeSize(100);
+		analyzer.compute(STEPS, Long.MAX_VALUE);
+
+		// allocate half of the requested space so that some steps don't fit
+		long requested = 0;
+		for (ColumnarMetricAnalyzer.CacheHitStep step : analyzer
+				.getCacheHitSteps()) {
+			requested += (long) step.getSumAverageResultSize();
+		}
+		long cacheSize = requested / 2;
+		analyzer.compute(STEPS, cacheSize);
+
+		MetricCompiler.aggregateCacheHits(dataSource);
+		MetricCompiler.regroupCacheHitsInSteps(dataSource, STEPS);
+		MetricCompiler.allocateCacheSpace(dataSource, cacheSize);
+
+		List<List<Object>> uniqueRows = AnalyzeMetricFile
+				.executeQuery(
+						dataSource,
+						"SELECT OPERATIONNAME,KEYVALUE,CACHEHITCOUNT,CALLCOUNT,AVERAGEDURATION,AVERAGEDURATIONMISS,AVERAGEDURATIONHIT,AVERAGERESULTSIZE,REALCACHEHITCOUNT,REALCACHEACTCOUNT from UNIQUECACHEHITS");
+		Map<String, List<Object>> expectedHits = new HashMap<String, List<Object>>();
+		for (List<Object> row : uniqueRows) {
+			expectedHits.put(row.get(0) + "|" + row.get(1), row);
+		}
+		Assert.assertEquals(expectedHits.size(), analyzer.getUniqueCacheHits()
+				.size());
+		for (ColumnarMetricAnalyzer.UniqueCacheHit hit : analyzer
+				.getUniqueCacheHits()) {
+			List<Object> row = expectedHits.get(store.getOperationNameById(hit
+					.getOperationId()) + "|" + store.getKeyById(hit.getKeyId()));
+			Assert.assertNotNull(row);
+			long[] actual = { hit.getCacheHitCount(), hit.getCallCount(),
+					hit.getAverageDuration(), hit.getAverageDurationMiss(),
+					hit.getAverageDurationHit(), hit.getAverageResultSize(),
+					hit.getRealCacheHitCount(), hit.getRealCacheActCount() };
+			for (int i = 0; i < actual.length; ++i) {
+				Assert.assertEquals(((Number) row.get(i + 2)).longValue(),
+						actual[i]);
+			}
+		}
+
+		assertStepsEqual(dataSource, "CACHEHITSTEPS",
+				analyzer.getCacheHitSteps());
+		assertStepsEqual(dataSource, "CACHEALLOCATION",
+				analyzer.getCacheAllocations());
+
+		for (int operationId = 0; operationId < store.getOperationCount(); ++operationId) {
+			String operationName = store.getOperationNameById(operationId);
+			String where = " from METRIC where OPERATIONNAME='" + operationName
+					+ "'";
+			List<Object> durations = AnalyzeMetricFile.executeQuery(
+					dataSource,
+					"SELECT min(DURATION), max(DURATION), avg(DURATION)"
+							+ where).get(0);
+			List<Object> average = AnalyzeMetricFile.executeQuery(
+					dataSource,
+					"SELECT min(DURATION)" + where + " and DURATION >= "
+							+ durations.get(2)).get(0);
+
+			int[] stackRows = analyzer.getStackRows(operationName);
+			Assert.assertEquals(((Number) durations.get(0)).longValue(),
+					store.getDuration(stackRows[0]));
+			Assert.assertEquals(((Number) average.get(0)).longValue(),
+					store.getDuration(stackRows[1]));
+			Assert.assertEquals(((Number) durations.get(1)).longValue(),
+					store.getDuration(stackRows[2]));
+		}
+
+		int[] roots = analyzer.getLongestRootRows(10);
+		Assert.assertEquals(10, roots.length);
+		for (int root : roots) {
+			long identifier = store.getIdentifier(root);
+			List<List<Object>> children = AnalyzeMetricFile.executeQuery(
+					dataSource,
+					"SELECT IDENTIFIER from METRIC where PARENTIDENTIFIER="
+							+ identifier + " order by STARTIME");
+			int[] childRows = store.getChildRows(identifier);
+			Assert.assertEquals(children.size(), childRows.length);
+			for (int i = 0; i < childRows.length; ++i) {
+				Assert.assertEquals(
+						((Number) children.get(i).get(0)).longValue(),
+						store.getIdentifier(childRows[i]));
+			}
+		}
+	}
+
+	private static void assertStepsEqual(SingleJdbcDataSource dataSource,
+			String table, List<ColumnarMetricAnalyzer.CacheHitStep> steps)
+			throws Exception {
+		List<List<Object>> rows = AnalyzeMetricFile
+				.executeQuery(
+						dataSource,
+						"SELECT OPERATIONNAME,STEP,AVERAGEDURATION,AVERAGEDURATIONHIT,AVERAGEDURATIONMISS,SUMAVERAGERESULTSIZE,AVERAGERESULTSIZE,KEYVALUECOUNT,SUMCACHEHITCOUNT,SUMCALLCOUNT,SECONDSAVEDPERBYTE,CACHEALLOCATION,SUMREALCACHEHITCOUNT,SUMREALCACHEACTCOUNT from "
+								+ table);
+		Map<String, List<Object>> expected = new HashMap<String, List<Object>>();
+		for (List<Object> row : rows) {
+			expected.put(row.get(0) + "|" + row.get(1), row);
+		}
+		Assert.assertEquals(table, expected.size(), steps.size());
+		for (ColumnarMetricAnalyzer.CacheHitStep step : steps) {
+			List<Object> row = expected.get(step.getOperationName() + "|"
+					+ step.getStep());
+			Assert.assertNotNull(table, row);
+			double[] actual = { step.getAverageDuration(),
+					step.getAverageDurationHit(), step.getAverageDurationMiss(),
+					step.getSumAverageResultSize(), step.getAverageResultSize(),
+					step.getKeyValueCount(), step.getSumCacheHitCount(),
+					step.getSumCallCount(), step.getSecondSavedPerByte(),
+					step.getCacheAllocation(), step.getSumRealCacheHitCount(),
+					step.getSumRealCacheActCount() };
+			for (int i = 0; i < actual.length; ++i) {
+				double value = ((Number) row.get(i + 2)).doubleValue();
+				Assert.assertEquals(table + " " + row, value, actual[i],
+						Math.abs(value) * 1e-9);
+			}
+		}
+	}
+
+	private static OperationMetric createMetric(Random random, int index) {
+		OperationMetric metric = MetricTestDatabase.createMetric(random, index);
+		// every fourth metric is a root, the others are children of an
+		// earlier root
+		if (index % 4 != 0) {
+			metric.setParentIdentifier((random.nextInt(index / 4 + 1) * 4) + 1);
+		}
+		return metric;
+	}
+}
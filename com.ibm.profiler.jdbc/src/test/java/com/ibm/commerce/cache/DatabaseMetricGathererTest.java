@@ -0,0 +1,188 @@
+/*
+ * Copyright 2017 Steve McDuff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.ibm.logger.PerformanceLoggerManager;
+
+public class DatabaseMetricGathererTest {
+
+	@Test
+	public void testMultiRowInsertWithTwoWriters() throws Exception {
+		SingleJdbcConnection connection = new SingleJdbcConnection();
+		connection.setConnection(DriverManager
+				.getConnection("jdbc:derby:memory:databaseMetricGathererTest;create=true"));
+		SingleJdbcDataSource dataSource = new SingleJdbcDataSource();
+		dataSource.setConnection(connection);
+		MetricCompiler.createMetricTable(dataSource);
+
+		DatabaseMetricGatherer gatherer = new DatabaseMetricGatherer();
+		gatherer.setDataSource(dataSource);
+		gatherer.setMaximumPendingSize(10000);
+		gatherer.setMaximumDatabaseBatchSize(230);
+		gatherer.setMultiRowInsertSize(50);
+		gatherer.setWriterThreadCount(2);
+		gatherer.setThreadJoinTimeout(30000);
+		gatherer.start();
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName query = new ObjectName(PerformanceLoggerManager.JMX_DOMAIN
+				+ ":type=DatabaseMetricGatherer,*");
+		Set<ObjectName> names = server.queryNames(query, null);
+		Assert.assertEquals(1, names.size());
+		ObjectName name = names.iterator().next();
+		Assert.assertEquals(Integer.valueOf(2),
+				server.getAttribute(name, "WriterThreadCount"));
+
+		long identifierSum = 0;
+		for (int i = 1; i <= 2000; ++i) {
+			OperationMetric metric = new OperationMetric();
+			metric.setIdentifier(i);
+			metric.setOperationName("operation" + (i % 7));
+			metric.setStartTime(i);
+			metric.setStopTime(i + 10);
+			metric.setDuration(10);
+			gatherer.gatherMetric(metric);
+			identifierSum += i;
+		}
+		gatherer.stop();
+
+		Assert.assertTrue(server.queryNames(query, null).isEmpty());
+
+		List<Object> row = AnalyzeMetricFile.executeQuery(dataSource,
+				"select count(*), sum(IDENTIFIER) from METRIC").get(0);
+		Assert.assertEquals(2000, ((Number) row.get(0)).intValue());
+		Assert.assertEquals(identifierSum, ((Number) row.get(1)).longValue());
+
+		DatabaseWriteStatistics statistics = gatherer.getStatistics();
+		Assert.assertEquals(2000, statistics.getRecordCount());
+		Assert.assertEquals(50, statistics.getRowsPerInsertStatement());
+		Assert.assertEquals(0, statistics.getDroppedRecordCount());
+		Assert.assertTrue(statistics.getSustainedRowsPerSecond() > 0);
+	}
+
+	@Test
+	public void testMultiRowInsertRefusedOnExecute() throws Exception {
+		// DB2 only prepares the statement when it is first executed
+		SingleJdbcConnection connection = new SingleJdbcConnection() {
+			@Override
+			public PreparedStatement prepareStatement(String sql)
+					throws SQLException {
+				final PreparedStatement statement = super.prepareStatement(sql);
+				if (!sql.contains("),(")) {
+					return statement;
+				}
+				InvocationHandler handler = new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) throws Throwable {
+						if (method.getName().equals("executeBatch")) {
+							throw new SQLException("Statement too long.",
+									"54001");
+						}
+						try {
+							return method.invoke(statement, args);
+						} catch (InvocationTargetException e) {
+							throw e.getCause();
+						}
+					}
+				};
+				return (PreparedStatement) Proxy.newProxyInstance(
+						getClass().getClassLoader(),
+						new Class<?>[] { PreparedStatement.class }, handler);
+			}
+		};
+		connection.setConnection(DriverManager
+				.getConnection("jdbc:derby:memory:multiRowInsertRefusedTest;create=true"));
+		SingleJdbcDataSource dataSource = new SingleJdbcDataSource();
+		dataSource.setConnection(connection);
+		MetricCompiler.createMetricTable(dataSource);
+
+		DatabaseMetricGatherer gatherer = new DatabaseMetricGatherer();
+		gatherer.setDataSource(dataSource);
+		gatherer.setMaximumPendingSize(10000);
+		gatherer.setMultiRowInsertSize(50);
+		gatherer.setThreadJoinTimeout(30000);
+		gatherer.start();
+		for (int i = 1; i <= 500; ++i) {
+			OperationMetric metric = new OperationMetric();
+			metric.setIdentifier(i);
+			metric.setOperationName("operation" + (i % 7));
+			gatherer.gatherMetric(metric);
+		}
+		gatherer.stop();
+
+		List<Object> row = AnalyzeMetricFile.executeQuery(dataSource,
+				"select count(*) from METRIC").get(0);
+		Assert.assertEquals(500, ((Number) row.get(0)).intValue());
+		DatabaseWriteStatistics statistics = gatherer.getStatistics();
+		Assert.assertEquals(1, statistics.getRowsPerInsertStatement());
+		Assert.assertEquals(0, statistics.getDroppedRecordCount());
+	}
+
+	@Test
+	public void testBatchSizeFollowsRowLatency() {
+		DatabaseMetricGatherer gatherer = new DatabaseMetricGatherer();
+		gatherer.setMaximumDatabaseBatchSize(1000);
+		gatherer.setTargetBatchWriteTime(100);
+		long rowLatency = TimeUnit.MILLISECONDS.toNanos(1);
+
+		gatherer.adjustBatchSize(1000, 1000 * rowLatency);
+		Assert.assertEquals(550, gatherer.getCurrentDatabaseBatchSize());
+
+		// partial batches are ignored
+		gatherer.adjustBatchSize(20, 20 * rowLatency * 50);
+		Assert.assertEquals(550, gatherer.getCurrentDatabaseBatchSize());
+
+		for (int i = 0; i < 20; ++i) {
+			int batchSize = gatherer.getCurrentDatabaseBatchSize();
+			gatherer.adjustBatchSize(batchSize, batchSize * rowLatency);
+		}
+		Assert.assertEquals(100, gatherer.getCurrentDatabaseBatchSize());
+
+		// a very slow database keeps the minimum batch size
+		for (int i = 0; i < 20; ++i) {
+			int batchSize = gatherer.getCurrentDatabaseBatchSize();
+			gatherer.adjustBatchSize(batchSize, batchSize * rowLatency * 1000);
+		}
+		Assert.assertEquals(DatabaseMetricGatherer.MINIMUM_DATABASE_BATCH_SIZE,
+				gatherer.getCurrentDatabaseBatchSize());
+
+		// a fast database grows back up to the maximum
+		for (int i = 0; i < 20; ++i) {
+			int batchSize = gatherer.getCurrentDatabaseBatchSize();
+			gatherer.adjustBatchSize(batchSize, batchSize * 1000l);
+		}
+		Assert.assertEquals(1000, gatherer.getCurrentDatabaseBatchSize());
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DurationHistogramTest {
+
+	@Test
+	public void testBucketBoundaries() {
+		int previousIndex = 0;
+		for (long value = 0; value < (1L << 40); value = value * 3 / 2 + 1) {
+			int index = DurationHistogram.getBucketIndex(value);
+			Assert.assertTrue(index >= previousIndex);
+			Assert.assertTrue(index < DurationHistogram.BUCKET_COUNT);
+			long highestValue = DurationHistogram.getHighestValue(index);
+			Assert.assertTrue("value " + value, value <= highestValue);
+			Assert.assertEquals(index,
+					DurationHistogram.getBucketIndex(highestValue));
+			previousIndex = index;
+		}
+		Assert.assertEquals(DurationHistogram.BUCKET_COUNT - 1,
+				DurationHistogram.getBucketIndex(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void testPercentiles() {
+		DurationHistogram histogram = new DurationHistogram();
+		for (long i = 1; i <= 10000; ++i) {
+			histogram.recordValue(i * 1000000);
+		}
+		Assert.assertEquals(10000, histogram.getTotalCount());
+		assertWithinError(5000000000L, histogram.getValueAtPercentile(50.0));
+		assertWithinError(9900000000L, histogram.getValueAtPercentile(99.0));
+		assertWithinError(9990000000L, histogram.getValueAtPercentile(99.9));
+		Assert.assertEquals(0, new DurationHistogram().getValueAtPercentile(99.0));
+	}
+
+	@Test
+	public void testMergeIntervals() {
+		OperationStatistics first = new OperationStatistics();
+		first.setIndex(1);
+		OperationStatistics second = new StripedOperationStatistics();
+		second.setIndex(2);
+		for (int i = 0; i < 99; ++i) {
+			first.logStatistic(1000000, 0, false, false, true);
+		}
+		second.logStatistic(500000000, 0, false, false, true);
+
+		OperationStatistics aggregate = new OperationStatistics();
+		aggregate.aggregateStatisticsIfInInterval(first, 1, 2);
+		aggregate.aggregateStatisticsIfInInterval(second, 1, 2);
+
+		Assert.assertEquals(100, aggregate.getDurationHistogram().getTotalCount());
+		assertWithinError(1000000, aggregate.getDurationPercentile(50.0));
+		Assert.assertEquals(500000000, aggregate.getDurationPercentile(99.9));
+	}
+
+	private static void assertWithinError(long expected, long actual) {
+		Assert.assertEquals(expected, actual, expected * 0.07);
+	}
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares the incremental cache hit analysis, run over several loads, with
+ * the SQL analysis of {@link MetricCompiler} on all the metrics.
+ */
+public class IncrementalCacheHitAggregatorTest {
+
+	private static final long[] STEPS = { 2, 10, 50 };
+
+	private static final String UNIQUE_CACHE_HITS_SQL = "SELECT OPERATIONNAME,KEYVALUE,CACHEHITCOUNT,CALLCOUNT,REALCACHEHITCOUNT,REALCACHEACTCOUNT,AVERAGEDURATION,AVERAGEDURATIONMISS,AVERAGEDURATIONHIT,AVERAGERESULTSIZE from UNIQUECACHEHITS";
+
+	private static final String UNIQUE_CACHE_HIT_SUMS_SQL = "SELECT OPERATIONNAME,KEYVALUE,CALLCOUNT,SUMDURATION,SUMDURATIONMISS,SUMDURATIONHIT,SUMRESULTSIZE,REALCACHEHITCOUNT,REALCACHEACTCOUNT from UNIQUECACHEHITSUMS";
+
+	private static final String METRIC_SUMS_SQL = "SELECT OPERATIONNAME,KEYVALUE,count(*),sum(DURATION),sum(CASE WHEN FROMCACHE = '0' THEN DURATION ELSE 0 END),sum(CASE WHEN FROMCACHE = '1' THEN DURATION ELSE 0 END),sum(cast( RESULTSIZE as BIGINT )),sum(cast( FROMCACHE as BIGINT )),sum(cast( CACHEENABLED as BIGINT )) from METRIC GROUP BY OPERATIONNAME,KEYVALUE";
+
+	private static final String STEPS_SQL = "SELECT OPERATIONNAME,STEP,KEYVALUECOUNT,SUMCACHEHITCOUNT,SUMCALLCOUNT,SUMREALCACHEHITCOUNT,SUMREALCACHEACTCOUNT,AVERAGEDURATION,AVERAGEDURATIONHIT,AVERAGEDURATIONMISS,SUMAVERAGERESULTSIZE,AVERAGERESULTSIZE,SECONDSAVEDPERBYTE,CACHEALLOCATION from ";
+
+	private MetricTestDatabase database;
+
+	@Before
+	public void createDatabase() throws Exception {
+		database = new MetricTestDatabase("incrementalCacheHitAggregatorTest");
+	}
+
+	@After
+	public void dropDatabase() throws Exception {
+		database.drop();
+	}
+
+	@Test
+	public void testMatchesFullRecomputation() throws Exception {
+		SingleJdbcDataSource dataSource = database.getDataSource();
+
+		DirectDatabaseMetricGatherer gatherer = new DirectDatabaseMetricGatherer();
+		gatherer.setDataSource(dataSource);
+		Random random = new Random(11);
+
+		// a first load without analysis, the table gets rebuilt
+		for (int i = 0; i < 1000; ++i) {
+			gatherer.gatherMetric(MetricTestDatabase.createMetric(random, i));
+		}
+		gatherer.writeMetrics();
+
+		IncrementalCacheHitAggregator aggregator = new IncrementalCacheHitAggregator(
+				gatherer, STEPS);
+		aggregator.initialize(dataSource);
+		for (int i = 1000; i < 2000; ++i) {
+			aggregator.gatherMetric(MetricTestDatabase.createMetric(random, i));
+		}
+		aggregator.writeMetrics();
+		aggregator.writeResults(dataSource, Long.MAX_VALUE);
+		long cacheSize = ((Number) AnalyzeMetricFile
+				.executeQuery(dataSource,
+						"SELECT sum(SUMAVERAGERESULTSIZE) from CACHEHITSTEPS")
+				.get(0).get(0)).longValue() / 2;
+
+		// a later run only loads the new metrics
+		aggregator = new IncrementalCacheHitAggregator(gatherer, STEPS);
+		aggregator.initialize(dataSource);
+		for (int i = 2000; i < 3000; ++i) {
+			aggregator.gatherMetric(MetricTestDatabase.createMetric(random, i));
+		}
+		aggregator.writeMetrics();
+		aggregator.writeResults(dataSource, cacheSize);
+
+		Map<String, List<Object>> uniqueCacheHits = readRows(dataSource,
+				UNIQUE_CACHE_HITS_SQL);
+		Map<String, List<Object>> cacheHitSteps = readRows(dataSource,
+				STEPS_SQL + "CACHEHITSTEPS");
+		Map<String, List<Object>> cacheAllocations = readRows(dataSource,
+				STEPS_SQL + "CACHEALLOCATION");
+
+		MetricCompiler.clearUniqueCacheHitsTable(dataSource);
+		MetricCompiler.clearCacheHitStepsTable(dataSource);
+		MetricCompiler.clearCacheAllocationTable(dataSource);
+		MetricCompiler.aggregateCacheHits(dataSource);
+		MetricCompiler.regroupCacheHitsInSteps(dataSource, STEPS);
+		MetricCompiler.allocateCacheSpace(dataSource, cacheSize);
+
+		assertRowsEqual(readRows(dataSource, UNIQUE_CACHE_HITS_SQL),
+				uniqueCacheHits);
+		assertRowsEqual(readRows(dataSource, METRIC_SUMS_SQL),
+				readRows(dataSource, UNIQUE_CACHE_HIT_SUMS_SQL));
+		assertRowsEqual(readRows(dataSource, STEPS_SQL + "CACHEHITSTEPS"),
+				cacheHitSteps);
+		assertRowsEqual(readRows(dataSource, STEPS_SQL + "CACHEALLOCATION"),
+				cacheAllocations);
+	}
+
+	private static Map<String, List<Object>> readRows(
+			SingleJdbcDataSource dataSource, String sql) throws Exception {
+		Map<String, List<Object>> rows = new HashMap<String, List<Object>>();
+		for (List<Object> row : AnalyzeMetricFile.executeQuery(dataSource, sql)) {
+			rows.put(row.get(0) + "|" + row.get(1), row);
+		}
+		return rows;
+	}
+
+	private static void assertRowsEqual(Map<String, List<Object>> expected,
+			Map<String, List<Object>> actual) {
+		Assert.assertEquals(expected.keySet(), actual.keySet());
+		for (Map.Entry<String, List<Object>> entry : expected.entrySet()) {
+			List<Object> expectedRow = entry.getValue();
+			List<Object> actualRow = actual.get(entry.getKey());
+			for (int i = 2; i < expectedRow.size(); ++i) {
+				double expectedValue = ((Number) expectedRow.get(i))
+						.doubleValue();
+				double actualValue = ((Number) actualRow.get(i)).doubleValue();
+				Assert.assertEquals(entry.getKey() + " column " + i,
+						expectedValue, actualValue,
+						Math.abs(expectedValue) * 1e-9);
+			}
+		}
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MappedLineScannerTest {
+
+	private static final String TEXT = "first\r\nsecond\rthird\n\nlong line with <exit marker é\r\nlast";
+
+	private static final List<String> LINES = Arrays.asList("first", "second",
+			"third", "", "long line with <exit marker é", "last");
+
+	@Test
+	public void testLinesMatchBufferedReader() throws Exception {
+		// window sizes splitting the \r\n pairs and shorter than some lines
+		for (int windowSize : new int[] { 3, 6, 7, 16, 1024 }) {
+			Assert.assertEquals("window " + windowSize, LINES,
+					scan(StandardCharsets.UTF_8, windowSize));
+			Assert.assertEquals("window " + windowSize, LINES,
+					scan(StandardCharsets.ISO_8859_1, windowSize));
+		}
+	}
+
+	@Test
+	public void testIndexOfAndDecodeFromMarker() throws Exception {
+		File file = writeFile(StandardCharsets.UTF_8);
+		FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ);
+		try {
+			MappedLineScanner scanner = new MappedLineScanner(channel,
+					StandardCharsets.UTF_8, 0, channel.size(), 8);
+			byte[] marker = "<exit".getBytes(StandardCharsets.UTF_8);
+			List<String> found = new ArrayList<String>();
+			while (scanner.nextLine()) {
+				int markerOffset = scanner.indexOf(marker);
+				if (markerOffset >= 0) {
+					found.add(scanner.decode(markerOffset));
+				}
+			}
+			Assert.assertEquals(Arrays.asList("<exit marker é"), found);
+			Assert.assertEquals(LINES.size(), scanner.getLineCount());
+		} finally {
+			channel.close();
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testSupportedCharsets() {
+		Assert.assertTrue(MappedLineScanner.isSupported(StandardCharsets.UTF_8));
+		Assert.assertTrue(MappedLineScanner
+				.isSupported(StandardCharsets.ISO_8859_1));
+		Assert.assertFalse(MappedLineScanner
+				.isSupported(StandardCharsets.UTF_16));
+	}
+
+	private static List<String> scan(Charset charset, int windowSize)
+			throws Exception {
+		File file = writeFile(charset);
+		FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ);
+		try {
+			MappedLineScanner scanner = new MappedLineScanner(channel, charset,
+					0, channel.size(), windowSize);
+			List<String> lines = new ArrayList<String>();
+			while (scanner.nextLine()) {
+				lines.add(scanner.decode(0));
+			}
+			return lines;
+		} finally {
+			channel.close();
+			file.delete();
+		}
+	}
+
+	private static File writeFile(Charset charset) throws Exception {
+		File file = File.createTempFile("mappedLineScanner", ".log");
+		Files.write(file.toPath(), TEXT.getBytes(charset));
+		return file;
+	}
+}
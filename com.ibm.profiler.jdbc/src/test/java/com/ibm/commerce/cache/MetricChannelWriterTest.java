@@ -0,0 +1,71 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MetricChannelWriterTest {
+
+	@Test
+	public void testSameBytesAsWriterSerialization() throws Exception {
+		Random random = new Random(7);
+		for (int i = 0; i < 2000; ++i) {
+			OperationMetric metric = new OperationMetric();
+			metric.setIdentifier(random.nextLong());
+			metric.setParentIdentifier(i % 3 == 0 ? Long.MIN_VALUE : random.nextInt());
+			metric.setOperationName(randomString(random));
+			metric.setKeyValuePairList(Arrays.asList(randomString(random), randomString(random)));
+			metric.setStartTime(random.nextLong());
+			metric.setStopTime(random.nextInt(1000000));
+			metric.setDuration(Math.abs(random.nextLong()));
+			metric.setResultSize(random.nextInt());
+			metric.setResultFetchedFromCache(random.nextBoolean());
+			metric.setSuccessful(random.nextBoolean());
+
+			ByteArrayOutputStream expected = new ByteArrayOutputStream();
+			OutputStreamWriter streamWriter = new OutputStreamWriter(expected, "UTF-8");
+			metric.toSerializedString(streamWriter);
+			streamWriter.flush();
+
+			ByteArrayOutputStream actual = new ByteArrayOutputStream();
+			// a small buffer forces flushes in the middle of values
+			MetricChannelWriter channelWriter = new MetricChannelWriter(1);
+			channelWriter.setChannel(Channels.newChannel(actual), 0);
+			metric.toSerializedBytes(channelWriter);
+			channelWriter.flush();
+
+			Assert.assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+			Assert.assertEquals(actual.size(), channelWriter.getLength());
+		}
+	}
+
+	private static String randomString(Random random) {
+		String alphabet = "ab.:,;\n\r\t& é中😀\ud800";
+		int length = random.nextInt(20);
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < length; ++i) {
+			builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * In memory Derby database holding the tables of {@link MetricCompiler},
+ * shared by the tests comparing an analysis with its SQL version.
+ */
+public class MetricTestDatabase {
+
+	/**
+	 * SQL state of a successful Derby database drop.
+	 */
+	private static final String DATABASE_DROPPED_STATE = "08006";
+
+	private final String url;
+
+	private final Connection connection;
+
+	private final SingleJdbcDataSource dataSource;
+
+	/**
+	 * Create the database and its tables.
+	 * 
+	 * @param name
+	 *            the database name, unique per test.
+	 * @throws Exception
+	 *             if the database can't be created.
+	 */
+	public MetricTestDatabase(String name) throws Exception {
+		url = "jdbc:derby:memory:" + name;
+		connection = DriverManager.getConnection(url + ";create=true");
+		SingleJdbcConnection jdbcConnection = new SingleJdbcConnection();
+		jdbcConnection.setConnection(connection);
+		dataSource = new SingleJdbcDataSource();
+		dataSource.setConnection(jdbcConnection);
+		MetricCompiler.createTables(dataSource);
+	}
+
+	/**
+	 * @return the data source of the database.
+	 */
+	public SingleJdbcDataSource getDataSource() {
+		return dataSource;
+	}
+
+	/**
+	 * Close the connection and drop the database.
+	 * 
+	 * @throws SQLException
+	 *             if the database couldn't be dropped.
+	 */
+	public void drop() throws SQLException {
+		connection.close();
+		try {
+			DriverManager.getConnection(url + ";drop=true");
+		} catch (SQLException ex) {
+			if (!DATABASE_DROPPED_STATE.equals(ex.getSQLState())) {
+				throw ex;
+			}
+		}
+	}
+
+	/**
+	 * Create a random root metric of one of 5 operations with one of 40 key
+	 * values.
+	 * 
+	 * @param random
+	 *            the random generator.
+	 * @param index
+	 *            the index of the metric, its identifier minus one.
+	 * @return the metric.
+	 */
+	public static OperationMetric createMetric(Random random, int index) {
+		OperationMetric metric = new OperationMetric();
+		metric.setIdentifier(index + 1);
+		metric.setOperationName("operation" + random.nextInt(5));
+		List<String> keyValues = new ArrayList<String>(Arrays.asList("key",
+				"value" + random.nextInt(40)));
+		metric.setKeyValuePairList(keyValues);
+		long startTime = index * 1000l + random.nextInt(1000);
+		long duration = random.nextInt(1000000);
+		metric.setStartTime(startTime);
+		metric.setStopTime(startTime + duration);
+		metric.setDuration(duration);
+		metric.setResultSize(random.nextInt(5000));
+		metric.setResultFetchedFromCache(random.nextInt(3) == 0);
+		metric.setOperationCacheEnabled(random.nextBoolean());
+		return metric;
+	}
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ParallelMetricFileLoaderTest {
+
+	/**
+	 * Gatherer keeping every metric in memory.
+	 */
+	private static class CollectingGatherer implements DirectMetricGather {
+
+		private final List<OperationMetric> metrics = Collections
+				.synchronizedList(new ArrayList<OperationMetric>());
+
+		@Override
+		public void gatherMetric(OperationMetric metric) {
+			metrics.add(metric);
+		}
+
+		@Override
+		public void start() {
+		}
+
+		@Override
+		public void stop() {
+		}
+
+		@Override
+		public boolean isEnabled() {
+			return true;
+		}
+
+		@Override
+		public boolean isEnabled(String marker) {
+			return true;
+		}
+
+		@Override
+		public int getPendingFlushSize() {
+			return 100;
+		}
+
+		@Override
+		public boolean writeMetrics() {
+			return true;
+		}
+	}
+
+	@Test
+	public void testChunkedLoadingKeepsOrder() throws Exception {
+		File textFile = File.createTempFile("metrics", ".txt");
+		File smallFile = File.createTempFile("metrics", ".txt");
+		try {
+			StringBuilder text = new StringBuilder();
+			for (int i = 0; i < 3000; ++i) {
+				OperationMetric metric = new OperationMetric();
+				metric.setIdentifier(i);
+				metric.setOperationName("operation" + (i % 7));
+				metric.setStartTime(i);
+				metric.setStopTime(i + 10);
+				metric.setDuration(10);
+				text.append(metric.toSerializedString());
+				// mix the line terminators
+				text.append(i % 2 == 0 ? "\n" : "\r\n");
+			}
+			Files.write(textFile.toPath(), text.toString().getBytes(StandardCharsets.UTF_8));
+			Files.write(smallFile.toPath(), "not a metric\n".getBytes(StandardCharsets.UTF_8));
+
+			CollectingGatherer gatherer = new CollectingGatherer();
+			ParallelMetricFileLoader loader = new ParallelMetricFileLoader(
+					new ParallelMetricFileLoader.LoaderFactory() {
+						@Override
+						public MetricFileLoader createLoader() {
+							return new MetricFileLoader();
+						}
+					});
+			loader.setGatherer(gatherer);
+			loader.setParallelism(4);
+			loader.setChunkSize(4096);
+			loader.gatherMetricsFromFiles(Arrays.asList(textFile.getPath(), smallFile.getPath(),
+					textFile.getPath() + ".missing"));
+
+			Assert.assertEquals(3000, gatherer.metrics.size());
+			for (int i = 0; i < 3000; ++i) {
+				Assert.assertEquals(i, gatherer.metrics.get(i).getIdentifier());
+			}
+		} finally {
+			textFile.delete();
+			smallFile.delete();
+		}
+	}
+
+	@Test
+	public void testWholeFilesMergeInOrder() throws Exception {
+		File textFile = File.createTempFile("metrics", ".txt");
+		File binaryFile = File.createTempFile("metrics", ".bin");
+		File smallFile = File.createTempFile("metrics", ".txt");
+		try {
+			writeTextMetrics(textFile, 0, 3000);
+			FileOutputStream output = new FileOutputStream(binaryFile);
+			try {
+				MetricChannelWriter channelWriter = new MetricChannelWriter(128);
+				channelWriter.setChannel(output.getChannel(), 0);
+				BinaryMetricWriter writer = new BinaryMetricWriter(channelWriter);
+				writer.writeHeader();
+				for (int i = 3000; i < 4000; ++i) {
+					writer.write(createMetric(i));
+				}
+				channelWriter.flush();
+			} finally {
+				output.close();
+			}
+			writeTextMetrics(smallFile, 4000, 10);
+
+			CollectingGatherer gatherer = new CollectingGatherer();
+			ParallelMetricFileLoader loader = createLoader(gatherer);
+			loader.setChunkSize(4096);
+			loader.gatherMetricsFromFiles(Arrays.asList(binaryFile.getPath(),
+					textFile.getPath(), smallFile.getPath()));
+
+			Assert.assertEquals(4010, gatherer.metrics.size());
+			for (int i = 0; i < 1000; ++i) {
+				Assert.assertEquals(3000 + i, gatherer.metrics.get(i).getIdentifier());
+			}
+			for (int i = 0; i < 3000; ++i) {
+				Assert.assertEquals(i, gatherer.metrics.get(1000 + i).getIdentifier());
+			}
+			for (int i = 0; i < 10; ++i) {
+				Assert.assertEquals(4000 + i, gatherer.metrics.get(4000 + i).getIdentifier());
+			}
+		} finally {
+			textFile.delete();
+			binaryFile.delete();
+			smallFile.delete();
+		}
+	}
+
+	@Test
+	public void testTraceStacksSpanRotatedFiles() throws Exception {
+		File firstFile = File.createTempFile("trace", ".log");
+		File secondFile = File.createTempFile("trace", ".log");
+		try {
+			Files.write(firstFile.toPath(), ("[2/1/17 10:11:12:123 EST] 0000abcd PerfLogger I PerfLog <entry"
+					+ " id=\"5\" parentId=\"0\" startTime=\"1000\"/>\n").getBytes(StandardCharsets.UTF_8));
+			Files.write(secondFile.toPath(), ("[2/1/17 10:11:12:200 EST] 0000abcd JDBCTrace"
+					+ " STMT : select 1 : PARAMETERS[a] : Execution time = 5 ms\n")
+					.getBytes(StandardCharsets.UTF_8));
+
+			CollectingGatherer gatherer = new CollectingGatherer();
+			ParallelMetricFileLoader loader = new ParallelMetricFileLoader(
+					new ParallelMetricFileLoader.LoaderFactory() {
+						@Override
+						public MetricFileLoader createLoader() {
+							MetricFileLoader traceLoader = new MetricFileLoader();
+							traceLoader.setParseJdbcTraceLogs(true);
+							return traceLoader;
+						}
+					});
+			loader.setGatherer(gatherer);
+			loader.setParallelism(4);
+			loader.gatherMetricsFromFiles(Arrays.asList(firstFile.getPath(), secondFile.getPath()));
+
+			Assert.assertEquals(1, gatherer.metrics.size());
+			Assert.assertEquals(5, gatherer.metrics.get(0).getParentIdentifier());
+		} finally {
+			firstFile.delete();
+			secondFile.delete();
+		}
+	}
+
+	@Test
+	public void testFailedChunkIsReported() throws Exception {
+		File textFile = File.createTempFile("metrics", ".txt");
+		try {
+			writeTextMetrics(textFile, 0, 3000);
+
+			CollectingGatherer gatherer = new CollectingGatherer();
+			final AtomicInteger createdLoaders = new AtomicInteger();
+			ParallelMetricFileLoader loader = new ParallelMetricFileLoader(
+					new ParallelMetricFileLoader.LoaderFactory() {
+						@Override
+						public MetricFileLoader createLoader() throws IOException {
+							if (createdLoaders.incrementAndGet() == 3) {
+								throw new IOException("Loader failure.");
+							}
+							return new MetricFileLoader();
+						}
+					});
+			loader.setGatherer(gatherer);
+			loader.setParallelism(4);
+			loader.setChunkSize(4096);
+			try {
+				loader.gatherMetricsFromFiles(Arrays.asList(textFile.getPath()));
+				Assert.fail("The failed chunk wasn't reported.");
+			} catch (IOException e) {
+				Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("1 "));
+			}
+			// the other chunks are still loaded
+			Assert.assertTrue(gatherer.metrics.size() > 0);
+			Assert.assertTrue(gatherer.metrics.size() < 3000);
+		} finally {
+			textFile.delete();
+		}
+	}
+
+	private static ParallelMetricFileLoader createLoader(CollectingGatherer gatherer) {
+		ParallelMetricFileLoader loader = new ParallelMetricFileLoader(
+				new ParallelMetricFileLoader.LoaderFactory() {
+					@Override
+					public MetricFileLoader createLoader() {
+						return new MetricFileLoader();
+					}
+				});
+		loader.setGatherer(gatherer);
+		loader.setParallelism(4);
+		return loader;
+	}
+
+	private static void writeTextMetrics(File file, int firstIdentifier, int count) throws IOException {
+		StringBuilder text = new StringBuilder();
+		for (int i = firstIdentifier; i < firstIdentifier + count; ++i) {
+			text.append(createMetric(i).toSerializedString());
+			text.append('\n');
+		}
+		Files.write(file.toPath(), text.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static OperationMetric createMetric(int identifier) {
+		OperationMetric metric = new OperationMetric();
+		metric.setIdentifier(identifier);
+		metric.setOperationName("operation" + (identifier % 7));
+		metric.setStartTime(identifier);
+		metric.setStopTime(identifier + 10);
+		metric.setDuration(10);
+		return metric;
+	}
+}
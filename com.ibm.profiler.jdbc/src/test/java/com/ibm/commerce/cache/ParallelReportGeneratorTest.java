@@ -0,0 +1,124 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ParallelReportGeneratorTest {
+
+	private static final String JDBC_URL = "jdbc:derby:memory:parallelReportGeneratorTest;create=true";
+
+	@Test
+	public void testWorkersUseTheirOwnSession() throws Exception {
+		Connection setup = DriverManager.getConnection(JDBC_URL);
+		setup.createStatement().execute(
+				"CREATE TABLE REPORTITEM (ITEM INTEGER NOT NULL)");
+		for (int i = 0; i < 50; ++i) {
+			setup.createStatement().execute(
+					"INSERT INTO REPORTITEM VALUES (" + i + ")");
+		}
+
+		ParallelReportGenerator generator = new ParallelReportGenerator(
+				new ParallelReportGenerator.ConnectionFactory() {
+					@Override
+					public Connection createConnection() throws SQLException {
+						return DriverManager.getConnection(JDBC_URL);
+					}
+				});
+		generator.setParallelism(4);
+
+		final Map<ParallelReportGenerator.ReportSession, Connection> connections = Collections
+				.synchronizedMap(new IdentityHashMap<ParallelReportGenerator.ReportSession, Connection>());
+		final Set<PreparedStatement> statements = Collections
+				.newSetFromMap(Collections
+						.synchronizedMap(new IdentityHashMap<PreparedStatement, Boolean>()));
+		final List<Integer> found = Collections
+				.synchronizedList(new ArrayList<Integer>());
+
+		List<Integer> items = new ArrayList<Integer>();
+		for (int i = 0; i < 50; ++i) {
+			items.add(Integer.valueOf(i));
+		}
+		// this one fails without stopping the others
+		items.add(Integer.valueOf(-1));
+
+		generator.generateReports("test", items,
+				new ParallelReportGenerator.Report<Integer>() {
+					@Override
+					public void generate(Integer item) throws Exception {
+						if (item.intValue() < 0) {
+							throw new IllegalStateException("failed report");
+						}
+						ParallelReportGenerator.ReportSession session = ParallelReportGenerator
+								.getCurrentSession();
+						Assert.assertTrue(session.getWorkerIndex() < 4);
+						connections.put(session, session.getConnection());
+
+						PreparedStatement statement = session
+								.prepareStatement("SELECT ITEM FROM REPORTITEM WHERE ITEM = ?");
+						Assert.assertSame(statement, session
+								.prepareStatement("SELECT ITEM FROM REPORTITEM WHERE ITEM = ?"));
+						statements.add(statement);
+
+						statement.setInt(1, item.intValue());
+						ResultSet result = statement.executeQuery();
+						try {
+							Assert.assertTrue(result.next());
+							found.add(Integer.valueOf(result.getInt(1)));
+						} finally {
+							result.close();
+						}
+					}
+				});
+
+		Assert.assertEquals(50, generator.getCompletedCount());
+		Assert.assertEquals(1, generator.getFailedCount());
+		Assert.assertEquals(50, found.size());
+		Assert.assertNull(ParallelReportGenerator.getCurrentSession());
+
+		// one connection and one cached statement per worker
+		Assert.assertTrue(connections.size() <= 4);
+		Assert.assertEquals(connections.size(), statements.size());
+		Assert.assertEquals(connections.size(),
+				countDistinct(connections.values()));
+		for (Connection connection : connections.values()) {
+			Assert.assertTrue(connection.isClosed());
+		}
+		setup.close();
+	}
+
+	private static int countDistinct(Iterable<Connection> connections) {
+		Set<Connection> distinct = Collections
+				.newSetFromMap(new IdentityHashMap<Connection, Boolean>());
+		for (Connection connection : connections) {
+			distinct.add(connection);
+		}
+		return distinct.size();
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RegexPrefilterTest {
+
+	private static final String JDBC_LINE = "[18/10/26 9:30:12:045 EDT] 0000004a JDBCTrace     > trace STMT : select * from ORDERS where ID = ? : PARAMETERS[1=12] : Execution time = 1,204 ms";
+
+	private static final String ENTRY_LINE = "[18/10/26 9:30:12:001 EDT] 0000004a PerfLog       > PerfLog <entry operation=\"op\" id=\"12\" parentId=\"0\" startTime=\"123456\" />";
+
+	private static final String OTHER_LINE = "[18/10/26 9:30:12:002 EDT] 0000004a SystemOut     O handled request STMT : 42";
+
+	@Test
+	public void testRequiredLiterals() {
+		Assert.assertEquals(Arrays.asList(" JDBCTrace", "STMT : ",
+				" : PARAMETERS[", "] : Execution time = ", " ms"),
+				RegexPrefilter
+						.getRequiredLiterals(MetricFileLoader.DEFAULT_JDBC_TRACE_REGEX));
+		Assert.assertEquals(Arrays.asList("PerfLog <entry", "id=\"",
+				"parentId=\"", "startTime=\""), RegexPrefilter
+				.getRequiredLiterals(MetricFileLoader.DEFAULT_TRACE_ENTRY_REGEX));
+		Assert.assertTrue(RegexPrefilter.getRequiredLiterals(
+				MetricFileLoader.DEFAULT_TRACE_EXIT_REGEX).isEmpty());
+
+		// optional characters end a literal
+		Assert.assertEquals(Arrays.asList("def", "ghi", "klm", "nop", "tuv.wx"),
+				RegexPrefilter
+						.getRequiredLiterals("abc?def+ghij{0,2}klm[xyz]nop(qrs)tuv\\.wx\\d"));
+		Assert.assertTrue(RegexPrefilter.getRequiredLiterals("abcd|efgh")
+				.isEmpty());
+		Assert.assertTrue(RegexPrefilter.getRequiredLiterals("(?i)abcd")
+				.isEmpty());
+	}
+
+	@Test
+	public void testPrefilterKeepsEveryMatch() {
+		String[] regexes = { MetricFileLoader.DEFAULT_JDBC_TRACE_REGEX,
+				MetricFileLoader.DEFAULT_TRACE_ENTRY_REGEX,
+				MetricFileLoader.DEFAULT_TRACE_EXIT_REGEX };
+		RegexPrefilter prefilter = new RegexPrefilter(new String[] { "jdbc",
+				"entry", "exit" }, regexes);
+
+		String[] lines = { JDBC_LINE, ENTRY_LINE, OTHER_LINE, "",
+				"PerfLog <entr JDBCTrac STMT :", "café JDBCTrace" };
+		for (String line : lines) {
+			long found = prefilter.scan(line);
+			for (int i = 0; i < regexes.length; ++i) {
+				boolean matches = Pattern.compile(regexes[i]).matcher(line)
+						.find();
+				boolean mayMatch = prefilter.mayMatch(i, found);
+				Assert.assertTrue(line, mayMatch || !matches);
+				if (mayMatch && matches) {
+					prefilter.recordMatch(i);
+				}
+			}
+		}
+
+		Assert.assertEquals(6, prefilter.getCheckedCount(0));
+		Assert.assertEquals(5, prefilter.getRejectedCount(0));
+		Assert.assertEquals(1, prefilter.getMatchedCount(0));
+		Assert.assertEquals(5, prefilter.getRejectedCount(1));
+		Assert.assertEquals(1, prefilter.getMatchedCount(1));
+		// no literals, every line runs the expression
+		Assert.assertEquals(0, prefilter.getRejectedCount(2));
+		Assert.assertEquals(3, prefilter.getMatchedCount(2));
+
+		prefilter.resetStatistics();
+		Assert.assertEquals(0, prefilter.getCheckedCount(0));
+		Assert.assertEquals("", prefilter.getStatistics());
+	}
+}
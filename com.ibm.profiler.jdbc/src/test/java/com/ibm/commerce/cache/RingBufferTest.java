@@ -0,0 +1,152 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RingBufferTest {
+
+	@Test
+	public void testConcurrentProducersSingleConsumer() throws InterruptedException {
+		final RingBuffer<Integer> buffer = new RingBuffer<Integer>(64);
+		final int producerCount = 4;
+		final int perProducer = 50000;
+		List<Thread> producers = new ArrayList<Thread>();
+		for (int p = 0; p < producerCount; ++p) {
+			final int base = p * perProducer;
+			Thread producer = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < perProducer; ++i) {
+						while (!buffer.offer(Integer.valueOf(base + i))) {
+							Thread.yield();
+						}
+					}
+				}
+			});
+			producers.add(producer);
+			producer.start();
+		}
+
+		Set<Integer> received = new HashSet<Integer>();
+		List<Integer> batch = new ArrayList<Integer>();
+		while (received.size() < producerCount * perProducer) {
+			batch.clear();
+			if (buffer.drainTo(batch, 32) == 0) {
+				Thread.yield();
+			}
+			received.addAll(batch);
+		}
+		for (Thread producer : producers) {
+			producer.join();
+		}
+		Assert.assertEquals(producerCount * perProducer, received.size());
+		Assert.assertNull(buffer.poll());
+	}
+
+	@Test
+	public void testOverflowPolicies() {
+		TestGatherer gatherer = new TestGatherer();
+		Assert.assertEquals(MetricOverflowPolicy.BLOCK, gatherer.getOverflowPolicy());
+		gatherer.setOverflowPolicy(MetricOverflowPolicy.DROP_NEWEST);
+		gatherer.setMaximumPendingSize(4);
+		gatherer.setPendingFlushSize(1000);
+		gatherer.setRunning(true);
+		for (int i = 0; i < 6; ++i) {
+			gatherer.gatherMetric(createMetric(i));
+		}
+		Assert.assertEquals(2, gatherer.getDroppedMetricCount());
+		Assert.assertEquals("op0", gatherer.getPendingMetricsToWrite().get(0).getOperationName());
+
+		gatherer.setOverflowPolicy(MetricOverflowPolicy.DROP_OLDEST);
+		for (int i = 0; i < 6; ++i) {
+			gatherer.gatherMetric(createMetric(i));
+		}
+		Assert.assertEquals(4, gatherer.getDroppedMetricCount());
+		List<OperationMetric> pending = gatherer.getPendingMetricsToWrite();
+		Assert.assertEquals(4, pending.size());
+		Assert.assertEquals("op2", pending.get(0).getOperationName());
+
+		gatherer.setOverflowPolicy(MetricOverflowPolicy.BLOCK);
+		gatherer.setBlockTimeout(1);
+		for (int i = 0; i < 5; ++i) {
+			gatherer.gatherMetric(createMetric(i));
+		}
+		Assert.assertEquals(5, gatherer.getDroppedMetricCount());
+		Assert.assertEquals(4, gatherer.getPendingMetricCount());
+		gatherer.setRunning(false);
+	}
+
+	@Test
+	public void testResizeWhileGathering() throws InterruptedException {
+		final TestGatherer gatherer = new TestGatherer();
+		gatherer.setOverflowPolicy(MetricOverflowPolicy.DROP_NEWEST);
+		gatherer.setMaximumPendingSize(100000);
+		gatherer.setPendingFlushSize(1000000);
+		gatherer.setRunning(true);
+		final int producerCount = 4;
+		final int perProducer = 20000;
+		List<Thread> producers = new ArrayList<Thread>();
+		for (int p = 0; p < producerCount; ++p) {
+			Thread producer = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < perProducer; ++i) {
+						gatherer.gatherMetric(createMetric(i));
+					}
+				}
+			});
+			producers.add(producer);
+			producer.start();
+		}
+
+		int received = 0;
+		boolean producing = true;
+		for (int i = 0; producing; ++i) {
+			producing = false;
+			for (Thread producer : producers) {
+				producing |= producer.isAlive();
+			}
+			gatherer.setMaximumPendingSize(i % 2 == 0 ? 100000 : 120000);
+			received += gatherer.getPendingMetricsToWrite(100).size();
+		}
+		received += gatherer.getPendingMetricsToWrite().size();
+		received += gatherer.getPendingMetricsToWrite().size();
+		gatherer.setRunning(false);
+
+		Assert.assertEquals(0, gatherer.getDroppedMetricCount());
+		Assert.assertEquals(producerCount * perProducer, received);
+	}
+
+	private static OperationMetric createMetric(int i) {
+		OperationMetric metric = new OperationMetric();
+		metric.setOperationName("op" + i);
+		return metric;
+	}
+
+	private static class TestGatherer extends AbstractMetricGatherer {
+		@Override
+		public boolean writeMetrics() {
+			return false;
+		}
+	}
+}
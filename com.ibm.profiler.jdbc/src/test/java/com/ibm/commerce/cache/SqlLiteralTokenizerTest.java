@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SqlLiteralTokenizerTest {
+
+	private static final String[] CORPUS = {
+			"",
+			"select * from ORDERS",
+			"select * from ORDERS where ID = 12 and NAME = 'abc' and STATUS in (1, 2, 3)",
+			"select * from T where A = -1.5e+3 and B=2.e4 and C=3E+ and D=4.5E9",
+			"select * from T where A='it''s' and B = 'unterminated '' quote 12",
+			"select * from T where A = 'never closed 12",
+			"insert into T values (?, ?, ?)",
+			"insert into T values ( *? , 'a', 12,?)",
+			"update T set A=A12 where B=12A and C=(12)",
+			"call PROC(1, 'x', -3)",
+			"select 1 from T where X in ('a','b','c')",
+			"select 12\u0085",
+			"select 12  ",
+			"Cassandra select * from T where id = 123e4567-e89b-12d3-a456-426614174000",
+			"Cassandra select * from T where id in (123e4567-e89b-12d3-a456-426614174000,"
+					+ "aaaaaaaa-bbbb-cccc-dddd-eeeeeeeeeeee)" };
+
+	private static final String ALPHABET = "''''0123456789--..eE+ ,\n()=<>!;?*abfAF\u0085x";
+
+	@Test
+	public void testCorpusMatchesRegex() {
+		for (String sql : CORPUS) {
+			assertSameAsRegex(sql);
+		}
+	}
+
+	@Test
+	public void testRandomInputMatchesRegex() {
+		Random random = new Random(42);
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 20000; ++i) {
+			builder.setLength(0);
+			int length = random.nextInt(40);
+			for (int j = 0; j < length; ++j) {
+				builder.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+			}
+			assertSameAsRegex(builder.toString());
+		}
+	}
+
+	@Test
+	public void testRandomUuidMatchesRegex() {
+		Random random = new Random(7);
+		String uuid = "123e4567-e89b-12d3-a456-426614174000";
+		String[] separators = { " ", ",", "(", ")", "x", "-", "=" };
+		for (int i = 0; i < 2000; ++i) {
+			String sql = separators[random.nextInt(separators.length)] + uuid
+					+ separators[random.nextInt(separators.length)] + uuid
+					+ separators[random.nextInt(separators.length)];
+			assertSameAsRegex(sql);
+		}
+	}
+
+	private static void assertSameAsRegex(String sql) {
+		for (boolean cassandra : new boolean[] { false, true }) {
+			List<String> expectedParameters = new ArrayList<String>();
+			String expected = MetricFileLoader.substituteParametersWithRegex(
+					sql, cassandra, expectedParameters);
+
+			List<String> actualParameters = new ArrayList<String>();
+			String actual;
+			List<String> extractedParameters = new ArrayList<String>();
+			if (cassandra) {
+				actual = SqlLiteralTokenizer.substituteCassandraParameters(sql,
+						actualParameters);
+				SqlLiteralTokenizer.addCassandraParameters(sql,
+						extractedParameters);
+			} else {
+				actual = SqlLiteralTokenizer.substituteJdbcParameters(sql,
+						actualParameters);
+				SqlLiteralTokenizer.addJdbcParameters(sql, extractedParameters);
+			}
+
+			Assert.assertEquals("SQL: " + sql, expected, actual);
+			Assert.assertEquals("SQL: " + sql, expectedParameters,
+					actualParameters);
+			Assert.assertEquals("SQL: " + sql, expectedParameters,
+					extractedParameters);
+		}
+	}
+}
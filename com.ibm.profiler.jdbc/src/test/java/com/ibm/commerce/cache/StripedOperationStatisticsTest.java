@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StripedOperationStatisticsTest {
+
+	private static final int THREAD_COUNT = 8;
+
+	private static final int CALLS_PER_THREAD = 20000;
+
+	@Test
+	public void testConcurrentLoggingMatchesSynchronizedStatistics()
+			throws InterruptedException {
+		OperationStatistics expected = new OperationStatistics();
+		StripedOperationStatistics actual = new StripedOperationStatistics();
+		logConcurrently(expected);
+		logConcurrently(actual);
+
+		Assert.assertEquals(THREAD_COUNT * CALLS_PER_THREAD, actual.getCallCount());
+		Assert.assertEquals(expected.getCallCount(), actual.getCallCount());
+		Assert.assertEquals(expected.getSuccessCallCount(), actual.getSuccessCallCount());
+		Assert.assertEquals(expected.getCacheEnabledCallCount(), actual.getCacheEnabledCallCount());
+		Assert.assertEquals(expected.getCacheHitCount(), actual.getCacheHitCount());
+		// the synchronized statistics accumulate float durations, compare with a tolerance.
+		long callCount = THREAD_COUNT * CALLS_PER_THREAD;
+		float sumExecutionTime = callCount * (callCount + 1) / 2;
+		Assert.assertEquals(sumExecutionTime, actual.getSumExecutionTime(), 0.0f);
+		Assert.assertEquals(sumExecutionTime, expected.getSumExecutionTime(),
+				sumExecutionTime * 1e-4f);
+		Assert.assertEquals(expected.getSumResultSize(), actual.getSumResultSize(), 0.0f);
+		Assert.assertEquals(expected.getMinExecutionTime(), actual.getMinExecutionTime());
+		Assert.assertEquals(expected.getMaxExecutionTime(), actual.getMaxExecutionTime());
+		Assert.assertEquals(expected.getMinResultSize(), actual.getMinResultSize());
+		Assert.assertEquals(expected.getMaxResultSize(), actual.getMaxResultSize());
+	}
+
+	@Test
+	public void testAggregateAndReset() {
+		StripedOperationStatistics interval = new StripedOperationStatistics();
+		interval.setIndex(5);
+		interval.logStatistic(3000000, 10, true, false, true);
+		interval.logStatistic(1000000, 2, true, true, false);
+
+		OperationStatistics aggregate = new OperationStatistics();
+		aggregate.aggregateStatisticsIfInInterval(interval, 4, 5);
+		aggregate.aggregateStatisticsIfInInterval(interval, 6, 7);
+
+		Assert.assertEquals(2, aggregate.getCallCount());
+		Assert.assertEquals(1, aggregate.getSuccessCallCount());
+		Assert.assertEquals(1, aggregate.getCacheHitCount());
+		Assert.assertEquals(1000000, aggregate.getMinExecutionTime());
+		Assert.assertEquals(3000000, aggregate.getMaxExecutionTime());
+		Assert.assertEquals(12.0f, aggregate.getSumResultSize(), 0.0f);
+
+		interval.reset();
+		Assert.assertEquals(0, interval.getCallCount());
+		Assert.assertEquals(0, interval.getMinExecutionTime());
+		Assert.assertEquals(0, interval.getMaxResultSize());
+	}
+
+	private static void logConcurrently(final OperationStatistics statistics)
+			throws InterruptedException {
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < THREAD_COUNT; ++i) {
+			final int threadIndex = i;
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = 0; j < CALLS_PER_THREAD; ++j) {
+						long duration = threadIndex * CALLS_PER_THREAD + j + 1;
+						statistics.logStatistic(duration, j % 100, j % 2 == 0,
+								j % 3 == 0, j % 5 != 0);
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TimestampParserTest {
+
+	@Test
+	public void testMatchesSimpleDateFormat() throws Exception {
+		TimeZone defaultTimeZone = TimeZone.getDefault();
+		// a time zone with daylight saving transitions
+		TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+		try {
+			TimestampParser parser = new TimestampParser(
+					MetricFileLoader.DEFAULT_TIMESTAMP_FORMAT);
+			Assert.assertTrue(parser.isCompiled());
+			SimpleDateFormat format = new SimpleDateFormat(
+					MetricFileLoader.DEFAULT_TIMESTAMP_FORMAT);
+
+			String[] timestamps = { "8/3/26 2:30:00:000", "1/11/26 1:30:00:000",
+					"31/12/99 23:59:59:999", "1/1/00 0:00:00:000",
+					"29/2/24 12:00:00:5", "29/2/25 12:00:00:000",
+					"32/1/26 10:00:00:000", "1/13/26 10:00:00:000",
+					"1/1/2026 10:00:00:000", "01/02/03 04:05:06:007",
+					"1/1/26 24:00:00:000" };
+			for (String timestamp : timestamps) {
+				assertSameTime(format, parser, timestamp);
+			}
+
+			Random random = new Random(3);
+			for (int i = 0; i < 5000; ++i) {
+				String timestamp = (1 + random.nextInt(31)) + "/"
+						+ (1 + random.nextInt(12)) + "/"
+						+ String.format("%02d", random.nextInt(100)) + " "
+						+ random.nextInt(24) + ":"
+						+ String.format("%02d", random.nextInt(60)) + ":"
+						+ String.format("%02d", random.nextInt(60)) + ":"
+						+ String.format("%03d", random.nextInt(1000));
+				assertSameTime(format, parser, timestamp);
+			}
+
+			try {
+				parser.parse("not a timestamp");
+				Assert.fail();
+			} catch (ParseException e) {
+				// expected
+			}
+		} finally {
+			TimeZone.setDefault(defaultTimeZone);
+		}
+	}
+
+	@Test
+	public void testAbuttingAndUnsupportedPatterns() throws Exception {
+		String[][] cases = { { "yyyyMMddHHmmssSSS", "20261018093012045" },
+				{ "yyyy-MM-dd HH:mm:ss.SSS", "2026-10-18 09:30:12.045" },
+				{ "dd MMM yyyy HH:mm", "18 Oct 2026 09:30" },
+				{ "yyyy-MM-dd'T'HH:mm", "2026-10-18T09:30" } };
+		for (String[] testCase : cases) {
+			TimestampParser parser = new TimestampParser(testCase[0]);
+			Assert.assertEquals(testCase[0], !testCase[0].contains("MMM")
+					&& !testCase[0].contains("'"), parser.isCompiled());
+			assertSameTime(new SimpleDateFormat(testCase[0]), parser,
+					testCase[1]);
+		}
+	}
+
+	private static void assertSameTime(SimpleDateFormat format,
+			TimestampParser parser, String timestamp) throws ParseException {
+		Assert.assertEquals(timestamp, format.parse(timestamp).getTime(),
+				parser.parse(timestamp));
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.commerce.cache;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares the buckets of {@link TrendBucketAggregator} with the trend query
+ * they replace.
+ */
+public class TrendBucketAggregatorTest {
+
+	private static final long BUCKET_WIDTH = 1000000000l;
+
+	private MetricTestDatabase database;
+
+	@Before
+	public void createDatabase() throws Exception {
+		database = new MetricTestDatabase("trendBucketAggregatorTest");
+	}
+
+	@After
+	public void dropDatabase() throws Exception {
+		database.drop();
+	}
+
+	@Test
+	public void testMatchesTrendQuery() throws Exception {
+		SingleJdbcDataSource dataSource = database.getDataSource();
+
+		DirectDatabaseMetricGatherer gatherer = new DirectDatabaseMetricGatherer();
+		gatherer.setDataSource(dataSource);
+		TrendBucketAggregator aggregator = new TrendBucketAggregator(gatherer,
+				BUCKET_WIDTH);
+
+		// the first metrics are already in the database, the others are
+		// loaded through the aggregator, out of order
+		Random random = new Random(3);
+		for (int i = 0; i < 1000; ++i) {
+			gatherer.gatherMetric(createMetric(random, i));
+		}
+		gatherer.writeMetrics();
+		aggregator.initialize(dataSource);
+		for (int i = 1000; i < 3000; ++i) {
+			aggregator.gatherMetric(createMetric(random, i));
+		}
+		aggregator.writeMetrics();
+
+		for (int i = 0; i < 3; ++i) {
+			String operationName = "operation" + i;
+			List<List<Object>> expected = AnalyzeMetricFile.executeQuery(
+					dataSource, "SELECT (STOPTIME/" + BUCKET_WIDTH
+							+ ") as TIME, count(IDENTIFIER), MIN(DURATION), AVG(DURATION), MAX(DURATION) from METRIC where OPERATIONNAME='"
+							+ operationName + "' group by (STOPTIME/"
+							+ BUCKET_WIDTH + ") order by TIME asc");
+			List<List<Object>> actual = aggregator.getTrend(operationName);
+			Assert.assertEquals(expected.size(), actual.size());
+			for (int row = 0; row < expected.size(); ++row) {
+				for (int column = 0; column < 5; ++column) {
+					Assert.assertEquals(((Number) expected.get(row).get(column))
+							.longValue(), ((Number) actual.get(row).get(column))
+							.longValue());
+				}
+			}
+		}
+		Assert.assertTrue(aggregator.getTrend("unknown").isEmpty());
+	}
+
+	private static OperationMetric createMetric(Random random, int index) {
+		OperationMetric metric = new OperationMetric();
+		metric.setIdentifier(index + 1);
+		metric.setOperationName("operation" + random.nextInt(3));
+		long duration = random.nextInt(50000000);
+		long stopTime = random.nextInt(60) * BUCKET_WIDTH
+				+ random.nextInt((int) BUCKET_WIDTH);
+		metric.setStartTime(stopTime - duration);
+		metric.setStopTime(stopTime);
+		metric.setDuration(duration);
+		return metric;
+	}
+}
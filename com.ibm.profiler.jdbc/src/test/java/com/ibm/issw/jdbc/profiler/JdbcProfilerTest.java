@@ -16,13 +16,17 @@
 package com.ibm.issw.jdbc.profiler;
 
 import java.io.File;
+import java.lang.management.ManagementFactory;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 
+import javax.management.openmbean.CompositeData;
 import javax.sql.DataSource;
 
 import org.junit.Assert;
@@ -37,6 +41,7 @@ import com.ibm.commerce.cache.SingleJdbcDataSource;
 import com.ibm.issw.jdbc.wrappers.WrappedConnection;
 import com.ibm.logger.PerformanceLogger;
 import com.ibm.logger.jmx.TimeIntervalLogEntryMXBean;
+import com.ibm.service.detailed.JdbcLogger;
 
 public class JdbcProfilerTest {
 
@@ -276,8 +281,277 @@ public class JdbcProfilerTest {
 				.getPerformanceLog(JdbcProfiler.JDBC_ALL_OPERATIONS);
 		Assert.assertEquals(1, performanceLog.getCallCount());
 	}
-	
-	
+
+	@Test
+	public void testPreparedStatementResultSetTracking() throws Exception {
+		int insertCount = 3;
+		insertRows(insertCount);
+		ResultSetTracking tracking = ResultSetTracking.getInstance();
+		tracking.clear();
+		tracking.setWrapperReuseEnabled(true);
+		try {
+			PreparedStatement statement = wrappedConnection
+					.prepareStatement(SELECT_SQL);
+			ResultSet previous = null;
+			for (int i = 0; i < 5; ++i) {
+				ResultSet rs = statement.executeQuery();
+				int count = 0;
+				while (rs.next()) {
+					count++;
+				}
+				Assert.assertEquals(insertCount, count);
+				rs.close();
+				if (previous != null && !JdbcLogger.isResultSetSizeMeasured()) {
+					// closed wrappers are reused
+					Assert.assertSame(previous, rs);
+				}
+				previous = rs;
+			}
+			Assert.assertEquals(0, tracking.getUnclosedResultSetCount());
+
+			// the driver closes the first result set on the next execution,
+			// the statement closes the second one
+			statement.executeQuery().next();
+			statement.executeQuery().next();
+			Assert.assertEquals(1, tracking.getUnclosedResultSetCount());
+			statement.close();
+			wrappedConnection.commit();
+			wrappedConnection.close();
+
+			Assert.assertEquals(Long.valueOf(2), tracking
+					.getUnclosedResultSetCounts().get(SELECT_SQL));
+			assertProfilerIsClean();
+
+			TimeIntervalLogEntryMXBean performanceLog = PerformanceLogger
+					.getPerformanceLog(JdbcProfiler.getInstance()
+							.adjustJdbcOperationName(SELECT_SQL));
+			Assert.assertEquals(7, performanceLog.getCallCount());
+		} finally {
+			tracking.setWrapperReuseEnabled(false);
+			tracking.clear();
+		}
+	}
+
+	@Test
+	public void testPreparedStatementReusesItsReference() throws Exception {
+		insertRows(3);
+		ResultSetTracking tracking = ResultSetTracking.getInstance();
+		tracking.clear();
+		try {
+			String sql = SELECT_SQL + " where OPERATIONNAME = ?";
+			PreparedStatement statement = wrappedConnection
+					.prepareStatement(sql);
+			long firstRef = Long.parseLong(WrappedConnection
+					.getNextRefCount());
+			for (int i = 0; i < 3; ++i) {
+				statement.setString(1, Integer.toString(i));
+				ResultSet rs = statement.executeQuery();
+				Assert.assertTrue(rs.next());
+				rs.close();
+			}
+			// the result set left open keeps its reference
+			statement.setString(1, "0");
+			Assert.assertTrue(statement.executeQuery().next());
+			statement.setString(1, "1");
+			ResultSet rs = statement.executeQuery();
+			Assert.assertTrue(rs.next());
+			rs.close();
+			long lastRef = Long.parseLong(WrappedConnection
+					.getNextRefCount());
+			statement.close();
+			wrappedConnection.commit();
+			wrappedConnection.close();
+
+			Assert.assertEquals(firstRef + 2, lastRef);
+			assertProfilerIsClean();
+			Assert.assertEquals(1, tracking.getUnclosedResultSetCount());
+			Assert.assertEquals(5, PerformanceLogger.getPerformanceLog(
+					JdbcProfiler.getInstance().adjustJdbcOperationName(sql))
+					.getCallCount());
+		} finally {
+			tracking.clear();
+		}
+	}
+
+	@Test
+	public void testStatementResultSetTracking() throws Exception {
+		insertRows(3);
+		ResultSetTracking tracking = ResultSetTracking.getInstance();
+		tracking.clear();
+		try {
+			String otherSql = SELECT_SQL + " where AVERAGEDURATION < 5";
+			Statement statement = wrappedConnection.createStatement();
+			// the next execution closes the result set left open
+			Assert.assertTrue(statement.executeQuery(SELECT_SQL).next());
+			ResultSet rs = statement.executeQuery(otherSql);
+			int count = 0;
+			while (rs.next()) {
+				count++;
+			}
+			Assert.assertEquals(3, count);
+			rs.close();
+			statement.close();
+			wrappedConnection.commit();
+			wrappedConnection.close();
+			assertProfilerIsClean();
+
+			Assert.assertEquals(1, tracking.getUnclosedResultSetCount());
+			Assert.assertEquals(Long.valueOf(1), tracking
+					.getUnclosedResultSetCounts().get(SELECT_SQL));
+			JdbcProfiler profiler = JdbcProfiler.getInstance();
+			Assert.assertEquals(1, PerformanceLogger.getPerformanceLog(
+					profiler.adjustJdbcOperationName(SELECT_SQL))
+					.getCallCount());
+			Assert.assertEquals(1, PerformanceLogger.getPerformanceLog(
+					profiler.adjustJdbcOperationName(otherSql))
+					.getCallCount());
+			Assert.assertEquals(2, PerformanceLogger.getPerformanceLog(
+					JdbcProfiler.JDBC_ALL_OPERATIONS).getCallCount());
+		} finally {
+			tracking.clear();
+		}
+	}
+
+	@Test
+	public void testResultSetSizeCommitBeforeClose() throws Exception {
+		insertRows(3);
+		Level level = JdbcLogger.LOGGER.getLevel();
+		JdbcLogger.LOGGER.setLevel(Level.FINEST);
+		try {
+			Assert.assertTrue(JdbcLogger.isResultSetSizeMeasured());
+			String operationName = JdbcProfiler.getInstance()
+					.adjustJdbcOperationName(SELECT_SQL);
+
+			readAllRows(true);
+			TimeIntervalLogEntryMXBean performanceLog = PerformanceLogger
+					.getPerformanceLog(operationName);
+			long closedSize = performanceLog.getMaximumResponseSize();
+			// more than the row overhead alone
+			Assert.assertTrue(Long.toString(closedSize), closedSize > 40);
+
+			// the commit ends the event before the result set is closed
+			PerformanceLogger.clear();
+			readAllRows(false);
+			performanceLog = PerformanceLogger.getPerformanceLog(operationName);
+			Assert.assertEquals(1, performanceLog.getCallCount());
+			Assert.assertEquals(closedSize,
+					performanceLog.getMaximumResponseSize());
+			assertProfilerIsClean();
+		} finally {
+			JdbcLogger.LOGGER.setLevel(level);
+		}
+	}
+
+	private void readAllRows(boolean closeBeforeCommit) throws SQLException {
+		Statement statement = wrappedConnection.createStatement();
+		ResultSet rs = statement.executeQuery(SELECT_SQL);
+		while (rs.next()) {
+			rs.getLong(1);
+			rs.getString(2);
+		}
+		if (closeBeforeCommit) {
+			rs.close();
+		}
+		wrappedConnection.commit();
+		rs.close();
+		statement.close();
+		wrappedConnection.close();
+	}
+
+	@Test
+	public void testSlowQueryCapture() throws Exception {
+		insertRows(2);
+		SlowQueryCapture capture = SlowQueryCapture.getInstance();
+		capture.clear();
+		capture.setEnabled(true);
+		capture.setThreshold(0);
+		try {
+			String sql = SELECT_SQL + " where OPERATIONNAME = ?";
+			PreparedStatement statement = wrappedConnection
+					.prepareStatement(sql);
+			statement.setString(1, "abc");
+			statement.executeQuery().close();
+
+			// fast executions only get a call site
+			capture.setThreshold(60000);
+			statement.executeQuery().close();
+			statement.close();
+			wrappedConnection.commit();
+			wrappedConnection.close();
+			assertProfilerIsClean();
+
+			Assert.assertEquals(1, capture.getSlowQueryCount());
+			SlowQuery slowQuery = capture.getSlowQueries().get(0);
+			Assert.assertEquals(sql, slowQuery.getSql());
+			Assert.assertEquals("1='abc'", slowQuery.getParameters());
+			Assert.assertTrue(slowQuery.getCallSite(), slowQuery.getCallSite()
+					.startsWith(getClass().getName() + ".testSlowQueryCapture:"));
+			Assert.assertTrue(slowQuery.getStack()[0].contains(getClass()
+					.getName()));
+
+			CompositeData[] slowQueries = (CompositeData[]) ManagementFactory
+					.getPlatformMBeanServer().getAttribute(
+							SlowQueryCapture.getObjectName(), "SlowQueries");
+			Assert.assertEquals(1, slowQueries.length);
+			Assert.assertEquals(sql, slowQueries[0].get("sql"));
+		} finally {
+			capture.setEnabled(false);
+			capture.setThreshold(1000);
+			capture.clear();
+		}
+	}
+
+	@Test
+	public void testSampledOutExecutionsAreNotMeasured() throws Exception {
+		String sql = SELECT_SQL + " where OPERATIONNAME = ?";
+		String operationName = JdbcProfiler.getInstance()
+				.adjustJdbcOperationName(sql);
+		StatementSampling sampling = StatementSampling.getInstance();
+		sampling.clear();
+		sampling.setTargetSampleRate(1);
+		sampling.setLatencyThreshold(60000);
+		sampling.setEnabled(true);
+		try {
+			// a busy first window : the next one measures 1 execution in 5000
+			SqlShape shape = SqlShapeCache.getInstance().getShape(sql);
+			long now = System.nanoTime();
+			for (int i = 0; i < 4999; ++i) {
+				sampling.sample(shape, now + i);
+			}
+			Assert.assertEquals(5000, sampling.sample(shape,
+					now + TimeUnit.SECONDS.toNanos(1)));
+
+			PreparedStatement statement = wrappedConnection
+					.prepareStatement(sql);
+			for (int i = 0; i < 10; ++i) {
+				statement.setString(1, "abc");
+				statement.executeQuery().close();
+			}
+			Assert.assertEquals(10, sampling.getSkippedCount());
+			Assert.assertNull(PerformanceLogger.getPerformanceLog(operationName));
+			Assert.assertNull(PerformanceLogger
+					.getPerformanceLog(JdbcProfiler.JDBC_ALL_OPERATIONS));
+
+			// skipped executions are still timed against the latency threshold
+			sampling.setLatencyThreshold(0);
+			statement.setString(1, "abc");
+			statement.executeQuery().close();
+			statement.close();
+			wrappedConnection.commit();
+			wrappedConnection.close();
+			assertProfilerIsClean();
+
+			Assert.assertEquals(1, sampling.getSlowCount());
+			Assert.assertEquals(1, PerformanceLogger.getPerformanceLog(
+					operationName).getCallCount());
+		} finally {
+			sampling.setEnabled(false);
+			sampling.setTargetSampleRate(10);
+			sampling.setLatencyThreshold(100);
+			sampling.clear();
+		}
+	}
+
 	private void assertProfilerIsClean() {
 		Assert.assertEquals(0, JdbcProfiler.getPendingEvents().size());
 		Assert.assertEquals(0, JdbcProfiler.getPendingJdbcEvents().size());
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.issw.jdbc.profiler;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ParameterBufferTest {
+
+	@Test
+	public void testKeyValueListRendering() {
+		ParameterBuffer buffer = new ParameterBuffer();
+		buffer.setString(3, "abc");
+		buffer.setInt(1, 42);
+		buffer.setFloat(2, 1.5f);
+		buffer.setInt(-1, 7);
+		buffer.setObject(12, new String[] { "a", "b" });
+		buffer.setBoolean(4, true);
+		buffer.setObject(5, "null");
+
+		Assert.assertEquals(7, buffer.size());
+		Assert.assertEquals(Arrays.asList("-1", "7", "1", "42", "2", "1.5",
+				"3", "'abc'", "4", "true", "5", "null", "12", "[a, b]"),
+				buffer.toKeyValueList());
+		Assert.assertEquals(Float.valueOf(1.5f), buffer.get(2));
+		Assert.assertEquals("'abc'", buffer.toMap().get(Integer.valueOf(3)));
+
+		// setting a parameter again replaces its value
+		buffer.setLong(3, 9l);
+		Assert.assertEquals(7, buffer.size());
+		Assert.assertEquals(Long.valueOf(9), buffer.get(3));
+
+		buffer.clear();
+		Assert.assertEquals(0, buffer.size());
+		Assert.assertTrue(buffer.toKeyValueList().isEmpty());
+		Assert.assertNull(buffer.get(1));
+	}
+}
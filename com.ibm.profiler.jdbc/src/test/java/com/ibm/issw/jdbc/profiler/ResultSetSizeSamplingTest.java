@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.issw.jdbc.profiler;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.ibm.issw.jdbc.wrappers.WrappedCalculatedResultSet;
+
+public class ResultSetSizeSamplingTest {
+
+	private static final String SELECT_ALL_SQL = "select ID, CODE, NAME from SAMPLED";
+
+	private static final String SELECT_FIXED_SQL = "select ID, CODE from SAMPLED";
+
+	@Test
+	public void testSampledAndMetadataSizes() throws Exception {
+		Connection connection = DriverManager
+				.getConnection("jdbc:derby:memory:resultSetSizeSamplingTest;create=true");
+		Statement statement = connection.createStatement();
+		statement
+				.executeUpdate("create table SAMPLED (ID INTEGER, CODE CHAR(8), NAME VARCHAR(40))");
+		statement.close();
+		PreparedStatement insert = connection
+				.prepareStatement("insert into SAMPLED values (?, ?, ?)");
+		StringBuilder name = new StringBuilder();
+		for (int i = 0; i < 1000; ++i) {
+			name.setLength(0);
+			for (int c = 0; c < i % 40; ++c) {
+				name.append('n');
+			}
+			insert.setInt(1, i);
+			insert.setString(2, "code" + (i % 10));
+			insert.setString(3, name.toString());
+			insert.addBatch();
+		}
+		insert.executeBatch();
+		insert.close();
+
+		ResultSetSizeSampling sampling = ResultSetSizeSampling.getInstance();
+		try {
+			long fullSize = readAll(connection, SELECT_ALL_SQL, 3);
+
+			sampling.setSampleInterval(7);
+			sampling.setFirstMeasuredRowCount(5);
+			long sampledSize = readAll(connection, SELECT_ALL_SQL, 3);
+			Assert.assertEquals(fullSize, sampledSize, fullSize * 0.05);
+
+			// the shape rate overrides the default
+			sampling.setShapeSampleInterval(SELECT_ALL_SQL, 1);
+			Assert.assertEquals(fullSize, readAll(connection, SELECT_ALL_SQL, 3));
+			sampling.setShapeSampleInterval(SELECT_ALL_SQL, 0);
+			Assert.assertTrue(sampling.getShapeSampleIntervals().isEmpty());
+
+			sampling.setSampleInterval(1);
+			long fixedSize = readAll(connection, SELECT_FIXED_SQL, 2);
+			sampling.setMetadataEstimateEnabled(true);
+			Assert.assertEquals(fixedSize, readAll(connection, SELECT_FIXED_SQL, 2));
+			// a variable width column falls back to measuring
+			Assert.assertEquals(fullSize, readAll(connection, SELECT_ALL_SQL, 3));
+		} finally {
+			sampling.setSampleInterval(1);
+			sampling.setFirstMeasuredRowCount(10);
+			sampling.setMetadataEstimateEnabled(false);
+			connection.close();
+		}
+	}
+
+	private static long readAll(Connection connection, String sql,
+			int columnCount) throws Exception {
+		JdbcEvent event = new JdbcEvent();
+		event.setSqlStatement(sql);
+		Statement statement = connection.createStatement();
+		ResultSet resultSet = new WrappedCalculatedResultSet(
+				statement.executeQuery(sql), "resultSetSizeSamplingTest", event);
+		while (resultSet.next()) {
+			resultSet.getInt(1);
+			for (int column = 2; column <= columnCount; ++column) {
+				resultSet.getString(column);
+			}
+		}
+		resultSet.close();
+		statement.close();
+		return event.getReadSize();
+	}
+}
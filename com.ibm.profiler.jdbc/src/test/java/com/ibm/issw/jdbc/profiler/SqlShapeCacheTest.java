@@ -0,0 +1,69 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.issw.jdbc.profiler;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SqlShapeCacheTest {
+
+	@Test
+	public void testShapeMatchesRegexNormalization() {
+		SqlShapeCache cache = new SqlShapeCache(64);
+		String sql = "select * from ORDERS where ID = 12 and NAME = 'abc' and STATUS in (1, 2, 3)";
+
+		SqlShape shape = cache.getShape(sql);
+
+		Assert.assertEquals(StatementKind.SELECT, shape.getKind());
+		Assert.assertEquals(
+				"select * from ORDERS where ID = *? and NAME = *? and STATUS in (**?)",
+				shape.getParameterizedSql());
+		Assert.assertEquals("JDBC : " + shape.getParameterizedSql(),
+				shape.getOperationName());
+		Assert.assertEquals(Arrays.asList("*1", "12", "*2", "'abc'", "*3",
+				"1", "*4", "2", "*5", "3"), shape.getLiteralParameters());
+
+		Assert.assertSame(shape, cache.getShape(sql));
+		Assert.assertEquals(1, cache.getHitCount());
+		Assert.assertEquals(1, cache.getMissCount());
+	}
+
+	@Test
+	public void testStatementKind() {
+		Assert.assertEquals(StatementKind.INSERT,
+				StatementKind.fromSql("INSERT INTO T (A) VALUES (?)"));
+		Assert.assertEquals(StatementKind.UPDATE,
+				StatementKind.fromSql("update T set A = ?"));
+		Assert.assertEquals(StatementKind.DELETE,
+				StatementKind.fromSql("Delete from T"));
+		Assert.assertEquals(StatementKind.CALL,
+				StatementKind.fromSql("{call PROC(?)}"));
+		Assert.assertEquals(StatementKind.OTHER,
+				StatementKind.fromSql("updated_view"));
+	}
+
+	@Test
+	public void testBoundedSize() {
+		SqlShapeCache cache = new SqlShapeCache(32);
+		for (int i = 0; i < 1000; i++) {
+			cache.getShape("select * from T" + i + " where A = ?");
+		}
+		Assert.assertTrue(cache.getSize() <= cache.getMaximumSize());
+		Assert.assertTrue(cache.getEvictionCount() > 0);
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2017 Steve McDuff
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.issw.jdbc.profiler;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.ibm.commerce.cache.OperationStatistics;
+import com.ibm.commerce.cache.StripedOperationStatistics;
+
+public class StatementSamplingTest {
+
+	private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private static final long SLOW = TimeUnit.SECONDS.toNanos(1);
+
+	@Test
+	public void testWeightedCountsMatchExecutions() {
+		StatementSampling sampling = StatementSampling.getInstance();
+		sampling.clear();
+		sampling.setTargetSampleRate(50);
+		sampling.setLatencyThreshold(100);
+		SqlShape hot = SqlShapeCache.getInstance().getShape(
+				"select * from HOT where ID = 1");
+		SqlShape rare = SqlShapeCache.getInstance().getShape(
+				"select * from RARE where ID = 1");
+
+		OperationStatistics statistics = new OperationStatistics();
+		OperationStatistics striped = new StripedOperationStatistics();
+		long now = 0;
+		int executions = 0;
+		int measured = 0;
+		int slowSkipped = 0;
+		// 5000 executions per second of the hot shape during 5 seconds
+		for (int i = 0; i < 25000; ++i) {
+			now += TimeUnit.MICROSECONDS.toNanos(200);
+			long duration = i % 1000 == 0 ? SLOW : FAST;
+			// decided before the execution, the duration is only known after
+			int weight = sampling.sample(hot, now);
+			if (weight == 0 && sampling.isMeasuredAnyway(duration)) {
+				weight = 1;
+				++slowSkipped;
+			}
+			if (duration == SLOW) {
+				Assert.assertNotEquals(0, weight);
+			}
+			if (weight != 0) {
+				++measured;
+				statistics.logStatistic(duration, 10, false, false, true,
+						weight);
+				striped.logStatistic(duration, 10, false, false, true, weight);
+			}
+			++executions;
+		}
+		// 5000 executions per second for 50 samples per second
+		Assert.assertEquals(Integer.valueOf(100), sampling
+				.getShapeSampleIntervals().get(hot.getParameterizedSql()));
+		Assert.assertEquals(slowSkipped, sampling.getSlowCount());
+		Assert.assertTrue(slowSkipped > 0 && slowSkipped <= 25);
+		Assert.assertEquals(measured - slowSkipped, sampling.getSampledCount());
+		Assert.assertEquals(executions - measured, sampling.getSkippedCount());
+		// the first window is fully measured, then about 50 per second
+		Assert.assertTrue(measured < 5000 + 4 * 60);
+
+		// the weights account for every execution within one interval
+		Assert.assertEquals(executions, statistics.getCallCount(), 100);
+		Assert.assertEquals(statistics.getCallCount(), striped.getCallCount());
+		Assert.assertEquals(statistics.getCallCount(), statistics
+				.getDurationHistogram().getTotalCount());
+		Assert.assertEquals(statistics.getCallCount() * 10,
+				statistics.getSumResultSize(), 0.5);
+
+		// rare statements are always measured
+		for (int i = 0; i < 10; ++i) {
+			now += TimeUnit.SECONDS.toNanos(1);
+			Assert.assertEquals(1, sampling.sample(rare, now));
+		}
+		sampling.clear();
+	}
+
+	@Test
+	public void testFastExecutionsAreNeverMeasuredAnyway() {
+		StatementSampling sampling = StatementSampling.getInstance();
+		sampling.clear();
+		sampling.setLatencyThreshold(100);
+		Assert.assertFalse(sampling.isMeasuredAnyway(FAST));
+		Assert.assertTrue(sampling.isMeasuredAnyway(SLOW));
+		Assert.assertEquals(1, sampling.getSlowCount());
+		sampling.clear();
+	}
+}